@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * Measures the cost of adding spans to a bulk request body. Run with the GC profiler, so that
+ * "gc.alloc.rate.norm" shows bytes allocated per indexed span. No request is sent.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class ElasticsearchSpanConsumerBenchmarks {
+  static final int SPAN_COUNT = 100;
+  static final Span CLIENT_SPAN = SpanBytesDecoder.JSON_V2.decodeOne(read("/zipkin2-client.json"));
+  static final List<Span> SPANS = spans(SPAN_COUNT);
+  /** Like a message from a service reporting each request as it completes */
+  static final int FEW_SPAN_COUNT = 3;
+  static final List<Span> FEW_SPANS = spans(FEW_SPAN_COUNT);
+
+  ElasticsearchStorage es = ElasticsearchStorage.newBuilder().build();
+  ElasticsearchStorage searchDisabled = ElasticsearchStorage.newBuilder()
+    .searchEnabled(false).build();
+  ElasticsearchSpanConsumer consumer = new ElasticsearchSpanConsumer(es);
+  ElasticsearchSpanConsumer searchDisabledConsumer = new ElasticsearchSpanConsumer(searchDisabled);
+
+  @TearDown public void close() {
+    es.close();
+    searchDisabled.close();
+  }
+
+  @Benchmark @OperationsPerInvocation(SPAN_COUNT)
+  public Object indexSpans() {
+    ElasticsearchSpanConsumer.BulkSpanIndexer indexer =
+      new ElasticsearchSpanConsumer.BulkSpanIndexer(es);
+    consumer.indexSpans(indexer, SPANS);
+    return indexer;
+  }
+
+  /** Per-request costs, such as encoding index metadata, are shared by few spans here. */
+  @Benchmark @OperationsPerInvocation(FEW_SPAN_COUNT)
+  public Object indexSpans_fewPerRequest() {
+    ElasticsearchSpanConsumer.BulkSpanIndexer indexer =
+      new ElasticsearchSpanConsumer.BulkSpanIndexer(es);
+    consumer.indexSpans(indexer, FEW_SPANS);
+    return indexer;
+  }
+
+  @Benchmark @OperationsPerInvocation(SPAN_COUNT)
+  public Object indexSpans_searchDisabled() {
+    ElasticsearchSpanConsumer.BulkSpanIndexer indexer =
+      new ElasticsearchSpanConsumer.BulkSpanIndexer(searchDisabled);
+    searchDisabledConsumer.indexSpans(indexer, SPANS);
+    return indexer;
+  }
+
+  /** Spans of the same trace, like those in a message from an instrumented service */
+  static List<Span> spans(int spanCount) {
+    List<Span> result = new ArrayList<>(spanCount);
+    for (int i = 0; i < spanCount; i++) {
+      result.add(CLIENT_SPAN.toBuilder().id(Long.toHexString(i + 1))
+        .timestamp(CLIENT_SPAN.timestampAsLong() + i).build());
+    }
+    return result;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + ElasticsearchSpanConsumerBenchmarks.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  static byte[] read(String resource) {
+    try {
+      return ByteStreams.toByteArray(
+        ElasticsearchSpanConsumerBenchmarks.class.getResourceAsStream(resource));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static zipkin2.elasticsearch.ElasticsearchSpanConsumerBenchmarks.CLIENT_SPAN;
+
+/**
+ * Compares reading a search response of spans sorted by trace ID into traces, with reading a list
+ * of spans and then grouping it by trace ID. Run with the GC profiler, to compare
+ * "gc.alloc.rate.norm".
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class TracesConverterBenchmarks {
+  static final int TRACE_COUNT = 10, SPANS_PER_TRACE = 10;
+  static final byte[] HITS = hits();
+
+  TracesConverter tracesConverter = new TracesConverter(true);
+
+  @Benchmark public List<List<Span>> tracesConverter() throws IOException {
+    return tracesConverter.convert(new Buffer().write(HITS));
+  }
+
+  @Benchmark public List<List<Span>> spansThenGroupByTraceId() throws IOException {
+    return groupByTraceId(BodyConverters.SPANS.convert(new Buffer().write(HITS)));
+  }
+
+  /** How traces were grouped before {@link TracesConverter} */
+  static List<List<Span>> groupByTraceId(List<Span> input) {
+    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+    for (Span span : input) {
+      String traceId = span.traceId();
+      if (!groupedByTraceId.containsKey(traceId)) {
+        groupedByTraceId.put(traceId, new ArrayList<Span>());
+      }
+      groupedByTraceId.get(traceId).add(span);
+    }
+    return new ArrayList<>(groupedByTraceId.values());
+  }
+
+  static byte[] hits() {
+    StringBuilder result = new StringBuilder("{\"hits\":{\"hits\":[");
+    for (int i = 0; i < TRACE_COUNT; i++) {
+      for (int j = 0; j < SPANS_PER_TRACE; j++) {
+        if (i > 0 || j > 0) result.append(',');
+        Span span = CLIENT_SPAN.toBuilder()
+          .traceId(Long.toHexString(i + 1)).id(Long.toHexString(j + 1)).build();
+        result.append("{\"_index\":\"zipkin:span-2018-05-20\",\"_type\":\"span\",\"_source\":")
+          .append(new String(SpanBytesEncoder.JSON_V2.encode(span))).append('}');
+      }
+    }
+    return result.append("]}}").toString().getBytes();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + TracesConverterBenchmarks.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
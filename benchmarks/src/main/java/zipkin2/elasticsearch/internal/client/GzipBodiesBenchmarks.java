@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+/**
+ * Measures the CPU cost of gzipping a bulk request of 1000 spans, compared with copying it as-is.
+ * The main method prints the compression ratio before running.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class GzipBodiesBenchmarks {
+  static final Span CLIENT_SPAN = SpanBytesDecoder.JSON_V2.decodeOne(read("/zipkin2-client.json"));
+  static final byte[] BULK_BODY = bulkBody(1000);
+
+  @Benchmark public Buffer bulk_uncompressed() {
+    return new Buffer().write(BULK_BODY);
+  }
+
+  @Benchmark public Buffer bulk_gzip() {
+    return GzipBodies.gzip(new Buffer().write(BULK_BODY));
+  }
+
+  /** Approximates the body written by the span consumer: an action line, then the document */
+  static byte[] bulkBody(int spanCount) {
+    Buffer body = new Buffer();
+    for (int i = 0; i < spanCount; i++) {
+      Span span = CLIENT_SPAN.toBuilder().id(Long.toHexString(i + 1)).build();
+      body.writeUtf8("{\"index\":{\"_index\":\"zipkin:span-2018-05-01\",\"_type\":\"span\"}}\n");
+      body.write(SpanBytesEncoder.JSON_V2.encode(span)).writeByte('\n');
+    }
+    return body.readByteArray();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    long compressed = GzipBodies.gzip(new Buffer().write(BULK_BODY)).size();
+    System.out.printf("bulk body: %d bytes, gzipped: %d bytes, ratio: %.1f%n",
+      BULK_BODY.length, compressed, BULK_BODY.length / (double) compressed);
+
+    Options opt = new OptionsBuilder()
+      .include(".*" + GzipBodiesBenchmarks.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  static byte[] read(String resource) {
+    try {
+      return ByteStreams.toByteArray(GzipBodiesBenchmarks.class.getResourceAsStream(resource));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
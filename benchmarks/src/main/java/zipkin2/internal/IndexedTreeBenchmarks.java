@@ -0,0 +1,130 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * Compares {@link Node.TreeBuilder} with {@link IndexedTree.Builder} on large traces. Each
+ * operation builds the tree and visits every node breadth-first.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class IndexedTreeBenchmarks {
+  static final Logger LOGGER = Logger.getLogger(IndexedTreeBenchmarks.class.getName());
+
+  @Param({"10000", "100000"})
+  int spanCount;
+
+  List<Span> trace;
+  IndexedTree.Builder<Span> indexedTreeBuilder = new IndexedTree.Builder<>(LOGGER);
+
+  /**
+   * Spans in random order, with each parent having up to ten children. Like decoded spans, they
+   * are allocated in the order they are read, and parent IDs are not the same instance as IDs.
+   */
+  @Setup public void setup() {
+    Random random = new Random(spanCount);
+    List<String> ids = new ArrayList<>(spanCount);
+    List<Integer> order = new ArrayList<>(spanCount);
+    for (int i = 0; i < spanCount; i++) {
+      ids.add(Long.toHexString(random.nextLong() | 1L));
+      order.add(i);
+    }
+    Collections.shuffle(order, random);
+
+    Endpoint frontend = Endpoint.newBuilder().serviceName("frontend").build();
+    Endpoint backend = Endpoint.newBuilder().serviceName("backend").build();
+    trace = new ArrayList<>(spanCount);
+    for (int i : order) {
+      boolean client = (i & 1) == 0;
+      trace.add(Span.newBuilder().traceId("86154a4ba6e91385")
+        .parentId(i == 0 ? null : new String(ids.get(i / 10)))
+        .id(new String(ids.get(i)))
+        .kind(client ? Span.Kind.CLIENT : Span.Kind.SERVER)
+        .localEndpoint(client ? frontend : backend)
+        .remoteEndpoint(client ? backend : frontend)
+        .build());
+    }
+  }
+
+  @Benchmark public int buildAndTraverse_node() {
+    Node.TreeBuilder<Span> builder = new Node.TreeBuilder<>(LOGGER, trace.get(0).traceId());
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      builder.addNode(span.parentId(), span.id(), span);
+    }
+    int count = 0;
+    for (Iterator<Node<Span>> i = builder.build().traverse(); i.hasNext(); i.next()) count++;
+    return count;
+  }
+
+  @Benchmark public int buildAndTraverse_indexedTree() {
+    IndexedTree.Builder<Span> builder = indexedTreeBuilder.clear();
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      builder.addNode(span.parentId(), span.id(), span);
+    }
+    IndexedTree<Span> tree = builder.build();
+    int count = 0;
+    for (int i = 0, size = tree.size(); i < size; i++) {
+      if (tree.value(i) != null) count++;
+    }
+    return count;
+  }
+
+  @Benchmark public Object linkTrace() {
+    return new DependencyLinker().putTrace(trace.iterator()).link();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + IndexedTreeBenchmarks.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -44,19 +44,19 @@ class ZipkinCassandra3StorageAutoConfiguration {
 
   @Bean
   @ConditionalOnMissingBean
-  V2StorageComponent storage(ZipkinCassandra3StorageProperties properties,
+  V2StorageComponent storage(CassandraStorage v2Storage) {
+    return V2StorageComponent.create(v2Storage);
+  }
+
+  // Not derived from the component above, as the server may decorate it
+  @Bean CassandraStorage v2Storage(ZipkinCassandra3StorageProperties properties,
     @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
     @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled) {
     CassandraStorage.Builder builder = properties.toBuilder()
       .strictTraceId(strictTraceId)
       .searchEnabled(searchEnabled);
-    CassandraStorage result = tracingSessionFactory == null
+    return tracingSessionFactory == null
       ? builder.build()
       : builder.sessionFactory(tracingSessionFactory).build();
-    return V2StorageComponent.create(result);
-  }
-
-  @Bean CassandraStorage v2Storage(V2StorageComponent component) {
-    return (CassandraStorage) component.delegate();
   }
 }
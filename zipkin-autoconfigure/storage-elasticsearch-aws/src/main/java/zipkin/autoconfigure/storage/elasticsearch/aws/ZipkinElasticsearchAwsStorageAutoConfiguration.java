@@ -35,8 +35,6 @@ import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
-import zipkin.internal.V2StorageComponent;
-import zipkin.storage.StorageComponent;
 import zipkin.storage.elasticsearch.http.ElasticsearchHttpStorage;
 
 import static java.lang.String.format;
@@ -112,7 +110,7 @@ class ZipkinElasticsearchAwsStorageAutoConfiguration {
    */
   @Bean
   @Conditional(AwsDomainSetCondition.class)
-  StorageComponent storage(
+  ElasticsearchHttpStorage v2Storage(
     String region,
     ElasticsearchHttpStorage.Builder builder,
     ZipkinElasticsearchAwsStorageProperties aws,
@@ -123,7 +121,7 @@ class ZipkinElasticsearchAwsStorageAutoConfiguration {
     ElasticsearchDomainEndpoint hosts = new ElasticsearchDomainEndpoint(
         client, HttpUrl.parse("https://es." + region + ".amazonaws.com"), domain);
 
-    return V2StorageComponent.create(builder.hostsSupplier(hosts).build());
+    return builder.hostsSupplier(hosts).build();
   }
 
   static final class AwsDomainSetCondition extends SpringBootCondition {
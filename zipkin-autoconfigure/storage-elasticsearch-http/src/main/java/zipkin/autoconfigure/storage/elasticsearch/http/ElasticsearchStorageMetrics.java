@@ -0,0 +1,133 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.autoconfigure.storage.elasticsearch.http;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import zipkin.storage.elasticsearch.http.ElasticsearchHttpStorage;
+import zipkin2.elasticsearch.internal.BulkPipeline;
+import zipkin2.elasticsearch.internal.BulkPipeline.FlushReason;
+import zipkin2.elasticsearch.internal.client.HostBalancer;
+import zipkin2.internal.Nullable;
+
+/**
+ * Exports counts from the bulk pipeline, and per configured host, from the host balancer. Metrics
+ * don't create either, as that resolves Elasticsearch hosts. Until storage creates them, counts
+ * are zero and other values are NaN.
+ */
+final class ElasticsearchStorageMetrics implements MeterBinder {
+  static final String PREFIX = "zipkin_storage.elasticsearch.bulk.";
+  static final String HOST_PREFIX = "zipkin_storage.elasticsearch.host.";
+
+  final ElasticsearchHttpStorage storage;
+  /** Configured hosts, or null when they are looked up, such as for an AWS domain */
+  @Nullable final List<String> hosts;
+
+  ElasticsearchStorageMetrics(ElasticsearchHttpStorage storage, @Nullable List<String> hosts) {
+    this.storage = storage;
+    this.hosts = hosts;
+  }
+
+  @Override public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder(PREFIX + "requests", this, m -> m.count(BulkPipeline::requestCount))
+      .description("cumulative bulk requests sent")
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "documents", this, m -> m.count(BulkPipeline::documentCount))
+      .description("cumulative spans sent in bulk requests")
+      .register(registry);
+    for (FlushReason reason : FlushReason.values()) {
+      FunctionCounter.builder(PREFIX + "flushes", this, m -> m.count(p -> p.flushCount(reason)))
+        .description("cumulative bulk requests sent, by the reason they were sent")
+        .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+        .register(registry);
+    }
+    Gauge.builder(PREFIX + "in_flight", this, m -> m.value(BulkPipeline::inFlight))
+      .description("bulk requests awaiting a response")
+      .register(registry);
+    Gauge.builder(PREFIX + "concurrency_limit", this, m -> m.value(BulkPipeline::concurrencyLimit))
+      .description("limit of in-flight bulk requests, which lowers when spans are rejected")
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "retries", this, m -> m.count(BulkPipeline::retryCount))
+      .description("cumulative spans retried after Elasticsearch rejected them")
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "dropped", this, m -> m.count(BulkPipeline::droppedCount))
+      .description("cumulative spans that failed to index, after any retries")
+      .register(registry);
+    if (hosts != null) {
+      for (String host : hosts) bindHost(registry, host);
+    }
+  }
+
+  void bindHost(MeterRegistry registry, String url) {
+    FunctionCounter.builder(HOST_PREFIX + "requests", this,
+      m -> m.count(url, HostBalancer.Host::requestCount))
+      .description("cumulative requests sent to the host")
+      .tag("host", url)
+      .register(registry);
+    FunctionCounter.builder(HOST_PREFIX + "failures", this,
+      m -> m.count(url, HostBalancer.Host::failureCount))
+      .description("cumulative requests the host failed, due to an I/O error or being unavailable")
+      .tag("host", url)
+      .register(registry);
+    FunctionCounter.builder(HOST_PREFIX + "ejections", this,
+      m -> m.count(url, HostBalancer.Host::ejectionCount))
+      .description("cumulative times failures took the host out of rotation")
+      .tag("host", url)
+      .register(registry);
+    Gauge.builder(HOST_PREFIX + "outstanding", this, m -> m.value(url, h -> h.outstanding()))
+      .description("requests sent to the host that haven't completed")
+      .tag("host", url)
+      .register(registry);
+    Gauge.builder(HOST_PREFIX + "latency", this, m -> m.value(url, h -> h.latencyMillis()))
+      .description("moving average of response latency")
+      .baseUnit("milliseconds")
+      .tag("host", url)
+      .register(registry);
+    Gauge.builder(HOST_PREFIX + "ejected", this, m -> m.value(url, h -> h.ejected() ? 1 : 0))
+      .description("1 when the host is out of rotation, otherwise 0")
+      .tag("host", url)
+      .register(registry);
+  }
+
+  double count(ToLongFunction<BulkPipeline> function) {
+    BulkPipeline pipeline = storage.delegate.bulkPipelineIfCreated();
+    return pipeline != null ? function.applyAsLong(pipeline) : 0;
+  }
+
+  double value(ToDoubleFunction<BulkPipeline> function) {
+    BulkPipeline pipeline = storage.delegate.bulkPipelineIfCreated();
+    return pipeline != null ? function.applyAsDouble(pipeline) : Double.NaN;
+  }
+
+  double count(String url, ToLongFunction<HostBalancer.Host> function) {
+    HostBalancer.Host host = host(url);
+    return host != null ? function.applyAsLong(host) : 0;
+  }
+
+  double value(String url, ToDoubleFunction<HostBalancer.Host> function) {
+    HostBalancer.Host host = host(url);
+    return host != null ? function.applyAsDouble(host) : Double.NaN;
+  }
+
+  @Nullable HostBalancer.Host host(String url) {
+    HostBalancer balancer = storage.delegate.hostBalancerIfCreated();
+    return balancer != null ? balancer.host(url) : null;
+  }
+}
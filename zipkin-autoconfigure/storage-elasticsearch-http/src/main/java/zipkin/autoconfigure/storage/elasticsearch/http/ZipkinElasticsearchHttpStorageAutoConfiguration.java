@@ -19,6 +19,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -56,12 +57,15 @@ class ZipkinElasticsearchHttpStorageAutoConfiguration {
 
   @Bean
   @ConditionalOnMissingBean
-  V2StorageComponent storage(ElasticsearchHttpStorage.Builder esHttpBuilder) {
-    return V2StorageComponent.create(esHttpBuilder.build());
+  V2StorageComponent storage(ElasticsearchHttpStorage v2Storage) {
+    return V2StorageComponent.create(v2Storage);
   }
 
-  @Bean ElasticsearchHttpStorage v2Storage(V2StorageComponent component) {
-    return (ElasticsearchHttpStorage) component.delegate();
+  // Not derived from the component above, as the server may decorate it
+  @Bean
+  @ConditionalOnMissingBean
+  ElasticsearchHttpStorage v2Storage(ElasticsearchHttpStorage.Builder esHttpBuilder) {
+    return esHttpBuilder.build();
   }
 
   @Bean
@@ -77,6 +81,15 @@ class ZipkinElasticsearchHttpStorageAutoConfiguration {
       .searchEnabled(searchEnabled);
   }
 
+  @Configuration
+  @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+  static class StorageMetricsConfiguration {
+    @Bean ElasticsearchStorageMetrics elasticsearchStorageMetrics(
+      ElasticsearchHttpStorage v2Storage, ZipkinElasticsearchHttpStorageProperties elasticsearch) {
+      return new ElasticsearchStorageMetrics(v2Storage, elasticsearch.getHosts());
+    }
+  }
+
   static final class HttpLoggingSet implements Condition {
     @Override public boolean matches(ConditionContext condition, AnnotatedTypeMetadata ignored) {
       return !isEmpty(condition.getEnvironment()
@@ -40,6 +40,22 @@ class ZipkinElasticsearchHttpStorageProperties implements Serializable { // for
   private String dateSeparator = "-";
   /** Sets maximum in-flight requests from this process to any Elasticsearch host. Defaults to 64 */
   private int maxRequests = 64;
+  /** A bulk request is sent once it reaches this size in bytes. Defaults to 5MiB. */
+  private int bulkMaxBytes = 5 * 1024 * 1024;
+  /** A bulk request is sent once it includes this count of spans. Defaults to 1000. */
+  private int bulkMaxActions = 1000;
+  /** Milliseconds to wait for more spans before sending a bulk request. Defaults to 0. */
+  private int bulkLinger = 0;
+  /** Maximum in-flight bulk requests. Defaults to 8. */
+  private int bulkMaxConcurrentRequests = 8;
+  /** Times to retry spans rejected by Elasticsearch. Defaults to 3. */
+  private int bulkMaxRetries = 3;
+  /** When true, gzips bulk and search request bodies. Defaults to false. */
+  private boolean compressionEnabled = false;
+  /** When true, routes span documents by trace ID, so trace lookups search one shard. */
+  private boolean traceIdRouting = false;
+  /** When true, records the days each trace has spans in, so trace lookups search fewer indices. */
+  private boolean traceDayLookup = false;
   /** Number of shards (horizontal scaling factor) per index. Defaults to 5. */
   private int indexShards = 5;
   /** Number of replicas (redundancy factor) per index. Defaults to 1.` */
@@ -106,6 +122,70 @@ class ZipkinElasticsearchHttpStorageProperties implements Serializable { // for
     this.maxRequests = maxRequests;
   }
 
+  public int getBulkMaxBytes() {
+    return bulkMaxBytes;
+  }
+
+  public void setBulkMaxBytes(int bulkMaxBytes) {
+    this.bulkMaxBytes = bulkMaxBytes;
+  }
+
+  public int getBulkMaxActions() {
+    return bulkMaxActions;
+  }
+
+  public void setBulkMaxActions(int bulkMaxActions) {
+    this.bulkMaxActions = bulkMaxActions;
+  }
+
+  public int getBulkLinger() {
+    return bulkLinger;
+  }
+
+  public void setBulkLinger(int bulkLinger) {
+    this.bulkLinger = bulkLinger;
+  }
+
+  public int getBulkMaxConcurrentRequests() {
+    return bulkMaxConcurrentRequests;
+  }
+
+  public void setBulkMaxConcurrentRequests(int bulkMaxConcurrentRequests) {
+    this.bulkMaxConcurrentRequests = bulkMaxConcurrentRequests;
+  }
+
+  public int getBulkMaxRetries() {
+    return bulkMaxRetries;
+  }
+
+  public void setBulkMaxRetries(int bulkMaxRetries) {
+    this.bulkMaxRetries = bulkMaxRetries;
+  }
+
+  public boolean isCompressionEnabled() {
+    return compressionEnabled;
+  }
+
+  public void setCompressionEnabled(boolean compressionEnabled) {
+    this.compressionEnabled = compressionEnabled;
+  }
+
+  public boolean isTraceIdRouting() {
+    return traceIdRouting;
+  }
+
+  public void setTraceIdRouting(boolean traceIdRouting) {
+    this.traceIdRouting = traceIdRouting;
+  }
+
+  public boolean isTraceDayLookup() {
+    return traceDayLookup;
+  }
+
+  public void setTraceDayLookup(boolean traceDayLookup) {
+    this.traceDayLookup = traceDayLookup;
+  }
+
   public void setIndex(String index) {
     this.index = index;
   }
@@ -186,6 +266,14 @@ class ZipkinElasticsearchHttpStorageProperties implements Serializable { // for
         .dateSeparator(dateSeparator.isEmpty() ? 0 : dateSeparator.charAt(0))
         .pipeline(pipeline)
         .maxRequests(maxRequests)
+        .bulkMaxBytes(bulkMaxBytes)
+        .bulkMaxActions(bulkMaxActions)
+        .bulkLingerMillis(bulkLinger)
+        .bulkMaxConcurrentRequests(bulkMaxConcurrentRequests)
+        .bulkMaxRetries(bulkMaxRetries)
+        .compressionEnabled(compressionEnabled)
+        .traceIdRouting(traceIdRouting)
+        .traceDayLookup(traceDayLookup)
         .indexShards(indexShards)
         .indexReplicas(indexReplicas)
         .legacyReadsEnabled(legacyReadsEnabled);
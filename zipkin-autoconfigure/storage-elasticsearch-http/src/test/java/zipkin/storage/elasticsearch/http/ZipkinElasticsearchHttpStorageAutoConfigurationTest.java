@@ -13,6 +13,8 @@
  */
 package zipkin.storage.elasticsearch.http;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.concurrent.TimeUnit;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
@@ -29,6 +31,7 @@ import org.springframework.context.annotation.Configuration;
 import zipkin.autoconfigure.storage.elasticsearch.http.Access;
 import zipkin2.elasticsearch.ElasticsearchStorage;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
 
@@ -114,6 +117,95 @@ public class ZipkinElasticsearchHttpStorageAutoConfigurationTest {
         .isEqualTo(200);
   }
 
+  @Test
+  public void exportsBulkMetrics() {
+    context = new AnnotationConfigApplicationContext();
+    addEnvironment(context,
+        "zipkin.storage.type:elasticsearch",
+        "zipkin.storage.elasticsearch.hosts:http://host1:9200"
+    );
+    Access.registerElasticsearchHttp(context);
+    context.refresh();
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    context.getBean(MeterBinder.class).bindTo(registry);
+    es().bulkPipeline(); // as if spans were written
+
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.requests").functionCounter().count())
+        .isZero();
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.flushes").tag("reason", "linger")
+        .functionCounter().count())
+        .isZero();
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.in_flight").gauge().value())
+        .isZero();
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.retries").functionCounter().count())
+        .isZero();
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.dropped").functionCounter().count())
+        .isZero();
+    assertThat(
+        registry.get("zipkin_storage.elasticsearch.bulk.concurrency_limit").gauge().value())
+        .isEqualTo(8);
+  }
+
+  @Test
+  public void exportsHostMetrics() {
+    context = new AnnotationConfigApplicationContext();
+    addEnvironment(context,
+        "zipkin.storage.type:elasticsearch",
+        "zipkin.storage.elasticsearch.hosts:http://host1:9200,http://host2:9200"
+    );
+    Access.registerElasticsearchHttp(context);
+    context.refresh();
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    context.getBean(MeterBinder.class).bindTo(registry);
+    es().hostBalancer(); // as if a request was sent
+
+    for (String host : asList("http://host1:9200", "http://host2:9200")) {
+      assertThat(registry.get("zipkin_storage.elasticsearch.host.requests").tag("host", host)
+          .functionCounter().count())
+          .isZero();
+      assertThat(registry.get("zipkin_storage.elasticsearch.host.failures").tag("host", host)
+          .functionCounter().count())
+          .isZero();
+      assertThat(registry.get("zipkin_storage.elasticsearch.host.outstanding").tag("host", host)
+          .gauge().value())
+          .isZero();
+      assertThat(registry.get("zipkin_storage.elasticsearch.host.ejected").tag("host", host)
+          .gauge().value())
+          .isZero();
+    }
+  }
+
+  /** Reading metrics shouldn't resolve hosts, which could fail or imply a network call */
+  @Test
+  public void metricsDontCreateStorageClients() {
+    context = new AnnotationConfigApplicationContext();
+    addEnvironment(context,
+        "zipkin.storage.type:elasticsearch",
+        "zipkin.storage.elasticsearch.hosts:http://host1:9200"
+    );
+    Access.registerElasticsearchHttp(context);
+    context.refresh();
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    context.getBean(MeterBinder.class).bindTo(registry);
+
+    assertThat(registry.get("zipkin_storage.elasticsearch.bulk.requests").functionCounter().count())
+        .isZero();
+    assertThat(
+        registry.get("zipkin_storage.elasticsearch.bulk.concurrency_limit").gauge().value())
+        .isNaN();
+    assertThat(registry.get("zipkin_storage.elasticsearch.host.requests")
+        .tag("host", "http://host1:9200").functionCounter().count())
+        .isZero();
+    assertThat(registry.get("zipkin_storage.elasticsearch.host.latency")
+        .tag("host", "http://host1:9200").gauge().value())
+        .isNaN();
+    assertThat(es().bulkPipelineIfCreated()).isNull();
+    assertThat(es().hostBalancerIfCreated()).isNull();
+  }
+
   /** This helps ensure old setups don't break (provided they have http port 9200 open) */
   @Test
   public void coersesPort9300To9200() {
@@ -57,6 +57,8 @@ class ZipkinMySQLStorageAutoConfiguration {
         .strictTraceId(strictTraceId)
         .executor(executor)
         .datasource(dataSource)
+        .dependencyFetchSize(mysql.getDependencyFetchSize())
+        .dependencyParallelism(mysql.getDependencyParallelism())
         .listenerProvider(listener).build();
   }
 }
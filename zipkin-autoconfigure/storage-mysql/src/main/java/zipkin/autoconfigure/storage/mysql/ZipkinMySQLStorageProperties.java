@@ -29,6 +29,8 @@ class ZipkinMySQLStorageProperties implements Serializable { // for Spark jobs
   private String db = "zipkin";
   private int maxActive = 10;
   private boolean useSsl;
+  private int dependencyFetchSize = 10_000;
+  private int dependencyParallelism = 1;
 
   public String getHost() {
     return host;
@@ -86,6 +88,22 @@ class ZipkinMySQLStorageProperties implements Serializable { // for Spark jobs
     this.useSsl = useSsl;
   }
 
+  public int getDependencyFetchSize() {
+    return dependencyFetchSize;
+  }
+
+  public void setDependencyFetchSize(int dependencyFetchSize) {
+    this.dependencyFetchSize = dependencyFetchSize;
+  }
+
+  public int getDependencyParallelism() {
+    return dependencyParallelism;
+  }
+
+  public void setDependencyParallelism(int dependencyParallelism) {
+    this.dependencyParallelism = dependencyParallelism;
+  }
+
   public DataSource toDataSource() {
     StringBuilder url = new StringBuilder("jdbc:mysql://");
     url.append(getHost()).append(":").append(getPort());
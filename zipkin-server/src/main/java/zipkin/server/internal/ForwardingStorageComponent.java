@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import zipkin.internal.Nullable;
+import zipkin.internal.V2StorageComponent;
+import zipkin.storage.AsyncSpanStore;
+import zipkin2.Call;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Base type for storage features implemented in the server, such as caching. Subtypes override
+ * {@link #spanStore()} or {@link #spanConsumer()} and everything else is passed through.
+ *
+ * <p>This implements {@link V2StorageComponent.LegacySpanStoreProvider}, so that decorating doesn't
+ * disable legacy reads of the underlying storage.
+ */
+abstract class ForwardingStorageComponent extends StorageComponent
+  implements V2StorageComponent.LegacySpanStoreProvider {
+  final StorageComponent delegate;
+
+  ForwardingStorageComponent(StorageComponent delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    this.delegate = delegate;
+  }
+
+  /** Returns the storage component at the end of any decorator chain. */
+  static StorageComponent unwrap(StorageComponent component) {
+    while (component instanceof ForwardingStorageComponent) {
+      component = ((ForwardingStorageComponent) component).delegate;
+    }
+    return component;
+  }
+
+  /** Returns the first decorator of the given type in the chain, or null if there is none. */
+  @Nullable static <T extends ForwardingStorageComponent> T find(
+    @Nullable StorageComponent component, Class<T> type) {
+    while (component instanceof ForwardingStorageComponent) {
+      if (type.isInstance(component)) return type.cast(component);
+      component = ((ForwardingStorageComponent) component).delegate;
+    }
+    return null;
+  }
+
+  /**
+   * Calls {@link HintedSpanStore#getTrace(String, long)} when supported, otherwise {@link
+   * SpanStore#getTrace(String)}. Decorating span stores use this to pass hints through.
+   */
+  static Call<List<Span>> getTraceWithHint(SpanStore spanStore, String traceId,
+    @Nullable Long timestampMillis) {
+    return getTraceWithHint(spanStore, traceId, timestampMillis, null);
+  }
+
+  /**
+   * Like {@link #getTraceWithHint(SpanStore, String, Long)}, except also passes the span fields the
+   * caller reads to {@link HintedSpanStore#getTrace(String, long, Set)}.
+   *
+   * @param fields span fields named as in json, or null if all are read
+   */
+  static Call<List<Span>> getTraceWithHint(SpanStore spanStore, String traceId,
+    @Nullable Long timestampMillis, @Nullable Set<String> fields) {
+    if (spanStore instanceof HintedSpanStore) {
+      HintedSpanStore hinted = (HintedSpanStore) spanStore;
+      if (fields != null) {
+        return hinted.getTrace(traceId, timestampMillis != null ? timestampMillis : 0L, fields);
+      }
+      if (timestampMillis != null) return hinted.getTrace(traceId, timestampMillis);
+    }
+    return spanStore.getTrace(traceId);
+  }
+
+  @Override public SpanStore spanStore() {
+    return delegate.spanStore();
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return delegate.spanConsumer();
+  }
+
+  @Override @Nullable public AsyncSpanStore legacyAsyncSpanStore() {
+    if (!(delegate instanceof V2StorageComponent.LegacySpanStoreProvider)) return null;
+    return ((V2StorageComponent.LegacySpanStoreProvider) delegate).legacyAsyncSpanStore();
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override public void close() throws IOException {
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+}
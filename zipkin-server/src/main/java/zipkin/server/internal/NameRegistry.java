@@ -0,0 +1,231 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.logging.Level.FINE;
+
+/**
+ * Answers {@link SpanStore#getServiceNames()} and {@link SpanStore#getSpanNames(String)} from
+ * memory. Names are recorded as spans are accepted, so most requests never reach storage.
+ *
+ * <p>Other servers can write to the same storage, so names are also read from storage: on the
+ * first request for a list, and at most once per refresh interval after that. Refreshes happen in
+ * the background, while requests are answered from memory. Names not seen within the lookback are
+ * dropped, similar to how storage only considers spans in the lookback.
+ */
+final class NameRegistry extends ForwardingStorageComponent {
+  static final Logger LOG = Logger.getLogger(NameRegistry.class.getName());
+  /** Limits how often a repeated name is written when accepting spans */
+  static final long RECORD_GRANULARITY_MILLIS = 1000L;
+
+  final Clock clock;
+  final long refreshIntervalMillis, lookbackMillis;
+  final Names serviceNames = new Names();
+  final ConcurrentMap<String, Names> spanNames = new ConcurrentHashMap<>();
+
+  NameRegistry(StorageComponent delegate, long refreshIntervalMillis, long lookbackMillis) {
+    this(delegate, Clock.systemUTC(), refreshIntervalMillis, lookbackMillis);
+  }
+
+  NameRegistry(StorageComponent delegate, Clock clock, long refreshIntervalMillis,
+    long lookbackMillis) {
+    super(delegate);
+    this.clock = clock;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    this.lookbackMillis = lookbackMillis;
+  }
+
+  @Override public SpanStore spanStore() {
+    return new NameRegistrySpanStore(delegate.spanStore());
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    SpanConsumer delegate = this.delegate.spanConsumer();
+    return spans -> {
+      record(spans);
+      return delegate.accept(spans);
+    };
+  }
+
+  void record(List<Span> spans) {
+    long now = clock.millis();
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      String localServiceName = span.localServiceName();
+      if (localServiceName != null) {
+        serviceNames.record(localServiceName, now);
+        if (span.name() != null) {
+          spanNames.computeIfAbsent(localServiceName, k -> new Names()).record(span.name(), now);
+        }
+      }
+      String remoteServiceName = span.remoteServiceName();
+      if (remoteServiceName != null) serviceNames.record(remoteServiceName, now);
+    }
+  }
+
+  /**
+   * Returns the names in memory, unless they have never been read from storage. When a refresh is
+   * due, this starts one in the background.
+   */
+  Call<List<String>> read(Names names, Supplier<Call<List<String>>> fromStorage) {
+    long now = clock.millis(), refreshAfter = names.refreshAfter.get();
+    if (refreshAfter == 0L) return fromStorage.get().map(new LoadNames(names, now));
+
+    if (now >= refreshAfter && names.refreshAfter.compareAndSet(refreshAfter,
+      now + refreshIntervalMillis)) {
+      fromStorage.get().enqueue(new RefreshNames(names, now));
+    }
+    return Call.create(names.snapshot(now - lookbackMillis));
+  }
+
+  final class NameRegistrySpanStore implements HintedSpanStore {
+    final SpanStore delegate;
+
+    NameRegistrySpanStore(SpanStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return delegate.getTraces(request);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return delegate.getTrace(traceId);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+      return ForwardingStorageComponent.getTraceWithHint(delegate, traceId, timestampMillis);
+    }
+
+    @Override
+    public Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields) {
+      return ForwardingStorageComponent.getTraceWithHint(delegate, traceId, timestampMillis, fields);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return read(serviceNames, delegate::getServiceNames);
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      // Don't allocate for unknown services, as the argument is user input
+      Names names = spanNames.get(serviceName.toLowerCase(Locale.ROOT));
+      if (names == null) return delegate.getSpanNames(serviceName);
+      return read(names, () -> delegate.getSpanNames(serviceName));
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return delegate.getDependencies(endTs, lookback);
+    }
+
+    @Override public String toString() {
+      return "NameRegistry{" + delegate + "}";
+    }
+  }
+
+  final class LoadNames implements Call.Mapper<List<String>, List<String>> {
+    final Names names;
+    final long now;
+
+    LoadNames(Names names, long now) {
+      this.names = names;
+      this.now = now;
+    }
+
+    @Override public List<String> map(List<String> input) {
+      names.recordAll(input, now);
+      names.refreshAfter.compareAndSet(0L, now + refreshIntervalMillis);
+      return names.snapshot(now - lookbackMillis);
+    }
+
+    @Override public String toString() {
+      return "LoadNames";
+    }
+  }
+
+  static final class RefreshNames implements Callback<List<String>> {
+    final Names names;
+    final long now;
+
+    RefreshNames(Names names, long now) {
+      this.names = names;
+      this.now = now;
+    }
+
+    @Override public void onSuccess(List<String> value) {
+      names.recordAll(value, now);
+    }
+
+    @Override public void onError(Throwable t) {
+      // The next refresh will try again. Until then, names recorded from spans are still served.
+      if (LOG.isLoggable(FINE)) LOG.log(FINE, "error refreshing names: " + t.getMessage(), t);
+    }
+  }
+
+  /** Names and when they were last seen in epoch milliseconds. */
+  static final class Names {
+    final ConcurrentMap<String, Long> lastSeen = new ConcurrentHashMap<>();
+    /** When to next read from storage. Zero until names have been read from storage once. */
+    final AtomicLong refreshAfter = new AtomicLong();
+
+    void record(String name, long now) {
+      // Reads are cheaper than writes, which lock. Most accepted spans repeat recent names.
+      Long previous = lastSeen.get(name);
+      if (previous == null || now - previous >= RECORD_GRANULARITY_MILLIS) lastSeen.put(name, now);
+    }
+
+    void recordAll(List<String> names, long now) {
+      for (int i = 0, length = names.size(); i < length; i++) {
+        record(names.get(i), now);
+      }
+    }
+
+    /** Returns names sorted lexicographically, dropping those last seen before the argument. */
+    List<String> snapshot(long expireBefore) {
+      List<String> result = new ArrayList<>(lastSeen.size());
+      for (Iterator<Map.Entry<String, Long>> i = lastSeen.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry<String, Long> next = i.next();
+        if (next.getValue() < expireBefore) {
+          lastSeen.remove(next.getKey(), next.getValue()); // unless recorded since we looked
+        } else {
+          result.add(next.getKey());
+        }
+      }
+      Collections.sort(result);
+      return result;
+    }
+  }
+}
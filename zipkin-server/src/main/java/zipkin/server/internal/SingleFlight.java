@@ -0,0 +1,258 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Coalesces identical concurrent queries, such as when many people refresh the UI at the same
+ * time. While a query is in flight, later callers with the same arguments attach to its result
+ * instead of reaching storage again.
+ *
+ * <p>Attached callers share the same result, so they must not mutate it. Canceling a call detaches
+ * only that caller. The storage query is canceled when no callers remain attached.
+ */
+final class SingleFlight extends ForwardingStorageComponent {
+  final ConcurrentMap<List<Object>, Flight<?>> flights = new ConcurrentHashMap<>();
+  final Counter coalesced;
+
+  SingleFlight(StorageComponent delegate, MeterRegistry registry) {
+    super(delegate);
+    this.coalesced = registry.counter("zipkin_storage.coalesced_requests");
+  }
+
+  @Override public SpanStore spanStore() {
+    return new CoalescingSpanStore(delegate.spanStore());
+  }
+
+  /** Attaches the callback to an in-flight query with the same key, or starts one. */
+  <V> Flight<V> join(List<Object> key, Supplier<Call<V>> query, Callback<V> callback) {
+    while (true) {
+      @SuppressWarnings("unchecked")
+      Flight<V> flight = (Flight<V>) flights.get(key);
+      if (flight != null) {
+        if (flight.attach(callback)) {
+          coalesced.increment();
+          return flight;
+        }
+        flights.remove(key, flight); // finished, but not yet removed
+        continue;
+      }
+      flight = new Flight<>(key, query.get()); // calls are lazy, so losing the race below is cheap
+      flight.attach(callback);
+      if (flights.putIfAbsent(key, flight) == null) {
+        try {
+          flight.call.enqueue(flight);
+        } catch (RuntimeException | Error e) {
+          flight.onError(e); // otherwise, the flight would never be removed
+        }
+        return flight;
+      }
+    }
+  }
+
+  final class CoalescingSpanStore implements HintedSpanStore {
+    final SpanStore delegate;
+
+    CoalescingSpanStore(SpanStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return new CoalescedCall<>(() -> delegate.getTraces(request), "getTraces", request);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      String normalized = Span.normalizeTraceId(traceId);
+      return new CoalescedCall<>(() -> delegate.getTrace(normalized), "getTrace", normalized);
+    }
+
+    /** Shares a flight with an unhinted lookup of the same trace, as the result is the same */
+    @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+      String normalized = Span.normalizeTraceId(traceId);
+      return new CoalescedCall<>(
+        () -> ForwardingStorageComponent.getTraceWithHint(delegate, normalized, timestampMillis),
+        "getTrace", normalized);
+    }
+
+    @Override
+    public Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields) {
+      String normalized = Span.normalizeTraceId(traceId);
+      return new CoalescedCall<>(() -> ForwardingStorageComponent.getTraceWithHint(
+        delegate, normalized, timestampMillis, fields), "getTrace", normalized, fields);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return new CoalescedCall<>(delegate::getServiceNames, "getServiceNames");
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return new CoalescedCall<>(() -> delegate.getSpanNames(serviceName),
+        "getSpanNames", serviceName);
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return new CoalescedCall<>(() -> delegate.getDependencies(endTs, lookback),
+        "getDependencies", endTs, lookback);
+    }
+
+    @Override public String toString() {
+      return "SingleFlight{" + delegate + "}";
+    }
+  }
+
+  /** A storage query and the callers attached to it. */
+  final class Flight<V> implements Callback<V> {
+    final List<Object> key;
+    final Call<V> call;
+    final List<Callback<V>> callbacks = new ArrayList<>(); // guarded by this
+    boolean done; // guarded by this. When true, callbacks no longer change
+
+    Flight(List<Object> key, Call<V> call) {
+      this.key = key;
+      this.call = call;
+    }
+
+    synchronized boolean attach(Callback<V> callback) {
+      if (done) return false;
+      callbacks.add(callback);
+      return true;
+    }
+
+    /** Returns false if the callback was already completed or detached. */
+    boolean detach(Callback<V> callback) {
+      synchronized (this) {
+        if (done || !callbacks.remove(callback)) return false;
+        if (!callbacks.isEmpty()) return true;
+        done = true;
+      }
+      flights.remove(key, this);
+      call.cancel();
+      return true;
+    }
+
+    @Override public void onSuccess(V value) {
+      for (Callback<V> callback : finish()) callback.onSuccess(value);
+    }
+
+    @Override public void onError(Throwable t) {
+      for (Callback<V> callback : finish()) callback.onError(t);
+    }
+
+    List<Callback<V>> finish() {
+      flights.remove(key, this);
+      synchronized (this) {
+        done = true;
+        return callbacks;
+      }
+    }
+
+    @Override public String toString() {
+      return "Flight{" + key + "}";
+    }
+  }
+
+  final class CoalescedCall<V> extends Call.Base<V> {
+    final Supplier<Call<V>> query;
+    final List<Object> key;
+    volatile Flight<V> flight;
+    volatile Callback<V> callback;
+
+    CoalescedCall(Supplier<Call<V>> query, Object... key) {
+      this.query = query;
+      this.key = Arrays.asList(key);
+    }
+
+    @Override protected V doExecute() throws IOException {
+      AwaitResult<V> result = new AwaitResult<>();
+      doEnqueue(result);
+      try {
+        return result.get();
+      } catch (InterruptedIOException e) {
+        cancel();
+        throw e;
+      }
+    }
+
+    @Override protected void doEnqueue(Callback<V> callback) {
+      this.callback = callback;
+      flight = join(key, query, callback);
+      if (isCanceled()) doCancel(); // canceled while joining
+    }
+
+    @Override protected void doCancel() {
+      Flight<V> flight = this.flight;
+      if (flight != null && flight.detach(callback)) {
+        callback.onError(new IOException("Canceled"));
+      }
+    }
+
+    @Override public Call<V> clone() {
+      return new CoalescedCall<>(query, key.toArray());
+    }
+
+    @Override public String toString() {
+      return "CoalescedCall{" + key + "}";
+    }
+  }
+
+  static final class AwaitResult<V> implements Callback<V> {
+    final CountDownLatch latch = new CountDownLatch(1);
+    V value;
+    Throwable error;
+
+    V get() throws IOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted");
+      }
+      if (error == null) return value;
+      if (error instanceof IOException) throw (IOException) error;
+      if (error instanceof RuntimeException) throw (RuntimeException) error;
+      if (error instanceof Error) throw (Error) error;
+      throw new IllegalStateException(error);
+    }
+
+    @Override public void onSuccess(V value) {
+      this.value = value;
+      latch.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      this.error = t;
+      latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import zipkin.internal.Nullable;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Caches results of {@link SpanStore#getTrace(String)}, so that a trace opened by many people,
+ * such as during an incident, is read from storage once.
+ *
+ * <p>Traces are cached alongside their JSON encoding, which is what the cache is bounded by. This
+ * allows {@link ZipkinQueryApiV2} to skip encoding on a hit, via {@link #getTrace(String)}.
+ *
+ * <p>Entries are invalidated when spans with the same trace ID are accepted. As other servers can
+ * write to the same storage, and some storage doesn't make writes visible immediately, entries
+ * also expire. For the same reason, a trace that isn't found isn't cached: it is often opened
+ * just before its spans are stored.
+ */
+final class TraceCache extends ForwardingStorageComponent {
+  /** Approximates the key and bookkeeping, so that small traces aren't free */
+  static final int ENTRY_OVERHEAD = 128;
+
+  final Clock clock;
+  final long ttlMillis;
+  /**
+   * Keyed on the lower 64 bits of the trace ID, so that a span invalidates any trace it could be
+   * returned in, regardless of strict trace ID.
+   */
+  final WeightedLruCache<String, CachedTrace> cache;
+
+  TraceCache(StorageComponent delegate, Clock clock, long maxBytes, long ttlMillis,
+    MeterRegistry registry) {
+    super(delegate);
+    this.clock = clock;
+    this.ttlMillis = ttlMillis;
+    this.cache = new WeightedLruCache<>("trace", maxBytes, registry);
+  }
+
+  @Override public SpanStore spanStore() {
+    return new CachingSpanStore(delegate.spanStore());
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    SpanConsumer delegate = this.delegate.spanConsumer();
+    return spans -> {
+      invalidate(spans);
+      // Invalidate again, in case the trace was read while the spans were being stored
+      return delegate.accept(spans).map(v -> {
+        invalidate(spans);
+        return v;
+      });
+    };
+  }
+
+  /**
+   * Like {@link SpanStore#getTrace(String)}, except the result includes its JSON encoding.
+   *
+   * @param timestampMillis passed to {@link HintedSpanStore#getTrace(String, long)} on a miss
+   */
+  Call<CachedTrace> getTrace(String traceId, @Nullable Long timestampMillis) {
+    return getTrace(delegate.spanStore(), traceId, timestampMillis);
+  }
+
+  Call<CachedTrace> getTrace(SpanStore spanStore, String traceId,
+    @Nullable Long timestampMillis) {
+    traceId = Span.normalizeTraceId(traceId);
+    CachedTrace cached = cache.get(lowTraceId(traceId), clock.millis());
+    // Without strict trace ID, a different 128-bit trace ID can share the same key.
+    if (cached != null && cached.traceId.equals(traceId)) return Call.create(cached);
+    return ForwardingStorageComponent.getTraceWithHint(spanStore, traceId, timestampMillis)
+      .map(new CacheTrace(traceId, clock.millis()));
+  }
+
+  void invalidate(List<Span> spans) {
+    String lastLowTraceId = null; // spans in the same message usually share a trace ID
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      String lowTraceId = lowTraceId(spans.get(i).traceId());
+      if (lowTraceId.equals(lastLowTraceId)) continue;
+      cache.remove(lowTraceId);
+      lastLowTraceId = lowTraceId;
+    }
+  }
+
+  static String lowTraceId(String traceId) {
+    return traceId.length() == 32 ? traceId.substring(16) : traceId;
+  }
+
+  final class CachingSpanStore implements HintedSpanStore {
+    final SpanStore delegate;
+
+    CachingSpanStore(SpanStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return delegate.getTraces(request);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return TraceCache.this.getTrace(delegate, traceId, null).map(CachedTrace::spans);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+      return TraceCache.this.getTrace(delegate, traceId, timestampMillis).map(CachedTrace::spans);
+    }
+
+    /** Partial spans aren't cached, as they can't answer requests for other fields. */
+    @Override
+    public Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields) {
+      return ForwardingStorageComponent.getTraceWithHint(delegate, traceId, timestampMillis, fields);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return delegate.getServiceNames();
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return delegate.getSpanNames(serviceName);
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return delegate.getDependencies(endTs, lookback);
+    }
+
+    @Override public String toString() {
+      return "TraceCache{" + delegate + "}";
+    }
+  }
+
+  final class CacheTrace implements Call.Mapper<List<Span>, CachedTrace> {
+    final String traceId;
+    final long now;
+
+    CacheTrace(String traceId, long now) {
+      this.traceId = traceId;
+      this.now = now;
+    }
+
+    @Override public CachedTrace map(List<Span> input) {
+      CachedTrace result = new CachedTrace(traceId, Collections.unmodifiableList(input),
+        SpanBytesEncoder.JSON_V2.encodeList(input));
+      if (input.isEmpty()) return result;
+      cache.put(lowTraceId(traceId), result, ENTRY_OVERHEAD + result.json.length, now + ttlMillis);
+      return result;
+    }
+
+    @Override public String toString() {
+      return "CacheTrace{" + traceId + "}";
+    }
+  }
+
+  static final class CachedTrace {
+    final String traceId;
+    final List<Span> spans;
+    final byte[] json;
+    final String etag; // hashed once, so that revalidating a cached trace is cheap
+
+    CachedTrace(String traceId, List<Span> spans, byte[] json) {
+      this.traceId = traceId;
+      this.spans = spans;
+      this.json = json;
+      this.etag = ZipkinQueryApiV2.etag(json);
+    }
+
+    List<Span> spans() {
+      return spans;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import zipkin.internal.Nullable;
+import zipkin2.Span;
+
+import static zipkin2.internal.JsonEscaper.jsonEscape;
+
+/**
+ * What a search result listing needs about a trace: its root span name, start, duration, span
+ * count, services and whether any span has an error. This is much smaller than the trace's spans,
+ * which are only needed when the trace is opened.
+ */
+final class TraceSummary {
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  final String traceId;
+  @Nullable String rootName;
+  long timestamp, endTimestamp; // epoch microseconds, or zero when no span has a timestamp
+  int spanCount;
+  final Set<String> serviceNames = new TreeSet<>();
+  boolean error;
+
+  TraceSummary(String traceId) {
+    this.traceId = traceId;
+  }
+
+  static List<TraceSummary> summarize(List<List<Span>> traces) {
+    List<TraceSummary> result = new ArrayList<>(traces.size());
+    for (List<Span> trace : traces) {
+      if (trace.isEmpty()) continue;
+      TraceSummary summary = new TraceSummary(trace.get(0).traceId());
+      for (Span span : trace) summary.add(span);
+      result.add(summary);
+    }
+    return result;
+  }
+
+  void add(Span span) {
+    spanCount++;
+    if (span.parentId() == null && span.name() != null) rootName = span.name();
+    long start = span.timestampAsLong();
+    if (start != 0L) {
+      if (timestamp == 0L || start < timestamp) timestamp = start;
+      long end = start + span.durationAsLong();
+      if (end > endTimestamp) endTimestamp = end;
+    }
+    if (span.localServiceName() != null) serviceNames.add(span.localServiceName());
+    if (span.remoteServiceName() != null) serviceNames.add(span.remoteServiceName());
+    if (span.tags().containsKey("error")) error = true;
+  }
+
+  void writeJson(StringBuilder b) {
+    b.append("{\"traceId\":\"").append(traceId).append('"');
+    if (rootName != null) b.append(",\"name\":\"").append(jsonEscape(rootName)).append('"');
+    if (timestamp != 0L) {
+      b.append(",\"timestamp\":").append(timestamp);
+      b.append(",\"duration\":").append(endTimestamp - timestamp);
+    }
+    b.append(",\"spanCount\":").append(spanCount);
+    b.append(",\"serviceNames\":[");
+    boolean first = true;
+    for (String serviceName : serviceNames) {
+      if (!first) b.append(',');
+      b.append('"').append(jsonEscape(serviceName)).append('"');
+      first = false;
+    }
+    b.append(']');
+    if (error) b.append(",\"error\":true");
+    b.append('}');
+  }
+
+  static byte[] encodeList(List<TraceSummary> summaries) {
+    StringBuilder b = new StringBuilder(summaries.size() * 128 + 2).append('[');
+    for (int i = 0, length = summaries.size(); i < length; i++) {
+      if (i > 0) b.append(',');
+      summaries.get(i).writeJson(b);
+    }
+    return b.append(']').toString().getBytes(UTF_8);
+  }
+
+  @Override public String toString() {
+    StringBuilder b = new StringBuilder();
+    writeJson(b);
+    return b.toString();
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Caches results of {@link SpanStore#getTraces(QueryRequest)}, so that repeated searches, such as
+ * those from dashboards, don't each reach storage.
+ *
+ * <p>So that repeated searches share a key, the end of the window is rounded up to the
+ * granularity and the start rounded down. The rounded request is what's sent to storage, so a hit
+ * returns the same as a miss would. A window that includes the current time is cached for a
+ * shorter time than one in the past, as new spans are likely to land in it.
+ *
+ * <p>The cache is bounded by the encoded size of results, via {@link WeightedLruCache}.
+ */
+final class TracesQueryCache extends ForwardingStorageComponent {
+  /** Approximates the key and bookkeeping, so that empty results aren't free */
+  static final int ENTRY_OVERHEAD = 128;
+
+  final Clock clock;
+  final long granularityMillis, ttlMillis, recentTtlMillis;
+  final WeightedLruCache<QueryRequest, List<List<Span>>> cache;
+
+  TracesQueryCache(StorageComponent delegate, Clock clock, long maxBytes, long granularityMillis,
+    long ttlMillis, long recentTtlMillis, MeterRegistry registry) {
+    super(delegate);
+    if (granularityMillis <= 0) throw new IllegalArgumentException("granularityMillis <= 0");
+    this.clock = clock;
+    this.granularityMillis = granularityMillis;
+    this.ttlMillis = ttlMillis;
+    this.recentTtlMillis = recentTtlMillis;
+    this.cache = new WeightedLruCache<>("traces", maxBytes, registry);
+  }
+
+  @Override public SpanStore spanStore() {
+    return new CachingSpanStore(delegate.spanStore());
+  }
+
+  /** Widens the window of the request to the granularity. */
+  static QueryRequest normalize(QueryRequest request, long granularity) {
+    long endTs = request.endTs(), beginTs = Math.max(0L, endTs - request.lookback());
+    long roundedEndTs = endTs % granularity == 0 ? endTs : (endTs / granularity + 1) * granularity;
+    long roundedBeginTs = beginTs - beginTs % granularity;
+    if (roundedEndTs == endTs && endTs - roundedBeginTs == request.lookback()) return request;
+    return request.toBuilder()
+      .endTs(roundedEndTs)
+      .lookback(roundedEndTs - roundedBeginTs)
+      .build();
+  }
+
+  static long sizeInBytes(List<List<Span>> traces) {
+    long result = ENTRY_OVERHEAD;
+    for (int i = 0, length = traces.size(); i < length; i++) {
+      List<Span> trace = traces.get(i);
+      for (int j = 0, jLength = trace.size(); j < jLength; j++) {
+        result += SpanBytesEncoder.PROTO3.sizeInBytes(trace.get(j));
+      }
+    }
+    return result;
+  }
+
+  final class CachingSpanStore implements HintedSpanStore {
+    final SpanStore delegate;
+
+    CachingSpanStore(SpanStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      QueryRequest key = normalize(request, granularityMillis);
+      long now = clock.millis();
+      List<List<Span>> cached = cache.get(key, now);
+      if (cached != null) return Call.create(cached);
+      return delegate.getTraces(key).map(new CacheTraces(key, now));
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return delegate.getTrace(traceId);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+      return ForwardingStorageComponent.getTraceWithHint(delegate, traceId, timestampMillis);
+    }
+
+    @Override
+    public Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields) {
+      return ForwardingStorageComponent.getTraceWithHint(delegate, traceId, timestampMillis, fields);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return delegate.getServiceNames();
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return delegate.getSpanNames(serviceName);
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return delegate.getDependencies(endTs, lookback);
+    }
+
+    @Override public String toString() {
+      return "TracesQueryCache{" + delegate + "}";
+    }
+  }
+
+  final class CacheTraces implements Call.Mapper<List<List<Span>>, List<List<Span>>> {
+    final QueryRequest key;
+    final long now;
+
+    CacheTraces(QueryRequest key, long now) {
+      this.key = key;
+      this.now = now;
+    }
+
+    @Override public List<List<Span>> map(List<List<Span>> input) {
+      List<List<Span>> result = Collections.unmodifiableList(input);
+      long ttl = key.endTs() >= now ? recentTtlMillis : ttlMillis;
+      cache.put(key, result, sizeInBytes(result), now + ttl);
+      return result;
+    }
+
+    @Override public String toString() {
+      return "CacheTraces{" + key + "}";
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import zipkin.internal.Nullable;
+
+/**
+ * A least-recently-used cache bounded by the sum of entry weights, such as the size of values in
+ * bytes. Entries also expire at a time chosen when they are added.
+ *
+ * <p>This is a synchronized {@link LinkedHashMap} in access order. Values are loaded outside the
+ * lock, so concurrent misses for the same key each load it.
+ *
+ * <p>The following are exported, tagged by cache name:
+ *
+ * <pre>
+ * <ul>
+ *     <li>counter.zipkin_storage.cache.hits - cumulative requests answered from the cache</li>
+ *     <li>counter.zipkin_storage.cache.misses - cumulative requests not in the cache, or expired</li>
+ *     <li>counter.zipkin_storage.cache.evictions - cumulative entries dropped to stay in bounds</li>
+ *     <li>gauge.zipkin_storage.cache.weight - current sum of entry weights</li>
+ * </ul>
+ * </pre>
+ */
+final class WeightedLruCache<K, V> {
+  final long maxWeight;
+  final Counter hits, misses, evictions;
+  final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  long weight; // guarded by this
+
+  WeightedLruCache(String name, long maxWeight, MeterRegistry registry) {
+    if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight <= 0");
+    this.maxWeight = maxWeight;
+    this.hits = Counter.builder("zipkin_storage.cache.hits")
+      .description("cumulative requests answered from the cache")
+      .tag("cache", name)
+      .register(registry);
+    this.misses = Counter.builder("zipkin_storage.cache.misses")
+      .description("cumulative requests not in the cache, or expired")
+      .tag("cache", name)
+      .register(registry);
+    this.evictions = Counter.builder("zipkin_storage.cache.evictions")
+      .description("cumulative entries dropped to stay within the maximum weight")
+      .tag("cache", name)
+      .register(registry);
+    Gauge.builder("zipkin_storage.cache.weight", this, WeightedLruCache::weight)
+      .description("current sum of entry weights")
+      .tag("cache", name)
+      .register(registry);
+  }
+
+  synchronized long weight() {
+    return weight;
+  }
+
+  /** Returns the value or null if absent or expired. */
+  @Nullable V get(K key, long now) {
+    V result = null;
+    synchronized (this) {
+      Entry<V> entry = entries.get(key);
+      if (entry != null && entry.expiresAt > now) {
+        result = entry.value;
+      } else if (entry != null) {
+        remove(key);
+      }
+    }
+    (result != null ? hits : misses).increment();
+    return result;
+  }
+
+  /** Adds the value unless its weight alone exceeds the maximum. */
+  void put(K key, V value, long weight, long expiresAt) {
+    if (weight > maxWeight) return; // would evict everything else
+    int evicted = 0;
+    synchronized (this) {
+      Entry<V> previous = entries.put(key, new Entry<>(value, weight, expiresAt));
+      if (previous != null) this.weight -= previous.weight;
+      this.weight += weight;
+      // Iteration is least-recently used first. The new entry is last, so it isn't evicted.
+      for (Iterator<Entry<V>> i = entries.values().iterator(); this.weight > maxWeight; ) {
+        this.weight -= i.next().weight;
+        i.remove();
+        evicted++;
+      }
+    }
+    if (evicted > 0) evictions.increment(evicted);
+  }
+
+  synchronized void remove(K key) {
+    Entry<V> entry = entries.remove(key);
+    if (entry != null) weight -= entry.weight;
+  }
+
+  static final class Entry<V> {
+    final V value;
+    final long weight, expiresAt;
+
+    Entry(V value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -27,9 +27,10 @@ final class ZipkinHealthIndicator extends CompositeHealthIndicator {
   }
 
   void addComponent(Component component) {
-    String healthName = component instanceof V2StorageComponent
-      ? ((V2StorageComponent) component).delegate().getClass().getSimpleName()
-      : component.getClass().getSimpleName();
+    Object named = component instanceof V2StorageComponent
+      ? ForwardingStorageComponent.unwrap(((V2StorageComponent) component).delegate())
+      : component;
+    String healthName = named.getClass().getSimpleName();
     healthName = healthName.replace("AutoValue_", "");
     addHealthIndicator(healthName, new ComponentHealthIndicator(component));
   }
@@ -14,12 +14,16 @@
 package zipkin.server.internal;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -30,13 +34,21 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 import zipkin.internal.Nullable;
 import zipkin.internal.V2StorageComponent;
 import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.DependencyLink;
-import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
-import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Buffer;
+import zipkin2.internal.CorrectForClockSkew;
+import zipkin2.internal.JsonCodec;
+import zipkin2.internal.PageToken;
+import zipkin2.internal.Trace;
+import zipkin2.internal.V2SpanWriter;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
 
@@ -46,13 +58,20 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 @RequestMapping("/api/v2")
 @ConditionalOnProperty(name = "zipkin.query.enabled", matchIfMissing = true)
 public class ZipkinQueryApiV2 {
-  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final Buffer.Writer<zipkin2.Span> ALL_FIELDS = new V2SpanWriter();
 
   final String storageType;
   final StorageComponent storage; // don't cache spanStore here as it can cause the app to crash!
+  @Nullable final TraceCache traceCache; // when present, cached traces are returned pre-encoded
   final long defaultLookback;
   /** The Cache-Control max-age (seconds) for /api/v2/services and /api/v2/spans */
   final int namesMaxAge;
+  /** Milliseconds before a query is canceled, or zero to use the servlet container's default */
+  final long defaultTimeout;
+  /** Milliseconds after the last span ends, when a trace isn't expected to change anymore */
+  final long traceSettleTime;
+  /** The Cache-Control max-age (seconds) for /api/v2/trace/{traceIdHex}, once settled */
+  final int traceMaxAge;
 
   volatile int serviceCount; // used as a threshold to start returning cache-control headers
 
@@ -60,50 +79,70 @@ public class ZipkinQueryApiV2 {
     zipkin.storage.StorageComponent storage,
     @Value("${zipkin.storage.type:mem}") String storageType,
     @Value("${zipkin.query.lookback:86400000}") long defaultLookback, // 1 day in millis
-    @Value("${zipkin.query.names-max-age:300}") int namesMaxAge // 5 minutes
+    @Value("${zipkin.query.names-max-age:300}") int namesMaxAge, // 5 minutes
+    @Value("${zipkin.query.timeout:30000}") long defaultTimeout, // 30 seconds in millis
+    @Value("${zipkin.query.trace-settle-time:600}") int traceSettleTime, // 10 minutes
+    @Value("${zipkin.query.trace-max-age:86400}") int traceMaxAge // 1 day
   ) {
     if (storage instanceof V2StorageComponent) {
       this.storage = ((V2StorageComponent) storage).delegate();
     } else {
       this.storage = null;
     }
+    this.traceCache = ForwardingStorageComponent.find(this.storage, TraceCache.class);
     this.storageType = storageType;
     this.defaultLookback = defaultLookback;
     this.namesMaxAge = namesMaxAge;
+    this.defaultTimeout = defaultTimeout;
+    this.traceSettleTime = TimeUnit.SECONDS.toMillis(traceSettleTime);
+    this.traceMaxAge = traceMaxAge;
   }
 
   @RequestMapping(value = "/dependencies", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
-  public byte[] getDependencies(
+  public DeferredResult<byte[]> getDependencies(
     @RequestParam(value = "endTs", required = true) long endTs,
-    @Nullable @RequestParam(value = "lookback", required = false) Long lookback
-  ) throws IOException {
+    @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout
+  ) {
     if (storage == null) throw new Version2StorageNotConfigured();
 
     Call<List<DependencyLink>> call = storage.spanStore()
       .getDependencies(endTs, lookback != null ? lookback : defaultLookback);
-    return DependencyLinkBytesEncoder.JSON_V1.encodeList(call.execute());
+    return respond(call.map(DependencyLinkBytesEncoder.JSON_V1::encodeList), timeout);
   }
 
   @RequestMapping(value = "/services", method = RequestMethod.GET)
-  public ResponseEntity<List<String>> getServiceNames() throws IOException {
+  public DeferredResult<ResponseEntity<List<String>>> getServiceNames(
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout
+  ) {
     if (storage == null) throw new Version2StorageNotConfigured();
 
-    List<String> serviceNames = storage.spanStore().getServiceNames().execute();
-    serviceCount = serviceNames.size();
-    return maybeCacheNames(serviceNames);
+    return respond(storage.spanStore().getServiceNames().map(serviceNames -> {
+      serviceCount = serviceNames.size();
+      return maybeCacheNames(serviceNames);
+    }), timeout);
   }
 
   @RequestMapping(value = "/spans", method = RequestMethod.GET)
-  public ResponseEntity<List<String>> getSpanNames(
-    @RequestParam(value = "serviceName", required = true) String serviceName
-  ) throws IOException {
+  public DeferredResult<ResponseEntity<List<String>>> getSpanNames(
+    @RequestParam(value = "serviceName", required = true) String serviceName,
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout
+  ) {
     if (storage == null) throw new Version2StorageNotConfigured();
 
-    return maybeCacheNames(storage.spanStore().getSpanNames(serviceName).execute());
+    return respond(storage.spanStore().getSpanNames(serviceName).map(this::maybeCacheNames), timeout);
   }
 
+  /**
+   * When there may be more results, the response includes a {@code Link} header with {@code
+   * rel="next"}. Following it continues the same search after the last trace returned.
+   *
+   * @param pageToken continues a search from a previous page, instead of starting at endTs
+   * @param fields comma separated span fields to return, such as "timestamp,duration". IDs are
+   * always returned. When absent, all fields are returned.
+   */
   @RequestMapping(value = "/traces", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
-  public String getTraces(
+  public DeferredResult<ResponseEntity<byte[]>> getTraces(
     @Nullable @RequestParam(value = "serviceName", required = false) String serviceName,
     @Nullable @RequestParam(value = "spanName", required = false) String spanName,
     @Nullable @RequestParam(value = "annotationQuery", required = false) String annotationQuery,
@@ -111,8 +150,60 @@ public class ZipkinQueryApiV2 {
     @Nullable @RequestParam(value = "maxDuration", required = false) Long maxDuration,
     @Nullable @RequestParam(value = "endTs", required = false) Long endTs,
     @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
-    @RequestParam(value = "limit", defaultValue = "10") int limit
-  ) throws IOException {
+    @RequestParam(value = "limit", defaultValue = "10") int limit,
+    @Nullable @RequestParam(value = "pageToken", required = false) String pageToken,
+    @Nullable @RequestParam(value = "fields", required = false) String fields,
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout
+  ) {
+    if (storage == null) throw new Version2StorageNotConfigured();
+    Buffer.Writer<zipkin2.Span> spanWriter = spanWriter(parseFields(fields));
+
+    QueryRequest queryRequest = QueryRequest.newBuilder()
+      .serviceName(serviceName)
+      .spanName(spanName)
+      .parseAnnotationQuery(annotationQuery)
+      .minDuration(minDuration)
+      .maxDuration(maxDuration)
+      .endTs(endTs != null ? endTs : System.currentTimeMillis())
+      .lookback(lookback != null ? lookback : defaultLookback)
+      .limit(limit)
+      .pageToken(pageToken).build();
+
+    // Pin the time window, so that later pages don't drift with the current time
+    UriComponentsBuilder nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+      .replaceQueryParam("endTs", queryRequest.endTs())
+      .replaceQueryParam("lookback", queryRequest.lookback());
+    return respond(storage.spanStore().getTraces(queryRequest).map(traces -> {
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+      String nextPageToken = PageToken.next(queryRequest, traces);
+      if (nextPageToken != null) {
+        String next = nextPage.replaceQueryParam("pageToken", nextPageToken).toUriString();
+        response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+      }
+      return response.body(writeTraces(spanWriter, traces));
+    }), timeout);
+  }
+
+  /**
+   * Accepts the same search as {@link #getTraces}, but returns a summary of each trace instead of
+   * its spans: the root span name, timestamp, duration, span count, service names and whether there
+   * was an error. This is what a result listing shows, at a fraction of the size.
+   *
+   * <p>Summaries are made from the traces storage returns, so storage reads as much as it does for
+   * {@link #getTraces}. Only the response is smaller.
+   */
+  @RequestMapping(value = "/traceSummaries", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
+  public DeferredResult<byte[]> getTraceSummaries(
+    @Nullable @RequestParam(value = "serviceName", required = false) String serviceName,
+    @Nullable @RequestParam(value = "spanName", required = false) String spanName,
+    @Nullable @RequestParam(value = "annotationQuery", required = false) String annotationQuery,
+    @Nullable @RequestParam(value = "minDuration", required = false) Long minDuration,
+    @Nullable @RequestParam(value = "maxDuration", required = false) Long maxDuration,
+    @Nullable @RequestParam(value = "endTs", required = false) Long endTs,
+    @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
+    @RequestParam(value = "limit", defaultValue = "10") int limit,
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout
+  ) {
     if (storage == null) throw new Version2StorageNotConfigured();
 
     QueryRequest queryRequest = QueryRequest.newBuilder()
@@ -125,17 +216,136 @@ public class ZipkinQueryApiV2 {
       .lookback(lookback != null ? lookback : defaultLookback)
       .limit(limit).build();
 
-    List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return new String(writeTraces(SpanBytesEncoder.JSON_V2, traces), UTF_8);
+    return respond(storage.spanStore().getTraces(queryRequest)
+      .map(TraceSummary::summarize)
+      .map(TraceSummary::encodeList), timeout);
   }
 
+  /**
+   * The response has a strong {@code ETag}, so that clients holding the trace can revalidate it
+   * with {@code If-None-Match} instead of downloading it again. Traces whose last span ended before
+   * the settle time are cached by clients for longer, as they aren't expected to change.
+   *
+   * @param normalize when true, spans reported in pieces are merged and clock skew is corrected.
+   * This is work the UI would otherwise do in the browser.
+   * @param fields comma separated span fields to return, such as "timestamp,duration". IDs are
+   * always returned. When absent, all fields are returned.
+   * @param ts epoch milliseconds of any span in the trace, such as from search results. Storage
+   * partitioned by time uses this to search less data. The trace is still found if this is wrong.
+   */
   @RequestMapping(value = "/trace/{traceIdHex}", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
-  public String getTrace(@PathVariable String traceIdHex, WebRequest request) throws IOException {
+  public DeferredResult<ResponseEntity<byte[]>> getTrace(
+    @PathVariable String traceIdHex,
+    @RequestParam(value = "normalize", defaultValue = "false") boolean normalize,
+    @Nullable @RequestParam(value = "fields", required = false) String fields,
+    @Nullable @RequestParam(value = "ts", required = false) Long ts,
+    @Nullable @RequestParam(value = "timeout", required = false) Long timeout,
+    WebRequest request
+  ) {
     if (storage == null) throw new Version2StorageNotConfigured();
+    Set<V2SpanWriter.Field> spanFields = parseFields(fields);
+    Buffer.Writer<zipkin2.Span> spanWriter = spanWriter(spanFields);
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+
+    if (traceCache != null && !normalize) {
+      return respond(traceCache.getTrace(traceIdHex, ts).map(cached -> {
+        if (cached.spans.isEmpty()) throw new TraceNotFoundException(traceIdHex);
+        if (spanFields == null) {
+          return traceResponse(cached.spans, cached.json, cached.etag, ifNoneMatch);
+        }
+        byte[] json = JsonCodec.writeList(spanWriter, cached.spans);
+        return traceResponse(cached.spans, json, etag(json), ifNoneMatch);
+      }), timeout);
+    }
 
-    List<Span> trace = storage.spanStore().getTrace(traceIdHex).execute();
-    if (trace.isEmpty()) throw new TraceNotFoundException(traceIdHex);
-    return new String(SpanBytesEncoder.JSON_V2.encodeList(trace), UTF_8);
+    // Normalizing reads all fields, so only ask storage for fewer when returning spans as stored
+    Set<String> storageFields = spanFields != null && !normalize ? storageFields(spanFields) : null;
+    Call<List<zipkin2.Span>> call = ForwardingStorageComponent.getTraceWithHint(
+      storage.spanStore(), traceIdHex, ts, storageFields);
+    return respond(call.map(trace -> {
+      if (trace.isEmpty()) throw new TraceNotFoundException(traceIdHex);
+      List<zipkin2.Span> result = trace;
+      if (normalize) result = CorrectForClockSkew.apply(Trace.merge(result));
+      byte[] json = JsonCodec.writeList(spanWriter, result);
+      return traceResponse(trace, json, etag(json), ifNoneMatch);
+    }), timeout);
+  }
+
+  ResponseEntity<byte[]> traceResponse(List<zipkin2.Span> trace, byte[] json, String etag,
+    @Nullable String ifNoneMatch) {
+    long lastEnd = 0L; // epoch micros
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      zipkin2.Span span = trace.get(i);
+      lastEnd = Math.max(lastEnd, span.timestampAsLong() + span.durationAsLong());
+    }
+    boolean settled = lastEnd != 0L
+      && lastEnd / 1000L + traceSettleTime < System.currentTimeMillis();
+    CacheControl cacheControl = settled
+      ? CacheControl.maxAge(traceMaxAge, TimeUnit.SECONDS)
+      : CacheControl.noCache(); // late spans may still arrive, so always revalidate
+
+    if (etagMatches(ifNoneMatch, etag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl)
+        .build();
+    }
+    return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).body(json);
+  }
+
+  /** Returns a strong entity tag, which is a 64-bit FNV-1a hash of the response body. */
+  static String etag(byte[] body) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : body) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    StringBuilder result = new StringBuilder(18).append('"');
+    String hex = Long.toHexString(hash);
+    for (int i = hex.length(); i < 16; i++) result.append('0');
+    return result.append(hex).append('"').toString();
+  }
+
+  static boolean etagMatches(@Nullable String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) return false;
+    int begin = 0, length = ifNoneMatch.length();
+    while (begin < length) {
+      int end = ifNoneMatch.indexOf(',', begin);
+      if (end == -1) end = length;
+      String candidate = ifNoneMatch.substring(begin, end).trim();
+      begin = end + 1;
+      if (candidate.startsWith("W/")) candidate = candidate.substring(2); // weak comparison
+      if (candidate.equals("*") || candidate.equals(etag)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Completes the response from the storage callback, so that a slow query doesn't hold a request
+   * thread. Errors, such as {@link TraceNotFoundException}, reach the exception handlers as usual.
+   *
+   * <p>The storage call is canceled when the deadline passes, which responds with status 503, or
+   * when the response fails, for example on client disconnect.
+   *
+   * @param timeout requested deadline in milliseconds, which can lower, but not raise the default
+   */
+  <V> DeferredResult<V> respond(Call<V> call, @Nullable Long timeout) {
+    DeferredResult<V> result = new DeferredResult<>(timeoutMillis(timeout));
+    result.onTimeout(call::cancel);
+    result.onError(error -> call.cancel());
+    call.enqueue(new Callback<V>() {
+      @Override public void onSuccess(V value) {
+        result.setResult(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        result.setErrorResult(t);
+      }
+    });
+    return result;
+  }
+
+  @Nullable Long timeoutMillis(@Nullable Long requested) {
+    if (requested == null || requested <= 0) return defaultTimeout > 0 ? defaultTimeout : null;
+    return defaultTimeout > 0 ? Math.min(requested, defaultTimeout) : requested;
   }
 
   @ExceptionHandler(Version2StorageNotConfigured.class)
@@ -150,6 +360,62 @@ public class ZipkinQueryApiV2 {
     }
   }
 
+  /**
+   * Parses the comma separated {@code fields} parameter, such as "timestamp,duration". IDs are
+   * always returned, so are skipped. Returns null when all fields are requested, including when
+   * the parameter is absent.
+   *
+   * @throws InvalidFieldException if a name isn't a span field
+   */
+  @Nullable static Set<V2SpanWriter.Field> parseFields(@Nullable String fields) {
+    if (fields == null || fields.isEmpty()) return null;
+    Set<V2SpanWriter.Field> result = EnumSet.noneOf(V2SpanWriter.Field.class);
+    int begin = 0;
+    while (begin <= fields.length()) {
+      int end = fields.indexOf(',', begin);
+      if (end == -1) end = fields.length();
+      String name = fields.substring(begin, end).trim();
+      begin = end + 1;
+      if (name.isEmpty() || name.equals("traceId") || name.equals("parentId")
+        || name.equals("id")) {
+        continue;
+      }
+      V2SpanWriter.Field field = V2SpanWriter.Field.fromJsonName(name);
+      if (field == null) throw new InvalidFieldException(name);
+      result.add(field);
+    }
+    return result.size() == V2SpanWriter.Field.values().length ? null : result;
+  }
+
+  static Buffer.Writer<zipkin2.Span> spanWriter(@Nullable Set<V2SpanWriter.Field> fields) {
+    return fields == null ? ALL_FIELDS : new V2SpanWriter(fields);
+  }
+
+  /**
+   * Returns the json names of fields to read from storage. The timestamp and duration are always
+   * read, so that {@link #traceResponse} can tell when the trace has settled.
+   */
+  static Set<String> storageFields(Set<V2SpanWriter.Field> fields) {
+    Set<String> result = new LinkedHashSet<>();
+    for (V2SpanWriter.Field field : fields) result.add(field.jsonName());
+    result.add(V2SpanWriter.Field.TIMESTAMP.jsonName());
+    result.add(V2SpanWriter.Field.DURATION.jsonName());
+    return result;
+  }
+
+  @ExceptionHandler(InvalidFieldException.class)
+  public void invalidField(InvalidFieldException e, HttpServletResponse response)
+    throws IOException {
+    response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+  }
+
+  /** Thrown when the {@code fields} parameter includes a name that isn't a span field. */
+  static class InvalidFieldException extends RuntimeException {
+    InvalidFieldException(String jsonName) {
+      super("Invalid field: " + jsonName);
+    }
+  }
+
   @ExceptionHandler(TraceNotFoundException.class)
   @ResponseStatus(HttpStatus.NOT_FOUND)
   public void notFound() {
@@ -175,7 +441,8 @@ public class ZipkinQueryApiV2 {
   }
 
   // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
+  static byte[] writeTraces(Buffer.Writer<zipkin2.Span> writer,
+    List<List<zipkin2.Span>> traces) {
     // Get the encoded size of the nested list so that we don't need to grow the buffer
     int length = traces.size();
     int sizeInBytes = 2; // []
@@ -187,7 +454,7 @@ public class ZipkinQueryApiV2 {
       sizeInBytes += 2; // []
       if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
       for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
+        sizeInBytes += writer.sizeInBytes(spans.get(j));
       }
     }
 
@@ -195,7 +462,7 @@ public class ZipkinQueryApiV2 {
     int pos = 0;
     out[pos++] = '['; // start list of traces
     for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
+      pos += JsonCodec.writeList(writer, traces.get(i), out, pos);
       if (i + 1 < length) out[pos++] = ',';
     }
     out[pos] = ']'; // stop list of traces
@@ -16,6 +16,10 @@ package zipkin.server.internal;
 import brave.Tracing;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -30,6 +34,7 @@ import org.springframework.context.annotation.Condition;
 import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -135,6 +140,81 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     }
   }
 
+  /**
+   * Decorates version 2 storage with features implemented in the server, such as the name
+   * registry. This is ordered, so it runs before {@link TracingStorageComponentEnhancer}.
+   */
+  @Configuration
+  static class StorageComponentDecorator implements BeanPostProcessor, Ordered {
+
+    @Value("${zipkin.storage.search-enabled:true}")
+    boolean searchEnabled;
+    @Value("${zipkin.query.lookback:86400000}")
+    long lookback;
+    @Value("${zipkin.query.name-registry.enabled:false}")
+    boolean nameRegistryEnabled;
+    @Value("${zipkin.query.name-registry.refresh-interval:60}")
+    int nameRegistryRefreshInterval;
+    @Value("${zipkin.query.traces-cache.enabled:false}")
+    boolean tracesCacheEnabled;
+    @Value("${zipkin.query.traces-cache.max-bytes:67108864}")
+    long tracesCacheMaxBytes;
+    @Value("${zipkin.query.traces-cache.granularity:60000}")
+    long tracesCacheGranularity;
+    @Value("${zipkin.query.traces-cache.ttl:300}")
+    int tracesCacheTtl;
+    @Value("${zipkin.query.traces-cache.recent-ttl:10}")
+    int tracesCacheRecentTtl;
+    @Value("${zipkin.query.single-flight.enabled:false}")
+    boolean singleFlightEnabled;
+    @Value("${zipkin.query.trace-cache.enabled:false}")
+    boolean traceCacheEnabled;
+    @Value("${zipkin.query.trace-cache.max-bytes:67108864}")
+    long traceCacheMaxBytes;
+    @Value("${zipkin.query.trace-cache.ttl:60}")
+    int traceCacheTtl;
+
+    // Resolved late, as a post-processor shouldn't cause the registry to initialize early
+    @Autowired ObjectProvider<MeterRegistry> meterRegistry;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+      return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (!(bean instanceof V2StorageComponent)) return bean;
+      zipkin2.storage.StorageComponent delegate = ((V2StorageComponent) bean).delegate();
+      zipkin2.storage.StorageComponent result = delegate;
+      // Innermost, so that queries missing any cache are coalesced
+      if (singleFlightEnabled) {
+        result = new SingleFlight(result, meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+      }
+      if (traceCacheEnabled) {
+        result = new TraceCache(result, Clock.systemUTC(), traceCacheMaxBytes,
+          TimeUnit.SECONDS.toMillis(traceCacheTtl),
+          meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+      }
+      if (tracesCacheEnabled && searchEnabled) {
+        result = new TracesQueryCache(result, Clock.systemUTC(), tracesCacheMaxBytes,
+          tracesCacheGranularity, TimeUnit.SECONDS.toMillis(tracesCacheTtl),
+          TimeUnit.SECONDS.toMillis(tracesCacheRecentTtl),
+          meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+      }
+      // Names are only indexed when search is enabled
+      if (nameRegistryEnabled && searchEnabled) {
+        result = new NameRegistry(result,
+          TimeUnit.SECONDS.toMillis(nameRegistryRefreshInterval), lookback);
+      }
+      return result == delegate ? bean : V2StorageComponent.create(result);
+    }
+
+    @Override public int getOrder() {
+      return Ordered.LOWEST_PRECEDENCE;
+    }
+  }
+
   /**
    * This is a special-case configuration if there's no StorageComponent of any kind. In-Mem can
    * supply both read apis, so we add two beans here.
@@ -143,19 +223,20 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
   @Conditional(StorageTypeMemAbsentOrEmpty.class)
   @ConditionalOnMissingBean(StorageComponent.class)
   static class InMemoryConfiguration {
-    @Bean StorageComponent storage(
+    // The version 2 component is defined first, as the other may be decorated
+    @Bean InMemoryStorage v2Storage(
       @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
       @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
       @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans) {
-      return V2StorageComponent.create(InMemoryStorage.newBuilder()
+      return InMemoryStorage.newBuilder()
         .strictTraceId(strictTraceId)
         .searchEnabled(searchEnabled)
         .maxSpanCount(maxSpans)
-        .build());
+        .build();
     }
 
-    @Bean InMemoryStorage v2Storage(V2StorageComponent component) {
-      return (InMemoryStorage) component.delegate();
+    @Bean StorageComponent storage(InMemoryStorage v2Storage) {
+      return V2StorageComponent.create(v2Storage);
     }
   }
 
@@ -14,6 +14,8 @@
 package zipkin.server.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -222,6 +224,166 @@ public class ITZipkinServer {
       .isEqualTo(Codec.JSON.writeSpans(asList(span, span)));
   }
 
+  @Test public void getTrace_version2_normalize() throws Exception {
+    zipkin2.Endpoint frontend = zipkin2.Endpoint.newBuilder()
+      .serviceName("frontend").ip("127.0.0.1").build();
+    zipkin2.Endpoint backend = zipkin2.Endpoint.newBuilder()
+      .serviceName("backend").ip("192.168.99.101").build();
+    zipkin2.Span root = zipkin2.Span.newBuilder().traceId("1").id("1").name("get")
+      .kind(zipkin2.Span.Kind.SERVER).localEndpoint(frontend)
+      .timestamp(1000L).duration(400L).build();
+    zipkin2.Span client = zipkin2.Span.newBuilder().traceId("1").parentId("1").id("2").name("get")
+      .kind(zipkin2.Span.Kind.CLIENT).localEndpoint(frontend)
+      .timestamp(1100L).duration(200L).build();
+    // server clock is 500us behind, and it took 20us each way over the network
+    zipkin2.Span server = zipkin2.Span.newBuilder().traceId("1").parentId("1").id("2").name("get")
+      .kind(zipkin2.Span.Kind.SERVER).shared(true).localEndpoint(backend)
+      .timestamp(1100L - 500L + 20L).duration(160L).build();
+
+    // the client span is reported in two parts
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(asList(
+      client.toBuilder().duration(null).build(),
+      root,
+      server,
+      zipkin2.Span.newBuilder().traceId("1").id("2").localEndpoint(frontend).duration(200L).build()
+    ));
+    assertThat(post("/api/v2/spans", message).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response raw = get("/api/v2/trace/" + root.traceId());
+    assertThat(raw.isSuccessful()).isTrue();
+    assertThat(raw.body().bytes()).isEqualTo(message);
+
+    Response normalized = get("/api/v2/trace/" + root.traceId() + "?normalize=true");
+    assertThat(normalized.isSuccessful()).isTrue();
+    assertThat(normalized.body().bytes()).isEqualTo(SpanBytesEncoder.JSON_V2.encodeList(asList(
+      root, client, server.toBuilder().timestamp(1120L).build()
+    )));
+  }
+
+  @Test public void v2Trace_fields() throws Exception {
+    zipkin2.Span span = zipkin2.Span.newBuilder().traceId("c").id("c").name("get")
+      .localEndpoint(zipkin2.Endpoint.newBuilder().serviceName("projected").build())
+      .timestamp(1000L).duration(3L).putTag("sql.query", "select * from spans").build();
+    assertThat(post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(asList(span))).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response response = get("/api/v2/trace/" + span.traceId() + "?fields=timestamp,duration");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).isEqualTo(
+      "[{\"traceId\":\"000000000000000c\",\"id\":\"000000000000000c\",\"timestamp\":1000,"
+        + "\"duration\":3}]");
+  }
+
+  /** The timestamp is a hint for storage, so a wrong one doesn't prevent finding the trace */
+  @Test public void v2Trace_timestampHint() throws Exception {
+    zipkin2.Span span = zipkin2.Span.newBuilder().traceId("d").id("d").name("get")
+      .timestamp(1000L).duration(3L).build();
+    assertThat(post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(asList(span))).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response response = get("/api/v2/trace/" + span.traceId() + "?ts=1500000000000");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().bytes())
+      .isEqualTo(SpanBytesEncoder.JSON_V2.encodeList(asList(span)));
+  }
+
+  @Test public void v2Trace_conditionalGet() throws Exception {
+    zipkin2.Span span = zipkin2.Span.newBuilder().traceId("d").id("d").name("get")
+      .localEndpoint(zipkin2.Endpoint.newBuilder().serviceName("revalidated").build())
+      .timestamp(1000L).duration(3L).build();
+    assertThat(post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(asList(span))).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response first = get("/api/v2/trace/" + span.traceId());
+    assertThat(first.isSuccessful()).isTrue();
+    String etag = first.header("ETag");
+    assertThat(etag).matches("\"[0-9a-f]{16}\"");
+    assertThat(first.header("Cache-Control")).isEqualTo("max-age=86400"); // settled long ago
+
+    Response second = client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/trace/" + span.traceId())
+      .header("If-None-Match", etag)
+      .build()).execute();
+    assertThat(second.code()).isEqualTo(304);
+    assertThat(second.header("ETag")).isEqualTo(etag);
+
+    // any entity tag in a list matches, including weak ones
+    Response third = client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/trace/" + span.traceId())
+      .header("If-None-Match", "\"0000000000000000\", W/" + etag)
+      .build()).execute();
+    assertThat(third.code()).isEqualTo(304);
+  }
+
+  @Test public void v2Trace_invalidFields() throws Exception {
+    Response response = get("/api/v2/trace/c?fields=binaryAnnotations");
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string()).contains("Invalid field: binaryAnnotations");
+  }
+
+  @Test public void v2Traces_linksToNextPage() throws Exception {
+    long now = System.currentTimeMillis();
+    List<zipkin2.Span> spans = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      spans.add(zipkin2.Span.newBuilder().traceId(Integer.toHexString(i)).id("1").name("get")
+        .localEndpoint(zipkin2.Endpoint.newBuilder().serviceName("pager").build())
+        .timestamp((now - i) * 1000L).duration(1L).build());
+    }
+    assertThat(post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(spans)).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response first = get("/api/v2/traces?serviceName=pager&limit=2");
+    assertThat(first.isSuccessful()).isTrue();
+    String link = first.header("Link");
+    assertThat(link).contains("pageToken=").endsWith("; rel=\"next\"");
+
+    Response second = client.newCall(new Request.Builder()
+      .url(link.substring(1, link.indexOf('>')))
+      .build()).execute();
+    assertThat(second.isSuccessful()).isTrue();
+    assertThat(second.header("Link")).isNull();
+    assertThat(second.body().string()).contains("\"traceId\":\"0000000000000003\"");
+  }
+
+  @Test public void v2TraceSummaries() throws Exception {
+    zipkin2.Span span = zipkin2.Span.newBuilder().traceId("b").id("b").name("get")
+      .localEndpoint(zipkin2.Endpoint.newBuilder().serviceName("summarized").build())
+      .timestamp((System.currentTimeMillis() - 1) * 1000L).duration(3L).build();
+    assertThat(post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(asList(span))).code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    Response response = get("/api/v2/traceSummaries?serviceName=summarized");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).isEqualTo("[{\"traceId\":\"000000000000000b\","
+      + "\"name\":\"get\",\"timestamp\":" + span.timestampAsLong() + ",\"duration\":3,"
+      + "\"spanCount\":1,\"serviceNames\":[\"summarized\"]}]");
+  }
+
+  /** Errors raised in the storage callback should reach the exception handlers */
+  @Test public void v2TraceNotFound() throws Exception {
+    assertThat(get("/api/v2/trace/ffffffffffff").code())
+      .isEqualTo(404);
+  }
+
   @Test public void getBy128BitId() throws Exception {
     Span span1 = TRACE.get(0).toBuilder().traceIdHigh(1L).build();
     Span span2 = span1.toBuilder().traceIdHigh(2L).build();
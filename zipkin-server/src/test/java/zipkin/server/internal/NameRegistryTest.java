@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameRegistryTest {
+  static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+  static final long LOOKBACK = TimeUnit.DAYS.toMillis(1);
+
+  Endpoint frontend = Endpoint.newBuilder().serviceName("frontend").build();
+  Endpoint backend = Endpoint.newBuilder().serviceName("backend").build();
+  Span span = Span.newBuilder().traceId("a").id("a").name("get").kind(Span.Kind.CLIENT)
+    .localEndpoint(frontend).remoteEndpoint(backend).build();
+
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  AtomicInteger storageReads = new AtomicInteger();
+  FakeClock clock = new FakeClock(1000L);
+  NameRegistry registry = new NameRegistry(new ForwardingStorageComponent(storage) {
+    @Override public SpanStore spanStore() {
+      SpanStore delegate = storage.spanStore();
+      return new SpanStore() {
+        @Override public Call<List<List<Span>>> getTraces(zipkin2.storage.QueryRequest request) {
+          return delegate.getTraces(request);
+        }
+
+        @Override public Call<List<Span>> getTrace(String traceId) {
+          return delegate.getTrace(traceId);
+        }
+
+        @Override public Call<List<String>> getServiceNames() {
+          storageReads.incrementAndGet();
+          return delegate.getServiceNames();
+        }
+
+        @Override public Call<List<String>> getSpanNames(String serviceName) {
+          storageReads.incrementAndGet();
+          return delegate.getSpanNames(serviceName);
+        }
+
+        @Override
+        public Call<List<zipkin2.DependencyLink>> getDependencies(long endTs, long lookback) {
+          return delegate.getDependencies(endTs, lookback);
+        }
+      };
+    }
+  }, clock, REFRESH_INTERVAL, LOOKBACK);
+
+  @Test public void coldStart_readsFromStorage() throws IOException {
+    storage.accept(asList(span)); // as if another server accepted it
+
+    assertThat(registry.spanStore().getServiceNames().execute())
+      .containsExactly("backend", "frontend");
+    assertThat(storageReads).hasValue(1);
+  }
+
+  @Test public void acceptedSpansAreReadFromMemory() throws IOException {
+    registry.spanStore().getServiceNames().execute(); // warm up
+    registry.spanConsumer().accept(asList(span)).execute();
+
+    SpanStore spanStore = registry.spanStore();
+    assertThat(spanStore.getServiceNames().execute())
+      .containsExactly("backend", "frontend");
+    assertThat(spanStore.getSpanNames("frontend").execute())
+      .containsExactly("get");
+    // span names were cold
+    assertThat(spanStore.getSpanNames("FRONTEND").execute())
+      .containsExactly("get");
+    assertThat(storageReads).hasValue(2);
+  }
+
+  @Test public void unknownService_readsFromStorage() throws IOException {
+    assertThat(registry.spanStore().getSpanNames("unknown").execute()).isEmpty();
+    assertThat(registry.spanStore().getSpanNames("unknown").execute()).isEmpty();
+
+    assertThat(storageReads).hasValue(2);
+    assertThat(registry.spanNames).isEmpty();
+  }
+
+  @Test public void refreshesFromStorageAfterInterval() throws IOException {
+    registry.spanStore().getServiceNames().execute(); // warm up
+    storage.accept(asList(span)); // as if another server accepted it
+
+    assertThat(registry.spanStore().getServiceNames().execute()).isEmpty();
+
+    clock.advance(REFRESH_INTERVAL);
+    // In-memory storage completes the refresh synchronously
+    registry.spanStore().getServiceNames().execute();
+    assertThat(registry.spanStore().getServiceNames().execute())
+      .containsExactly("backend", "frontend");
+    assertThat(storageReads).hasValue(2);
+  }
+
+  @Test public void expiresNamesOutsideLookback() throws IOException {
+    registry.spanStore().getServiceNames().execute(); // warm up
+    registry.spanConsumer().accept(asList(span)).execute();
+    registry.spanConsumer().accept(asList(span.toBuilder()
+      .localEndpoint(backend).remoteEndpoint(null).build())).execute();
+
+    clock.advance(LOOKBACK - 1);
+    registry.spanConsumer().accept(asList(span.toBuilder().remoteEndpoint(null).build()))
+      .execute();
+    storage.clear(); // so that refresh doesn't reload the expired name
+
+    clock.advance(2);
+    assertThat(registry.spanStore().getServiceNames().execute())
+      .containsExactly("frontend");
+  }
+
+  @Test public void unwrap() {
+    StorageComponent wrapped = new NameRegistry(registry, REFRESH_INTERVAL, LOOKBACK);
+
+    assertThat(ForwardingStorageComponent.unwrap(wrapped)).isSameAs(storage);
+  }
+}
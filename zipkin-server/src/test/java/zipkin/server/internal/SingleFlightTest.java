@@ -0,0 +1,189 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SingleFlightTest {
+  Span span = Span.newBuilder().traceId("a").id("a").name("get").build();
+
+  /** Each storage query stays in flight until completed by the test */
+  List<PendingCall<List<Span>>> queries = new ArrayList<>();
+  StorageComponent storage = new StorageComponent() {
+    @Override public SpanStore spanStore() {
+      return new SpanStore() {
+        @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override public Call<List<Span>> getTrace(String traceId) {
+          PendingCall<List<Span>> result = new PendingCall<>();
+          queries.add(result);
+          return result;
+        }
+
+        @Override public Call<List<String>> getServiceNames() {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override public Call<List<String>> getSpanNames(String serviceName) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  SingleFlight singleFlight = new SingleFlight(storage, registry);
+  SpanStore spanStore = singleFlight.spanStore();
+
+  @Test public void identicalQueriesShareOneStorageQuery() {
+    Captor<List<Span>> first = new Captor<>(), second = new Captor<>();
+    spanStore.getTrace("a").enqueue(first);
+    spanStore.getTrace("000000000000000a").enqueue(second); // same ID, once normalized
+
+    assertThat(queries).hasSize(1);
+    queries.get(0).callback.onSuccess(asList(span));
+
+    assertThat(first.value.get()).containsExactly(span);
+    assertThat(second.value.get()).isSameAs(first.value.get());
+    assertThat(registry.get("zipkin_storage.coalesced_requests").counter().count())
+      .isEqualTo(1.0);
+    assertThat(singleFlight.flights).isEmpty();
+  }
+
+  @Test public void differentQueriesAreNotCoalesced() {
+    spanStore.getTrace("a").enqueue(new Captor<>());
+    spanStore.getTrace("b").enqueue(new Captor<>());
+
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test public void queriesAfterCompletionReachStorage() {
+    spanStore.getTrace("a").enqueue(new Captor<>());
+    queries.get(0).callback.onSuccess(emptyList());
+    spanStore.getTrace("a").enqueue(new Captor<>());
+
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test public void errorsPropagateToAllCallers() {
+    Captor<List<Span>> first = new Captor<>(), second = new Captor<>();
+    spanStore.getTrace("a").enqueue(first);
+    spanStore.getTrace("a").enqueue(second);
+
+    IOException error = new IOException("timeout");
+    queries.get(0).callback.onError(error);
+
+    assertThat(first.error.get()).isSameAs(error);
+    assertThat(second.error.get()).isSameAs(error);
+  }
+
+  @Test public void cancel_detachesOnlyThatCaller() {
+    Captor<List<Span>> first = new Captor<>(), second = new Captor<>();
+    Call<List<Span>> firstCall = spanStore.getTrace("a");
+    firstCall.enqueue(first);
+    spanStore.getTrace("a").enqueue(second);
+
+    firstCall.cancel();
+
+    assertThat(first.error.get()).hasMessage("Canceled");
+    assertThat(queries.get(0).isCanceled()).isFalse();
+
+    queries.get(0).callback.onSuccess(asList(span));
+    assertThat(first.value.get()).isNull();
+    assertThat(second.value.get()).containsExactly(span);
+  }
+
+  @Test public void cancel_lastCallerCancelsStorageQuery() {
+    Call<List<Span>> first = spanStore.getTrace("a"), second = spanStore.getTrace("a");
+    first.enqueue(new Captor<>());
+    second.enqueue(new Captor<>());
+
+    first.cancel();
+    second.cancel();
+
+    assertThat(queries.get(0).isCanceled()).isTrue();
+    assertThat(singleFlight.flights).isEmpty();
+  }
+
+  @Test public void execute_awaitsSharedResult() throws Exception {
+    spanStore.getTrace("a").enqueue(new Captor<>());
+
+    Thread complete = new Thread(() -> {
+      while (registry.get("zipkin_storage.coalesced_requests").counter().count() == 0) {
+        Thread.yield();
+      }
+      queries.get(0).callback.onSuccess(asList(span));
+    });
+    complete.start();
+
+    assertThat(spanStore.getTrace("a").execute()).containsExactly(span);
+    complete.join();
+  }
+
+  static final class PendingCall<V> extends Call.Base<V> {
+    Callback<V> callback;
+
+    @Override protected V doExecute() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override protected void doEnqueue(Callback<V> callback) {
+      this.callback = callback;
+    }
+
+    @Override public Call<V> clone() {
+      return new PendingCall<>();
+    }
+  }
+
+  static final class Captor<V> implements Callback<V> {
+    final AtomicReference<V> value = new AtomicReference<>();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    @Override public void onSuccess(V value) {
+      this.value.set(value);
+    }
+
+    @Override public void onError(Throwable t) {
+      error.set(t);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.HintedSpanStore;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceCacheTest {
+  static final long TTL = TimeUnit.MINUTES.toMillis(1);
+
+  Endpoint frontend = Endpoint.newBuilder().serviceName("frontend").build();
+  Span span = Span.newBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").id("a").name("get")
+    .kind(Span.Kind.SERVER).localEndpoint(frontend).timestamp(1L).duration(10L).build();
+  Span child = span.toBuilder().parentId("a").id("b").kind(Span.Kind.CLIENT).build();
+
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  FakeClock clock = new FakeClock(1_500_000_000_000L);
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  TraceCache cache = new TraceCache(storage, clock, 1024 * 1024, TTL, registry);
+
+  @Test public void repeatedGetIsAHit() throws IOException {
+    storage.accept(asList(span));
+
+    SpanStore spanStore = cache.spanStore();
+    List<Span> first = spanStore.getTrace(span.traceId()).execute();
+    List<Span> second = spanStore.getTrace(span.traceId()).execute();
+
+    assertThat(first).containsExactly(span);
+    assertThat(second).isSameAs(first);
+    assertThat(registry.get("zipkin_storage.cache.hits").counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void includesJson() throws IOException {
+    storage.accept(asList(span));
+
+    assertThat(cache.getTrace(span.traceId(), null).execute().json)
+      .isEqualTo(SpanBytesEncoder.JSON_V2.encodeList(asList(span)));
+  }
+
+  @Test public void passesTimestampHintOnMiss() throws IOException {
+    storage.accept(asList(span));
+    List<Long> hints = new ArrayList<>();
+    cache = hintRecordingCache(hints);
+
+    SpanStore spanStore = cache.spanStore();
+    assertThat(((HintedSpanStore) spanStore).getTrace(span.traceId(), 1000L).execute())
+      .containsExactly(span);
+    spanStore.getTrace(span.traceId()).execute(); // a hit, so doesn't reach storage
+
+    assertThat(hints).containsExactly(1000L);
+  }
+
+  @Test public void fieldsHintIsntCached() throws IOException {
+    storage.accept(asList(span));
+    List<Long> hints = new ArrayList<>();
+    cache = hintRecordingCache(hints);
+
+    HintedSpanStore spanStore = (HintedSpanStore) cache.spanStore();
+    spanStore.getTrace(span.traceId(), 1000L, Collections.singleton("timestamp")).execute();
+    spanStore.getTrace(span.traceId(), 1000L, Collections.singleton("timestamp")).execute();
+
+    assertThat(hints).containsExactly(1000L, 1000L); // both reached storage
+  }
+
+  TraceCache hintRecordingCache(List<Long> hints) {
+    return new TraceCache(new ForwardingStorageComponent(storage) {
+      @Override public SpanStore spanStore() {
+        SpanStore delegate = storage.spanStore();
+        return new HintedSpanStore() {
+          @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+            hints.add(timestampMillis);
+            return delegate.getTrace(traceId);
+          }
+
+          @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis,
+            Set<String> fields) {
+            hints.add(timestampMillis);
+            return delegate.getTrace(traceId);
+          }
+
+          @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+            return delegate.getTraces(request);
+          }
+
+          @Override public Call<List<Span>> getTrace(String traceId) {
+            return delegate.getTrace(traceId);
+          }
+
+          @Override public Call<List<String>> getServiceNames() {
+            return delegate.getServiceNames();
+          }
+
+          @Override public Call<List<String>> getSpanNames(String serviceName) {
+            return delegate.getSpanNames(serviceName);
+          }
+
+          @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+            return delegate.getDependencies(endTs, lookback);
+          }
+        };
+      }
+    }, clock, 1024 * 1024, TTL, registry);
+  }
+
+  @Test public void lateSpansInvalidate() throws IOException {
+    cache.spanConsumer().accept(asList(span)).execute();
+    cache.spanStore().getTrace(span.traceId()).execute();
+
+    cache.spanConsumer().accept(asList(child)).execute();
+
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute())
+      .containsExactlyInAnyOrder(span, child);
+  }
+
+  /** Without strict trace ID, a span with a 64-bit ID can be part of a 128-bit trace */
+  @Test public void lateSpansInvalidate_lower64Bits() throws IOException {
+    storage = InMemoryStorage.newBuilder().strictTraceId(false).build();
+    cache = new TraceCache(storage, clock, 1024 * 1024, TTL, registry);
+    cache.spanConsumer().accept(asList(span)).execute();
+    cache.spanStore().getTrace(span.traceId()).execute();
+
+    Span lowerTraceId = child.toBuilder().traceId(span.traceId().substring(16)).build();
+    cache.spanConsumer().accept(asList(lowerTraceId)).execute();
+
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute())
+      .containsExactlyInAnyOrder(span, lowerTraceId);
+  }
+
+  @Test public void differentHighBitsAreAMiss() throws IOException {
+    Span other = span.toBuilder().traceId("1" + span.traceId().substring(1)).build();
+    storage.accept(asList(span, other));
+
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute()).containsExactly(span);
+    assertThat(cache.spanStore().getTrace(other.traceId()).execute()).containsExactly(other);
+  }
+
+  @Test public void expiresAfterTtl() throws IOException {
+    storage.accept(asList(span));
+    cache.spanStore().getTrace(span.traceId()).execute();
+    storage.accept(asList(child)); // not through the cache, like a write from another server
+
+    clock.advance(TTL);
+
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute())
+      .containsExactlyInAnyOrder(span, child);
+  }
+
+  /** A trace is often opened before its spans are stored, possibly by another server */
+  @Test public void notFoundIsntCached() throws IOException {
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute()).isEmpty();
+    storage.accept(asList(span)); // not through the cache, like a write from another server
+
+    assertThat(cache.spanStore().getTrace(span.traceId()).execute()).containsExactly(span);
+  }
+}
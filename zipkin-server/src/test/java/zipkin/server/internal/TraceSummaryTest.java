@@ -0,0 +1,71 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceSummaryTest {
+  static final long NOW = 1_500_000_000_000L;
+
+  Endpoint frontend = Endpoint.newBuilder().serviceName("frontend").build();
+  Endpoint backend = Endpoint.newBuilder().serviceName("backend").build();
+  Span root = Span.newBuilder().traceId("a").id("a").name("get").kind(Span.Kind.SERVER)
+    .localEndpoint(frontend).timestamp((NOW + 10) * 1000L).duration(10_000L).build();
+  Span child = Span.newBuilder().traceId("a").parentId("a").id("b").name("query")
+    .kind(Span.Kind.CLIENT).localEndpoint(frontend).remoteEndpoint(backend)
+    .timestamp((NOW + 15) * 1000L).duration(5_000L).putTag("error", "timeout").build();
+
+  @Test public void summarize() {
+    assertThat(json(TraceSummary.summarize(asList(asList(child, root))))).isEqualTo(
+      "[{\"traceId\":\"000000000000000a\",\"name\":\"get\",\"timestamp\":1500000000010000,"
+        + "\"duration\":10000,\"spanCount\":2,\"serviceNames\":[\"backend\",\"frontend\"],"
+        + "\"error\":true}]"
+    );
+  }
+
+  /** The duration is from the earliest span start to the latest span end */
+  @Test public void summarize_durationCoversAllSpans() {
+    Span late = child.toBuilder().id("c").timestamp((NOW + 18) * 1000L).build();
+
+    TraceSummary summary = TraceSummary.summarize(asList(asList(root, late))).get(0);
+    assertThat(summary.endTimestamp - summary.timestamp).isEqualTo(13_000L);
+  }
+
+  @Test public void summarize_noTimestamps() {
+    Span unstarted = root.toBuilder().timestamp(0L).duration(0L).build();
+
+    assertThat(json(TraceSummary.summarize(asList(asList(unstarted))))).isEqualTo(
+      "[{\"traceId\":\"000000000000000a\",\"name\":\"get\",\"spanCount\":1,"
+        + "\"serviceNames\":[\"frontend\"]}]"
+    );
+  }
+
+  @Test public void summarize_skipsEmptyTraces() {
+    assertThat(TraceSummary.summarize(asList(Collections.emptyList(), asList(root))))
+      .extracting(s -> s.traceId)
+      .containsExactly(root.traceId());
+  }
+
+  static String json(List<TraceSummary> summaries) {
+    return new String(TraceSummary.encodeList(summaries), UTF_8);
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.server.internal.TracesQueryCache.normalize;
+
+public class TracesQueryCacheTest {
+  static final long GRANULARITY = TimeUnit.MINUTES.toMillis(1);
+  static final long TTL = TimeUnit.MINUTES.toMillis(5), RECENT_TTL = TimeUnit.SECONDS.toMillis(10);
+  static final long NOW = 1_500_000_000_000L + 1234L; // not aligned to the granularity
+
+  Endpoint frontend = Endpoint.newBuilder().serviceName("frontend").build();
+  Span span = Span.newBuilder().traceId("a").id("a").name("get").kind(Span.Kind.SERVER)
+    .localEndpoint(frontend).timestamp((NOW - 5000L) * 1000L).duration(10L).build();
+
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  FakeClock clock = new FakeClock(NOW);
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  TracesQueryCache cache =
+    new TracesQueryCache(storage, clock, 1024 * 1024, GRANULARITY, TTL, RECENT_TTL, registry);
+
+  QueryRequest request = QueryRequest.newBuilder()
+    .serviceName("frontend").endTs(NOW).lookback(TimeUnit.HOURS.toMillis(1)).limit(10).build();
+
+  @Test public void normalize_widensWindowToGranularity() {
+    QueryRequest normalized = normalize(request, GRANULARITY);
+
+    assertThat(normalized.endTs())
+      .isGreaterThanOrEqualTo(request.endTs())
+      .isEqualTo(normalized.endTs() / GRANULARITY * GRANULARITY);
+    long beginTs = normalized.endTs() - normalized.lookback();
+    assertThat(beginTs)
+      .isLessThanOrEqualTo(request.endTs() - request.lookback())
+      .isEqualTo(beginTs / GRANULARITY * GRANULARITY);
+  }
+
+  @Test public void normalize_sameKeyWithinGranularity() {
+    assertThat(normalize(request.toBuilder().endTs(NOW + 1000L).build(), GRANULARITY))
+      .isEqualTo(normalize(request, GRANULARITY));
+  }
+
+  @Test public void normalize_alignedIsUnchanged() {
+    QueryRequest aligned = request.toBuilder().endTs(NOW - NOW % GRANULARITY).build();
+
+    assertThat(normalize(aligned, GRANULARITY)).isSameAs(aligned);
+  }
+
+  @Test public void repeatedSearchIsAHit() throws IOException {
+    storage.accept(asList(span));
+
+    SpanStore spanStore = cache.spanStore();
+    List<List<Span>> first = spanStore.getTraces(request).execute();
+    clock.advance(1000L);
+    List<List<Span>> second =
+      spanStore.getTraces(request.toBuilder().endTs(clock.millis()).build()).execute();
+
+    assertThat(first).containsExactly(asList(span));
+    assertThat(second).isSameAs(first);
+    assertThat(registry.get("zipkin_storage.cache.hits").counter().count()).isEqualTo(1.0);
+    assertThat(registry.get("zipkin_storage.cache.misses").counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void windowIncludingNow_expiresSooner() throws IOException {
+    cache.spanStore().getTraces(request).execute();
+    storage.accept(asList(span));
+
+    clock.advance(RECENT_TTL);
+    assertThat(cache.spanStore().getTraces(request).execute())
+      .containsExactly(asList(span));
+  }
+
+  @Test public void windowInThePast_cachedForTtl() throws IOException {
+    QueryRequest past = request.toBuilder().endTs(NOW - TimeUnit.HOURS.toMillis(2)).build();
+    cache.spanStore().getTraces(past).execute();
+
+    clock.advance(TTL - 1);
+    cache.spanStore().getTraces(past).execute();
+    clock.advance(1);
+    cache.spanStore().getTraces(past).execute();
+
+    assertThat(registry.get("zipkin_storage.cache.hits").counter().count()).isEqualTo(1.0);
+    assertThat(registry.get("zipkin_storage.cache.misses").counter().count()).isEqualTo(2.0);
+  }
+}
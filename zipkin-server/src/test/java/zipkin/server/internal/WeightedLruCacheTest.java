@@ -0,0 +1,60 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeightedLruCacheTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  WeightedLruCache<String, String> cache = new WeightedLruCache<>("test", 10, registry);
+
+  @Test public void evictsLeastRecentlyUsed() {
+    cache.put("a", "a", 4, Long.MAX_VALUE);
+    cache.put("b", "b", 4, Long.MAX_VALUE);
+    cache.get("a", 0L); // now b is least recently used
+    cache.put("c", "c", 4, Long.MAX_VALUE);
+
+    assertThat(cache.entries).containsOnlyKeys("a", "c");
+    assertThat(cache.weight()).isEqualTo(8);
+    assertThat(registry.get("zipkin_storage.cache.evictions").counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void replacingAdjustsWeight() {
+    cache.put("a", "a", 4, Long.MAX_VALUE);
+    cache.put("a", "aa", 6, Long.MAX_VALUE);
+
+    assertThat(cache.weight()).isEqualTo(6);
+    assertThat(cache.get("a", 0L)).isEqualTo("aa");
+  }
+
+  @Test public void ignoresValuesHeavierThanMax() {
+    cache.put("a", "a", 4, Long.MAX_VALUE);
+    cache.put("b", "b", 11, Long.MAX_VALUE);
+
+    assertThat(cache.entries).containsOnlyKeys("a");
+  }
+
+  @Test public void expiredIsAMissAndRemoved() {
+    cache.put("a", "a", 4, 10L);
+
+    assertThat(cache.get("a", 9L)).isEqualTo("a");
+    assertThat(cache.get("a", 10L)).isNull();
+    assertThat(cache.weight()).isZero();
+    assertThat(registry.get("zipkin_storage.cache.hits").counter().count()).isEqualTo(1.0);
+    assertThat(registry.get("zipkin_storage.cache.misses").counter().count()).isEqualTo(1.0);
+  }
+}
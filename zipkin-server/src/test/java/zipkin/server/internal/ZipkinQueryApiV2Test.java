@@ -0,0 +1,59 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server.internal;
+
+import java.util.EnumSet;
+import org.junit.Test;
+import zipkin2.internal.V2SpanWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.internal.V2SpanWriter.Field.DURATION;
+import static zipkin2.internal.V2SpanWriter.Field.KIND;
+import static zipkin2.internal.V2SpanWriter.Field.TAGS;
+import static zipkin2.internal.V2SpanWriter.Field.TIMESTAMP;
+
+public class ZipkinQueryApiV2Test {
+
+  @Test public void parseFields_absentMeansAll() {
+    assertThat(ZipkinQueryApiV2.parseFields(null)).isNull();
+    assertThat(ZipkinQueryApiV2.parseFields("")).isNull();
+    assertThat(ZipkinQueryApiV2.parseFields("name,kind,timestamp,duration,localEndpoint,"
+      + "remoteEndpoint,annotations,tags,debug,shared")).isNull();
+    assertThat(ZipkinQueryApiV2.spanWriter(null)).isSameAs(ZipkinQueryApiV2.ALL_FIELDS);
+  }
+
+  @Test public void parseFields_invalidField() {
+    assertThatThrownBy(() -> ZipkinQueryApiV2.parseFields("timestamp,binaryAnnotations"))
+      .isInstanceOf(ZipkinQueryApiV2.InvalidFieldException.class)
+      .hasMessage("Invalid field: binaryAnnotations");
+  }
+
+  @Test public void parseFields_skipsIdsAndEmptyNames() {
+    assertThat(ZipkinQueryApiV2.parseFields("traceId,, timestamp,id,parentId,"))
+      .containsExactly(TIMESTAMP);
+  }
+
+  @Test public void storageFields_addsTimestampAndDuration() {
+    assertThat(ZipkinQueryApiV2.storageFields(EnumSet.of(KIND, TAGS)))
+      .containsExactly("kind", "tags", "timestamp", "duration");
+    assertThat(ZipkinQueryApiV2.storageFields(EnumSet.of(DURATION)))
+      .containsExactly("duration", "timestamp");
+  }
+
+  @Test public void storageFields_none() {
+    assertThat(ZipkinQueryApiV2.storageFields(EnumSet.noneOf(V2SpanWriter.Field.class)))
+      .containsExactly("timestamp", "duration");
+  }
+}
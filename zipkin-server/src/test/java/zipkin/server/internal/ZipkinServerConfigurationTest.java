@@ -28,6 +28,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import zipkin.internal.V2StorageComponent;
 import zipkin.server.internal.brave.TracingConfiguration;
+import zipkin2.storage.InMemoryStorage;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -132,6 +133,35 @@ public class ZipkinServerConfigurationTest {
       .containsExactly(false);
   }
 
+  @Test public void nameRegistry_disabledByDefault() {
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    V2StorageComponent v2Storage = context.getBean(V2StorageComponent.class);
+    assertThat(v2Storage.delegate())
+      .isSameAs(context.getBean(InMemoryStorage.class));
+  }
+
+  @Test public void nameRegistry_canEnable() {
+    addEnvironment(context, "zipkin.query.name-registry.enabled:true");
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    V2StorageComponent v2Storage = context.getBean(V2StorageComponent.class);
+    assertThat(v2Storage.delegate())
+      .isInstanceOf(NameRegistry.class);
+    assertThat(ForwardingStorageComponent.unwrap(v2Storage.delegate()))
+      .isSameAs(context.getBean(InMemoryStorage.class));
+  }
+
   @Configuration
   public static class Config {
     @Bean
@@ -70,6 +70,54 @@ public final class ElasticsearchHttpStorage extends StorageComponent
       return this;
     }
 
+    /** @see ElasticsearchStorage.Builder#bulkMaxBytes(int) */
+    public final Builder bulkMaxBytes(int bulkMaxBytes) {
+      delegate.bulkMaxBytes(bulkMaxBytes);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#bulkMaxActions(int) */
+    public final Builder bulkMaxActions(int bulkMaxActions) {
+      delegate.bulkMaxActions(bulkMaxActions);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#bulkLingerMillis(int) */
+    public final Builder bulkLingerMillis(int bulkLingerMillis) {
+      delegate.bulkLingerMillis(bulkLingerMillis);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#bulkMaxConcurrentRequests(int) */
+    public final Builder bulkMaxConcurrentRequests(int bulkMaxConcurrentRequests) {
+      delegate.bulkMaxConcurrentRequests(bulkMaxConcurrentRequests);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#bulkMaxRetries(int) */
+    public final Builder bulkMaxRetries(int bulkMaxRetries) {
+      delegate.bulkMaxRetries(bulkMaxRetries);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#compressionEnabled(boolean) */
+    public final Builder compressionEnabled(boolean compressionEnabled) {
+      delegate.compressionEnabled(compressionEnabled);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#traceIdRouting(boolean) */
+    public final Builder traceIdRouting(boolean traceIdRouting) {
+      delegate.traceIdRouting(traceIdRouting);
+      return this;
+    }
+
+    /** @see ElasticsearchStorage.Builder#traceDayLookup(boolean) */
+    public final Builder traceDayLookup(boolean traceDayLookup) {
+      delegate.traceDayLookup(traceDayLookup);
+      return this;
+    }
+
     /** @see ElasticsearchStorage.Builder#pipeline(String) */
     public final Builder pipeline(String pipeline) {
       delegate.pipeline(pipeline);
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suppresses writes of autocomplete documents that were written recently. Like the service and
+ * span name inserts of Cassandra, a key is reserved when first added, and removed if the write
+ * fails, so that the next span retries it.
+ *
+ * <p>Documents have a deterministic ID, so an expired or evicted key only costs a redundant write.
+ */
+class AutocompleteCache { // not final for testing
+  static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  static final int MAX_SIZE = 10000;
+
+  final ConcurrentMap<String, Long> expirations = new ConcurrentHashMap<>();
+  final long ttlNanos;
+  final int maxSize;
+
+  AutocompleteCache(long ttlMillis, int maxSize) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.maxSize = maxSize;
+  }
+
+  // visible for testing, since nanoTime is weird and can return negative
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /** Returns true if the caller should write the key, as it wasn't written within the TTL. */
+  boolean add(String key) {
+    long now = nanoTime();
+    Long expiration = expirations.get(key);
+    if (expiration != null && expiration - now > 0) return false;
+    if (expiration == null && expirations.size() >= maxSize) evict(now);
+
+    Long next = now + ttlNanos;
+    return expiration == null
+      ? expirations.putIfAbsent(key, next) == null
+      : expirations.replace(key, expiration, next);
+  }
+
+  /** Allows the keys to be written again, for example when their write failed. */
+  void invalidate(Collection<String> keys) {
+    for (String key : keys) expirations.remove(key);
+  }
+
+  /** Removes expired keys, or all keys when none expired, so that the size stays bounded. */
+  void evict(long now) {
+    boolean removed = false;
+    for (Iterator<Map.Entry<String, Long>> i = expirations.entrySet().iterator(); i.hasNext(); ) {
+      if (i.next().getValue() - now <= 0) {
+        i.remove();
+        removed = true;
+      }
+    }
+    if (!removed) expirations.clear();
+  }
+}
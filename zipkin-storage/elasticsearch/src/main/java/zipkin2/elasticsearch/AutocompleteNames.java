@@ -0,0 +1,114 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import com.squareup.moshi.JsonReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import okio.BufferedSource;
+import zipkin2.Call;
+import zipkin2.elasticsearch.internal.client.HttpCall;
+
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.AUTOCOMPLETE;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.SPAN;
+import static zipkin2.elasticsearch.internal.JsonReaders.collectValuesNamed;
+import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
+
+/**
+ * Names read from the autocomplete indices, and which of those indices had matching documents.
+ * Days without any, for example before upgrading, are read from span indices instead, and those
+ * names are merged in by {@link #map}.
+ *
+ * <p>When a range is searched by a wildcard, such as a whole month, the month counts as read when
+ * any of its days had documents.
+ */
+final class AutocompleteNames implements Call.Mapper<List<String>, List<String>> {
+  /** Name of the aggregation of indices documents were found in */
+  static final String INDEX = "_index";
+
+  static final HttpCall.BodyConverter<AutocompleteNames> CONVERTER =
+    new HttpCall.BodyConverter<AutocompleteNames>() {
+      @Override public AutocompleteNames convert(BufferedSource content) throws IOException {
+        Set<String> names = new LinkedHashSet<>(), indices = new LinkedHashSet<>();
+        JsonReader aggregations = enterPath(JsonReader.of(content), "aggregations");
+        if (aggregations != null && aggregations.peek() == JsonReader.Token.BEGIN_OBJECT) {
+          aggregations.beginObject();
+          while (aggregations.hasNext()) {
+            String name = aggregations.nextName();
+            if (aggregations.peek() != JsonReader.Token.BEGIN_OBJECT) {
+              aggregations.skipValue();
+              continue;
+            }
+            List<String> keys = collectValuesNamed(aggregations, "key");
+            if (name.equals(INDEX)) {
+              indices.addAll(keys);
+            } else {
+              names.addAll(keys);
+            }
+          }
+        }
+        return new AutocompleteNames(new ArrayList<>(names), indices);
+      }
+
+      @Override public String toString() {
+        return "AutocompleteNames";
+      }
+    };
+
+  final List<String> names;
+  final Set<String> indices;
+
+  AutocompleteNames(List<String> names, Set<String> indices) {
+    this.names = names;
+    this.indices = indices;
+  }
+
+  /** Returns the span indices for the autocomplete indices that had no matching documents. */
+  List<String> spanIndicesNotFound(List<String> autocompleteIndices) {
+    List<String> result = Collections.emptyList();
+    for (String index : autocompleteIndices) {
+      if (found(index)) continue;
+      if (result.isEmpty()) result = new ArrayList<>();
+      int type = index.lastIndexOf(":" + AUTOCOMPLETE + "-") + 1;
+      String date = index.substring(type + AUTOCOMPLETE.length()); // ex. "-2018-05-20"
+      result.add(index.substring(0, type) + SPAN + date);
+    }
+    return result;
+  }
+
+  boolean found(String index) {
+    if (!index.endsWith("*")) return indices.contains(index);
+    String prefix = index.substring(0, index.length() - 1);
+    for (String found : indices) {
+      if (found.startsWith(prefix)) return true;
+    }
+    return false;
+  }
+
+  /** Merges names aggregated from span indices into those from autocomplete indices. */
+  @Override public List<String> map(List<String> spanNames) {
+    if (spanNames.isEmpty()) return names;
+    Set<String> result = new LinkedHashSet<>(names);
+    result.addAll(spanNames);
+    return new ArrayList<>(result);
+  }
+
+  @Override public String toString() {
+    return "AutocompleteNames{names=" + names + ", indices=" + indices + "}";
+  }
+}
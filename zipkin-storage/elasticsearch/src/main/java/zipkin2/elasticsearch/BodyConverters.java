@@ -15,6 +15,8 @@ package zipkin2.elasticsearch;
 
 import com.squareup.moshi.JsonReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import okio.BufferedSource;
 import zipkin2.DependencyLink;
@@ -24,6 +26,7 @@ import zipkin2.elasticsearch.internal.client.SearchResultConverter;
 import zipkin2.internal.DependencyLinker;
 
 import static zipkin2.elasticsearch.internal.JsonReaders.collectValuesNamed;
+import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
 
 public final class BodyConverters {
   static final HttpCall.BodyConverter<Object> NULL = new HttpCall.BodyConverter<Object>() {
@@ -37,6 +40,37 @@ public final class BodyConverters {
         return collectValuesNamed(JsonReader.of(b), "key");
       }
     };
+  /** Reads the keys of each search in a multi-search response, failing if any search failed. */
+  static final HttpCall.BodyConverter<List<List<String>>> KEYS_PER_RESPONSE =
+    new HttpCall.BodyConverter<List<List<String>>>() {
+      @Override public List<List<String>> convert(BufferedSource b) throws IOException {
+        JsonReader reader = enterPath(JsonReader.of(b), "responses");
+        if (reader == null) throw new IllegalStateException(".responses not in multi-search result");
+        List<List<String>> result = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          List<String> keys = Collections.emptyList();
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("error")) {
+              throw new IllegalStateException("search failed: " + reader.readJsonValue());
+            } else if (name.equals("aggregations")) {
+              keys = collectValuesNamed(reader, "key");
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          result.add(keys);
+        }
+        return result;
+      }
+
+      @Override public String toString() {
+        return "KeysPerResponse";
+      }
+    };
   static final HttpCall.BodyConverter<List<Span>> SPANS =
     SearchResultConverter.create(JsonAdapters.SPAN_ADAPTER);
   static final HttpCall.BodyConverter<List<DependencyLink>> DEPENDENCY_LINKS =
@@ -13,28 +13,35 @@
  */
 package zipkin2.elasticsearch;
 
-import com.squareup.moshi.JsonWriter;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import okio.Buffer;
-import okio.ByteString;
+import okio.Utf8;
 import zipkin2.Annotation;
 import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.Span;
-import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.elasticsearch.internal.BulkPipeline;
 import zipkin2.elasticsearch.internal.HttpBulkIndexer;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
-import zipkin2.elasticsearch.internal.client.HttpCall;
+import zipkin2.internal.JsonCodec;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.V2SpanWriter;
 import zipkin2.storage.SpanConsumer;
 
-class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testing
-  static final Logger LOG = Logger.getLogger(ElasticsearchSpanConsumer.class.getName());
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.AUTOCOMPLETE;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.DAY_MILLIS;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.TRACE;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.routingKey;
+import static zipkin2.internal.JsonEscaper.jsonEscape;
 
+class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testing
   private static final int INDEX_CHARS_LIMIT = 256;
+  static final V2SpanWriter SPAN_WRITER = new V2SpanWriter();
 
   final ElasticsearchStorage es;
   final IndexNameFormatter indexNameFormatter;
@@ -68,31 +75,185 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
         }
         if (indexTimestamp == 0L) indexTimestamp = System.currentTimeMillis();
       }
-      indexer.add(indexTimestamp, span, spanTimestamp);
+      indexer.add(indexTimestamp, span);
     }
   }
 
+  static final byte[] EMPTY_DOCUMENT = {'{', '}'};
+  /** Longer document IDs are rejected by Elasticsearch */
+  static final int MAX_ID_BYTES = 512;
+
   static final class BulkSpanIndexer {
     final HttpBulkIndexer indexer;
+    final BulkPipeline pipeline;
     final IndexNameFormatter indexNameFormatter;
-    final boolean searchEnabled;
+    final boolean traceIdRouting;
+    final SpanDocumentWriter documentWriter;
+    /** Days written to the trace lookup index, or null when it is disabled */
+    @Nullable final Set<String> traceDays;
+    /** Suppresses repeat writes of names, or null when search is disabled */
+    @Nullable final AutocompleteCache autocompleteCache;
+    /** Keys reserved by this request, so they can be written again if it fails */
+    final List<String> autocompleteKeys = new ArrayList<>();
+
+    // Spans in a request are usually from the same day, so the last index names are reused.
+    long lastSpanDay = Long.MIN_VALUE;
+    String lastSpanIndex, lastAutocompleteIndex;
+    // Likewise, consecutive spans often have the same names, which needn't be looked up again.
+    String lastServiceName, lastSpanName, lastRemoteServiceName, lastNamesIndex;
 
     BulkSpanIndexer(ElasticsearchStorage es) {
       this.indexer = new HttpBulkIndexer("index-span", es);
+      this.pipeline = es.bulkPipeline();
       this.indexNameFormatter = es.indexNameFormatter();
-      this.searchEnabled = es.searchEnabled();
+      this.documentWriter = new SpanDocumentWriter(es.searchEnabled());
+      this.traceIdRouting = es.traceIdRouting();
+      this.traceDays = es.traceDayLookup() ? new LinkedHashSet<String>() : null;
+      this.autocompleteCache = es.searchEnabled() ? es.autocompleteCache() : null;
+    }
+
+    void add(long indexTimestamp, Span span) {
+      String index = spanIndex(indexTimestamp);
+      String routing = traceIdRouting ? routingKey(span.traceId()) : null;
+      indexer.add(index, ElasticsearchSpanStore.SPAN, span, documentWriter,
+        null /* Allow ES to choose an ID */, routing);
+      if (traceDays != null) addTraceDay(indexTimestamp, span.traceId());
+      if (autocompleteCache != null) addAutocomplete(span);
+    }
+
+    String spanIndex(long indexTimestamp) {
+      long day = indexTimestamp / DAY_MILLIS;
+      if (day != lastSpanDay) {
+        lastSpanIndex =
+          indexNameFormatter.formatTypeAndTimestamp(ElasticsearchSpanStore.SPAN, indexTimestamp);
+        lastAutocompleteIndex = autocompleteCache != null
+          ? indexNameFormatter.formatTypeAndTimestamp(AUTOCOMPLETE, indexTimestamp)
+          : null;
+        lastSpanDay = day;
+      }
+      return lastSpanIndex;
+    }
+
+    /**
+     * Writes the span's names into the autocomplete index of the day last passed to {@link
+     * #spanIndex}, unless they were written recently. The ID is derived from the names, so that
+     * writes from other servers or after the cache expires overwrite the same document.
+     */
+    void addAutocomplete(Span span) {
+      String serviceName = span.localServiceName(), remoteServiceName = span.remoteServiceName();
+      if (serviceName == null && remoteServiceName == null) return;
+      String spanName = serviceName != null ? span.name() : null; // only local spans are named
+      if (lastAutocompleteIndex.equals(lastNamesIndex)
+        && equal(serviceName, lastServiceName)
+        && equal(spanName, lastSpanName)
+        && equal(remoteServiceName, lastRemoteServiceName)) {
+        return;
+      }
+      lastNamesIndex = lastAutocompleteIndex;
+      lastServiceName = serviceName;
+      lastSpanName = spanName;
+      lastRemoteServiceName = remoteServiceName;
+
+      String id = autocompleteId(serviceName, spanName, remoteServiceName);
+      String key = lastAutocompleteIndex + '/' + id;
+      if (!autocompleteCache.add(key)) return;
+      autocompleteKeys.add(key);
+
+      indexer.add(lastAutocompleteIndex, AUTOCOMPLETE,
+        autocompleteDocument(serviceName, spanName, remoteServiceName),
+        Utf8.size(id) <= MAX_ID_BYTES ? id : null);
     }
 
-    void add(long indexTimestamp, Span span, long timestampMillis) {
-      String index = indexNameFormatter.formatTypeAndTimestamp(ElasticsearchSpanStore.SPAN, indexTimestamp);
-      byte[] document = searchEnabled
-        ? prefixWithTimestampMillisAndQuery(span, timestampMillis)
-        : SpanBytesEncoder.JSON_V2.encode(span);
-      indexer.add(index, ElasticsearchSpanStore.SPAN, document, null /* Allow ES to choose an ID */);
+    /** Records the day of the trace once per request, as spans in a request often share a trace */
+    void addTraceDay(long indexTimestamp, String traceId) {
+      String index = indexNameFormatter.formatTypeAndTimestamp(TRACE, indexTimestamp);
+      String id = routingKey(traceId);
+      if (!traceDays.add(index + '/' + id)) return;
+      indexer.add(index, TRACE, EMPTY_DOCUMENT, id);
     }
 
-    HttpCall<Void> newCall() {
-      return indexer.newCall();
+    /** Returns a call that sends the spans with those of other writers. */
+    Call<Void> newCall() {
+      Call<Void> result = pipeline.newCall(indexer);
+      if (autocompleteKeys.isEmpty()) return result;
+      final List<String> keys = autocompleteKeys;
+      return result.handleError(new Call.ErrorHandler<Void>() {
+        @Override public void onErrorReturn(Throwable error, Callback<Void> callback) {
+          autocompleteCache.invalidate(keys); // so that the next span retries
+          callback.onError(error);
+        }
+
+        @Override public String toString() {
+          return "InvalidateAutocompleteKeys";
+        }
+      });
+    }
+  }
+
+  static boolean equal(@Nullable Object a, @Nullable Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  static String autocompleteId(@Nullable String serviceName, @Nullable String spanName,
+    @Nullable String remoteServiceName) {
+    StringBuilder result = new StringBuilder();
+    if (serviceName != null) result.append(serviceName);
+    result.append('|');
+    if (spanName != null) result.append(spanName);
+    result.append('|');
+    if (remoteServiceName != null) result.append(remoteServiceName);
+    return result.toString();
+  }
+
+  static byte[] autocompleteDocument(@Nullable String serviceName, @Nullable String spanName,
+    @Nullable String remoteServiceName) {
+    Buffer document = new Buffer().writeByte('{');
+    boolean first = true;
+    if (serviceName != null) {
+      document.writeUtf8("\"serviceName\":\"").writeUtf8(jsonEscape(serviceName)).writeByte('"');
+      first = false;
+    }
+    if (spanName != null) {
+      if (!first) document.writeByte(',');
+      document.writeUtf8("\"spanName\":\"").writeUtf8(jsonEscape(spanName)).writeByte('"');
+      first = false;
+    }
+    if (remoteServiceName != null) {
+      if (!first) document.writeByte(',');
+      document.writeUtf8("\"remoteServiceName\":\"").writeUtf8(jsonEscape(remoteServiceName))
+        .writeByte('"');
+    }
+    return document.writeByte('}').readByteArray();
+  }
+
+  /**
+   * Writes the span's JSON into the bulk request body. A scratch array holds the span JSON between
+   * spans, so that beyond the body, no memory is allocated per span until a larger span is seen.
+   */
+  static final class SpanDocumentWriter implements HttpBulkIndexer.DocumentWriter<Span> {
+    final boolean searchEnabled;
+    byte[] scratch = new byte[1024];
+
+    SpanDocumentWriter(boolean searchEnabled) {
+      this.searchEnabled = searchEnabled;
+    }
+
+    @Override public void write(Span span, Buffer body) {
+      write(span, TimeUnit.MICROSECONDS.toMillis(span.timestampAsLong()), body);
+    }
+
+    void write(Span span, long timestampMillis, Buffer body) {
+      int sizeInBytes = SPAN_WRITER.sizeInBytes(span);
+      if (scratch.length < sizeInBytes) {
+        scratch = new byte[Math.max(sizeInBytes, scratch.length * 2)];
+      }
+      JsonCodec.write(SPAN_WRITER, span, scratch, 0);
+      if (searchEnabled && writeTimestampMillisAndQuery(span, timestampMillis, body)) {
+        // starting at position 1 discards the span's head of '{'
+        body.writeByte(',').write(scratch, 1, sizeInBytes - 1);
+      } else {
+        body.write(scratch, 0, sizeInBytes);
+      }
     }
   }
 
@@ -109,59 +270,47 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
    * with curl.
    *
    * <p>Ex {@code curl -s localhost:9200/zipkin:span-2017-08-11/_search?q=_q:error=500}
+   *
+   * <p>This writes the opening brace and these fields, returning false if there were none to write.
    */
-  static byte[] prefixWithTimestampMillisAndQuery(Span span, long timestampMillis) {
-    Buffer query = new Buffer();
-    JsonWriter writer = JsonWriter.of(query);
-    try {
-      writer.beginObject();
-
-      if (timestampMillis != 0L) writer.name("timestamp_millis").value(timestampMillis);
-      if (!span.tags().isEmpty() || !span.annotations().isEmpty()) {
-        writer.name("_q");
-        writer.beginArray();
-        for (Annotation a : span.annotations()) {
-          if (a.value().length() > INDEX_CHARS_LIMIT) {
-            continue;
-          }
-          writer.value(a.value());
-        }
-        for (Map.Entry<String, String> tag : span.tags().entrySet()) {
-          int length = tag.getKey().length() + tag.getValue().length() + 1;
-          if (length > INDEX_CHARS_LIMIT) {
-            continue;
-          }
-          writer.value(tag.getKey()); // search is possible by key alone
-          writer.value(
-            new StringBuilder(length)
-              .append(tag.getKey()).append("=").append(tag.getValue())
-              .toString()
-          );
-        }
-        writer.endArray();
+  static boolean writeTimestampMillisAndQuery(Span span, long timestampMillis, Buffer body) {
+    boolean hasQuery = !span.tags().isEmpty() || !span.annotations().isEmpty();
+    if (timestampMillis == 0L && !hasQuery) return false;
+
+    body.writeByte('{');
+    if (timestampMillis != 0L) {
+      body.writeUtf8("\"timestamp_millis\":").writeDecimalLong(timestampMillis);
+      if (hasQuery) body.writeByte(',');
+    }
+    if (hasQuery) {
+      body.writeUtf8("\"_q\":[");
+      boolean first = true;
+      for (int i = 0, length = span.annotations().size(); i < length; i++) {
+        Annotation a = span.annotations().get(i);
+        if (a.value().length() > INDEX_CHARS_LIMIT) continue;
+        if (!first) body.writeByte(',');
+        body.writeByte('"').writeUtf8(jsonEscape(a.value())).writeByte('"');
+        first = false;
       }
-      writer.endObject();
-    } catch (IOException e) {
-      // very unexpected to have an IOE for an in-memory write
-      assert false : "Error indexing query for span: " + span;
-      if (LOG.isLoggable(Level.FINE)) {
-        LOG.log(Level.FINE, "Error indexing query for span: " + span, e);
+      for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+        int length = tag.getKey().length() + tag.getValue().length() + 1;
+        if (length > INDEX_CHARS_LIMIT) continue;
+        if (!first) body.writeByte(',');
+        String key = jsonEscape(tag.getKey());
+        body.writeByte('"').writeUtf8(key).writeByte('"'); // search is possible by key alone
+        body.writeUtf8(",\"").writeUtf8(key).writeByte('=')
+          .writeUtf8(jsonEscape(tag.getValue())).writeByte('"');
+        first = false;
       }
-      return SpanBytesEncoder.JSON_V2.encode(span);
-    }
-    byte[] document = SpanBytesEncoder.JSON_V2.encode(span);
-    if (query.rangeEquals(0L, ByteString.of(new byte[] {'{', '}'}))) {
-      return document;
+      body.writeByte(']');
     }
-    byte[] prefix = query.readByteArray();
-
-    byte[] newSpanBytes = new byte[prefix.length + document.length - 1];
-    int pos = 0;
-    System.arraycopy(prefix, 0, newSpanBytes, pos, prefix.length);
-    pos += prefix.length;
-    newSpanBytes[pos - 1] = ',';
-    // starting at position 1 discards the old head of '{'
-    System.arraycopy(document, 1, newSpanBytes, pos, document.length - 1);
-    return newSpanBytes;
+    return true;
+  }
+
+  /** Returns the document written for the span, exposed for testing. */
+  static byte[] prefixWithTimestampMillisAndQuery(Span span, long timestampMillis) {
+    Buffer document = new Buffer();
+    new SpanDocumentWriter(true).write(span, timestampMillis, document);
+    return document.readByteArray();
   }
 }
@@ -13,54 +13,91 @@
  */
 package zipkin2.elasticsearch;
 
+import com.squareup.moshi.JsonReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import okio.BufferedSource;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
 import zipkin2.elasticsearch.internal.client.Aggregation;
-import zipkin2.elasticsearch.internal.client.HttpCall;
 import zipkin2.elasticsearch.internal.client.HttpCall.BodyConverter;
 import zipkin2.elasticsearch.internal.client.SearchCallFactory;
 import zipkin2.elasticsearch.internal.client.SearchRequest;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.PageToken;
 import zipkin2.storage.QueryRequest;
-import zipkin2.storage.SpanStore;
+import zipkin2.storage.HintedSpanStore;
 
 import static java.util.Arrays.asList;
+import static zipkin2.elasticsearch.internal.JsonReaders.collectValuesNamed;
 
-final class ElasticsearchSpanStore implements SpanStore {
+final class ElasticsearchSpanStore implements HintedSpanStore {
 
   static final String SPAN = "span";
   static final String DEPENDENCY = "dependency";
+  /** Optional lookup of the days a trace has spans in. See {@link #getTrace(String)} */
+  static final String TRACE = "trace";
+  /** Distinct service and span names per day, read instead of aggregating span indices */
+  static final String AUTOCOMPLETE = "autocomplete";
+  static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
   /** To not produce unnecessarily long queries, we don't look back further than first ES support */
   static final long EARLIEST_MS = 1456790400000L; // March 2016
 
   final SearchCallFactory search;
   final String[] allSpanIndices;
   final IndexNameFormatter indexNameFormatter;
-  final boolean strictTraceId, searchEnabled;
+  final boolean strictTraceId, searchEnabled, traceIdRouting, traceDayLookup;
+  final TracesConverter groupByTraceId;
   final int namesLookback;
 
+  /** Converts the names of trace lookup indices that matched into span index names. */
+  final BodyConverter<List<String>> spanIndicesFromLookup = new BodyConverter<List<String>>() {
+    @Override public List<String> convert(BufferedSource content) throws IOException {
+      String tracePrefix = indexNameFormatter.index() + ":" + TRACE + "-";
+      String spanPrefix = indexNameFormatter.index() + ":" + SPAN + "-";
+      List<String> result = new ArrayList<>();
+      for (String index : collectValuesNamed(JsonReader.of(content), "_index")) {
+        if (index.startsWith(tracePrefix)) {
+          result.add(spanPrefix + index.substring(tracePrefix.length()));
+        }
+      }
+      return result;
+    }
+
+    @Override public String toString() {
+      return "SpanIndicesFromLookup";
+    }
+  };
+
   ElasticsearchSpanStore(ElasticsearchStorage es) {
     this.search = new SearchCallFactory(es.http());
     this.allSpanIndices = new String[] {es.indexNameFormatter().formatType(SPAN)};
     this.indexNameFormatter = es.indexNameFormatter();
     this.strictTraceId = es.strictTraceId();
+    this.groupByTraceId = new TracesConverter(strictTraceId);
     this.searchEnabled = es.searchEnabled();
+    this.traceIdRouting = es.traceIdRouting();
+    this.traceDayLookup = es.traceDayLookup();
     this.namesLookback = es.namesLookback();
   }
 
+  /**
+   * Trace IDs are aggregated in {@link PageToken} position order: newest first by the earliest
+   * filtered span. A page token is resumed from by ending the timestamp range at its millisecond,
+   * which leaves out traces in earlier pages, other than ones in that same millisecond.
+   */
   @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
     if (!searchEnabled) return Call.emptyList();
+    if (request.pageToken() != null) return PageToken.resume(this, request);
 
     long endMillis = request.endTs();
     long beginMillis = Math.max(endMillis - request.lookback(), EARLIEST_MS);
@@ -101,16 +138,10 @@ final class ElasticsearchSpanStore implements SpanStore {
     List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
     if (indices.isEmpty()) return Call.emptyList();
 
-    SearchRequest esRequest = SearchRequest.create(indices)
-      .filters(filters).addAggregation(traceIdTimestamp);
-
-    HttpCall<List<String>> traceIdsCall = search.newCall(esRequest, BodyConverters.KEYS);
-
     // When we receive span results, we need to group them by trace ID
     BodyConverter<List<List<Span>>> converter = new BodyConverter<List<List<Span>>>() {
         @Override public List<List<Span>> convert(BufferedSource content) throws IOException {
-          List<Span> input = BodyConverters.SPANS.convert(content);
-          List<List<Span>> traces = groupByTraceId(input, strictTraceId);
+          List<List<Span>> traces = groupByTraceId.convert(content);
 
           if (strictTraceId) return traces;
 
@@ -125,36 +156,146 @@ final class ElasticsearchSpanStore implements SpanStore {
         }
       };
 
-    return traceIdsCall.flatMap(new Call.FlatMapper<List<String>, List<List<Span>>>() {
-      @Override public Call<List<List<Span>>> map(List<String> input) {
-        if (input.isEmpty()) return Call.emptyList();
+    Call.FlatMapper<List<String>, List<List<Span>>> getTracesById =
+      new Call.FlatMapper<List<String>, List<List<Span>>>() {
+        @Override public Call<List<List<Span>>> map(List<String> input) {
+          if (input.isEmpty()) return Call.emptyList();
+
+          SearchRequest getTraces = SearchRequest.create(indices).terms("traceId", input);
+          if (traceIdRouting) getTraces.routing(routingKeys(input));
+          // So that the converter gets each trace's spans together. Lenient trace IDs are analyzed,
+          // so can't be sorted on.
+          if (strictTraceId) getTraces.sort("traceId");
+          return search.newCall(getTraces, converter);
+        }
+      };
+
+    // Over a wide range, a single aggregation reads every index before it can return anything.
+    // Searching newest first usually stops after the first day. Per the fudge above, a trace that
+    // crosses midnight is ordered by the newest day its filtered spans are in.
+    if (indices.size() > 2) {
+      List<String> newestFirst = new ArrayList<>(indices);
+      Collections.reverse(newestFirst);
+      return new NewestFirstTraceSearch(search, newestFirst, filters, traceIdTimestamp,
+        request.limit(), getTracesById);
+    }
 
-        SearchRequest getTraces = SearchRequest.create(indices).terms("traceId", input);
-        return search.newCall(getTraces, converter);
-      }
-    });
+    SearchRequest esRequest = SearchRequest.create(indices)
+      .filters(filters).addAggregation(traceIdTimestamp);
+    return search.newCall(esRequest, BodyConverters.KEYS).flatMap(getTracesById);
   }
 
+  /**
+   * When the trace day lookup is enabled, this first reads the days the trace has spans in, then
+   * searches only the span indices for those days. Otherwise, or when that finds nothing, this
+   * searches all span indices.
+   */
   @Override public Call<List<Span>> getTrace(String traceId) {
+    return getTrace(traceId, 0L, (List<String>) null);
+  }
+
+  /**
+   * Searches the span indices for the day of the timestamp and the days either side of it, and
+   * only searches all span indices when that finds nothing.
+   */
+  @Override public Call<List<Span>> getTrace(String traceId, long timestampMillis) {
+    return getTrace(traceId, timestampMillis, (List<String>) null);
+  }
+
+  /**
+   * Like {@link #getTrace(String, long)}, except only the given fields and IDs are read from each
+   * document's source. This skips transferring and parsing fields such as tags and annotations.
+   */
+  @Override
+  public Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields) {
+    List<String> source = new ArrayList<>(fields.size() + 3);
+    source.addAll(asList("traceId", "parentId", "id"));
+    source.addAll(fields);
+    return getTrace(traceId, timestampMillis, source);
+  }
+
+  Call<List<Span>> getTrace(String traceId, long timestampMillis, @Nullable List<String> source) {
+    traceId = normalizeTraceId(traceId);
+    if (timestampMillis != 0L) {
+      List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN,
+        timestampMillis - DAY_MILLIS, timestampMillis + DAY_MILLIS);
+      return getTraceOrSearchAll(indices, traceId, source);
+    }
+    if (!traceDayLookup) return getTrace(asList(allSpanIndices), traceId, source);
+
+    SearchRequest lookup = SearchRequest.create(asList(indexNameFormatter.formatType(TRACE)))
+      .ids(Collections.singletonList(routingKey(traceId)));
+    final String finalTraceId = traceId;
+    final List<String> finalSource = source;
+    return search.newCall(lookup, spanIndicesFromLookup)
+      .flatMap(new Call.FlatMapper<List<String>, List<Span>>() {
+        @Override public Call<List<Span>> map(List<String> indices) {
+          if (indices.isEmpty()) return getTrace(asList(allSpanIndices), finalTraceId, finalSource);
+          return getTraceOrSearchAll(indices, finalTraceId, finalSource);
+        }
+      });
+  }
+
+  String normalizeTraceId(String traceId) {
     // make sure we have a 16 or 32 character trace ID
     traceId = Span.normalizeTraceId(traceId);
 
     // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
     if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+    return traceId;
+  }
 
-    SearchRequest request = SearchRequest.create(asList(allSpanIndices)).term("traceId", traceId);
+  Call<List<Span>> getTraceOrSearchAll(List<String> indices, final String traceId,
+    @Nullable final List<String> source) {
+    return getTrace(indices, traceId, source)
+      .flatMap(new Call.FlatMapper<List<Span>, List<Span>>() {
+        @Override public Call<List<Span>> map(List<Span> input) {
+          if (!input.isEmpty()) return Call.create(input);
+          return getTrace(asList(allSpanIndices), traceId, source);
+        }
+      });
+  }
+
+  /** @param source fields to read from each document, or null to read all */
+  Call<List<Span>> getTrace(List<String> indices, String traceId, @Nullable List<String> source) {
+    SearchRequest request = SearchRequest.create(indices).term("traceId", traceId);
+    if (traceIdRouting) request.routing(routingKey(traceId));
+    if (source != null) request.source(source);
     return search.newCall(request, BodyConverters.SPANS);
   }
 
+  /**
+   * Reads names from the autocomplete indices in {@link ElasticsearchStorage#namesLookback()},
+   * which only hold one document per distinct combination of names per day. Days without
+   * autocomplete documents, for example before upgrading, are read by aggregating names in their
+   * span indices instead. See {@link AutocompleteNames}
+   */
   @Override public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
 
-    long endMillis = System.currentTimeMillis();
-    long beginMillis = endMillis - namesLookback;
+    final long endMillis = System.currentTimeMillis();
+    final long beginMillis = endMillis - namesLookback;
 
-    List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
+    final List<String> indices =
+      indexNameFormatter.formatTypeAndRange(AUTOCOMPLETE, beginMillis, endMillis);
     if (indices.isEmpty()) return Call.emptyList();
 
+    SearchRequest request = SearchRequest.create(indices)
+      .addAggregation(Aggregation.terms("serviceName", Integer.MAX_VALUE))
+      .addAggregation(Aggregation.terms("remoteServiceName", Integer.MAX_VALUE))
+      .addAggregation(Aggregation.terms(AutocompleteNames.INDEX, Integer.MAX_VALUE));
+    return search.newCall(request, AutocompleteNames.CONVERTER)
+      .flatMap(new Call.FlatMapper<AutocompleteNames, List<String>>() {
+        @Override public Call<List<String>> map(AutocompleteNames input) {
+          List<String> spanIndices = input.spanIndicesNotFound(indices);
+          if (spanIndices.isEmpty()) return Call.create(input.names);
+          return aggregateServiceNames(spanIndices, beginMillis, endMillis).map(input);
+        }
+      });
+  }
+
+  Call<List<String>> aggregateServiceNames(List<String> indices, long beginMillis,
+    long endMillis) {
     // Service name queries include both local and remote endpoints. This is different than
     // Span name, as a span name can only be on a local endpoint.
     SearchRequest.Filters filters = new SearchRequest.Filters();
@@ -166,21 +307,44 @@ final class ElasticsearchSpanStore implements SpanStore {
     return search.newCall(request, BodyConverters.KEYS);
   }
 
+  /**
+   * Like {@link #getServiceNames()}, this reads the autocomplete indices first. Days without
+   * autocomplete documents for the service are read from their span indices.
+   */
   @Override public Call<List<String>> getSpanNames(String serviceName) {
     if (!searchEnabled) return Call.emptyList();
 
     if ("".equals(serviceName)) return Call.emptyList();
+    final String localServiceName = serviceName.toLowerCase(Locale.ROOT);
 
-    long endMillis = System.currentTimeMillis();
-    long beginMillis = endMillis - namesLookback;
+    final long endMillis = System.currentTimeMillis();
+    final long beginMillis = endMillis - namesLookback;
 
-    List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
+    final List<String> indices =
+      indexNameFormatter.formatTypeAndRange(AUTOCOMPLETE, beginMillis, endMillis);
     if (indices.isEmpty()) return Call.emptyList();
 
+    SearchRequest request = SearchRequest.create(indices)
+      .term("serviceName", localServiceName)
+      .addAggregation(Aggregation.terms("spanName", Integer.MAX_VALUE))
+      .addAggregation(Aggregation.terms(AutocompleteNames.INDEX, Integer.MAX_VALUE));
+    return search.newCall(request, AutocompleteNames.CONVERTER)
+      .flatMap(new Call.FlatMapper<AutocompleteNames, List<String>>() {
+        @Override public Call<List<String>> map(AutocompleteNames input) {
+          List<String> spanIndices = input.spanIndicesNotFound(indices);
+          if (spanIndices.isEmpty()) return Call.create(input.names);
+          return aggregateSpanNames(spanIndices, localServiceName, beginMillis, endMillis)
+            .map(input);
+        }
+      });
+  }
+
+  Call<List<String>> aggregateSpanNames(List<String> indices, String serviceName,
+    long beginMillis, long endMillis) {
     // A span name is only valid on a local endpoint, as a span name is defined locally
     SearchRequest.Filters filters = new SearchRequest.Filters()
       .addRange("timestamp_millis", beginMillis, endMillis)
-      .addTerm("localEndpoint.serviceName", serviceName.toLowerCase(Locale.ROOT));
+      .addTerm("localEndpoint.serviceName", serviceName);
 
     SearchRequest request = SearchRequest.create(indices)
       .filters(filters)
@@ -200,19 +364,21 @@ final class ElasticsearchSpanStore implements SpanStore {
     return search.newCall(SearchRequest.create(indices), BodyConverters.DEPENDENCY_LINKS);
   }
 
-  static List<List<Span>> groupByTraceId(Collection<Span> input, boolean strictTraceId) {
-    if (input.isEmpty()) return Collections.emptyList();
+  /**
+   * When {@link ElasticsearchStorage.Builder#traceIdRouting(boolean) trace ID routing} is on, spans
+   * are routed by the lower 64-bits of their trace ID. This keeps 128-bit traces together with any
+   * of their spans reported with 64-bit IDs.
+   */
+  static String routingKey(String traceId) {
+    return traceId.length() == 32 ? traceId.substring(16) : traceId;
+  }
 
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
-    for (Span span : input) {
-      String traceId = strictTraceId || span.traceId().length() == 16
-        ? span.traceId()
-        : span.traceId().substring(16);
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
-      }
-      groupedByTraceId.get(traceId).add(span);
+  static String routingKeys(List<String> traceIds) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0, length = traceIds.size(); i < length; i++) {
+      if (i > 0) result.append(',');
+      result.append(routingKey(traceIds.get(i)));
     }
-    return new ArrayList<>(groupedByTraceId.values());
+    return result.toString();
   }
 }
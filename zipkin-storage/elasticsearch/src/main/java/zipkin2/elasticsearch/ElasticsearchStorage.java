@@ -21,6 +21,8 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -29,7 +31,10 @@ import okhttp3.RequestBody;
 import okio.Buffer;
 import okio.BufferedSource;
 import zipkin2.CheckResult;
+import zipkin2.elasticsearch.internal.BulkMetadataPrefixes;
+import zipkin2.elasticsearch.internal.BulkPipeline;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
+import zipkin2.elasticsearch.internal.client.HostBalancer;
 import zipkin2.elasticsearch.internal.client.HttpCall;
 import zipkin2.internal.Nullable;
 import zipkin2.internal.Platform;
@@ -37,8 +42,10 @@ import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StorageComponent;
 
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.AUTOCOMPLETE;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.DEPENDENCY;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.SPAN;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.TRACE;
 import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
 
 @AutoValue
@@ -67,7 +74,15 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
       .indexReplicas(1)
       .namesLookback(86400000)
       .shutdownClientOnClose(false)
-      .flushOnWrites(false);
+      .flushOnWrites(false)
+      .bulkMaxBytes(5 * 1024 * 1024)
+      .bulkMaxActions(1000)
+      .bulkLingerMillis(0)
+      .bulkMaxConcurrentRequests(8)
+      .bulkMaxRetries(3)
+      .compressionEnabled(false)
+      .traceIdRouting(false)
+      .traceDayLookup(false);
   }
 
   public static Builder newBuilder() {
@@ -177,6 +192,65 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
      */
     public abstract Builder indexReplicas(int indexReplicas);
 
+    /**
+     * Spans from concurrent writers are combined into shared bulk requests. A request is sent once
+     * it reaches this size in bytes. Defaults to 5MiB.
+     */
+    public abstract Builder bulkMaxBytes(int bulkMaxBytes);
+
+    /** A bulk request is sent once it includes this count of spans. Defaults to 1000. */
+    public abstract Builder bulkMaxActions(int bulkMaxActions);
+
+    /**
+     * Milliseconds to wait for more spans before sending a bulk request that isn't full. Defaults
+     * to 0, which means spans are only combined while bulk requests are already in-flight.
+     */
+    public abstract Builder bulkLingerMillis(int bulkLingerMillis);
+
+    /**
+     * Maximum in-flight bulk requests. Spans written meanwhile are combined into the next request.
+     * This should be less than {@link #maxRequests(int)}, so that writes leave room for queries.
+     * Defaults to 8.
+     */
+    public abstract Builder bulkMaxConcurrentRequests(int bulkMaxConcurrentRequests);
+
+    /**
+     * Times to retry spans that Elasticsearch rejected because its write queue was full, after an
+     * exponential backoff. While rejections continue, fewer bulk requests are sent concurrently.
+     * Zero disables retries. Defaults to 3.
+     */
+    public abstract Builder bulkMaxRetries(int bulkMaxRetries);
+
+    /**
+     * When true, bulk and search request bodies are gzipped, trading CPU for fewer bytes sent to
+     * Elasticsearch. This helps when Elasticsearch is across a costly network link, such as another
+     * availability zone. Defaults to false.
+     *
+     * <p>Responses are compressed when Elasticsearch has {@code http.compression} enabled, as
+     * requests accept gzip regardless of this setting.
+     */
+    public abstract Builder compressionEnabled(boolean compressionEnabled);
+
+    /**
+     * When true, span documents are routed by the lower 64-bits of their trace ID, so that a trace
+     * is stored on one shard per daily index. Trace lookups then search that shard instead of all of
+     * them. Defaults to false.
+     *
+     * <p>Spans written while this was off are on any shard, and won't be found by trace ID lookups
+     * once it is on. Enable this on a new index prefix, or once older indices have expired.
+     */
+    public abstract Builder traceIdRouting(boolean traceIdRouting);
+
+    /**
+     * When true, a small daily index records which days each trace has spans in. A trace lookup
+     * without a timestamp hint reads this first, then searches only the span indices for those
+     * days, instead of every span index. Defaults to false.
+     *
+     * <p>This adds one bulk action per trace per day to writes. Traces written while this was off
+     * are still found, via a search of all span indices.
+     */
+    public abstract Builder traceDayLookup(boolean traceDayLookup);
+
     @Override public abstract Builder strictTraceId(boolean strictTraceId);
 
     @Override public abstract Builder searchEnabled(boolean searchEnabled);
@@ -199,6 +273,22 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
 
   public abstract boolean flushOnWrites();
 
+  abstract int bulkMaxBytes();
+
+  abstract int bulkMaxActions();
+
+  abstract int bulkLingerMillis();
+
+  abstract int bulkMaxConcurrentRequests();
+
+  abstract int bulkMaxRetries();
+
+  abstract boolean compressionEnabled();
+
+  abstract boolean traceIdRouting();
+
+  abstract boolean traceDayLookup();
+
   public abstract int maxRequests();
 
   public abstract boolean strictTraceId();
@@ -233,6 +323,8 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
     Set<String> toClear = new LinkedHashSet<>();
     toClear.add(indexNameFormatter().formatType(SPAN));
     toClear.add(indexNameFormatter().formatType(DEPENDENCY));
+    if (traceDayLookup()) toClear.add(indexNameFormatter().formatType(TRACE));
+    if (searchEnabled()) toClear.add(indexNameFormatter().formatType(AUTOCOMPLETE));
     for (String index : toClear) clear(index);
   }
 
@@ -301,29 +393,94 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
       EnsureIndexTemplate.apply(http(), index + ":" + SPAN + "_template", templates.span());
       EnsureIndexTemplate.apply(http(), index + ":" + DEPENDENCY + "_template",
         templates.dependency());
+      if (traceDayLookup()) {
+        EnsureIndexTemplate.apply(http(), index + ":" + TRACE + "_template", templates.trace());
+      }
+      if (searchEnabled()) {
+        EnsureIndexTemplate.apply(http(), index + ":" + AUTOCOMPLETE + "_template",
+          templates.autocomplete());
+      }
       return templates;
     } catch (IOException e) {
       throw Platform.get().uncheckedIOException(e);
     }
   }
 
+  // Set when created, so that reading metrics doesn't create them
+  @Nullable volatile HostBalancer createdHostBalancer;
+  @Nullable volatile BulkPipeline createdBulkPipeline;
+
+  /** Spreads requests over the hosts, taking failing ones out of rotation. */
+  @Memoized
+  public // hosts resolution might imply a network call
+  HostBalancer hostBalancer() {
+    return createdHostBalancer = HostBalancer.create(hostsSupplier().get());
+  }
+
+  /**
+   * Returns the {@link #hostBalancer()} once a request created it, or null. This doesn't resolve
+   * hosts, so it is safe to call when exporting metrics.
+   */
+  @Nullable public HostBalancer hostBalancerIfCreated() {
+    return createdHostBalancer;
+  }
+
   @Memoized
   public // hosts resolution might imply a network call, and we might make a new okhttp instance
   HttpCall.Factory http() {
-    List<String> hosts = hostsSupplier().get();
-    if (hosts.isEmpty()) throw new IllegalArgumentException("no hosts configured");
-    OkHttpClient ok = hosts.size() == 1
-      ? client()
-      : client().newBuilder()
-        .dns(PseudoAddressRecordSet.create(hosts, client().dns()))
-        .build();
+    return newHttpFactory(client().newBuilder());
+  }
+
+  /**
+   * Like {@link #http()}, except with its own connection pool and request limit. This keeps a
+   * backlog of bulk writes from delaying searches, and the reverse. Internal use only.
+   */
+  @Memoized
+  public HttpCall.Factory bulkHttp() {
+    OkHttpClient.Builder builder = client().newBuilder()
+      .dispatcher(new Dispatcher())
+      .connectionPool(new ConnectionPool());
+    return newHttpFactory(builder);
+  }
+
+  HttpCall.Factory newHttpFactory(OkHttpClient.Builder builder) {
+    HostBalancer balancer = hostBalancer();
+    // first, so that interceptors such as request signing see the host chosen
+    builder.interceptors().add(0, balancer);
+    OkHttpClient ok = builder.build();
     ok.dispatcher().setMaxRequests(maxRequests());
     ok.dispatcher().setMaxRequestsPerHost(maxRequests());
-    return new HttpCall.Factory(ok, HttpUrl.parse(hosts.get(0)));
+    String baseUrl = balancer.hosts().get(0).url();
+    return new HttpCall.Factory(ok, HttpUrl.parse(baseUrl), compressionEnabled());
+  }
+
+  /** Combines span writes into shared bulk requests. */
+  @Memoized
+  public BulkPipeline bulkPipeline() {
+    return createdBulkPipeline = new BulkPipeline(this, bulkMaxBytes(), bulkMaxActions(),
+      bulkLingerMillis(), bulkMaxConcurrentRequests(), bulkMaxRetries());
+  }
+
+  /** Returns the {@link #bulkPipeline()} once spans were written, or null. Used for metrics. */
+  @Nullable public BulkPipeline bulkPipelineIfCreated() {
+    return createdBulkPipeline;
+  }
+
+  /** Bulk action metadata by index, shared by span consumers. Internal use only. */
+  @Memoized public BulkMetadataPrefixes bulkMetadataPrefixes() {
+    return new BulkMetadataPrefixes();
+  }
+
+  /** Names recently written to the autocomplete index, shared by span consumers */
+  @Memoized AutocompleteCache autocompleteCache() {
+    return new AutocompleteCache(AutocompleteCache.DEFAULT_TTL_MILLIS, AutocompleteCache.MAX_SIZE);
   }
 
   @Override public void close() {
     if (!shutdownClientOnClose()) return;
+    BulkPipeline pipeline = createdBulkPipeline;
+    if (pipeline != null) pipeline.close(); // before the HTTP client it sends with
+    bulkHttp().close();
     http().close();
   }
 
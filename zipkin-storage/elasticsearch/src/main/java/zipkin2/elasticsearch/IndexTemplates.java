@@ -27,6 +27,10 @@ abstract class IndexTemplates {
 
   abstract String dependency();
 
+  abstract String trace();
+
+  abstract String autocomplete();
+
   @AutoValue.Builder interface Builder {
     Builder version(float version);
 
@@ -34,6 +38,10 @@ abstract class IndexTemplates {
 
     Builder dependency(String dependency);
 
+    Builder trace(String trace);
+
+    Builder autocomplete(String autocomplete);
+
     IndexTemplates build();
   }
 }
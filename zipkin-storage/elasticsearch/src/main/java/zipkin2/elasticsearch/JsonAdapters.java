@@ -28,45 +28,54 @@ import zipkin2.internal.Nullable;
  * be Java 7+
  */
 final class JsonAdapters {
+  /**
+   * Field names are matched with {@link JsonReader#selectName}, so they aren't allocated. The
+   * result is the index of the name, so cases below must follow the order of these names.
+   */
+  static final JsonReader.Options SPAN_FIELDS = JsonReader.Options.of("traceId", "parentId", "id",
+    "kind", "name", "timestamp", "duration", "localEndpoint", "remoteEndpoint", "annotations",
+    "tags", "debug", "shared");
+
   static final JsonAdapter<Span> SPAN_ADAPTER = new JsonAdapter<Span>() {
     @Override public Span fromJson(JsonReader reader) throws IOException {
       Span.Builder result = Span.newBuilder();
       reader.beginObject();
       while (reader.hasNext()) {
-        String nextName = reader.nextName();
-        if (reader.peek() == JsonReader.Token.NULL) {
+        int field = reader.selectName(SPAN_FIELDS);
+        if (field == -1) reader.skipName();
+        if (field == -1 || reader.peek() == JsonReader.Token.NULL) {
           reader.skipValue();
           continue;
         }
-        switch (nextName) {
-          case "traceId":
+        switch (field) {
+          case 0: // traceId
             result.traceId(reader.nextString());
             break;
-          case "parentId":
+          case 1: // parentId
             result.parentId(reader.nextString());
             break;
-          case "id":
+          case 2: // id
             result.id(reader.nextString());
             break;
-          case "kind":
+          case 3: // kind
             result.kind(Span.Kind.valueOf(reader.nextString()));
             break;
-          case "name":
+          case 4: // name
             result.name(reader.nextString());
             break;
-          case "timestamp":
+          case 5: // timestamp
             result.timestamp(reader.nextLong());
             break;
-          case "duration":
+          case 6: // duration
             result.duration(reader.nextLong());
             break;
-          case "localEndpoint":
+          case 7: // localEndpoint
             result.localEndpoint(ENDPOINT_ADAPTER.fromJson(reader));
             break;
-          case "remoteEndpoint":
+          case 8: // remoteEndpoint
             result.remoteEndpoint(ENDPOINT_ADAPTER.fromJson(reader));
             break;
-          case "annotations":
+          case 9: // annotations
             reader.beginArray();
             while (reader.hasNext()) {
               Annotation a = ANNOTATION_ADAPTER.fromJson(reader);
@@ -74,21 +83,19 @@ final class JsonAdapters {
             }
             reader.endArray();
             break;
-          case "tags":
+          case 10: // tags
             reader.beginObject();
             while (reader.hasNext()) {
               result.putTag(reader.nextName(), reader.nextString());
             }
             reader.endObject();
             break;
-          case "debug":
+          case 11: // debug
             result.debug(reader.nextBoolean());
             break;
-          case "shared":
+          case 12: // shared
             result.shared(reader.nextBoolean());
             break;
-          default:
-            reader.skipValue();
         }
       }
       reader.endObject();
@@ -101,20 +108,23 @@ final class JsonAdapters {
     }
   };
 
+  static final JsonReader.Options ANNOTATION_FIELDS = JsonReader.Options.of("timestamp", "value");
+
   static final JsonAdapter<Annotation> ANNOTATION_ADAPTER = new JsonAdapter<Annotation>() {
     @Override public Annotation fromJson(JsonReader reader) throws IOException {
       reader.beginObject();
       Long timestamp = null;
       String value = null;
       while (reader.hasNext()) {
-        switch (reader.nextName()) {
-          case "timestamp":
+        switch (reader.selectName(ANNOTATION_FIELDS)) {
+          case 0: // timestamp
             timestamp = reader.nextLong();
             break;
-          case "value":
+          case 1: // value
             value = reader.nextString();
             break;
           default:
+            reader.skipName();
             reader.skipValue();
         }
       }
@@ -131,32 +141,34 @@ final class JsonAdapters {
     }
   };
 
+  static final JsonReader.Options ENDPOINT_FIELDS =
+    JsonReader.Options.of("serviceName", "ipv4", "ipv6", "port");
+
   static final JsonAdapter<Endpoint> ENDPOINT_ADAPTER = new JsonAdapter<Endpoint>() {
     @Override public Endpoint fromJson(JsonReader reader) throws IOException {
       reader.beginObject();
       String serviceName = null, ipv4 = null, ipv6 = null;
       int port = 0;
       while (reader.hasNext()) {
-        String nextName = reader.nextName();
-        if (reader.peek() == JsonReader.Token.NULL) {
+        int field = reader.selectName(ENDPOINT_FIELDS);
+        if (field == -1) reader.skipName();
+        if (field == -1 || reader.peek() == JsonReader.Token.NULL) {
           reader.skipValue();
           continue;
         }
-        switch (nextName) {
-          case "serviceName":
+        switch (field) {
+          case 0: // serviceName
             serviceName = reader.nextString();
             break;
-          case "ipv4":
+          case 1: // ipv4
             ipv4 = reader.nextString();
             break;
-          case "ipv6":
+          case 2: // ipv6
             ipv6 = reader.nextString();
             break;
-          case "port":
+          case 3: // port
             port = reader.nextInt();
             break;
-          default:
-            reader.skipValue();
         }
       }
       reader.endObject();
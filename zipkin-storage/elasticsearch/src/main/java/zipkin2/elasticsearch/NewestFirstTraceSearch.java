@@ -0,0 +1,214 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.elasticsearch.internal.AwaitableCallback;
+import zipkin2.elasticsearch.internal.client.Aggregation;
+import zipkin2.elasticsearch.internal.client.SearchCallFactory;
+import zipkin2.elasticsearch.internal.client.SearchRequest;
+
+/**
+ * Finds trace IDs by searching span indices newest first, instead of aggregating over all of them
+ * at once. Spans in a newer index are newer than any in an older one, so once {@code limit} trace
+ * IDs are found, older indices needn't be read.
+ *
+ * <p>Indices are searched in multi-search batches of one, two, four, etc, so that a busy site
+ * usually finishes after the first request, while a sparse one needs only a few. Spans are fetched
+ * for each batch of new trace IDs as soon as they are found, concurrently with the next search.
+ */
+final class NewestFirstTraceSearch extends Call.Base<List<List<Span>>> {
+  final SearchCallFactory search;
+  final List<String> newestFirst;
+  final SearchRequest.Filters filters;
+  final Aggregation traceIdTimestamp;
+  final int limit;
+  final Call.FlatMapper<List<String>, List<List<Span>>> getTracesById;
+  volatile Search current;
+
+  /**
+   * @param newestFirst span indices, each covering a time range older than the one before it
+   * @param getTracesById fetches the spans of the given trace IDs
+   */
+  NewestFirstTraceSearch(SearchCallFactory search, List<String> newestFirst,
+    SearchRequest.Filters filters, Aggregation traceIdTimestamp, int limit,
+    Call.FlatMapper<List<String>, List<List<Span>>> getTracesById) {
+    this.search = search;
+    this.newestFirst = newestFirst;
+    this.filters = filters;
+    this.traceIdTimestamp = traceIdTimestamp;
+    this.limit = limit;
+    this.getTracesById = getTracesById;
+  }
+
+  @Override protected List<List<Span>> doExecute() throws IOException {
+    AwaitableCallback<List<List<Span>>> result = new AwaitableCallback<>();
+    doEnqueue(result);
+    return result.await();
+  }
+
+  @Override protected void doEnqueue(Callback<List<List<Span>>> callback) {
+    Search search = new Search(callback);
+    current = search;
+    search.searchNext();
+  }
+
+  @Override protected void doCancel() {
+    Search search = current;
+    if (search != null) search.cancel();
+  }
+
+  @Override public NewestFirstTraceSearch clone() {
+    return new NewestFirstTraceSearch(search, newestFirst, filters, traceIdTimestamp,
+      limit, getTracesById);
+  }
+
+  @Override public String toString() {
+    return "NewestFirstTraceSearch{indices=" + newestFirst + ", limit=" + limit + "}";
+  }
+
+  /** State of one execution. Searches run one at a time, but span fetches overlap them. */
+  final class Search {
+    final Callback<List<List<Span>>> callback;
+    final Set<String> traceIds = new LinkedHashSet<>();
+    final List<List<List<Span>>> results = new ArrayList<>(); // one slot per span fetch
+    final List<Call<?>> calls = new ArrayList<>();
+    int nextIndex, batchSize = 1, pendingFetches;
+    boolean searchDone, finished;
+
+    Search(Callback<List<List<Span>>> callback) {
+      this.callback = callback;
+    }
+
+    void searchNext() {
+      int end = Math.min(nextIndex + batchSize, newestFirst.size());
+      List<SearchRequest> requests = new ArrayList<>(end - nextIndex);
+      for (int i = nextIndex; i < end; i++) {
+        requests.add(SearchRequest.create(Collections.singletonList(newestFirst.get(i)))
+          .filters(filters).addAggregation(traceIdTimestamp));
+      }
+      nextIndex = end;
+      batchSize *= 2;
+
+      Call<List<List<String>>> call =
+        search.newMultiCall(requests, BodyConverters.KEYS_PER_RESPONSE);
+      if (!track(call)) {
+        fail(new IOException("Canceled"));
+        return;
+      }
+      call.enqueue(new Callback<List<List<String>>>() {
+        @Override public void onSuccess(List<List<String>> responses) {
+          onTraceIds(responses);
+        }
+
+        @Override public void onError(Throwable t) {
+          fail(t);
+        }
+      });
+    }
+
+    void onTraceIds(List<List<String>> responses) {
+      // responses are newest first, as are the keys in each, so the first found are the newest
+      List<String> newTraceIds = new ArrayList<>();
+      for (List<String> keys : responses) {
+        for (String traceId : keys) {
+          if (traceIds.size() == limit) break;
+          if (traceIds.add(traceId)) newTraceIds.add(traceId);
+        }
+      }
+      if (!newTraceIds.isEmpty()) fetch(newTraceIds);
+
+      if (traceIds.size() < limit && nextIndex < newestFirst.size()) {
+        searchNext();
+        return;
+      }
+      List<List<Span>> result;
+      synchronized (this) {
+        searchDone = true;
+        result = maybeFinish();
+      }
+      if (result != null) callback.onSuccess(result);
+    }
+
+    void fetch(List<String> traceIds) {
+      final int slot;
+      synchronized (this) {
+        slot = results.size();
+        results.add(null);
+        pendingFetches++;
+      }
+      Call<List<List<Span>>> call = getTracesById.map(traceIds);
+      if (!track(call)) {
+        fail(new IOException("Canceled"));
+        return;
+      }
+      call.enqueue(new Callback<List<List<Span>>>() {
+        @Override public void onSuccess(List<List<Span>> traces) {
+          List<List<Span>> result;
+          synchronized (Search.this) {
+            results.set(slot, traces);
+            pendingFetches--;
+            result = maybeFinish();
+          }
+          if (result != null) callback.onSuccess(result);
+        }
+
+        @Override public void onError(Throwable t) {
+          fail(t);
+        }
+      });
+    }
+
+    /** Returns the traces in the order their IDs were found, once the last fetch completes. */
+    List<List<Span>> maybeFinish() {
+      if (finished || !searchDone || pendingFetches > 0) return null;
+      finished = true;
+      List<List<Span>> result = new ArrayList<>();
+      for (List<List<Span>> traces : results) result.addAll(traces);
+      return result;
+    }
+
+    /** Returns false if this was canceled or failed, in which case the call won't be executed. */
+    synchronized boolean track(Call<?> call) {
+      if (finished || isCanceled()) return false;
+      calls.add(call);
+      return true;
+    }
+
+    void fail(Throwable t) {
+      synchronized (this) {
+        if (finished) return;
+        finished = true;
+      }
+      cancel();
+      callback.onError(t);
+    }
+
+    void cancel() {
+      List<Call<?>> toCancel;
+      synchronized (this) {
+        toCancel = new ArrayList<>(calls);
+      }
+      for (Call<?> call : toCancel) call.cancel();
+    }
+  }
+}
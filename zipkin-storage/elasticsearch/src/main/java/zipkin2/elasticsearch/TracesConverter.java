@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import com.squareup.moshi.JsonReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import okio.BufferedSource;
+import zipkin2.Span;
+import zipkin2.elasticsearch.internal.client.HttpCall;
+
+import static zipkin2.elasticsearch.JsonAdapters.SPAN_ADAPTER;
+import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
+
+/**
+ * Reads span search results into traces in one pass over the response. Each {@code _source} is
+ * decoded straight from the response stream and appended to its trace as it arrives, so there's no
+ * intermediate list of all spans. Names of hit fields are matched without allocating strings.
+ *
+ * <p>With strict trace IDs, hits must be sorted by trace ID, so that each trace's spans are
+ * consecutive. Otherwise, spans of one trace can have 64 and 128-bit trace IDs, which don't sort
+ * together, so traces are looked up by the lower 64-bits of their ID.
+ *
+ * <p>Traces are in order of their first span in the response.
+ */
+final class TracesConverter implements HttpCall.BodyConverter<List<List<Span>>> {
+  static final JsonReader.Options HIT_FIELDS = JsonReader.Options.of("_source");
+
+  final boolean strictTraceId;
+
+  TracesConverter(boolean strictTraceId) {
+    this.strictTraceId = strictTraceId;
+  }
+
+  @Override public List<List<Span>> convert(BufferedSource content) throws IOException {
+    JsonReader hits = enterPath(JsonReader.of(content), "hits", "hits");
+    if (hits == null || hits.peek() != JsonReader.Token.BEGIN_ARRAY) {
+      return Collections.emptyList();
+    }
+
+    List<List<Span>> result = new ArrayList<>();
+    Map<String, List<Span>> lenientTraces =
+      strictTraceId ? null : new HashMap<String, List<Span>>();
+    String lastTraceId = null;
+    List<Span> lastTrace = null;
+    hits.beginArray();
+    while (hits.hasNext()) {
+      hits.beginObject();
+      while (hits.hasNext()) {
+        if (hits.selectName(HIT_FIELDS) == -1) {
+          hits.skipName();
+          hits.skipValue();
+          continue;
+        }
+        if (hits.peek() == JsonReader.Token.NULL) {
+          hits.skipValue();
+          continue;
+        }
+        Span span = SPAN_ADAPTER.fromJson(hits);
+
+        if (lastTrace == null || !sameTrace(lastTraceId, span.traceId())) {
+          lastTraceId = groupingKey(span.traceId());
+          lastTrace = lenientTraces != null ? lenientTraces.get(lastTraceId) : null;
+          if (lastTrace == null) {
+            lastTrace = new ArrayList<>();
+            if (lenientTraces != null) lenientTraces.put(lastTraceId, lastTrace);
+            result.add(lastTrace);
+          }
+        }
+        lastTrace.add(span);
+      }
+      hits.endObject();
+    }
+    hits.endArray();
+    return result;
+  }
+
+  /** Unless strict, traces are grouped on the lower 64-bits of the trace ID */
+  String groupingKey(String traceId) {
+    return strictTraceId || traceId.length() == 16 ? traceId : traceId.substring(16);
+  }
+
+  boolean sameTrace(String groupingKey, String traceId) {
+    if (strictTraceId || traceId.length() == 16) return groupingKey.equals(traceId);
+    return traceId.regionMatches(16, groupingKey, 0, 16);
+  }
+
+  @Override public String toString() {
+    return "TracesConverter{strictTraceId=" + strictTraceId + "}";
+  }
+}
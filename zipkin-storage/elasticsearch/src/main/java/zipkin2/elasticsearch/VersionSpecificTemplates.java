@@ -20,8 +20,10 @@ import okhttp3.Request;
 import okio.BufferedSource;
 import zipkin2.elasticsearch.internal.client.HttpCall;
 
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.AUTOCOMPLETE;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.DEPENDENCY;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.SPAN;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.TRACE;
 import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
 
 /** Returns a version-specific span and dependency index template */
@@ -31,6 +33,8 @@ final class VersionSpecificTemplates {
   final boolean searchEnabled;
   final String spanIndexTemplate;
   final String dependencyIndexTemplate;
+  final String traceIndexTemplate;
+  final String autocompleteIndexTemplate;
 
   VersionSpecificTemplates(ElasticsearchStorage es) {
     this.searchEnabled = es.searchEnabled();
@@ -44,6 +48,12 @@ final class VersionSpecificTemplates {
       .replace("${__INDEX__}", es.indexNameFormatter().index())
       .replace("${__NUMBER_OF_SHARDS__}", String.valueOf(es.indexShards()))
       .replace("${__NUMBER_OF_REPLICAS__}", String.valueOf(es.indexReplicas()));
+    this.traceIndexTemplate = TRACE_INDEX_TEMPLATE
+      .replace("${__INDEX__}", es.indexNameFormatter().index())
+      .replace("${__NUMBER_OF_REPLICAS__}", String.valueOf(es.indexReplicas()));
+    this.autocompleteIndexTemplate = AUTOCOMPLETE_INDEX_TEMPLATE
+      .replace("${__INDEX__}", es.indexNameFormatter().index())
+      .replace("${__NUMBER_OF_REPLICAS__}", String.valueOf(es.indexReplicas()));
   }
 
   /** Templatized due to version differences. Only fields used in search are declared */
@@ -142,12 +152,52 @@ final class VersionSpecificTemplates {
     + "  \"mappings\": {\"" + DEPENDENCY + "\": { \"enabled\": false }}\n"
     + "}";
 
+  /**
+   * Documents are empty and looked up by ID, which is the trace ID. As there is one small document
+   * per trace per day, one shard is enough, which keeps a lookup across all days cheap.
+   */
+  static final String TRACE_INDEX_TEMPLATE = "{\n"
+    + "  \"TEMPLATE\": \"${__INDEX__}:" + TRACE + "-*\",\n"
+    + "  \"settings\": {\n"
+    + "    \"index.number_of_shards\": 1,\n"
+    + "    \"index.number_of_replicas\": ${__NUMBER_OF_REPLICAS__},\n"
+    + "    \"index.requests.cache.enable\": true,\n"
+    + "    \"index.mapper.dynamic\": false\n"
+    + "  },\n"
+    + "  \"mappings\": {\"" + TRACE + "\": { \"enabled\": false }}\n"
+    + "}";
+
+  /**
+   * Documents hold a distinct combination of local service, span and remote service name. There are
+   * few per day, so one shard is enough, and aggregating names over them is cheap.
+   */
+  static final String AUTOCOMPLETE_INDEX_TEMPLATE = "{\n"
+    + "  \"TEMPLATE\": \"${__INDEX__}:" + AUTOCOMPLETE + "-*\",\n"
+    + "  \"settings\": {\n"
+    + "    \"index.number_of_shards\": 1,\n"
+    + "    \"index.number_of_replicas\": ${__NUMBER_OF_REPLICAS__},\n"
+    + "    \"index.requests.cache.enable\": true,\n"
+    + "    \"index.mapper.dynamic\": false\n"
+    + "  },\n"
+    + "  \"mappings\": {\n"
+    + "    \"" + AUTOCOMPLETE + "\": {\n"
+    + "      \"properties\": {\n"
+    + "        \"serviceName\": { KEYWORD },\n"
+    + "        \"spanName\": { KEYWORD },\n"
+    + "        \"remoteServiceName\": { KEYWORD }\n"
+    + "      }\n"
+    + "    }\n"
+    + "  }\n"
+    + "}";
+
   IndexTemplates get(HttpCall.Factory callFactory) throws IOException {
     float version = getVersion(callFactory);
     return IndexTemplates.newBuilder()
       .version(version)
       .span(versionSpecificSpanIndexTemplate(version))
       .dependency(versionSpecificDependencyLinkIndexTemplate(version))
+      .trace(traceIndexTemplate.replace("TEMPLATE", version >= 6 ? "index_patterns" : "template"))
+      .autocomplete(versionSpecificAutocompleteIndexTemplate(version))
       .build();
   }
 
@@ -202,4 +252,14 @@ final class VersionSpecificTemplates {
     return dependencyIndexTemplate.replace("TEMPLATE",
       version >= 6 ? "index_patterns" : "template");
   }
+
+  private String versionSpecificAutocompleteIndexTemplate(float version) {
+    String result = autocompleteIndexTemplate
+      .replace("TEMPLATE", version >= 6 ? "index_patterns" : "template");
+    if (version >= 2 && version < 3) {
+      return result.replace("KEYWORD",
+        "\"type\": \"string\", \"norms\": {\"enabled\": false }, \"index\": \"not_analyzed\"");
+    }
+    return result.replace("KEYWORD", "\"type\": \"keyword\", \"norms\": false");
+  }
 }
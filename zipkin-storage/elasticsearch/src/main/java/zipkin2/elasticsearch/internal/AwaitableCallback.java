@@ -0,0 +1,60 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import zipkin2.Callback;
+import zipkin2.internal.Nullable;
+
+/**
+ * Blocks until a callback completes, so that {@link zipkin2.Call#execute()} can be implemented in
+ * terms of {@link zipkin2.Call#enqueue(Callback)}.
+ */
+public final class AwaitableCallback<V> implements Callback<V> {
+  final CountDownLatch latch = new CountDownLatch(1);
+  volatile V value;
+  volatile Throwable error;
+
+  @Override public void onSuccess(@Nullable V value) {
+    this.value = value;
+    latch.countDown();
+  }
+
+  @Override public void onError(Throwable t) {
+    error = t;
+    latch.countDown();
+  }
+
+  /**
+   * Returns the successful value, or throws the error the callback received.
+   *
+   * @throws InterruptedIOException if the thread was interrupted while waiting
+   */
+  @Nullable public V await() throws IOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    Throwable t = error;
+    if (t == null) return value;
+    if (t instanceof IOException) throw (IOException) t;
+    if (t instanceof RuntimeException) throw (RuntimeException) t;
+    if (t instanceof Error) throw (Error) t;
+    throw new IllegalStateException(t);
+  }
+}
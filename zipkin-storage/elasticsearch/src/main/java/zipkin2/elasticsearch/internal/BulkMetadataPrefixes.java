@@ -0,0 +1,52 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import okio.Buffer;
+
+/**
+ * Bulk action metadata up to the document ID, which is the index and type name, by type then index.
+ * This is shared by a storage component's bulk requests, as most requests only hold a few spans,
+ * too few to amortize encoding the metadata per request.
+ *
+ * <p>Indices are daily, so this is bounded: when a type has too many indices, they are cleared.
+ */
+public final class BulkMetadataPrefixes {
+  /** Enough for the days written around midnight, with room for late spans */
+  static final int MAX_INDICES_PER_TYPE = 16;
+
+  final ConcurrentMap<String, ConcurrentMap<String, byte[]>> byType = new ConcurrentHashMap<>();
+
+  public byte[] get(String index, String typeName) {
+    ConcurrentMap<String, byte[]> byIndex = byType.get(typeName);
+    if (byIndex == null) {
+      byIndex = new ConcurrentHashMap<>();
+      ConcurrentMap<String, byte[]> racer = byType.putIfAbsent(typeName, byIndex);
+      if (racer != null) byIndex = racer;
+    }
+    byte[] result = byIndex.get(index);
+    if (result != null) return result;
+
+    Buffer prefix = new Buffer();
+    prefix.writeUtf8("{\"index\":{\"_index\":\"").writeUtf8(index).writeByte('"');
+    // the _type parameter is needed for Elasticsearch <6.x
+    prefix.writeUtf8(",\"_type\":\"").writeUtf8(typeName).writeByte('"');
+    result = prefix.readByteArray();
+    if (byIndex.size() >= MAX_INDICES_PER_TYPE) byIndex.clear();
+    byIndex.put(index, result);
+    return result;
+  }
+}
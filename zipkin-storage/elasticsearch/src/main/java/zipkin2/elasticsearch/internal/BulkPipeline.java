@@ -0,0 +1,671 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import com.squareup.moshi.JsonReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.elasticsearch.ElasticsearchStorage;
+import zipkin2.elasticsearch.internal.client.HttpCall;
+import zipkin2.internal.Nullable;
+
+import static zipkin2.elasticsearch.internal.HttpBulkIndexer.join;
+
+/**
+ * Combines documents from concurrent writers into shared {@code _bulk} requests. Without this, each
+ * message accepted by a collector results in its own bulk request, even if it has only a few spans.
+ *
+ * <p>Documents are buffered until one of the following, which is recorded as the {@link
+ * FlushReason}: the buffer reaches {@code maxBytes}, it holds {@code maxActions} documents, or
+ * {@code lingerMillis} passed since the first was added. A linger of zero sends as soon as
+ * possible. Either way, only {@code maxConcurrentRequests} bulk requests are in-flight at a time.
+ * Documents added meanwhile are sent together once a request completes, so requests grow under
+ * load instead of multiplying.
+ *
+ * <p>Each writer's call completes when the bulk request holding its documents does. When the
+ * buffer is more than twice {@code maxBytes}, writes fail as "over capacity", like other requests
+ * that exceed {@link ElasticsearchStorage#maxRequests()}.
+ *
+ * <h3>Rejections</h3>
+ * Elasticsearch rejects documents with status 429 when its write queue is full. Only the rejected
+ * documents are retried, up to {@code maxRetries} times, after an exponential backoff with full
+ * jitter. Retries are limited by a budget that refills as documents are sent, so that a cluster
+ * rejecting most writes isn't sent more retries than new documents. Documents that fail otherwise,
+ * or that run out of retries, are dropped: only the writers that added them see an error.
+ *
+ * <p>The count of bulk requests in-flight adapts to rejections, as in TCP congestion control: the
+ * limit halves when a response includes rejections, and grows by one per round of responses without
+ * them, up to {@code maxConcurrentRequests}.
+ */
+public final class BulkPipeline implements Closeable {
+  public enum FlushReason {
+    /** The buffer reached its maximum size in bytes */
+    BYTES,
+    /** The buffer reached its maximum count of documents */
+    ACTIONS,
+    /** The linger time passed since the first document was buffered */
+    LINGER
+  }
+
+  /** Status of documents rejected with es_rejected_execution_exception */
+  static final int TOO_MANY_REQUESTS = 429;
+  /** Each document sent adds this much to the retry budget, so retries are at most a fifth. */
+  static final double RETRY_BUDGET_RATIO = 0.2;
+
+  final HttpCall.Factory http;
+  final HttpUrl url;
+  final boolean flushOnWrites;
+  final long maxBytes;
+  final int maxActions, maxConcurrentRequests, maxRetries;
+  final long lingerMillis;
+  long initialBackoffMillis = 100, maxBackoffMillis = TimeUnit.SECONDS.toMillis(10); // for tests
+  long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10); // for tests
+
+  // Guarded by this
+  Buffer body = new Buffer();
+  int actions;
+  List<Callback<Void>> callbacks = new ArrayList<>();
+  List<Integer> callbackActions = new ArrayList<>(); // count of documents each callback awaits
+  Set<String> indices = new LinkedHashSet<>();
+  @Nullable FlushReason ready; // set when the buffer should be sent once a request slot is free
+  @Nullable ScheduledFuture<?> lingerTimeout;
+  @Nullable ScheduledThreadPoolExecutor timer; // lazy as linger is often zero
+  int inFlight;
+  double concurrencyLimit, retryBudget;
+  long decreasedThrough; // requests sent before the last decrease don't decrease it again
+  final List<Attempt> scheduledRetries = new ArrayList<>();
+  boolean closed;
+
+  final AtomicLong requestCount = new AtomicLong(), documentCount = new AtomicLong();
+  final AtomicLong retryCount = new AtomicLong(), droppedCount = new AtomicLong();
+  final AtomicLongArray flushCounts = new AtomicLongArray(FlushReason.values().length);
+
+  public BulkPipeline(ElasticsearchStorage es, long maxBytes, int maxActions, long lingerMillis,
+    int maxConcurrentRequests, int maxRetries) {
+    if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+    if (maxActions <= 0) throw new IllegalArgumentException("maxActions <= 0");
+    if (lingerMillis < 0) throw new IllegalArgumentException("lingerMillis < 0");
+    if (maxConcurrentRequests <= 0) {
+      throw new IllegalArgumentException("maxConcurrentRequests <= 0");
+    }
+    if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0");
+    this.http = es.bulkHttp();
+    this.url = es.pipeline() != null
+      ? http.baseUrl.newBuilder("_bulk").addQueryParameter("pipeline", es.pipeline()).build()
+      : http.baseUrl.resolve("_bulk");
+    this.flushOnWrites = es.flushOnWrites();
+    this.maxBytes = maxBytes;
+    this.maxActions = maxActions;
+    this.lingerMillis = lingerMillis;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.maxRetries = maxRetries;
+    this.concurrencyLimit = maxConcurrentRequests;
+    this.retryBudget = maxActions; // allows a full request to be retried before any are sent
+  }
+
+  /** Returns a call that adds the indexer's documents to the next bulk request. */
+  public Call<Void> newCall(HttpBulkIndexer indexer) {
+    ByteString documents = indexer.body.readByteString();
+    Collection<String> indices = indexer.indices;
+    return new BulkCall(this, documents, indexer.actions, indices);
+  }
+
+  /** Count of bulk requests sent, including retries */
+  public long requestCount() {
+    return requestCount.get();
+  }
+
+  /** Count of documents sent. Divide by {@link #requestCount()} for documents per request. */
+  public long documentCount() {
+    return documentCount.get();
+  }
+
+  /** Count of bulk requests sent for the given reason */
+  public long flushCount(FlushReason reason) {
+    return flushCounts.get(reason.ordinal());
+  }
+
+  /** Count of documents sent again after Elasticsearch rejected them */
+  public long retryCount() {
+    return retryCount.get();
+  }
+
+  /** Count of documents that failed, after any retries. Their writers saw an error. */
+  public long droppedCount() {
+    return droppedCount.get();
+  }
+
+  /** Count of bulk requests that haven't yet completed */
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /** Current limit of in-flight bulk requests, which lowers when Elasticsearch rejects documents */
+  public synchronized int concurrencyLimit() {
+    return (int) concurrencyLimit;
+  }
+
+  void add(ByteString documents, int actions, @Nullable Collection<String> indices,
+    Callback<Void> callback) {
+    IllegalStateException rejected = null;
+    Batch batch = null;
+    synchronized (this) {
+      if (closed) {
+        rejected = new IllegalStateException("closed");
+      } else if (!callbacks.isEmpty() && body.size() + documents.size() > maxBytes * 2) {
+        rejected = new IllegalStateException("over capacity");
+      } else {
+        body.write(documents);
+        this.actions += actions;
+        callbacks.add(callback);
+        callbackActions.add(actions);
+        if (flushOnWrites && indices != null) this.indices.addAll(indices);
+        if (ready == null) {
+          if (body.size() >= maxBytes) {
+            ready = FlushReason.BYTES;
+          } else if (this.actions >= maxActions) {
+            ready = FlushReason.ACTIONS;
+          } else if (lingerMillis == 0) {
+            ready = FlushReason.LINGER;
+          } else if (lingerTimeout == null) {
+            lingerTimeout = timer().schedule(new Runnable() {
+              @Override public void run() {
+                lingerElapsed();
+              }
+            }, lingerMillis, TimeUnit.MILLISECONDS);
+          }
+        }
+        batch = takeBatch(false);
+      }
+    }
+    if (rejected != null) {
+      callback.onError(rejected);
+    } else if (batch != null) {
+      send(new Attempt(batch));
+    }
+  }
+
+  void lingerElapsed() {
+    Batch batch;
+    synchronized (this) {
+      lingerTimeout = null;
+      if (ready == null && !callbacks.isEmpty()) ready = FlushReason.LINGER;
+      batch = takeBatch(false);
+    }
+    if (batch != null) send(new Attempt(batch));
+  }
+
+  /** Returns the buffered documents when ready to send, resetting the buffer. */
+  @Nullable Batch takeBatch(boolean force) {
+    assert Thread.holdsLock(this);
+    if (callbacks.isEmpty()) return null;
+    if (!force && (ready == null || inFlight >= (int) concurrencyLimit)) return null;
+    Batch result = new Batch(body, actions, callbacks, callbackActions, indices, ready);
+    body = new Buffer();
+    actions = 0;
+    callbacks = new ArrayList<>();
+    callbackActions = new ArrayList<>();
+    indices = new LinkedHashSet<>();
+    ready = null;
+    if (lingerTimeout != null) {
+      lingerTimeout.cancel(false);
+      lingerTimeout = null;
+    }
+    retryBudget = Math.min(maxActions, retryBudget + result.actions * RETRY_BUDGET_RATIO);
+    inFlight++;
+    return result;
+  }
+
+  void send(final Attempt attempt) {
+    Batch batch = attempt.batch;
+    attempt.sequence = requestCount.incrementAndGet();
+    if (attempt.number == 0) {
+      documentCount.addAndGet(batch.actions);
+      if (batch.reason != null) flushCounts.incrementAndGet(batch.reason.ordinal());
+    }
+
+    // clone shares the segments of the body, which is kept in case documents need to be retried
+    Request request = http.postJson(new Request.Builder().url(url).tag("index-span"),
+      attempt.body.clone()).build();
+
+    try {
+      http.newCall(request, BulkResponse.READ).enqueue(new Callback<BulkResponse>() {
+        @Override public void onSuccess(@Nullable BulkResponse value) {
+          handle(attempt, value, null);
+        }
+
+        @Override public void onError(Throwable t) {
+          handle(attempt, null, t);
+        }
+      });
+    } catch (RuntimeException e) { // such as when the http client is closed
+      handle(attempt, null, e);
+    }
+  }
+
+  /**
+   * Records the outcome of each document in the attempt, then either schedules a retry of the
+   * rejected ones or completes the batch.
+   */
+  void handle(Attempt attempt, @Nullable BulkResponse response, @Nullable Throwable error) {
+    Batch batch = attempt.batch;
+    int size = attempt.size;
+    int[] rejected = null;
+    int rejectedCount = 0;
+    if (error != null) {
+      if (error instanceof HttpCall.ResponseFailedException
+        && ((HttpCall.ResponseFailedException) error).code == TOO_MANY_REQUESTS) {
+        rejected = new int[size];
+        for (int i = 0; i < size; i++) rejected[rejectedCount++] = attempt.action(i);
+      } else {
+        for (int i = 0; i < size; i++) fail(batch, attempt.action(i), error);
+      }
+    } else if (response != null && response.statuses.length != size) {
+      IllegalStateException e = new IllegalStateException(response.content);
+      for (int i = 0; i < size; i++) fail(batch, attempt.action(i), e);
+    } else if (response != null) {
+      for (int i = 0; i < size; i++) {
+        int status = response.statuses[i];
+        if (status >= 200 && status < 300) continue;
+        if (status == TOO_MANY_REQUESTS) {
+          if (rejected == null) rejected = new int[size];
+          rejected[rejectedCount++] = attempt.action(i);
+        } else {
+          fail(batch, attempt.action(i), response, i);
+        }
+      }
+    }
+
+    if (rejectedCount == 0) {
+      synchronized (this) {
+        increaseConcurrencyLimit();
+      }
+      complete(batch);
+      return;
+    }
+
+    Attempt retry = null;
+    synchronized (this) {
+      decreaseConcurrencyLimit(attempt);
+      int retryCount = 0;
+      if (!closed && attempt.number < maxRetries) {
+        retryCount = (int) Math.min(rejectedCount, retryBudget);
+        retryBudget -= retryCount;
+      }
+      if (retryCount > 0) {
+        retry = new Attempt(batch, rejected, retryCount, attempt.number + 1);
+        scheduleRetry(retry);
+        this.retryCount.addAndGet(retryCount);
+      }
+      if (retryCount < rejectedCount) {
+        IllegalStateException e = new IllegalStateException(closed ? "closed"
+          : "rejected by Elasticsearch after " + attempt.number + " retries");
+        for (int i = retryCount; i < rejectedCount; i++) fail(batch, rejected[i], e);
+      }
+    }
+    if (retry == null) complete(batch);
+  }
+
+  void scheduleRetry(final Attempt retry) {
+    assert Thread.holdsLock(this);
+    // Full jitter: a random delay up to the exponential backoff, so that retries spread out
+    long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << (retry.number - 1));
+    long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+    scheduledRetries.add(retry);
+    retry.scheduled = timer().schedule(new Runnable() {
+      @Override public void run() {
+        synchronized (BulkPipeline.this) {
+          if (!scheduledRetries.remove(retry)) return; // failed on close
+        }
+        send(retry);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /** Additive increase: one more request per round of responses without rejections */
+  void increaseConcurrencyLimit() {
+    assert Thread.holdsLock(this);
+    concurrencyLimit = Math.min(maxConcurrentRequests, concurrencyLimit + 1 / concurrencyLimit);
+  }
+
+  /** Multiplicative decrease, once for the requests in-flight when rejections were seen */
+  void decreaseConcurrencyLimit(Attempt attempt) {
+    assert Thread.holdsLock(this);
+    if (attempt.sequence <= decreasedThrough) return;
+    concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+    decreasedThrough = requestCount.get();
+  }
+
+  void fail(Batch batch, int action, BulkResponse response, int item) {
+    droppedCount.incrementAndGet();
+    int callback = batch.callbackOf(action);
+    if (batch.errors[callback] != null) return;
+    batch.errors[callback] = new IllegalStateException(
+      "indexing failed with status " + response.statuses[item] + ": " + response.errors[item]);
+  }
+
+  void fail(Batch batch, int action, Throwable error) {
+    droppedCount.incrementAndGet();
+    int callback = batch.callbackOf(action);
+    if (batch.errors[callback] == null) batch.errors[callback] = error;
+  }
+
+  /** Completes the callbacks of the batch, then sends the next batch, if ready. */
+  void complete(Batch batch) {
+    if (!batch.indices.isEmpty()) {
+      try {
+        ElasticsearchStorage.flush(http, join(batch.indices));
+      } catch (IOException | RuntimeException e) {
+        for (int i = 0; i < batch.errors.length; i++) {
+          if (batch.errors[i] == null) batch.errors[i] = e;
+        }
+      }
+    }
+
+    for (int i = 0, length = batch.callbacks.size(); i < length; i++) {
+      Throwable error = batch.errors[i];
+      if (error == null) {
+        batch.callbacks.get(i).onSuccess(null);
+      } else {
+        batch.callbacks.get(i).onError(error);
+      }
+    }
+
+    Batch next;
+    synchronized (this) {
+      inFlight--; // after callbacks, so that close doesn't return before writers see the result
+      next = takeBatch(false);
+      if (inFlight == 0) notifyAll(); // wakes close
+    }
+    if (next != null) send(new Attempt(next));
+  }
+
+  synchronized ScheduledThreadPoolExecutor timer() {
+    if (timer == null) {
+      timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+          Thread result = new Thread(r, "zipkin-elasticsearch-bulk");
+          result.setDaemon(true);
+          return result;
+        }
+      });
+      timer.setKeepAliveTime(1, TimeUnit.SECONDS);
+      timer.allowCoreThreadTimeOut(true); // don't hold a thread when idle
+      timer.setRemoveOnCancelPolicy(true);
+    }
+    return timer;
+  }
+
+  /**
+   * Sends any buffered documents and stops accepting more. Pending retries fail. This waits up to
+   * {@code closeTimeoutMillis} for bulk requests in-flight, so that closing the HTTP client next
+   * doesn't abort them.
+   */
+  @Override public void close() {
+    Batch batch;
+    List<Attempt> retries;
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      batch = takeBatch(true);
+      retries = new ArrayList<>(scheduledRetries);
+      scheduledRetries.clear();
+      for (Attempt retry : retries) retry.scheduled.cancel(false);
+      if (timer != null) timer.shutdownNow();
+    }
+    if (batch != null) send(new Attempt(batch));
+    for (Attempt retry : retries) handle(retry, null, new IllegalStateException("closed"));
+    awaitInFlight(closeTimeoutMillis);
+  }
+
+  /** Returns false if bulk requests were still in-flight after the timeout. */
+  synchronized boolean awaitInFlight(long timeoutMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      while (inFlight > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override public String toString() {
+    return "BulkPipeline{url=" + url + ", maxBytes=" + maxBytes + ", maxActions=" + maxActions
+      + ", lingerMillis=" + lingerMillis + ", maxConcurrentRequests=" + maxConcurrentRequests
+      + ", maxRetries=" + maxRetries + "}";
+  }
+
+  static final class Batch {
+    final Buffer body;
+    final int actions;
+    final List<Callback<Void>> callbacks;
+    final int[] callbackEnds; // exclusive, the action after the last of each callback
+    final Set<String> indices;
+    @Nullable final FlushReason reason; // null when flushed on close
+    /** The first error of each callback's documents. Only accessed by the attempt in progress. */
+    final Throwable[] errors;
+    @Nullable long[] actionOffsets; // lazy as only needed for retries
+
+    Batch(Buffer body, int actions, List<Callback<Void>> callbacks, List<Integer> callbackActions,
+      Set<String> indices, @Nullable FlushReason reason) {
+      this.body = body;
+      this.actions = actions;
+      this.callbacks = callbacks;
+      this.callbackEnds = new int[callbacks.size()];
+      for (int i = 0, end = 0; i < callbackEnds.length; i++) {
+        callbackEnds[i] = end += callbackActions.get(i);
+      }
+      this.indices = indices;
+      this.reason = reason;
+      this.errors = new Throwable[callbacks.size()];
+    }
+
+    int callbackOf(int action) {
+      int i = 0;
+      while (callbackEnds[i] <= action) i++;
+      return i;
+    }
+
+    /** Copies an action, which is a metadata line followed by a document line. */
+    void copyAction(int action, Buffer sink) {
+      if (actionOffsets == null) {
+        actionOffsets = new long[actions + 1];
+        for (int i = 1; i <= actions; i++) {
+          long metadataEnd = body.indexOf((byte) '\n', actionOffsets[i - 1]);
+          actionOffsets[i] = body.indexOf((byte) '\n', metadataEnd + 1) + 1;
+        }
+      }
+      long offset = actionOffsets[action];
+      body.copyTo(sink, offset, actionOffsets[action + 1] - offset);
+    }
+  }
+
+  /** A request for all of a batch's documents, or only those rejected by the previous attempt */
+  static final class Attempt {
+    final Batch batch;
+    @Nullable final int[] actions; // null means all actions of the batch
+    final int size, number; // number is zero for the first attempt
+    final Buffer body;
+    long sequence; // of the request sent, for adjusting the concurrency limit
+    @Nullable ScheduledFuture<?> scheduled; // of a retry, guarded by the pipeline
+
+    Attempt(Batch batch) {
+      this.batch = batch;
+      this.actions = null;
+      this.size = batch.actions;
+      this.number = 0;
+      this.body = batch.body;
+    }
+
+    Attempt(Batch batch, int[] actions, int size, int number) {
+      this.batch = batch;
+      this.actions = actions;
+      this.size = size;
+      this.number = number;
+      this.body = new Buffer();
+      for (int i = 0; i < size; i++) batch.copyAction(actions[i], body);
+    }
+
+    /** Returns the batch's action number of an action in this attempt */
+    int action(int i) {
+      return actions == null ? i : actions[i];
+    }
+  }
+
+  /** The status of each action in a bulk response that has errors */
+  static final class BulkResponse {
+    static final HttpCall.BodyConverter<BulkResponse> READ =
+      new HttpCall.BodyConverter<BulkResponse>() {
+        @Override public BulkResponse convert(BufferedSource b) throws IOException {
+          String content = b.readUtf8();
+          if (!content.contains("\"errors\":true")) return null; // all succeeded
+          return parse(content);
+        }
+
+        @Override public String toString() {
+          return "ReadBulkResponse";
+        }
+      };
+
+    final String content;
+    final int[] statuses;
+    final String[] errors; // null unless the action failed
+
+    BulkResponse(String content, List<Integer> statuses, List<String> errors) {
+      this.content = content;
+      this.statuses = new int[statuses.size()];
+      for (int i = 0; i < this.statuses.length; i++) this.statuses[i] = statuses.get(i);
+      this.errors = errors.toArray(new String[0]);
+    }
+
+    static BulkResponse parse(String content) throws IOException {
+      List<Integer> statuses = new ArrayList<>();
+      List<String> errors = new ArrayList<>();
+      JsonReader reader = JsonReader.of(new Buffer().writeUtf8(content));
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (!reader.nextName().equals("items")) {
+          reader.skipValue();
+          continue;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+          reader.beginObject();
+          reader.nextName(); // the action, such as "index"
+          readItem(reader, statuses, errors);
+          reader.endObject();
+        }
+        reader.endArray();
+      }
+      reader.endObject();
+      return new BulkResponse(content, statuses, errors);
+    }
+
+    static void readItem(JsonReader reader, List<Integer> statuses, List<String> errors)
+      throws IOException {
+      int status = 0;
+      String error = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("status")) {
+          status = reader.nextInt();
+        } else if (name.equals("error")) {
+          error = readError(reader);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      statuses.add(status);
+      errors.add(error);
+    }
+
+    /** Elasticsearch 1.x returns the error as a string, while later versions use an object */
+    static String readError(JsonReader reader) throws IOException {
+      if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) return reader.nextString();
+      String type = null, reason = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("type")) {
+          type = reader.nextString();
+        } else if (name.equals("reason")) {
+          reason = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return type + ": " + reason;
+    }
+  }
+
+  static final class BulkCall extends Call.Base<Void> {
+    final BulkPipeline pipeline;
+    final ByteString documents;
+    final int actions;
+    @Nullable final Collection<String> indices;
+
+    BulkCall(BulkPipeline pipeline, ByteString documents, int actions,
+      @Nullable Collection<String> indices) {
+      this.pipeline = pipeline;
+      this.documents = documents;
+      this.actions = actions;
+      this.indices = indices;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      AwaitableCallback<Void> result = new AwaitableCallback<>();
+      pipeline.add(documents, actions, indices, result);
+      return result.await();
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      pipeline.add(documents, actions, indices, callback);
+    }
+
+    @Override public BulkCall clone() {
+      return new BulkCall(pipeline, documents, actions, indices);
+    }
+
+    @Override public String toString() {
+      return "BulkCall{actions=" + actions + ", bytes=" + documents.size() + "}";
+    }
+  }
+}
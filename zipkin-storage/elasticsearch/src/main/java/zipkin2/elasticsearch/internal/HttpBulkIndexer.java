@@ -19,9 +19,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okio.Buffer;
 import okio.BufferedSource;
 import zipkin2.elasticsearch.ElasticsearchStorage;
@@ -33,8 +31,6 @@ import static zipkin2.internal.JsonEscaper.jsonEscape;
 // See https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-bulk.html
 // exposed to re-use for testing writes of dependency links
 public final class HttpBulkIndexer {
-  static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
-
   final String tag;
   final HttpCall.Factory http;
   final String pipeline;
@@ -44,12 +40,15 @@ public final class HttpBulkIndexer {
   final Buffer body = new Buffer();
   final Set<String> indices;
   final HttpCall.BodyConverter<Void> maybeFlush;
+  int actions;
+  final BulkMetadataPrefixes metadataPrefixes;
 
   public HttpBulkIndexer(String tag, ElasticsearchStorage es) {
     this.tag = tag;
-    http = es.http();
+    http = es.bulkHttp();
     pipeline = es.pipeline();
     flushOnWrites = es.flushOnWrites();
+    metadataPrefixes = es.bulkMetadataPrefixes();
     if (flushOnWrites) {
       indices = new LinkedHashSet<>();
       maybeFlush = new HttpCall.BodyConverter<Void>() {
@@ -80,19 +79,42 @@ public final class HttpBulkIndexer {
     }
   }
 
+  /** Writes a document directly into the request body, avoiding an intermediate array. */
+  public interface DocumentWriter<T> {
+    void write(T value, Buffer body);
+  }
+
   public void add(String index, String typeName, byte[] document, @Nullable String id) {
-    writeIndexMetadata(index, typeName, id);
+    add(index, typeName, document, id, null);
+  }
+
+  /** @param routing when present, the document is stored on the shard for this value */
+  public void add(String index, String typeName, byte[] document, @Nullable String id,
+    @Nullable String routing) {
+    writeIndexMetadata(index, typeName, id, routing);
     writeDocument(document);
+    actions++;
   }
 
-  void writeIndexMetadata(String index, String typeName, @Nullable String id) {
+  /** Like the other variants, except {@code writer} writes the document into the body */
+  public <T> void add(String index, String typeName, T value, DocumentWriter<T> writer,
+    @Nullable String id, @Nullable String routing) {
+    writeIndexMetadata(index, typeName, id, routing);
+    writer.write(value, body);
+    body.writeByte('\n');
+    actions++;
+  }
+
+  void writeIndexMetadata(String index, String typeName, @Nullable String id,
+    @Nullable String routing) {
     if (flushOnWrites) indices.add(index);
-    body.writeUtf8("{\"index\":{\"_index\":\"").writeUtf8(index).writeByte('"');
-    // the _type parameter is needed for Elasticsearch <6.x
-    body.writeUtf8(",\"_type\":\"").writeUtf8(typeName).writeByte('"');
+    body.write(metadataPrefixes.get(index, typeName));
     if (id != null) {
       body.writeUtf8(",\"_id\":\"").writeUtf8(jsonEscape(id)).writeByte('"');
     }
+    if (routing != null) {
+      body.writeUtf8(",\"_routing\":\"").writeUtf8(jsonEscape(routing)).writeByte('"');
+    }
     body.writeUtf8("}}\n");
   }
 
@@ -107,10 +129,7 @@ public final class HttpBulkIndexer {
       ? http.baseUrl.newBuilder("_bulk").addQueryParameter("pipeline", pipeline).build()
       : http.baseUrl.resolve("_bulk");
 
-    Request request = new Request.Builder().url(url)
-      .tag(tag)
-      .post(RequestBody.create(APPLICATION_JSON, body.readByteString()))
-      .build();
+    Request request = http.postJson(new Request.Builder().url(url).tag(tag), body).build();
 
     return http.newCall(request, maybeFlush);
   }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import okio.Buffer;
+
+/**
+ * Gzips request bodies. Bulk requests repeat the same index metadata on every line, so they
+ * compress well, which matters when Elasticsearch is across a costly network link.
+ *
+ * <p>The body is compressed a chunk at a time, so temporary memory doesn't grow with the body.
+ * Deflaters hold native memory, so they are pooled instead of created per request.
+ */
+public final class GzipBodies {
+  static final int CHUNK_SIZE = 8192;
+  static final byte[] GZIP_HEADER = {
+    0x1f, (byte) 0x8b, // magic
+    Deflater.DEFLATED, // compression method
+    0, 0, 0, 0, 0, // flags and modification time
+    0, // extra flags
+    (byte) 0xff // unknown operating system
+  };
+  static final BlockingQueue<Deflater> POOL =
+    new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+  /** Returns a gzip of the source, which is consumed. */
+  public static Buffer gzip(Buffer source) {
+    Deflater deflater = POOL.poll();
+    if (deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* raw */);
+    try {
+      Buffer result = new Buffer().write(GZIP_HEADER);
+      CRC32 crc = new CRC32();
+      long size = source.size();
+      byte[] in = new byte[CHUNK_SIZE], out = new byte[CHUNK_SIZE];
+      while (!source.exhausted()) {
+        int read = source.read(in);
+        crc.update(in, 0, read);
+        deflater.setInput(in, 0, read);
+        while (!deflater.needsInput()) {
+          int deflated = deflater.deflate(out);
+          result.write(out, 0, deflated);
+        }
+      }
+      deflater.finish();
+      while (!deflater.finished()) {
+        int deflated = deflater.deflate(out);
+        result.write(out, 0, deflated);
+      }
+      result.writeIntLe((int) crc.getValue());
+      result.writeIntLe((int) size);
+      return result;
+    } finally {
+      deflater.reset();
+      if (!POOL.offer(deflater)) deflater.end();
+    }
+  }
+
+  GzipBodies() {
+  }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import zipkin2.internal.Nullable;
+
+/**
+ * Spreads requests over Elasticsearch hosts. Requests are built against any one of them, and this
+ * rewrites their scheme, host and port to the host chosen.
+ *
+ * <p>Of two random hosts, the one with fewer outstanding requests is chosen, or when equal, the one
+ * with lower average latency. As a slow node accumulates outstanding requests, it is chosen less.
+ *
+ * <p>A host is ejected after consecutive failures, which are I/O errors or a 502, 503 or 504
+ * status. When its ejection time passes, the next request probes it. Success returns the host to
+ * rotation, while failure ejects it for twice as long, up to a minute. When all hosts are ejected,
+ * the one whose ejection ends soonest is used, as failing every request would be worse.
+ *
+ * <p>When a host fails with an I/O error, a read is sent once more to another host. So is a write
+ * that couldn't connect, as it wasn't received. Other writes aren't, as they may have been applied.
+ */
+public class HostBalancer implements Interceptor { // not final for testing
+  static final int FAILURES_TO_EJECT = 3;
+  static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final long MAX_EJECTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+  /** Weight of each new latency in the average. Higher reacts faster to a node slowing down */
+  static final double LATENCY_WEIGHT = 0.2;
+
+  public static HostBalancer create(List<String> urls) {
+    if (urls.isEmpty()) throw new IllegalArgumentException("no hosts configured");
+    List<Host> hosts = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      HttpUrl httpUrl = HttpUrl.parse(url);
+      if (httpUrl == null) throw new IllegalArgumentException("invalid host url: " + url);
+      hosts.add(new Host(httpUrl));
+    }
+    return new HostBalancer(hosts);
+  }
+
+  final List<Host> hosts;
+
+  HostBalancer(List<Host> hosts) {
+    this.hosts = Collections.unmodifiableList(hosts);
+  }
+
+  /** The hosts requests are balanced over, in the order configured. Exposed for metrics. */
+  public List<Host> hosts() {
+    return hosts;
+  }
+
+  /** Returns the host with the given base url, or null if there is none. */
+  @Nullable public Host host(String url) {
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    for (Host host : hosts) {
+      if (host.url.equals(httpUrl)) return host;
+    }
+    return null;
+  }
+
+  // visible for testing, since nanoTime is weird and can return negative
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    Host host = choose(null);
+    try {
+      return proceed(chain, request, host);
+    } catch (IOException e) {
+      if (hosts.size() == 1 || chain.call().isCanceled() || !isRetryable(request, e)) throw e;
+      return proceed(chain, request, choose(host));
+    }
+  }
+
+  static boolean isRetryable(Request request, IOException e) {
+    if (e instanceof ConnectException || e instanceof UnknownHostException) return true;
+    String method = request.method();
+    if (method.equals("GET") || method.equals("HEAD")) return true;
+    return request.url().encodedPath().endsWith("/_search"); // searches are posted
+  }
+
+  Response proceed(Chain chain, Request request, Host host) throws IOException {
+    HttpUrl url = request.url().newBuilder()
+      .scheme(host.url.scheme())
+      .host(host.url.host())
+      .port(host.url.port())
+      .build();
+    long start = nanoTime();
+    Response response;
+    try {
+      response = chain.proceed(request.newBuilder().url(url).build());
+    } catch (IOException | RuntimeException | Error e) {
+      if (chain.call().isCanceled()) {
+        release(host); // a canceled call says nothing about the host
+      } else {
+        complete(host, start, false, false);
+      }
+      throw e;
+    }
+    int code = response.code();
+    complete(host, start, code != 502 && code != 503 && code != 504, true);
+    return response;
+  }
+
+  /**
+   * Returns the host for the next request, incrementing its outstanding requests.
+   *
+   * @param exclude a host that just failed, or null
+   */
+  synchronized Host choose(@Nullable Host exclude) {
+    long now = nanoTime();
+    List<Host> available = new ArrayList<>(hosts.size());
+    Host soonest = null;
+    for (Host host : hosts) {
+      if (host == exclude) continue;
+      if (!host.ejected) {
+        available.add(host);
+      } else if (!host.probing && host.ejectedUntil - now <= 0) {
+        host.probing = true; // only one request probes an ejected host
+        available.clear();
+        available.add(host);
+        break;
+      } else if (soonest == null || host.ejectedUntil - soonest.ejectedUntil < 0) {
+        soonest = host;
+      }
+    }
+
+    Host result;
+    if (available.isEmpty()) {
+      result = soonest != null ? soonest : exclude;
+    } else if (available.size() == 1) {
+      result = available.get(0);
+    } else {
+      int i = ThreadLocalRandom.current().nextInt(available.size());
+      int j = ThreadLocalRandom.current().nextInt(available.size() - 1);
+      if (j >= i) j++; // two different hosts
+      result = lessLoaded(available.get(i), available.get(j));
+    }
+    result.outstanding++;
+    result.requestCount.incrementAndGet();
+    return result;
+  }
+
+  static Host lessLoaded(Host a, Host b) {
+    if (a.outstanding != b.outstanding) return a.outstanding < b.outstanding ? a : b;
+    return a.latencyNanos <= b.latencyNanos ? a : b;
+  }
+
+  synchronized void release(Host host) {
+    host.outstanding--;
+    host.probing = false; // allows another request to probe
+  }
+
+  /**
+   * @param success false when the host failed the request
+   * @param responded true when latency can be measured, as there was a response
+   */
+  synchronized void complete(Host host, long start, boolean success, boolean responded) {
+    long now = nanoTime();
+    host.outstanding--;
+    if (responded) {
+      long latency = now - start;
+      host.latencyNanos = host.latencyNanos == 0
+        ? latency
+        : host.latencyNanos + LATENCY_WEIGHT * (latency - host.latencyNanos);
+    }
+
+    if (success) {
+      host.consecutiveFailures = 0;
+      if (host.probing || host.ejected) {
+        host.ejected = host.probing = false;
+        host.ejections = 0;
+      }
+      return;
+    }
+
+    host.failureCount.incrementAndGet();
+    host.consecutiveFailures++;
+    if (host.probing) {
+      host.probing = false;
+      eject(host, now);
+    } else if (!host.ejected && host.consecutiveFailures >= FAILURES_TO_EJECT) {
+      eject(host, now);
+    }
+  }
+
+  static void eject(Host host, long now) {
+    long duration = BASE_EJECTION_NANOS << Math.min(host.ejections, 16);
+    host.ejectedUntil = now + Math.min(duration, MAX_EJECTION_NANOS);
+    host.ejected = true;
+    host.ejections++;
+    host.ejectionCount.incrementAndGet();
+  }
+
+  @Override public String toString() {
+    return "HostBalancer" + hosts;
+  }
+
+  /** State of a host, which changes while the balancer is locked. Exposed for metrics. */
+  public static final class Host {
+    final HttpUrl url;
+    final AtomicLong requestCount = new AtomicLong(), failureCount = new AtomicLong();
+    final AtomicLong ejectionCount = new AtomicLong();
+    volatile int outstanding;
+    volatile double latencyNanos;
+    volatile boolean ejected;
+    boolean probing;
+    int consecutiveFailures, ejections;
+    long ejectedUntil;
+
+    Host(HttpUrl url) {
+      this.url = url;
+    }
+
+    /** The base url of this host */
+    public String url() {
+      return url.toString();
+    }
+
+    /** Count of requests sent to this host that haven't completed */
+    public int outstanding() {
+      return outstanding;
+    }
+
+    /** Moving average of response latency in milliseconds, or zero before any response */
+    public double latencyMillis() {
+      return latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** True when failures took this host out of rotation */
+    public boolean ejected() {
+      return ejected;
+    }
+
+    /** Count of requests sent to this host */
+    public long requestCount() {
+      return requestCount.get();
+    }
+
+    /** Count of requests this host failed, due to an I/O error or unavailable status */
+    public long failureCount() {
+      return failureCount.get();
+    }
+
+    /** Count of times this host was taken out of rotation */
+    public long ejectionCount() {
+      return ejectionCount.get();
+    }
+
+    @Override public String toString() {
+      return url.toString();
+    }
+  }
+}
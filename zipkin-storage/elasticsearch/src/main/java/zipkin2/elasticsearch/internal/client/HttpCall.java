@@ -17,11 +17,14 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.Semaphore;
 import okhttp3.HttpUrl;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.internal.http.HttpHeaders;
+import okio.Buffer;
 import okio.BufferedSource;
 import okio.GzipSource;
 import okio.Okio;
@@ -34,17 +37,47 @@ public final class HttpCall<V> extends Call<V> {
     V convert(BufferedSource content) throws IOException;
   }
 
+  /** Thrown when Elasticsearch responds with an error status, such as 429 when overloaded. */
+  public static final class ResponseFailedException extends IllegalStateException {
+    public final int code;
+
+    ResponseFailedException(int code, String message) {
+      super(message);
+      this.code = code;
+    }
+  }
+
   public static class Factory implements Closeable {
+    static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
+
     final OkHttpClient ok;
     final Semaphore semaphore;
+    final boolean compressRequests;
     public final HttpUrl baseUrl;
 
     public Factory(OkHttpClient ok, HttpUrl baseUrl) {
+      this(ok, baseUrl, false);
+    }
+
+    public Factory(OkHttpClient ok, HttpUrl baseUrl, boolean compressRequests) {
       this.ok = ok;
       this.semaphore = new Semaphore(ok.dispatcher().getMaxRequests());
+      this.compressRequests = compressRequests;
       this.baseUrl = baseUrl;
     }
 
+    /**
+     * Posts the json, which is consumed. When request compression is enabled, the body is gzipped.
+     * This is done here instead of in an interceptor, so that request signing sees the bytes sent.
+     */
+    public Request.Builder postJson(Request.Builder request, Buffer json) {
+      if (!compressRequests) {
+        return request.post(RequestBody.create(APPLICATION_JSON, json.readByteString()));
+      }
+      return request.header("Content-Encoding", "gzip")
+        .post(RequestBody.create(APPLICATION_JSON, GzipBodies.gzip(json).readByteString()));
+    }
+
     public <V> HttpCall<V> newCall(Request request, BodyConverter<V> bodyConverter) {
       return new HttpCall<>(this, request, bodyConverter);
     }
@@ -136,7 +169,7 @@ public final class HttpCall<V> extends Call<V> {
       if (response.isSuccessful()) {
         return null;
       } else {
-        throw new IllegalStateException("response failed: " + response);
+        throw new ResponseFailedException(response.code(), "response failed: " + response);
       }
     }
     try (ResponseBody responseBody = response.body()) {
@@ -147,7 +180,7 @@ public final class HttpCall<V> extends Call<V> {
       if (response.isSuccessful()) {
         return bodyConverter.convert(content);
       } else {
-        throw new IllegalStateException(
+        throw new ResponseFailedException(response.code(),
           "response for " + response.request().tag() + " failed: " + content.readUtf8());
       }
     }
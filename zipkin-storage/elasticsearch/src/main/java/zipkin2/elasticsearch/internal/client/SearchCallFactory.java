@@ -17,14 +17,11 @@ import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import java.util.List;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.Request;
-import okhttp3.RequestBody;
+import okio.Buffer;
 import zipkin2.internal.Nullable;
 
 public class SearchCallFactory {
-  static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
-
   final HttpCall.Factory http;
   final JsonAdapter<SearchRequest> searchRequest =
       new Moshi.Builder().build().adapter(SearchRequest.class);
@@ -34,22 +31,48 @@ public class SearchCallFactory {
   }
 
   public <V> HttpCall<V> newCall(SearchRequest request, HttpCall.BodyConverter<V> bodyConverter) {
-    Request httpRequest = new Request.Builder().url(lenientSearch(request.indices, request.type))
-        .post(RequestBody.create(APPLICATION_JSON, searchRequest.toJson(request)))
+    Request.Builder httpRequest = new Request.Builder()
+        .url(lenientSearch(request.indices, request.type, request.routing))
+        .header("Accept-Encoding", "gzip")
+        .tag(request.tag());
+    Buffer json = new Buffer().writeUtf8(searchRequest.toJson(request));
+    return http.newCall(http.postJson(httpRequest, json).build(), bodyConverter);
+  }
+
+  /**
+   * Sends the searches in one multi-search request, which Elasticsearch runs concurrently. Each is
+   * as lenient about missing indices as {@link #newCall}. The response holds one result per search,
+   * in the same order.
+   */
+  public <V> HttpCall<V> newMultiCall(List<SearchRequest> requests,
+    HttpCall.BodyConverter<V> bodyConverter) {
+    Buffer body = new Buffer();
+    for (SearchRequest request : requests) {
+      // keep options in the same order as lenientSearch
+      body.writeUtf8("{\"index\":\"").writeUtf8(join(request.indices))
+        .writeUtf8("\",\"allow_no_indices\":true,\"expand_wildcards\":\"open\"")
+        .writeUtf8(",\"ignore_unavailable\":true");
+      if (request.type != null) body.writeUtf8(",\"type\":\"").writeUtf8(request.type).writeByte('"');
+      body.writeUtf8("}\n").writeUtf8(searchRequest.toJson(request)).writeByte('\n');
+    }
+    Request.Builder httpRequest = new Request.Builder()
+        .url(http.baseUrl.resolve("_msearch"))
         .header("Accept-Encoding", "gzip")
-        .tag(request.tag()).build();
-    return http.newCall(httpRequest, bodyConverter);
+        .tag("multi-search");
+    return http.newCall(http.postJson(httpRequest, body).build(), bodyConverter);
   }
 
   /** Matches the behavior of {@code IndicesOptions#lenientExpandOpen()} */
-  HttpUrl lenientSearch(List<String> indices, @Nullable String type) {
+  HttpUrl lenientSearch(List<String> indices, @Nullable String type, @Nullable String routing) {
     HttpUrl.Builder builder = http.baseUrl.newBuilder().addPathSegment(join(indices));
     if (type != null) builder.addPathSegment(type);
-    return builder.addPathSegment("_search")
-                  // keep these in alphabetical order as it simplifies amazon signatures!
-                  .addQueryParameter("allow_no_indices", "true")
-                  .addQueryParameter("expand_wildcards", "open")
-                  .addQueryParameter("ignore_unavailable", "true").build();
+    builder.addPathSegment("_search")
+           // keep these in alphabetical order as it simplifies amazon signatures!
+           .addQueryParameter("allow_no_indices", "true")
+           .addQueryParameter("expand_wildcards", "open")
+           .addQueryParameter("ignore_unavailable", "true");
+    if (routing != null) builder.addQueryParameter("routing", routing);
+    return builder.build();
   }
 
   static String join(List<String> parts) {
@@ -42,9 +42,11 @@ public final class SearchRequest {
 
   transient final List<String> indices;
   @Nullable transient final String type;
+  @Nullable transient String routing;
 
   Integer size = MAX_RESULT_WINDOW;
-  Boolean _source;
+  Object _source; // false or a list of fields to include
+  List<String> sort;
   Object query;
   Map<String, Aggregation> aggs;
 
@@ -113,6 +115,11 @@ public final class SearchRequest {
     return query(new Terms(field, values));
   }
 
+  /** Matches documents by {@code _id}, regardless of type. */
+  public SearchRequest ids(List<String> values) {
+    return query(new Ids(values));
+  }
+
   public SearchRequest addAggregation(Aggregation agg) {
     size = null; // we return aggs, not source data
     _source = false;
@@ -121,6 +128,24 @@ public final class SearchRequest {
     return this;
   }
 
+  /** Returns only these fields of each document, instead of the whole source. */
+  public SearchRequest source(List<String> includes) {
+    _source = includes;
+    return this;
+  }
+
+  /** Returns hits in ascending order of this field, which must not be analyzed. */
+  public SearchRequest sort(String field) {
+    sort = Collections.singletonList(field);
+    return this;
+  }
+
+  /** Limits the search to the shards holding these comma-separated routing values. */
+  public SearchRequest routing(String routing) {
+    this.routing = routing;
+    return this;
+  }
+
   String tag() {
     return aggs != null ? "aggregation" : "search";
   }
@@ -138,6 +163,14 @@ public final class SearchRequest {
     }
   }
 
+  static class Ids {
+    final Map<String, List<String>> ids;
+
+    Ids(List<String> values) {
+      ids = Collections.singletonMap("values", values);
+    }
+  }
+
   static class Exists {
     final Map<String, String> exists;
 
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutocompleteCacheTest {
+  long nanoTime;
+  AutocompleteCache cache = new AutocompleteCache(1000L, 3) {
+    @Override long nanoTime() {
+      return nanoTime;
+    }
+  };
+
+  @Test public void expiresWhenTtlPasses() {
+    assertThat(cache.add("a")).isTrue();
+    assertThat(cache.add("a")).isFalse();
+
+    nanoTime = TimeUnit.MILLISECONDS.toNanos(500);
+    assertThat(cache.add("a")).isFalse();
+    assertThat(cache.add("b")).isTrue();
+
+    // A second after the first add, we should write again
+    nanoTime = TimeUnit.SECONDS.toNanos(1);
+    assertThat(cache.add("a")).isTrue();
+    assertThat(cache.add("b")).isFalse();
+  }
+
+  @Test public void invalidate() {
+    cache.add("a");
+    cache.add("b");
+
+    cache.invalidate(asList("a"));
+
+    assertThat(cache.add("a")).isTrue();
+    assertThat(cache.add("b")).isFalse();
+  }
+
+  @Test public void evictsExpiredKeysWhenFull() {
+    cache.add("a");
+    nanoTime = TimeUnit.MILLISECONDS.toNanos(500);
+    cache.add("b");
+    cache.add("c");
+
+    nanoTime = TimeUnit.SECONDS.toNanos(1);
+    assertThat(cache.add("d")).isTrue();
+
+    assertThat(cache.expirations).containsOnlyKeys("b", "c", "d");
+  }
+
+  @Test public void clearsWhenFullAndNothingExpired() {
+    cache.add("a");
+    cache.add("b");
+    cache.add("c");
+
+    assertThat(cache.add("d")).isTrue();
+
+    assertThat(cache.expirations).containsOnlyKeys("d");
+  }
+
+  /** nanoTime can be negative, so expiration is compared by difference */
+  @Test public void negativeNanoTime() {
+    nanoTime = -TimeUnit.SECONDS.toNanos(10);
+    assertThat(cache.add("a")).isTrue();
+    assertThat(cache.add("a")).isFalse();
+
+    nanoTime += TimeUnit.SECONDS.toNanos(1);
+    assertThat(cache.add("a")).isTrue();
+  }
+}
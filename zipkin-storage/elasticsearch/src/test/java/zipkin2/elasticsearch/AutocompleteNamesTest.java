@@ -0,0 +1,65 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import okio.Buffer;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutocompleteNamesTest {
+
+  @Test public void readsNamesAndIndicesFromAggregations() throws IOException {
+    AutocompleteNames result = AutocompleteNames.CONVERTER.convert(new Buffer().writeUtf8(
+      "{\"took\":1,\"aggregations\":{"
+        + "\"serviceName\":{\"buckets\":[{\"key\":\"frontend\",\"doc_count\":2}]},"
+        + "\"remoteServiceName\":{\"buckets\":[{\"key\":\"db\",\"doc_count\":1}]},"
+        + "\"_index\":{\"buckets\":[{\"key\":\"zipkin:autocomplete-2018-05-20\",\"doc_count\":3}]}"
+        + "}}"));
+
+    assertThat(result.names).containsExactly("frontend", "db");
+    assertThat(result.indices).containsExactly("zipkin:autocomplete-2018-05-20");
+  }
+
+  @Test public void emptyWithoutAggregations() throws IOException {
+    AutocompleteNames result = AutocompleteNames.CONVERTER.convert(new Buffer().writeUtf8("{}"));
+
+    assertThat(result.names).isEmpty();
+    assertThat(result.indices).isEmpty();
+  }
+
+  @Test public void spanIndicesNotFound() {
+    AutocompleteNames names = new AutocompleteNames(asList("frontend"), new LinkedHashSet<>(
+      asList("zipkin:autocomplete-2018-05-20", "zipkin:autocomplete-2018-06-02")));
+
+    assertThat(names.spanIndicesNotFound(asList(
+      "zipkin:autocomplete-2018-04-*",
+      "zipkin:autocomplete-2018-05-*",
+      "zipkin:autocomplete-2018-06-01",
+      "zipkin:autocomplete-2018-06-02"
+    ))).containsExactly("zipkin:span-2018-04-*", "zipkin:span-2018-06-01");
+  }
+
+  @Test public void mergesSpanNames() {
+    AutocompleteNames names =
+      new AutocompleteNames(asList("frontend", "db"), new LinkedHashSet<String>());
+
+    assertThat(names.map(emptyList())).isSameAs(names.names);
+    assertThat(names.map(asList("db", "backend"))).containsExactly("frontend", "db", "backend");
+  }
+}
@@ -19,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -58,10 +60,12 @@ public class ElasticsearchSpanConsumerTest {
     es.enqueue(new MockResponse().setBody("{\"version\":{\"number\":\"6.0.0\"}}"));
     es.enqueue(new MockResponse()); // get span template
     es.enqueue(new MockResponse()); // get dependency template
+    if (storage.searchEnabled()) es.enqueue(new MockResponse()); // get autocomplete template
     storage.ensureIndexTemplates();
     es.takeRequest(); // get version
     es.takeRequest(); // get span template
     es.takeRequest(); // get dependency template
+    if (storage.searchEnabled()) es.takeRequest(); // get autocomplete template
   }
 
   @After
@@ -199,6 +203,82 @@ public class ElasticsearchSpanConsumerTest {
       .isEqualTo("/_bulk?pipeline=zipkin");
   }
 
+  @Test public void routesByLower64BitsOfTraceId() throws Exception {
+    close();
+
+    storage = ElasticsearchStorage.newBuilder()
+      .hosts(asList(es.url("").toString()))
+      .traceIdRouting(true)
+      .build();
+    ensureIndexTemplate();
+
+    es.enqueue(new MockResponse());
+
+    accept(Span.newBuilder().traceId("48fec942f3e78b893041d36dc43227fd").id("1").name("foo")
+      .build());
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .startsWith("{\"index\":{\"_index\":\"zipkin:span-")
+      .contains("\"_type\":\"span\",\"_routing\":\"3041d36dc43227fd\"}}\n");
+  }
+
+  @Test public void writesTraceDayOncePerTrace() throws Exception {
+    close();
+
+    storage = ElasticsearchStorage.newBuilder()
+      .hosts(asList(es.url("").toString()))
+      .traceDayLookup(true)
+      .build();
+    es.enqueue(new MockResponse().setBody("{\"version\":{\"number\":\"6.0.0\"}}"));
+    es.enqueue(new MockResponse()); // get span template
+    es.enqueue(new MockResponse()); // get dependency template
+    es.enqueue(new MockResponse()); // get trace template
+    es.enqueue(new MockResponse()); // get autocomplete template
+    storage.ensureIndexTemplates();
+    es.takeRequest(); // get version
+    es.takeRequest(); // get span template
+    es.takeRequest(); // get dependency template
+    assertThat(es.takeRequest().getPath())
+      .isEqualTo("/_template/zipkin:trace_template");
+    es.takeRequest(); // get autocomplete template
+
+    es.enqueue(new MockResponse());
+
+    Span span = Span.newBuilder().traceId("48fec942f3e78b893041d36dc43227fd").id("1").name("foo")
+      .timestamp(TODAY * 1000).build();
+    accept(span, span.toBuilder().id("2").build());
+
+    String index = storage.indexNameFormatter().formatTypeAndTimestamp("trace", TODAY);
+    String body = es.takeRequest().getBody().readUtf8();
+    assertThat(body.split("\n"))
+      .hasSize(6)
+      .containsOnlyOnce("{\"index\":{\"_index\":\"" + index + "\",\"_type\":\"trace\","
+        + "\"_id\":\"3041d36dc43227fd\"}}");
+  }
+
+  @Test public void compressesBulkRequests() throws Exception {
+    close();
+
+    storage = ElasticsearchStorage.newBuilder()
+      .hosts(asList(es.url("").toString()))
+      .compressionEnabled(true)
+      .build();
+    ensureIndexTemplate();
+
+    es.enqueue(new MockResponse());
+
+    accept(Span.newBuilder().traceId("1").id("1").name("foo").build());
+
+    RecordedRequest request = es.takeRequest();
+    assertThat(request.getHeader("Content-Encoding"))
+      .isEqualTo("gzip");
+    Buffer body = new Buffer();
+    GzipSource source = new GzipSource(request.getBody());
+    while (source.read(body, Long.MAX_VALUE) != -1) ;
+    assertThat(body.readUtf8())
+      .startsWith("{\"index\":{\"_index\":\"zipkin:span-");
+  }
+
   @Test public void dropsWhenBacklog() throws Exception {
     close();
 
@@ -236,6 +316,33 @@ public class ElasticsearchSpanConsumerTest {
       .isInstanceOf(IllegalStateException.class);
   }
 
+  /** Closing the HTTP client would abort the bulk request, if not for waiting for it first */
+  @Test public void close_indexesLingeringSpans() throws Exception {
+    close();
+
+    storage = ElasticsearchStorage.newBuilder()
+      .hosts(asList(es.url("").toString()))
+      .bulkLingerMillis((int) TimeUnit.MINUTES.toMillis(1))
+      .build();
+    ensureIndexTemplate();
+    es.enqueue(new MockResponse().setBodyDelay(200, TimeUnit.MILLISECONDS));
+
+    final LinkedBlockingQueue<Object> q = new LinkedBlockingQueue<>();
+    storage.spanConsumer().accept(asList(TestObjects.CLIENT_SPAN)).enqueue(new Callback<Void>() {
+      @Override public void onSuccess(@Nullable Void value) {
+        q.add("success");
+      }
+
+      @Override public void onError(Throwable t) {
+        q.add(t);
+      }
+    });
+    storage.close();
+
+    assertThat(q.poll()).isEqualTo("success");
+    assertThat(es.takeRequest().getPath()).startsWith("/_bulk");
+  }
+
   @Test public void choosesTypeSpecificIndex() throws Exception {
     es.enqueue(new MockResponse());
 
@@ -255,6 +362,103 @@ public class ElasticsearchSpanConsumerTest {
     );
   }
 
+  @Test public void writesEachSpanIntoItsDayIndex() throws Exception {
+    es.enqueue(new MockResponse());
+
+    Span span = Span.newBuilder().traceId("1").id("1").name("s")
+      .timestamp(TimeUnit.DAYS.toMicros(365) /* 1971-01-01 */).build();
+    Span nextDay = span.toBuilder().id("2").timestamp(TimeUnit.DAYS.toMicros(366)).build();
+
+    accept(span, nextDay, span.toBuilder().id("3").build());
+
+    assertThat(es.takeRequest().getBody().readByteString().utf8().split("\n"))
+      .filteredOn(line -> line.startsWith("{\"index\""))
+      .containsExactly(
+        "{\"index\":{\"_index\":\"zipkin:span-1971-01-01\",\"_type\":\"span\"}}",
+        "{\"index\":{\"_index\":\"zipkin:span-1971-01-02\",\"_type\":\"span\"}}",
+        "{\"index\":{\"_index\":\"zipkin:span-1971-01-01\",\"_type\":\"span\"}}"
+      );
+  }
+
+  /** The span JSON is written via a reusable array, which must not leak between spans */
+  @Test public void spanDocumentWriter_reusesArrayBetweenSpans() throws Exception {
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 2000; i++) longName.append('a');
+    Span large = Span.newBuilder().traceId("1").id("1").name(longName.toString())
+      .timestamp(TODAY * 1000).putTag("http.path", "/a").build();
+    Span small = Span.newBuilder().traceId("1").id("2").name("get").build();
+
+    ElasticsearchSpanConsumer.SpanDocumentWriter writer =
+      new ElasticsearchSpanConsumer.SpanDocumentWriter(true);
+    Buffer body = new Buffer();
+    writer.write(small, body);
+    body.writeByte('\n');
+    writer.write(large, body);
+    body.writeByte('\n');
+    writer.write(small, body);
+
+    assertThat(body.readUtf8().split("\n")).containsExactly(
+      new String(SpanBytesEncoder.JSON_V2.encode(small), "UTF-8"),
+      new String(prefixWithTimestampMillisAndQuery(large, TODAY), "UTF-8"),
+      new String(SpanBytesEncoder.JSON_V2.encode(small), "UTF-8")
+    );
+  }
+
+  @Test public void writesAutocompleteNamesOncePerDay() throws Exception {
+    es.enqueue(new MockResponse());
+
+    Span client = Span.newBuilder().traceId("1").id("2").parentId("1").name("get")
+      .kind(Kind.CLIENT).localEndpoint(WEB_ENDPOINT).remoteEndpoint(APP_ENDPOINT)
+      .timestamp(TODAY * 1000).build();
+    accept(client, client.toBuilder().id("3").build());
+
+    String index = storage.indexNameFormatter().formatTypeAndTimestamp("autocomplete", TODAY);
+    assertThat(es.takeRequest().getBody().readUtf8().split("\n"))
+      .hasSize(6)
+      .containsOnlyOnce("{\"index\":{\"_index\":\"" + index + "\",\"_type\":\"autocomplete\","
+        + "\"_id\":\"web|get|app\"}}")
+      .containsOnlyOnce("{\"serviceName\":\"web\",\"spanName\":\"get\",\"remoteServiceName\":\"app\"}");
+
+    // a later request doesn't rewrite the same names
+    es.enqueue(new MockResponse());
+    accept(client.toBuilder().id("4").build());
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .doesNotContain("autocomplete");
+  }
+
+  @Test public void rewritesAutocompleteNamesAfterFailure() throws Exception {
+    es.enqueue(new MockResponse().setResponseCode(500));
+
+    Span span = Span.newBuilder().traceId("1").id("1").name("get").localEndpoint(WEB_ENDPOINT)
+      .timestamp(TODAY * 1000).build();
+    try {
+      accept(span);
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException expected) {
+    }
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("{\"serviceName\":\"web\",\"spanName\":\"get\"}");
+
+    es.enqueue(new MockResponse());
+    accept(span);
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("{\"serviceName\":\"web\",\"spanName\":\"get\"}");
+  }
+
+  @Test public void autocompleteDocument_onlyRemoteServiceName() throws Exception {
+    Span span = Span.newBuilder().traceId("1").id("1").name("get").remoteEndpoint(APP_ENDPOINT)
+      .build();
+
+    assertThat(ElasticsearchSpanConsumer.autocompleteId(
+      span.localServiceName(), null, span.remoteServiceName()))
+      .isEqualTo("||app");
+    assertThat(new String(ElasticsearchSpanConsumer.autocompleteDocument(
+      span.localServiceName(), null, span.remoteServiceName()), "UTF-8"))
+      .isEqualTo("{\"remoteServiceName\":\"app\"}");
+  }
+
   /** Much simpler template which doesn't write the timestamp_millis field */
   @Test
   public void searchDisabled_simplerIndexTemplate() throws Exception {
@@ -297,10 +501,12 @@ public class ElasticsearchSpanConsumerTest {
       Span span = Span.newBuilder().traceId("20").id("20").name("get")
         .timestamp(TODAY * 1000).build();
 
-      storage.spanConsumer().accept(asList(span)).execute();
+      storage.spanConsumer().accept(asList(span.toBuilder().localEndpoint(WEB_ENDPOINT).build()))
+        .execute();
 
       assertThat(es.takeRequest().getBody().readUtf8())
-        .doesNotContain("timestamp_millis");
+        .doesNotContain("timestamp_millis")
+        .doesNotContain("autocomplete");
     }
   }
 
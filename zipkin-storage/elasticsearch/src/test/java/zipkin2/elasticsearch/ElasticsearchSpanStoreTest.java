@@ -14,7 +14,14 @@
 package zipkin2.elasticsearch;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -25,8 +32,11 @@ import zipkin2.TestObjects;
 import zipkin2.storage.QueryRequest;
 
 import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static zipkin2.TestObjects.TODAY;
+import static zipkin2.elasticsearch.ElasticsearchSpanStore.AUTOCOMPLETE;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.SPAN;
 
 public class ElasticsearchSpanStoreTest {
@@ -37,6 +47,10 @@ public class ElasticsearchSpanStoreTest {
     .build();
   ElasticsearchSpanStore spanStore = new ElasticsearchSpanStore(storage);
 
+  static final long DAY = TimeUnit.DAYS.toMillis(1);
+  static final String SPAN_HITS = "{\"hits\":{\"hits\":[{\"_index\":\"zipkin:span-2018-05-01\","
+    + "\"_source\":{\"traceId\":\"0000000000000001\",\"id\":\"0000000000000001\"}}]}}";
+
   @After public void close() throws IOException {
     storage.close();
   }
@@ -60,18 +74,299 @@ public class ElasticsearchSpanStoreTest {
       .contains("\"traceId\":\"3041d36dc43227fd\"");
   }
 
+  @Test public void getTrace_routesByLower64Bits() throws Exception {
+    storage = storage.toBuilder().traceIdRouting(true).build();
+    spanStore = new ElasticsearchSpanStore(storage);
+
+    es.enqueue(new MockResponse());
+    spanStore.getTrace("48fec942f3e78b893041d36dc43227fd").execute();
+
+    assertThat(es.takeRequest().getRequestUrl().queryParameter("routing"))
+      .isEqualTo("3041d36dc43227fd");
+  }
+
+  @Test public void getTrace_doesntRouteByDefault() throws Exception {
+    es.enqueue(new MockResponse());
+    spanStore.getTrace("48fec942f3e78b893041d36dc43227fd").execute();
+
+    assertThat(es.takeRequest().getRequestUrl().queryParameter("routing"))
+      .isNull();
+  }
+
+  @Test public void getTrace_withHint_searchesNeighbouringDays() throws Exception {
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    assertThat(spanStore.getTrace("1", TODAY).execute())
+      .hasSize(1);
+
+    assertThat(es.getRequestCount()).isEqualTo(1);
+    assertThat(es.takeRequest().getPath()).startsWith("/" + String.join(",",
+      storage.indexNameFormatter().formatTypeAndRange(SPAN, TODAY - DAY, TODAY + DAY))
+      + "/_search");
+  }
+
+  @Test public void getTrace_withHint_searchesAllIndicesOnMiss() throws Exception {
+    es.enqueue(new MockResponse());
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    assertThat(spanStore.getTrace("1", TODAY).execute())
+      .hasSize(1);
+
+    es.takeRequest();
+    assertThat(es.takeRequest().getPath()).startsWith("/zipkin:span-*/_search");
+  }
+
+  @Test public void getTrace_withFields_includesOnlyThoseAndIds() throws Exception {
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    assertThat(spanStore.getTrace("1", TODAY, Collections.singleton("duration")).execute())
+      .hasSize(1);
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("\"_source\":[\"traceId\",\"parentId\",\"id\",\"duration\"]");
+  }
+
+  @Test public void getTrace_withFields_withoutHint() throws Exception {
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    spanStore.getTrace("1", 0L, Collections.singleton("duration")).execute();
+
+    RecordedRequest request = es.takeRequest();
+    assertThat(request.getPath()).startsWith("/zipkin:span-*/_search");
+    assertThat(request.getBody().readUtf8()).contains("\"_source\":[");
+  }
+
+  @Test public void getTrace_readsWholeSourceByDefault() throws Exception {
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    spanStore.getTrace("1").execute();
+
+    assertThat(es.takeRequest().getBody().readUtf8()).doesNotContain("_source");
+  }
+
+  @Test public void getTrace_traceDayLookup() throws Exception {
+    storage = storage.toBuilder().traceDayLookup(true).build();
+    spanStore = new ElasticsearchSpanStore(storage);
+
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"hits\":["
+      + "{\"_index\":\"zipkin:trace-2018-05-01\",\"_id\":\"0000000000000001\"},"
+      + "{\"_index\":\"zipkin:trace-2018-05-02\",\"_id\":\"0000000000000001\"}]}}"));
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    assertThat(spanStore.getTrace("1").execute())
+      .hasSize(1);
+
+    RecordedRequest lookup = es.takeRequest();
+    assertThat(lookup.getPath()).startsWith("/zipkin:trace-*/_search");
+    assertThat(lookup.getBody().readUtf8())
+      .contains("{\"ids\":{\"values\":[\"0000000000000001\"]}}");
+    assertThat(es.takeRequest().getPath())
+      .startsWith("/zipkin:span-2018-05-01,zipkin:span-2018-05-02/_search");
+  }
+
+  @Test public void getTrace_traceDayLookup_searchesAllIndicesWhenNotFound() throws Exception {
+    storage = storage.toBuilder().traceDayLookup(true).build();
+    spanStore = new ElasticsearchSpanStore(storage);
+
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"hits\":[]}}"));
+    es.enqueue(new MockResponse().setBody(SPAN_HITS));
+
+    assertThat(spanStore.getTrace("1").execute())
+      .hasSize(1);
+
+    es.takeRequest();
+    assertThat(es.takeRequest().getPath()).startsWith("/zipkin:span-*/_search");
+  }
+
+  @Test public void routingKeys() {
+    assertThat(ElasticsearchSpanStore.routingKeys(
+      asList("48fec942f3e78b893041d36dc43227fd", "3041d36dc43227fe")))
+      .isEqualTo("3041d36dc43227fd,3041d36dc43227fe");
+  }
+
   @Test public void serviceNames_defaultsTo24HrsAgo_6x() throws Exception {
-    es.enqueue(new MockResponse().setBody(TestResponses.SERVICE_NAMES));
+    es.enqueue(new MockResponse().setBody(autocompleteResponse("yak")));
     spanStore.getServiceNames().execute();
 
-    requestLimitedTo2DaysOfIndices_singleTypeIndex();
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(AUTOCOMPLETE);
   }
 
   @Test public void spanNames_defaultsTo24HrsAgo_6x() throws Exception {
-    es.enqueue(new MockResponse().setBody(TestResponses.SPAN_NAMES));
+    es.enqueue(new MockResponse().setBody(autocompleteResponse("yak")));
     spanStore.getSpanNames("foo").execute();
 
-    requestLimitedTo2DaysOfIndices_singleTypeIndex();
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(AUTOCOMPLETE);
+  }
+
+  @Test public void serviceNames_readsAutocompleteIndex() throws Exception {
+    es.enqueue(new MockResponse().setBody(autocompleteResponse("yak", "service")));
+
+    assertThat(spanStore.getServiceNames().execute()).containsExactly("yak", "service");
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("\"serviceName\"", "\"remoteServiceName\"", "\"_index\"")
+      .doesNotContain("timestamp_millis");
+    assertThat(es.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test public void spanNames_readsAutocompleteIndexByServiceName() throws Exception {
+    es.enqueue(new MockResponse().setBody(autocompleteResponse("methodcall", "yak")));
+
+    assertThat(spanStore.getSpanNames("Foo").execute()).containsExactly("methodcall", "yak");
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("{\"term\":{\"serviceName\":\"foo\"}}", "\"spanName\"", "\"_index\"");
+    assertThat(es.getRequestCount()).isEqualTo(1);
+  }
+
+  /** Only days without autocomplete documents are aggregated from span indices */
+  @Test public void serviceNames_aggregatesSpansOfDaysWithoutAutocomplete() throws Exception {
+    List<String> days = namesDays(AUTOCOMPLETE);
+    es.enqueue(new MockResponse().setBody(autocompleteResponse(days.subList(1, 2), "yak")));
+    es.enqueue(new MockResponse().setBody(TestResponses.SERVICE_NAMES));
+
+    assertThat(spanStore.getServiceNames().execute()).containsExactly("yak", "service");
+
+    es.takeRequest();
+    assertThat(es.takeRequest().getPath())
+      .startsWith("/" + namesDays(SPAN).get(0) + "/_search");
+  }
+
+  @Test public void spanNames_aggregatesSpansOfDaysWithoutAutocomplete() throws Exception {
+    List<String> days = namesDays(AUTOCOMPLETE);
+    es.enqueue(new MockResponse().setBody(autocompleteResponse(days.subList(0, 1), "yak")));
+    es.enqueue(new MockResponse().setBody(TestResponses.SPAN_NAMES));
+
+    assertThat(spanStore.getSpanNames("foo").execute()).containsExactly("yak", "methodcall");
+
+    es.takeRequest();
+    RecordedRequest spans = es.takeRequest();
+    assertThat(spans.getPath()).startsWith("/" + namesDays(SPAN).get(1) + "/_search");
+    assertThat(spans.getBody().readUtf8()).contains("\"localEndpoint.serviceName\":\"foo\"");
+  }
+
+  /** Spans written before the autocomplete index existed are still found */
+  @Test public void serviceNames_aggregatesSpansWhenAutocompleteEmpty() throws Exception {
+    es.enqueue(new MockResponse().setBody("{}"));
+    es.enqueue(new MockResponse().setBody(TestResponses.SERVICE_NAMES));
+
+    assertThat(spanStore.getServiceNames().execute()).containsExactly("yak", "service");
+
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(AUTOCOMPLETE);
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(SPAN);
+  }
+
+  @Test public void spanNames_aggregatesSpansWhenAutocompleteEmpty() throws Exception {
+    es.enqueue(new MockResponse().setBody("{}"));
+    es.enqueue(new MockResponse().setBody(TestResponses.SPAN_NAMES));
+
+    assertThat(spanStore.getSpanNames("foo").execute()).containsExactly("methodcall", "yak");
+
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(AUTOCOMPLETE);
+    requestLimitedTo2DaysOfIndices_singleTypeIndex(SPAN);
+  }
+
+  @Test public void getTraces_wideRange_stopsAtNewestIndexWhenLimitReached() throws Exception {
+    Queue<String> multiSearches = dispatchMultiSearches();
+    multiSearches.add(traceIdsPerIndex(asList("1", "2")));
+
+    assertThat(spanStore.getTraces(weekOfTraces(2)).execute())
+      .hasSize(1); // the mock returns the same trace for every span fetch
+
+    List<String> newestFirst = weekOfIndices();
+    RecordedRequest traceIds = es.takeRequest();
+    assertThat(traceIds.getPath()).isEqualTo("/_msearch");
+    assertThat(traceIds.getBody().readUtf8())
+      .startsWith("{\"index\":\"" + newestFirst.get(0) + "\",")
+      .doesNotContain(newestFirst.get(1));
+
+    RecordedRequest spans = es.takeRequest();
+    assertThat(spans.getPath()).startsWith("/" + String.join(",", reversed(newestFirst)) + "/_search");
+    assertThat(spans.getBody().readUtf8())
+      .contains("{\"terms\":{\"traceId\":[\"1\",\"2\"]}}")
+      .contains("\"sort\":[\"traceId\"]"); // so that each trace's hits are together
+    assertThat(es.getRequestCount()).isEqualTo(2);
+  }
+
+  @Test public void getTraces_wideRange_searchesOlderIndicesInGrowingBatches() throws Exception {
+    Queue<String> multiSearches = dispatchMultiSearches();
+    multiSearches.add(traceIdsPerIndex(asList("1")));
+    multiSearches.add(traceIdsPerIndex(asList("1", "2"), asList("3", "4")));
+
+    spanStore.getTraces(weekOfTraces(3)).execute();
+
+    List<String> multiSearchBodies = new ArrayList<>(), spanSearchBodies = new ArrayList<>();
+    for (int i = 0, count = es.getRequestCount(); i < count; i++) {
+      RecordedRequest request = es.takeRequest();
+      (request.getPath().equals("/_msearch") ? multiSearchBodies : spanSearchBodies)
+        .add(request.getBody().readUtf8());
+    }
+
+    List<String> newestFirst = weekOfIndices();
+    assertThat(multiSearchBodies).hasSize(2);
+    assertThat(multiSearchBodies.get(1))
+      .contains(newestFirst.get(1), newestFirst.get(2))
+      .doesNotContain(newestFirst.get(0), newestFirst.get(3));
+
+    // spans are fetched for each batch of trace IDs, without refetching ones already seen
+    assertThat(spanSearchBodies).hasSize(2)
+      .anySatisfy(b -> assertThat(b).contains("{\"terms\":{\"traceId\":[\"1\"]}}"))
+      .anySatisfy(b -> assertThat(b).contains("{\"terms\":{\"traceId\":[\"2\",\"3\"]}}"));
+  }
+
+  @Test public void getTraces_wideRange_searchesAllIndicesWhenLimitNotReached() throws Exception {
+    dispatchMultiSearches(); // no trace IDs
+
+    assertThat(spanStore.getTraces(weekOfTraces(10)).execute())
+      .isEmpty();
+
+    assertThat(es.getRequestCount()).isEqualTo(3); // batches of 1, 2 then 4 indices
+  }
+
+  @Test public void getTraces_wideRange_failsOnSearchError() throws Exception {
+    Queue<String> multiSearches = dispatchMultiSearches();
+    multiSearches.add("{\"responses\":[{\"error\":{\"type\":\"search_phase_execution_exception\"}}]}");
+
+    assertThatThrownBy(() -> spanStore.getTraces(weekOfTraces(10)).execute())
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("search_phase_execution_exception");
+  }
+
+  static QueryRequest weekOfTraces(int limit) {
+    return QueryRequest.newBuilder().endTs(TODAY).lookback(6 * DAY).limit(limit).build();
+  }
+
+  List<String> weekOfIndices() {
+    return reversed(storage.indexNameFormatter().formatTypeAndRange(SPAN, TODAY - 6 * DAY, TODAY));
+  }
+
+  static List<String> reversed(List<String> list) {
+    List<String> result = new ArrayList<>(list);
+    Collections.reverse(result);
+    return result;
+  }
+
+  @SafeVarargs static String traceIdsPerIndex(List<String>... traceIdsPerIndex) {
+    return Stream.of(traceIdsPerIndex).map(traceIds -> traceIds.stream()
+      .map(traceId -> "{\"key\":\"" + traceId + "\"}")
+      .collect(joining(",", "{\"aggregations\":{\"traceId_agg\":{\"buckets\":[", "]}}}")))
+      .collect(joining(",", "{\"responses\":[", "]}"));
+  }
+
+  /**
+   * Span fetches overlap multi-searches, so responses are chosen by path instead of arrival order.
+   * Multi-searches beyond those queued find nothing.
+   */
+  Queue<String> dispatchMultiSearches() {
+    Queue<String> multiSearches = new ConcurrentLinkedQueue<>();
+    es.setDispatcher(new Dispatcher() {
+      @Override public MockResponse dispatch(RecordedRequest request) {
+        if (!request.getPath().equals("/_msearch")) return new MockResponse().setBody(SPAN_HITS);
+        String body = multiSearches.poll();
+        return new MockResponse().setBody(body != null ? body : "{\"responses\":[]}");
+      }
+    });
+    return multiSearches;
   }
 
   @Test public void searchDisabled_doesntMakeRemoteQueryRequests() throws Exception {
@@ -92,15 +387,38 @@ public class ElasticsearchSpanStoreTest {
     }
   }
 
-  private void requestLimitedTo2DaysOfIndices_singleTypeIndex() throws Exception {
+  /** An autocomplete search response with the names, found in each day of the names lookback */
+  String autocompleteResponse(String... names) {
+    return autocompleteResponse(namesDays(AUTOCOMPLETE), names);
+  }
+
+  static String autocompleteResponse(List<String> indices, String... names) {
+    return "{\"aggregations\":{\"serviceName\":" + buckets(asList(names))
+      + ",\"_index\":" + buckets(indices) + "}}";
+  }
+
+  static String buckets(List<String> keys) {
+    return keys.stream().map(k -> "{\"key\":\"" + k + "\",\"doc_count\":1}")
+      .collect(joining(",", "{\"buckets\":[", "]}"));
+  }
+
+  /** The indices of the type for the last day, which is the default names lookback */
+  List<String> namesDays(String type) {
+    long today = TestObjects.midnightUTC(System.currentTimeMillis());
+    return asList(
+      storage.indexNameFormatter().formatTypeAndTimestamp(type, today - DAY),
+      storage.indexNameFormatter().formatTypeAndTimestamp(type, today));
+  }
+
+  private void requestLimitedTo2DaysOfIndices_singleTypeIndex(String type) throws Exception {
     long today = TestObjects.midnightUTC(System.currentTimeMillis());
     long yesterday = today - TimeUnit.DAYS.toMillis(1);
 
     // 24 hrs ago always will fall into 2 days (ex. if it is 4:00pm, 24hrs ago is a different day)
     String indexesToSearch = ""
-      + storage.indexNameFormatter().formatTypeAndTimestamp(SPAN, yesterday)
+      + storage.indexNameFormatter().formatTypeAndTimestamp(type, yesterday)
       + ","
-      + storage.indexNameFormatter().formatTypeAndTimestamp(SPAN, today);
+      + storage.indexNameFormatter().formatTypeAndTimestamp(type, today);
 
     RecordedRequest request = es.takeRequest();
     assertThat(request.getPath())
@@ -14,8 +14,15 @@
 package zipkin2.elasticsearch;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.internal.tls.SslClient;
@@ -23,6 +30,7 @@ import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import zipkin2.CheckResult;
+import zipkin2.elasticsearch.internal.client.HostBalancer;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -43,6 +51,7 @@ public class ElasticsearchStorageTest {
     es.enqueue(new MockResponse().setBody("{\"version\":{\"number\":\"2.4.0\"}}"));
     es.enqueue(new MockResponse()); // get span template
     es.enqueue(new MockResponse()); // get dependency template
+    es.enqueue(new MockResponse()); // get autocomplete template
     es.enqueue(new MockResponse()); // dependencies request
     es.enqueue(new MockResponse()); // dependencies request
 
@@ -53,6 +62,7 @@ public class ElasticsearchStorageTest {
     es.takeRequest(); // get version
     es.takeRequest(); // get span template
     es.takeRequest(); // get dependency template
+    es.takeRequest(); // get autocomplete template
 
     assertThat(es.takeRequest().getPath())
       .startsWith("/zipkin:dependency-2016-10-01,zipkin:dependency-2016-10-02/_search");
@@ -122,19 +132,44 @@ public class ElasticsearchStorageTest {
       .isNotNull();
   }
 
-  @Test(expected = IllegalArgumentException.class)
-  public void multipleSslNotYetSupported() throws Exception {
+  /** Requests are rewritten per host, so hosts needn't share a scheme or port */
+  @Test public void mixedSchemesAndPorts() {
     storage.close();
-    SslClient sslClient = SslClient.localhost();
-    OkHttpClient client = new OkHttpClient.Builder()
-      .sslSocketFactory(sslClient.socketFactory, sslClient.trustManager)
+    storage = ElasticsearchStorage.newBuilder()
+      .hosts(asList("https://1.2.3.4:9243", es.url("").toString()))
       .build();
-    es.useHttps(sslClient.socketFactory, false);
 
+    assertThat(storage.hostBalancer().hosts())
+      .extracting(HostBalancer.Host::url)
+      .containsExactly("https://1.2.3.4:9243/", es.url("").toString());
+  }
+
+  /** Requests are built against the first host, so are rewritten when sent to another */
+  @Test public void mixedSchemesAndPorts_rewritesRequest() throws Exception {
+    storage.close();
+    List<HttpUrl> sent = new ArrayList<>();
+    OkHttpClient client = new OkHttpClient.Builder()
+      .addInterceptor(chain -> { // after the host balancer, which is the first interceptor
+        HttpUrl url = chain.request().url();
+        if (url.scheme().equals("http")) throw new ConnectException(); // retried on the other
+        sent.add(url);
+        return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+          .code(200).message("OK")
+          .body(ResponseBody.create(ElasticsearchStorage.APPLICATION_JSON, healthResponse))
+          .build();
+      })
+      .build();
     storage = ElasticsearchStorage.newBuilder(client)
-      .hosts(asList("https://1.2.3.4:" + es.getPort(), es.url("").toString()))
+      .hosts(asList("http://127.0.0.1:9200", "https://1.2.3.4:9243"))
       .build();
 
-    storage.check();
+    assertThat(storage.check())
+      .isEqualTo(CheckResult.OK);
+
+    assertThat(sent).hasSize(1);
+    assertThat(sent.get(0).scheme()).isEqualTo("https");
+    assertThat(sent.get(0).host()).isEqualTo("1.2.3.4");
+    assertThat(sent.get(0).port()).isEqualTo(9243);
+    assertThat(sent.get(0).encodedPath()).startsWith("/_cluster/health/");
   }
 }
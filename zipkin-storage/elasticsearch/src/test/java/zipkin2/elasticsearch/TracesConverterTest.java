@@ -0,0 +1,97 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+import okio.Buffer;
+import org.junit.Test;
+import zipkin2.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TracesConverterTest {
+  TracesConverter converter = new TracesConverter(false);
+
+  @Test public void groupsByTraceId_inOrderOfFirstSpan() throws IOException {
+    List<List<Span>> traces = converter.convert(hits(
+      span("2", "a"), span("1", "b"), span("2", "c"), span("1", "d")
+    ));
+
+    assertThat(traces).extracting(t -> t.get(0).traceId())
+      .containsExactly("0000000000000002", "0000000000000001");
+    assertThat(traces.get(0)).extracting(Span::id)
+      .containsExactly("000000000000000a", "000000000000000c");
+    assertThat(traces.get(1)).extracting(Span::id)
+      .containsExactly("000000000000000b", "000000000000000d");
+  }
+
+  @Test public void groupsOnLower64Bits_unlessStrict() throws IOException {
+    String hits = hitsJson(span("1", "a"), span("1", "c"), span("10000000000000001", "b"));
+
+    assertThat(converter.convert(new Buffer().writeUtf8(hits)))
+      .hasSize(1);
+    assertThat(new TracesConverter(true).convert(new Buffer().writeUtf8(hits)))
+      .extracting(List::size)
+      .containsExactly(2, 1);
+  }
+
+  /** Strict trace IDs are sorted in the search, so traces are runs of hits */
+  @Test public void strict_groupsConsecutiveHits() throws IOException {
+    List<List<Span>> traces = new TracesConverter(true).convert(hits(
+      span("1", "a"), span("1", "b"), span("2", "c"), span("2", "d"), span("2", "e")
+    ));
+
+    assertThat(traces).extracting(t -> t.get(0).traceId())
+      .containsExactly("0000000000000001", "0000000000000002");
+    assertThat(traces).extracting(List::size)
+      .containsExactly(2, 3);
+  }
+
+  @Test public void skipsNullSourceAndOtherFields() throws IOException {
+    String json = "{\"hits\":{\"hits\":["
+      + "{\"_index\":\"zipkin:span-2018-05-01\",\"_id\":\"1\",\"_score\":1.0,\"_source\":null},"
+      + "{\"_index\":\"zipkin:span-2018-05-01\",\"_source\":" + span("1", "a") + ",\"sort\":[1]}"
+      + "]}}";
+
+    assertThat(converter.convert(new Buffer().writeUtf8(json)))
+      .hasSize(1);
+  }
+
+  @Test public void emptyWhenNoHits() throws IOException {
+    assertThat(converter.convert(new Buffer().writeUtf8("{\"hits\":{\"total\":0,\"hits\":[]}}")))
+      .isEmpty();
+    assertThat(converter.convert(new Buffer().writeUtf8("{\"took\":1}")))
+      .isEmpty();
+  }
+
+  static String span(String traceId, String id) {
+    return "{\"traceId\":\"" + traceId + "\",\"id\":\"" + id + "\",\"name\":\"get\","
+      + "\"localEndpoint\":{\"serviceName\":\"web\",\"ipv4\":null}}";
+  }
+
+  static Buffer hits(String... sources) {
+    return new Buffer().writeUtf8(hitsJson(sources));
+  }
+
+  static String hitsJson(String... sources) {
+    StringBuilder result = new StringBuilder("{\"hits\":{\"hits\":[");
+    for (int i = 0; i < sources.length; i++) {
+      if (i > 0) result.append(',');
+      result.append("{\"_index\":\"zipkin:span-2018-05-01\",\"_source\":").append(sources[i])
+        .append('}');
+    }
+    return result.append("]}}").toString();
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AwaitableCallbackTest {
+  AwaitableCallback<String> callback = new AwaitableCallback<>();
+
+  @Test public void await_returnsValue() throws IOException {
+    new Thread(() -> callback.onSuccess("foo")).start();
+
+    assertThat(callback.await()).isEqualTo("foo");
+  }
+
+  @Test public void await_throwsIOException() {
+    callback.onError(new IOException("connection reset"));
+
+    assertThatThrownBy(callback::await)
+      .isInstanceOf(IOException.class)
+      .hasMessage("connection reset");
+  }
+
+  @Test public void await_wrapsCheckedExceptions() {
+    callback.onError(new Exception("checked"));
+
+    assertThatThrownBy(callback::await)
+      .isInstanceOf(IllegalStateException.class)
+      .hasCauseInstanceOf(Exception.class);
+  }
+
+  @Test public void await_interrupted() {
+    Thread.currentThread().interrupt();
+
+    assertThatThrownBy(callback::await)
+      .isInstanceOf(InterruptedIOException.class);
+    assertThat(Thread.interrupted()).isTrue(); // clears the flag
+  }
+}
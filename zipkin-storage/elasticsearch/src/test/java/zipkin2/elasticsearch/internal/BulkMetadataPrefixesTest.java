@@ -0,0 +1,45 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkMetadataPrefixesTest {
+  BulkMetadataPrefixes prefixes = new BulkMetadataPrefixes();
+
+  @Test public void encodesIndexAndType() {
+    assertThat(new String(prefixes.get("zipkin:span-2018-05-20", "span")))
+      .isEqualTo("{\"index\":{\"_index\":\"zipkin:span-2018-05-20\",\"_type\":\"span\"");
+  }
+
+  @Test public void reusesPrefix() {
+    assertThat(prefixes.get("zipkin:span-2018-05-20", "span"))
+      .isSameAs(prefixes.get("zipkin:span-2018-05-20", "span"))
+      .isNotSameAs(prefixes.get("zipkin:span-2018-05-21", "span"))
+      .isNotEqualTo(prefixes.get("zipkin:span-2018-05-20", "autocomplete"));
+  }
+
+  @Test public void boundsIndicesPerType() {
+    for (int day = 1; day <= 31; day++) {
+      prefixes.get("zipkin:span-2018-05-" + day, "span");
+    }
+    prefixes.get("zipkin:autocomplete-2018-05-20", "autocomplete");
+
+    assertThat(prefixes.byType.get("span").size())
+      .isLessThanOrEqualTo(BulkMetadataPrefixes.MAX_INDICES_PER_TYPE);
+    assertThat(prefixes.byType.get("autocomplete")).hasSize(1);
+  }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.elasticsearch.ElasticsearchStorage;
+import zipkin2.elasticsearch.internal.BulkPipeline.FlushReason;
+import zipkin2.internal.Nullable;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkPipelineTest {
+  @Rule public MockWebServer es = new MockWebServer();
+
+  ElasticsearchStorage storage = ElasticsearchStorage.newBuilder()
+    .hosts(asList(es.url("").toString()))
+    .build();
+  BulkPipeline pipeline;
+  LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+  @After public void close() throws IOException {
+    if (pipeline != null) pipeline.close();
+    storage.close();
+  }
+
+  @Test public void combinesWritesWhileInFlight() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 0);
+    es.enqueue(new MockResponse().setBodyDelay(200, TimeUnit.MILLISECONDS));
+    es.enqueue(new MockResponse());
+
+    document("1").enqueue(callback());
+    document("2").enqueue(callback());
+    document("3").enqueue(callback());
+
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"");
+    RecordedRequest second = es.takeRequest();
+    assertThat(second.getBody().readUtf8()).contains("\"2\"", "\"3\"");
+    for (int i = 0; i < 3; i++) assertThat(results.take()).isEqualTo("success");
+
+    assertThat(pipeline.requestCount()).isEqualTo(2);
+    assertThat(pipeline.documentCount()).isEqualTo(3);
+    pipeline.close(); // requests complete after their callbacks, so wait for them
+    assertThat(pipeline.inFlight()).isZero();
+  }
+
+  @Test public void flushesOnActions() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 2, TimeUnit.MINUTES.toMillis(1), 1, 0);
+    es.enqueue(new MockResponse());
+
+    document("1").enqueue(callback());
+    assertThat(es.takeRequest(100, TimeUnit.MILLISECONDS)).isNull();
+
+    document("2").execute();
+
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"", "\"2\"");
+    assertThat(pipeline.flushCount(FlushReason.ACTIONS)).isEqualTo(1);
+  }
+
+  @Test public void flushesOnBytes() throws Exception {
+    pipeline = new BulkPipeline(storage, 10, 100, TimeUnit.MINUTES.toMillis(1), 1, 0);
+    es.enqueue(new MockResponse());
+
+    document("1").execute();
+
+    assertThat(pipeline.flushCount(FlushReason.BYTES)).isEqualTo(1);
+  }
+
+  @Test public void flushesOnLinger() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 50, 1, 0);
+    es.enqueue(new MockResponse());
+
+    document("1").execute();
+
+    assertThat(pipeline.flushCount(FlushReason.LINGER)).isEqualTo(1);
+  }
+
+  @Test public void failsEachWriterInRequest() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 0);
+    es.enqueue(new MockResponse().setBodyDelay(200, TimeUnit.MILLISECONDS));
+    es.enqueue(new MockResponse().setBody("{\"errors\":true}"));
+
+    document("1").enqueue(callback());
+    document("2").enqueue(callback());
+    document("3").enqueue(callback());
+
+    assertThat(results.take()).isEqualTo("success");
+    assertThat(results.take()).isInstanceOf(IllegalStateException.class);
+    assertThat(results.take()).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test public void retriesOnlyRejectedDocuments() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 3, TimeUnit.MINUTES.toMillis(1), 1, 3);
+    pipeline.initialBackoffMillis = 1;
+    es.enqueue(new MockResponse().setBody(bulkResponse(201, 429, 201)));
+    es.enqueue(new MockResponse().setBody(bulkResponse(201)));
+
+    document("1").enqueue(callback());
+    document("2").enqueue(callback());
+    document("3").enqueue(callback());
+
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"", "\"2\"", "\"3\"");
+    assertThat(es.takeRequest().getBody().readUtf8())
+      .contains("\"2\"")
+      .doesNotContain("\"1\"", "\"3\"");
+    for (int i = 0; i < 3; i++) assertThat(results.take()).isEqualTo("success");
+
+    assertThat(pipeline.retryCount()).isEqualTo(1);
+    assertThat(pipeline.droppedCount()).isZero();
+    assertThat(pipeline.documentCount()).isEqualTo(3);
+    assertThat(pipeline.requestCount()).isEqualTo(2);
+  }
+
+  @Test public void retriesWhenRequestRejected() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 3);
+    pipeline.initialBackoffMillis = 1;
+    es.enqueue(new MockResponse().setResponseCode(429).setBody("{\"status\":429}"));
+    es.enqueue(new MockResponse());
+
+    document("1").execute();
+
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"");
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"");
+    assertThat(pipeline.retryCount()).isEqualTo(1);
+  }
+
+  @Test public void failsOnlyWritersOfFailedDocuments() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 2, TimeUnit.MINUTES.toMillis(1), 1, 3);
+    es.enqueue(new MockResponse().setBody(bulkResponse(400, 201)));
+
+    document("1").enqueue(callback());
+    document("2").enqueue(callback());
+
+    Object first = results.take(), second = results.take();
+    assertThat(asList(first, second)).contains("success");
+    Throwable error = (Throwable) (first instanceof Throwable ? first : second);
+    assertThat(error).hasMessage(
+      "indexing failed with status 400: mapper_parsing_exception: failed to parse");
+    assertThat(pipeline.droppedCount()).isEqualTo(1);
+    assertThat(pipeline.retryCount()).isZero();
+  }
+
+  @Test public void dropsAfterMaxRetries() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 1);
+    pipeline.initialBackoffMillis = 1;
+    es.enqueue(new MockResponse().setBody(bulkResponse(429)));
+    es.enqueue(new MockResponse().setBody(bulkResponse(429)));
+
+    document("1").enqueue(callback());
+
+    assertThat((Throwable) results.take())
+      .hasMessage("rejected by Elasticsearch after 1 retries");
+    assertThat(pipeline.retryCount()).isEqualTo(1);
+    assertThat(pipeline.droppedCount()).isEqualTo(1);
+  }
+
+  @Test public void dropsWhenRetriesDisabled() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 0);
+    es.enqueue(new MockResponse().setBody(bulkResponse(429)));
+
+    document("1").enqueue(callback());
+
+    assertThat(results.take()).isInstanceOf(IllegalStateException.class);
+    assertThat(es.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test public void concurrencyLimit_decreasesOnRejectionAndRecovers() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 4, 3);
+    pipeline.initialBackoffMillis = 1;
+    es.enqueue(new MockResponse().setBody(bulkResponse(429)));
+    es.enqueue(new MockResponse());
+
+    document("1").execute();
+    assertThat(pipeline.concurrencyLimit()).isEqualTo(2); // halved, then grew by 1/2
+
+    for (int i = 0; i < 5; i++) {
+      es.enqueue(new MockResponse());
+      document(String.valueOf(i)).execute();
+    }
+    assertThat(pipeline.concurrencyLimit()).isEqualTo(4); // additive increase, up to the max
+  }
+
+  @Test public void closeFailsPendingRetries() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, 0, 1, 3);
+    pipeline.initialBackoffMillis = pipeline.maxBackoffMillis = TimeUnit.MINUTES.toMillis(1);
+    es.enqueue(new MockResponse().setBody(bulkResponse(429)));
+
+    document("1").enqueue(callback());
+    es.takeRequest();
+    while (pipeline.retryCount() == 0) Thread.sleep(10);
+    ScheduledFuture<?> scheduled;
+    synchronized (pipeline) {
+      scheduled = pipeline.scheduledRetries.get(0).scheduled;
+    }
+    pipeline.close();
+
+    assertThat((Throwable) results.take()).hasMessage("closed");
+    assertThat(scheduled.isCancelled()).isTrue();
+  }
+
+  @Test public void parsesItemErrors() throws Exception {
+    BulkPipeline.BulkResponse response = BulkPipeline.BulkResponse.parse(bulkResponse(201, 429));
+
+    assertThat(response.statuses).containsExactly(201, 429);
+    assertThat(response.errors).containsExactly(
+      null, "es_rejected_execution_exception: rejected execution of bulk");
+  }
+
+  /** Elasticsearch 1.x returned errors as strings */
+  @Test public void parsesItemErrors_string() throws Exception {
+    BulkPipeline.BulkResponse response = BulkPipeline.BulkResponse.parse(
+      "{\"took\":1,\"errors\":true,\"items\":[{\"create\":{\"status\":429,"
+        + "\"error\":\"EsRejectedExecutionException[rejected execution]\"}}]}");
+
+    assertThat(response.statuses).containsExactly(429);
+    assertThat(response.errors).containsExactly("EsRejectedExecutionException[rejected execution]");
+  }
+
+  @Test public void overCapacity() throws Exception {
+    pipeline = new BulkPipeline(storage, 100, 100, 0, 1, 0);
+    es.enqueue(new MockResponse().setBodyDelay(200, TimeUnit.MILLISECONDS));
+    es.enqueue(new MockResponse());
+
+    document("1").enqueue(callback()); // in-flight
+    for (int i = 2; i < 10; i++) document(String.valueOf(i)).enqueue(callback());
+
+    for (int i = 1; i < 10; i++) {
+      Object result = results.take();
+      if (result instanceof Throwable) {
+        assertThat((Throwable) result).hasMessage("over capacity");
+        return;
+      }
+    }
+    throw new AssertionError("expected a write to be rejected");
+  }
+
+  @Test public void closeSendsBuffered() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, TimeUnit.MINUTES.toMillis(1), 1, 0);
+    es.enqueue(new MockResponse());
+
+    document("1").enqueue(callback());
+    pipeline.close();
+
+    assertThat(es.takeRequest().getBody().readUtf8()).contains("\"1\"");
+    assertThat(results.take()).isEqualTo("success");
+  }
+
+  @Test public void closeWaitsForInFlight() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, TimeUnit.MINUTES.toMillis(1), 1, 0);
+    es.enqueue(new MockResponse().setBodyDelay(200, TimeUnit.MILLISECONDS));
+
+    document("1").enqueue(callback());
+    pipeline.close();
+
+    assertThat(pipeline.inFlight()).isZero();
+    assertThat(results.poll()).isEqualTo("success");
+  }
+
+  @Test public void closeTimesOut() throws Exception {
+    pipeline = new BulkPipeline(storage, 1024, 100, TimeUnit.MINUTES.toMillis(1), 1, 0);
+    pipeline.closeTimeoutMillis = 50;
+    es.enqueue(new MockResponse().setBodyDelay(1, TimeUnit.SECONDS));
+
+    document("1").enqueue(callback());
+    long start = System.nanoTime();
+    pipeline.close();
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+    assertThat(pipeline.inFlight()).isOne();
+  }
+
+  Call<Void> document(String id) {
+    HttpBulkIndexer indexer = new HttpBulkIndexer("index-span", storage);
+    indexer.add("zipkin:span-2018-05-20", "span", "{}".getBytes(), id);
+    return pipeline.newCall(indexer);
+  }
+
+  static String bulkResponse(int... statuses) {
+    StringBuilder result = new StringBuilder("{\"took\":1,\"errors\":true,\"items\":[");
+    for (int i = 0; i < statuses.length; i++) {
+      if (i > 0) result.append(',');
+      result.append("{\"index\":{\"_index\":\"zipkin:span-2018-05-20\",\"_type\":\"span\",");
+      result.append("\"status\":").append(statuses[i]);
+      if (statuses[i] == 429) {
+        result.append(",\"error\":{\"type\":\"es_rejected_execution_exception\",")
+          .append("\"reason\":\"rejected execution of bulk\"}");
+      } else if (statuses[i] >= 300) {
+        result.append(",\"error\":{\"type\":\"mapper_parsing_exception\",")
+          .append("\"reason\":\"failed to parse\"}");
+      }
+      result.append("}}");
+    }
+    return result.append("]}").toString();
+  }
+
+  Callback<Void> callback() {
+    return new Callback<Void>() {
+      @Override public void onSuccess(@Nullable Void value) {
+        results.add("success");
+      }
+
+      @Override public void onError(Throwable t) {
+        results.add(t);
+      }
+    };
+  }
+}
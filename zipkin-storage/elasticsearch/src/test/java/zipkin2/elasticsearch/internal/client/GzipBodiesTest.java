@@ -0,0 +1,75 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import java.io.IOException;
+import java.util.Random;
+import okio.Buffer;
+import okio.ByteString;
+import okio.GzipSource;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GzipBodiesTest {
+
+  @Test public void roundTrip() throws IOException {
+    String json = "{\"index\":{\"_index\":\"zipkin:span-2018-05-01\",\"_type\":\"span\"}}\n"
+      + "{\"traceId\":\"1\",\"id\":\"1\",\"name\":\"get\"}\n";
+
+    assertThat(gunzip(GzipBodies.gzip(new Buffer().writeUtf8(json))).utf8())
+      .isEqualTo(json);
+  }
+
+  @Test public void roundTrip_empty() throws IOException {
+    assertThat(gunzip(GzipBodies.gzip(new Buffer())))
+      .isEqualTo(ByteString.EMPTY);
+  }
+
+  /** Makes sure chunking across multiple reads doesn't corrupt the stream or the checksum */
+  @Test public void roundTrip_largerThanChunk() throws IOException {
+    byte[] bytes = new byte[GzipBodies.CHUNK_SIZE * 3 + 7];
+    new Random(1L).nextBytes(bytes);
+
+    assertThat(gunzip(GzipBodies.gzip(new Buffer().write(bytes))))
+      .isEqualTo(ByteString.of(bytes));
+  }
+
+  /** Pooled deflaters must be reset, or the next body would continue the prior stream */
+  @Test public void reusesDeflaters() throws IOException {
+    for (int i = 0; i < 10; i++) {
+      assertThat(gunzip(GzipBodies.gzip(new Buffer().writeUtf8("foo" + i))).utf8())
+        .isEqualTo("foo" + i);
+    }
+  }
+
+  @Test public void compressesRepetitiveBulkBodies() {
+    Buffer bulk = new Buffer();
+    for (int i = 0; i < 100; i++) {
+      bulk.writeUtf8("{\"index\":{\"_index\":\"zipkin:span-2018-05-01\",\"_type\":\"span\"}}\n");
+      bulk.writeUtf8("{\"traceId\":\"" + i + "\",\"id\":\"1\",\"name\":\"get\"}\n");
+    }
+    long size = bulk.size();
+
+    assertThat(GzipBodies.gzip(bulk).size())
+      .isLessThan(size / 5);
+  }
+
+  static ByteString gunzip(Buffer gzipped) throws IOException {
+    Buffer result = new Buffer();
+    GzipSource source = new GzipSource(gzipped);
+    while (source.read(result, Long.MAX_VALUE) != -1) ;
+    return result.readByteString();
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin2.elasticsearch.internal.client.HostBalancer.Host;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class HostBalancerTest {
+  @Rule public MockWebServer es1 = new MockWebServer();
+  @Rule public MockWebServer es2 = new MockWebServer();
+
+  long nanoTime;
+  HostBalancer balancer = balancer("http://1.1.1.1:9200", "http://2.2.2.2:9200");
+  Host a = balancer.hosts().get(0), b = balancer.hosts().get(1);
+
+  @Test public void choosesHostWithFewerOutstandingRequests() {
+    a.outstanding = 2;
+    a.latencyNanos = 2;
+    b.outstanding = 1;
+    b.latencyNanos = 1;
+
+    assertThat(balancer.choose(null)).isSameAs(b);
+    assertThat(balancer.choose(null)).isSameAs(b); // now equal, but b is faster
+    assertThat(b.outstanding).isEqualTo(3);
+  }
+
+  @Test public void choosesLowerLatencyWhenOutstandingEqual() {
+    a.latencyNanos = 2;
+    b.latencyNanos = 1;
+
+    assertThat(balancer.choose(null)).isSameAs(b);
+  }
+
+  @Test public void latencyIsMovingAverage() {
+    nanoTime = 50;
+    balancer.complete(balancer.choose(a), 0L, true, true); // b
+    nanoTime = 100;
+    balancer.complete(balancer.choose(a), 0L, true, true);
+
+    assertThat(b.latencyNanos).isEqualTo(60); // 50 + 0.2 * (100 - 50)
+    assertThat(b.outstanding).isZero();
+    assertThat(b.requestCount()).isEqualTo(2);
+  }
+
+  @Test public void ejectsAfterConsecutiveFailures() {
+    for (int i = 0; i < HostBalancer.FAILURES_TO_EJECT; i++) {
+      assertThat(a.ejected()).isFalse();
+      balancer.complete(balancer.choose(b), 0L, false, true);
+    }
+
+    assertThat(a.ejected()).isTrue();
+    assertThat(a.failureCount()).isEqualTo(3);
+    for (int i = 0; i < 10; i++) assertThat(balancer.choose(null)).isSameAs(b);
+  }
+
+  @Test public void successResetsFailures() {
+    balancer.complete(balancer.choose(b), 0L, false, true);
+    balancer.complete(balancer.choose(b), 0L, false, true);
+    balancer.complete(balancer.choose(b), 0L, true, true);
+    balancer.complete(balancer.choose(b), 0L, false, true);
+
+    assertThat(a.ejected()).isFalse();
+  }
+
+  @Test public void probesOnceEjectionPasses() {
+    HostBalancer.eject(a, nanoTime);
+    b.latencyNanos = 1;
+
+    nanoTime = TimeUnit.SECONDS.toNanos(1);
+    assertThat(balancer.choose(null)).isSameAs(a); // probe
+    assertThat(balancer.choose(null)).isSameAs(b); // only one probe at a time
+
+    balancer.complete(a, nanoTime, true, true);
+    assertThat(a.ejected()).isFalse();
+    assertThat(balancer.choose(null)).isSameAs(a);
+  }
+
+  @Test public void failedProbeDoublesEjection() {
+    HostBalancer.eject(a, nanoTime);
+
+    nanoTime = TimeUnit.SECONDS.toNanos(1);
+    balancer.complete(balancer.choose(null), nanoTime, false, true);
+
+    assertThat(a.ejected()).isTrue();
+    assertThat(a.ejectionCount()).isEqualTo(2);
+    nanoTime += TimeUnit.SECONDS.toNanos(2) - 1;
+    assertThat(balancer.choose(null)).isSameAs(b);
+    nanoTime++;
+    assertThat(balancer.choose(null)).isSameAs(a);
+  }
+
+  @Test public void ejectionIsCapped() {
+    a.ejections = 20;
+    HostBalancer.eject(a, nanoTime);
+
+    assertThat(a.ejectedUntil).isEqualTo(HostBalancer.MAX_EJECTION_NANOS);
+  }
+
+  @Test public void allEjected_usesSoonestToReturn() {
+    HostBalancer.eject(a, nanoTime);
+    HostBalancer.eject(a, nanoTime); // longer
+    HostBalancer.eject(b, nanoTime);
+
+    assertThat(balancer.choose(null)).isSameAs(b);
+  }
+
+  @Test public void host() {
+    assertThat(balancer.host("http://2.2.2.2:9200")).isSameAs(b);
+    assertThat(balancer.host("http://3.3.3.3:9200")).isNull();
+  }
+
+  /** Hosts needn't share a port, as requests are rewritten */
+  @Test public void rewritesRequestToChosenHost() throws Exception {
+    balancer = HostBalancer.create(asList(es1.url("").toString(), es2.url("").toString()));
+    balancer.hosts().get(0).outstanding = 1; // choose es2
+    es2.enqueue(new MockResponse());
+
+    OkHttpClient ok = new OkHttpClient.Builder().addInterceptor(balancer).build();
+    try (Response response = ok.newCall(new Request.Builder().url(es1.url("/_bulk")).build())
+      .execute()) {
+      assertThat(response.isSuccessful()).isTrue();
+    }
+
+    assertThat(es2.takeRequest().getPath()).isEqualTo("/_bulk");
+    assertThat(es1.getRequestCount()).isZero();
+  }
+
+  @Test public void unavailableStatusIsFailure() throws Exception {
+    balancer = HostBalancer.create(asList(es1.url("").toString()));
+    es1.enqueue(new MockResponse().setResponseCode(503));
+
+    OkHttpClient ok = new OkHttpClient.Builder().addInterceptor(balancer).build();
+    ok.newCall(new Request.Builder().url(es1.url("/")).build()).execute().close();
+
+    assertThat(balancer.hosts().get(0).failureCount()).isEqualTo(1);
+  }
+
+  @Test public void retriesAnotherHostWhenConnectionRefused() throws Exception {
+    String dead;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      dead = "http://127.0.0.1:" + socket.getLocalPort();
+    }
+    balancer = HostBalancer.create(asList(dead, es1.url("").toString()));
+    balancer.hosts().get(1).latencyNanos = 1; // try the dead host first
+    es1.enqueue(new MockResponse());
+
+    OkHttpClient ok = new OkHttpClient.Builder().addInterceptor(balancer).build();
+    try (Response response = ok.newCall(new Request.Builder().url(dead + "/_search").build())
+      .execute()) {
+      assertThat(response.isSuccessful()).isTrue();
+    }
+
+    assertThat(es1.takeRequest().getPath()).isEqualTo("/_search");
+    assertThat(balancer.hosts().get(0).failureCount()).isEqualTo(1);
+    assertThat(balancer.hosts().get(0).outstanding()).isZero();
+  }
+
+  @Test public void doesntRetryWriteThatMayHaveApplied() throws Exception {
+    balancer = HostBalancer.create(asList(es1.url("").toString(), es2.url("").toString()));
+    balancer.hosts().get(1).outstanding = 1; // choose es1
+    es1.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+    OkHttpClient ok = new OkHttpClient.Builder().addInterceptor(balancer)
+      .retryOnConnectionFailure(false).build();
+    try {
+      ok.newCall(new Request.Builder().url(es1.url("/_bulk"))
+        .post(RequestBody.create(MediaType.parse("application/json"), "{}")).build()).execute();
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException expected) {
+    }
+
+    assertThat(es1.getRequestCount()).isEqualTo(1);
+    assertThat(es2.getRequestCount()).isZero();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_noHosts() {
+    HostBalancer.create(asList());
+  }
+
+  HostBalancer balancer(String... urls) {
+    HostBalancer delegate = HostBalancer.create(asList(urls));
+    return new HostBalancer(delegate.hosts) {
+      @Override long nanoTime() {
+        return nanoTime;
+      }
+    };
+  }
+}
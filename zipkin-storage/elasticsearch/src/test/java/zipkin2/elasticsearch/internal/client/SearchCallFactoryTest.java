@@ -17,6 +17,7 @@ import java.io.IOException;
 import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
@@ -41,8 +42,36 @@ public class SearchCallFactoryTest {
   public void lenientSearchOrdersQueryAlphabetically() throws Exception {
     es.enqueue(new MockResponse());
 
-    assertThat(client.lenientSearch(asList("zipkin:span-2016-10-01"), null)
+    assertThat(client.lenientSearch(asList("zipkin:span-2016-10-01"), null, null)
         .queryParameterNames())
         .containsExactly("allow_no_indices", "expand_wildcards", "ignore_unavailable");
   }
+
+  @Test
+  public void lenientSearchAddsRoutingLast() throws Exception {
+    assertThat(client.lenientSearch(asList("zipkin:span-2016-10-01"), null, "a,b")
+        .queryParameterNames())
+        .containsExactly("allow_no_indices", "expand_wildcards", "ignore_unavailable", "routing");
+  }
+
+  @Test
+  public void multiSearchWritesLenientHeaderBeforeEachSearch() throws Exception {
+    es.enqueue(new MockResponse());
+
+    client.newMultiCall(asList(
+      SearchRequest.create(asList("zipkin:span-2016-10-02")).term("name", "a"),
+      SearchRequest.create(asList("zipkin:span-2016-10-01")).term("name", "b")
+    ), content -> null).execute();
+
+    RecordedRequest request = es.takeRequest();
+    assertThat(request.getPath()).isEqualTo("/_msearch");
+    assertThat(request.getBody().readUtf8().split("\n")).containsExactly(
+      "{\"index\":\"zipkin:span-2016-10-02\",\"allow_no_indices\":true,"
+        + "\"expand_wildcards\":\"open\",\"ignore_unavailable\":true}",
+      "{\"query\":{\"bool\":{\"filter\":{\"term\":{\"name\":\"a\"}}}},\"size\":10000}",
+      "{\"index\":\"zipkin:span-2016-10-01\",\"allow_no_indices\":true,"
+        + "\"expand_wildcards\":\"open\",\"ignore_unavailable\":true}",
+      "{\"query\":{\"bool\":{\"filter\":{\"term\":{\"name\":\"b\"}}}},\"size\":10000}"
+    );
+  }
 }
@@ -36,4 +36,28 @@ public class SearchRequestTest {
     assertThat(adapter.toJson(request))
         .isEqualTo("{\"size\":10000}");
   }
+
+  @Test
+  public void source_includes() {
+    request.source(asList("traceId", "id", "duration"));
+
+    assertThat(adapter.toJson(request))
+        .isEqualTo("{\"_source\":[\"traceId\",\"id\",\"duration\"],\"size\":10000}");
+  }
+
+  @Test
+  public void aggregation_excludesSource() {
+    request.addAggregation(Aggregation.terms("traceId", 10));
+
+    assertThat(adapter.toJson(request))
+        .startsWith("{\"_source\":false,");
+  }
+
+  @Test
+  public void sort() {
+    request.sort("traceId");
+
+    assertThat(adapter.toJson(request))
+        .isEqualTo("{\"size\":10000,\"sort\":[\"traceId\"]}");
+  }
 }
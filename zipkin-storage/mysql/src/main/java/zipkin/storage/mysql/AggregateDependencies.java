@@ -0,0 +1,181 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import javax.sql.DataSource;
+import org.jooq.Condition;
+import org.jooq.Cursor;
+import org.jooq.Record;
+import zipkin.DependencyLink;
+import zipkin.internal.Nullable;
+import zipkin2.Span;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.ParallelDependencyLinker;
+
+import static zipkin.Constants.CLIENT_ADDR;
+import static zipkin.Constants.CLIENT_SEND;
+import static zipkin.Constants.ERROR;
+import static zipkin.Constants.SERVER_ADDR;
+import static zipkin.Constants.SERVER_RECV;
+import static zipkin.internal.V2SpanConverter.toLinks;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+/**
+ * Aggregates dependency links on-demand, for schemas without pre-aggregated dependencies.
+ *
+ * <p>Rows are read with a forward-only cursor and a fetch size, so the driver streams results
+ * instead of buffering the whole window. Only one trace is held in memory per cursor.
+ *
+ * <p>When parallelism is above one, the window is split into trace ID ranges, each read on its own
+ * connection. Splitting by trace ID instead of time means a trace is never divided between ranges.
+ * The first range is read on the calling thread and the others on the executor. Partial links are
+ * merged at the end.
+ */
+final class AggregateDependencies {
+  final DataSource datasource;
+  final DSLContexts context;
+  final Schema schema;
+  final Executor executor;
+  final int fetchSize, parallelism;
+
+  AggregateDependencies(DataSource datasource, DSLContexts context, Schema schema,
+      Executor executor, int fetchSize, int parallelism) {
+    this.datasource = datasource;
+    this.context = context;
+    this.schema = schema;
+    this.executor = executor;
+    this.fetchSize = fetchSize;
+    this.parallelism = parallelism;
+  }
+
+  /** @param conn used for the first range */
+  List<DependencyLink> apply(long endTs, @Nullable Long lookback, Connection conn)
+      throws SQLException {
+    endTs = endTs * 1000;
+    Condition window = lookback == null
+        ? ZIPKIN_SPANS.START_TS.lessOrEqual(endTs)
+        : ZIPKIN_SPANS.START_TS.between(endTs - lookback * 1000, endTs);
+
+    if (parallelism == 1) {
+      try (Cursor<Record> cursor = selectLinkerFields(conn, window)) {
+        // Rows are read on this thread, while traces are linked on the common pool
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return toLinks(ParallelDependencyLinker.create(pool, pool.getParallelism())
+            .link(tracesIn(cursor)));
+      }
+    }
+
+    List<FutureTask<DependencyLinker>> tasks = new ArrayList<>(parallelism - 1);
+    try {
+      for (int i = 1; i < parallelism; i++) {
+        Condition range = window.and(traceIdRange(i, parallelism));
+        FutureTask<DependencyLinker> task = new FutureTask<>(() -> {
+          try (Connection rangeConn = datasource.getConnection()) {
+            return link(rangeConn, range);
+          }
+        });
+        tasks.add(task);
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          // we run the task below
+        }
+      }
+
+      DependencyLinker result = link(conn, window.and(traceIdRange(0, parallelism)));
+      for (FutureTask<DependencyLinker> task : tasks) {
+        task.run(); // no-op if the executor started it. Otherwise, this avoids waiting on a queue.
+        result.merge(await(task));
+      }
+      return toLinks(result.link());
+    } finally {
+      for (FutureTask<DependencyLinker> task : tasks) task.cancel(true);
+    }
+  }
+
+  DependencyLinker link(Connection conn, Condition condition) {
+    DependencyLinker linker = new DependencyLinker();
+    try (Cursor<Record> cursor = selectLinkerFields(conn, condition)) {
+      for (Iterator<Iterator<Span>> traces = tracesIn(cursor); traces.hasNext(); ) {
+        linker.putTrace(traces.next());
+      }
+    }
+    return linker;
+  }
+
+  Cursor<Record> selectLinkerFields(Connection conn, Condition condition) {
+    return context.get(conn)
+        .selectDistinct(schema.dependencyLinkerFields)
+        // left joining allows us to keep a mapping of all span ids, not just ones that have
+        // special annotations. We need all span ids to reconstruct the trace tree. We need
+        // the whole trace tree so that we can accurately skip local spans.
+        .from(ZIPKIN_SPANS.leftJoin(ZIPKIN_ANNOTATIONS)
+            // NOTE: we are intentionally grouping only on the low-bits of trace id. This buys time
+            // for applications to upgrade to 128-bit instrumentation.
+            .on(ZIPKIN_SPANS.TRACE_ID.eq(ZIPKIN_ANNOTATIONS.TRACE_ID).and(
+                ZIPKIN_SPANS.ID.eq(ZIPKIN_ANNOTATIONS.SPAN_ID)))
+            .and(ZIPKIN_ANNOTATIONS.A_KEY.in(CLIENT_SEND, CLIENT_ADDR, SERVER_RECV, SERVER_ADDR, ERROR)))
+        .where(condition)
+        // Grouping so that later code knows when a span or trace is finished.
+        .groupBy(schema.dependencyLinkerGroupByFields)
+        // Lazy fetching with a forward-only cursor prevents buffering the whole dataset in memory.
+        .resultSetType(ResultSet.TYPE_FORWARD_ONLY)
+        .resultSetConcurrency(ResultSet.CONCUR_READ_ONLY)
+        .fetchSize(fetchSize)
+        .fetchLazy();
+  }
+
+  Iterator<Iterator<Span>> tracesIn(Cursor<Record> cursor) {
+    return new DependencyLinkV2SpanIterator.ByTraceId(cursor.iterator(), schema.hasTraceIdHigh);
+  }
+
+  /**
+   * Returns one of {@code count} contiguous ranges of the signed 64-bit trace ID column. Trace IDs
+   * are random, so ranges of equal width hold a similar amount of data.
+   */
+  static Condition traceIdRange(int index, int count) {
+    long width = Long.MAX_VALUE / count * 2;
+    long lower = Long.MIN_VALUE + index * width;
+    if (index == count - 1) return ZIPKIN_SPANS.TRACE_ID.ge(lower);
+    Condition result = ZIPKIN_SPANS.TRACE_ID.lt(lower + width);
+    return index == 0 ? result : ZIPKIN_SPANS.TRACE_ID.ge(lower).and(result);
+  }
+
+  static DependencyLinker await(FutureTask<DependencyLinker> task) throws SQLException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted aggregating dependencies", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) throw (SQLException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+}
@@ -16,16 +16,13 @@ package zipkin.storage.mysql;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import javax.sql.DataSource;
 import org.jooq.Condition;
-import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Record;
 import org.jooq.Row3;
@@ -46,17 +43,11 @@ import zipkin.internal.Pair;
 import zipkin.storage.QueryRequest;
 import zipkin.storage.SpanStore;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
-import zipkin2.Span;
 
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.groupingBy;
 import static org.jooq.impl.DSL.row;
 import static zipkin.BinaryAnnotation.Type.STRING;
-import static zipkin.Constants.CLIENT_ADDR;
-import static zipkin.Constants.CLIENT_SEND;
-import static zipkin.Constants.ERROR;
-import static zipkin.Constants.SERVER_ADDR;
-import static zipkin.Constants.SERVER_RECV;
 import static zipkin.internal.Util.UTF_8;
 import static zipkin.internal.Util.getDays;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
@@ -69,12 +60,15 @@ final class MySQLSpanStore implements SpanStore {
   private final DSLContexts context;
   private final Schema schema;
   private final boolean strictTraceId;
+  private final AggregateDependencies aggregateDependencies;
 
-  MySQLSpanStore(DataSource datasource, DSLContexts context, Schema schema, boolean strictTraceId) {
+  MySQLSpanStore(DataSource datasource, DSLContexts context, Schema schema, boolean strictTraceId,
+      AggregateDependencies aggregateDependencies) {
     this.datasource = datasource;
     this.context = context;
     this.schema = schema;
     this.strictTraceId = strictTraceId;
+    this.aggregateDependencies = aggregateDependencies;
   }
 
   private Endpoint endpoint(Record a) {
@@ -298,45 +292,11 @@ final class MySQLSpanStore implements SpanStore {
             );
         return DependencyLinker.merge(unmerged);
       } else {
-        return aggregateDependencies(endTs, lookback, conn);
+        return aggregateDependencies.apply(endTs, lookback, conn);
       }
     } catch (SQLException e) {
       throw new RuntimeException("Error querying dependencies for endTs "
           + endTs + " and lookback " + lookback + ": " + e.getMessage());
     }
   }
-
-  List<DependencyLink> aggregateDependencies(long endTs, @Nullable Long lookback, Connection conn) {
-    endTs = endTs * 1000;
-    // Lazy fetching the cursor prevents us from buffering the whole dataset in memory.
-    Cursor<Record> cursor = context.get(conn)
-        .selectDistinct(schema.dependencyLinkerFields)
-        // left joining allows us to keep a mapping of all span ids, not just ones that have
-        // special annotations. We need all span ids to reconstruct the trace tree. We need
-        // the whole trace tree so that we can accurately skip local spans.
-        .from(ZIPKIN_SPANS.leftJoin(ZIPKIN_ANNOTATIONS)
-            // NOTE: we are intentionally grouping only on the low-bits of trace id. This buys time
-            // for applications to upgrade to 128-bit instrumentation.
-            .on(ZIPKIN_SPANS.TRACE_ID.eq(ZIPKIN_ANNOTATIONS.TRACE_ID).and(
-                ZIPKIN_SPANS.ID.eq(ZIPKIN_ANNOTATIONS.SPAN_ID)))
-            .and(ZIPKIN_ANNOTATIONS.A_KEY.in(CLIENT_SEND, CLIENT_ADDR, SERVER_RECV, SERVER_ADDR, ERROR)))
-        .where(lookback == null ?
-            ZIPKIN_SPANS.START_TS.lessOrEqual(endTs) :
-            ZIPKIN_SPANS.START_TS.between(endTs - lookback * 1000, endTs))
-        // Grouping so that later code knows when a span or trace is finished.
-        .groupBy(schema.dependencyLinkerGroupByFields).fetchLazy();
-
-    Iterator<Iterator<Span>> traces =
-        new DependencyLinkV2SpanIterator.ByTraceId(cursor.iterator(), schema.hasTraceIdHigh);
-
-    if (!traces.hasNext()) return Collections.emptyList();
-
-    DependencyLinker linker = new DependencyLinker();
-
-    while (traces.hasNext()) {
-      linker.putTrace(traces.next());
-    }
-
-    return linker.link();
-  }
 }
@@ -43,6 +43,8 @@ public final class MySQLStorage implements StorageComponent {
     private Settings settings = new Settings().withRenderSchema(false);
     private ExecuteListenerProvider listenerProvider;
     private Executor executor;
+    private int dependencyFetchSize = 10_000;
+    private int dependencyParallelism = 1;
 
     /** {@inheritDoc} */
     @Override public Builder strictTraceId(boolean strictTraceId) {
@@ -70,6 +72,33 @@ public final class MySQLStorage implements StorageComponent {
       return this;
     }
 
+    /**
+     * Rows buffered by the driver at a time when aggregating dependency links on-demand. Defaults
+     * to 10000. Only applies when the schema doesn't include pre-aggregated dependencies.
+     */
+    public Builder dependencyFetchSize(int dependencyFetchSize) {
+      if (dependencyFetchSize == 0) {
+        throw new IllegalArgumentException("dependencyFetchSize == 0 buffers all rows");
+      }
+      this.dependencyFetchSize = dependencyFetchSize;
+      return this;
+    }
+
+    /**
+     * Count of trace ID ranges aggregated in parallel, each on its own connection, when
+     * aggregating dependency links on-demand. Defaults to 1.
+     *
+     * <p>Each range holds a connection until it completes, so keep this well below the maximum
+     * connections of the datasource.
+     */
+    public Builder dependencyParallelism(int dependencyParallelism) {
+      if (dependencyParallelism < 1) {
+        throw new IllegalArgumentException("dependencyParallelism < 1");
+      }
+      this.dependencyParallelism = dependencyParallelism;
+      return this;
+    }
+
     @Override public MySQLStorage build() {
       return new MySQLStorage(this);
     }
@@ -87,12 +116,15 @@ public final class MySQLStorage implements StorageComponent {
   private final DSLContexts context;
   final Lazy<Schema> schema;
   final boolean strictTraceId;
+  final int dependencyFetchSize, dependencyParallelism;
 
   MySQLStorage(MySQLStorage.Builder builder) {
     this.datasource = checkNotNull(builder.datasource, "datasource");
     this.executor = checkNotNull(builder.executor, "executor");
     this.context = new DSLContexts(builder.settings, builder.listenerProvider);
     this.strictTraceId = builder.strictTraceId;
+    this.dependencyFetchSize = builder.dependencyFetchSize;
+    this.dependencyParallelism = builder.dependencyParallelism;
     this.schema = new Lazy<Schema>() {
       @Override protected Schema compute() {
         return new Schema(datasource, context, strictTraceId);
@@ -106,7 +138,10 @@ public final class MySQLStorage implements StorageComponent {
   }
 
   @Override public SpanStore spanStore() {
-    return new MySQLSpanStore(datasource, context, schema.get(), strictTraceId);
+    Schema schema = this.schema.get();
+    AggregateDependencies aggregateDependencies = new AggregateDependencies(datasource, context,
+        schema, executor, dependencyFetchSize, dependencyParallelism);
+    return new MySQLSpanStore(datasource, context, schema, strictTraceId, aggregateDependencies);
   }
 
   @Override public AsyncSpanStore asyncSpanStore() {
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.storage.mysql.AggregateDependencies.traceIdRange;
+
+public class AggregateDependenciesTest {
+
+  @Test public void traceIdRange_single() {
+    assertThat(traceIdRange(0, 1).toString())
+        .isEqualTo("\"zipkin\".\"zipkin_spans\".\"trace_id\" >= -9223372036854775808");
+  }
+
+  @Test public void traceIdRange_rangesAreContiguous() {
+    assertThat(traceIdRange(0, 2).toString())
+        .isEqualTo("\"zipkin\".\"zipkin_spans\".\"trace_id\" < -2");
+    assertThat(traceIdRange(1, 2).toString())
+        .isEqualTo("\"zipkin\".\"zipkin_spans\".\"trace_id\" >= -2");
+  }
+
+  @Test public void traceIdRange_middleHasBothBounds() {
+    assertThat(traceIdRange(1, 3).toString()).contains(
+        "\"zipkin\".\"zipkin_spans\".\"trace_id\" >= -3074457345618258604",
+        "\"zipkin\".\"zipkin_spans\".\"trace_id\" < 3074457345618258600");
+  }
+}
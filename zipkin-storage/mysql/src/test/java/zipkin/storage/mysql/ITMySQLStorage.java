@@ -13,8 +13,18 @@
  */
 package zipkin.storage.mysql;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
 import org.junit.ClassRule;
+import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import zipkin.Span;
@@ -22,6 +32,13 @@ import zipkin.internal.MergeById;
 import zipkin.storage.StorageComponent;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static zipkin.TestObjects.DAY;
+import static zipkin.TestObjects.TODAY;
+import static zipkin.TestObjects.TRACE;
 
 @RunWith(Enclosed.class)
 public class ITMySQLStorage {
@@ -42,6 +59,77 @@ public class ITMySQLStorage {
     }
   }
 
+  /** Aggregates dependency links over several trace ID ranges, instead of in one query */
+  public static class ParallelDependenciesTest extends zipkin.storage.DependenciesTest {
+    @ClassRule public static LazyMySQLStorage storageRule = classRule();
+
+    private MySQLStorage storage;
+
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    @Override public void clear() {
+      storage = storageRule.computeStorageBuilder()
+        .executor(rejectEveryOtherRange())
+        .dependencyParallelism(3)
+        .dependencyFetchSize(1) // makes the cursor advance between each row
+        .build();
+      storage.clear();
+    }
+
+    @Test public void sameLinksAsSerial() {
+      Random random = new Random(0L);
+      List<Span> spans = new ArrayList<>();
+      for (int i = 0; i < 100; i++) { // random trace IDs spread traces over every range
+        long traceId = random.nextLong();
+        for (Span span : TRACE) spans.add(span.toBuilder().traceId(traceId).build());
+      }
+      processDependencies(spans);
+
+      assertThat(storage.spanStore().getDependencies(TODAY + 1000L, null))
+        .containsOnlyElementsOf(storageRule.get().spanStore().getDependencies(TODAY + 1000L, null))
+        .isNotEmpty();
+    }
+
+    @Test public void rangeFailure_cancelsOtherRanges() throws SQLException {
+      processDependencies(TRACE);
+
+      DataSource datasource = spy(storageRule.get().datasource());
+      List<Runnable> queued = new ArrayList<>();
+      try (MySQLStorage storage = storageRule.computeStorageBuilder()
+        .datasource(datasource)
+        .executor(queued::add) // never runs ranges, so the caller does
+        .dependencyParallelism(3)
+        .build()) {
+        storage.spanStore().getDependencies(TODAY + 1000L, DAY); // reads the schema
+        queued.clear();
+
+        // The first range uses the caller's connection, the second fails to get one
+        Connection conn = storageRule.get().datasource().getConnection();
+        doReturn(conn).doThrow(new SQLException("no connections"))
+          .when(datasource).getConnection();
+
+        assertThatThrownBy(() -> storage.spanStore().getDependencies(TODAY + 1000L, DAY))
+          .hasMessageContaining("no connections");
+
+        assertThat(queued).hasSize(2);
+        assertThat(((FutureTask<?>) queued.get(1)).isCancelled()).isTrue();
+      }
+    }
+
+    /** Runs every other dependency range on a new thread, rejecting the rest so the caller runs them */
+    static Executor rejectEveryOtherRange() {
+      AtomicInteger ranges = new AtomicInteger();
+      return command -> {
+        if (command instanceof FutureTask && ranges.getAndIncrement() % 2 == 1) {
+          throw new RejectedExecutionException();
+        }
+        new Thread(command).start();
+      };
+    }
+  }
+
   public static class SpanStoreTest extends zipkin.storage.SpanStoreTest {
     @ClassRule public static LazyMySQLStorage storage = classRule();
 
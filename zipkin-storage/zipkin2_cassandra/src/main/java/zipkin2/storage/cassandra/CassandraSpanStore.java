@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
+import zipkin2.internal.PageToken;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.cassandra.internal.call.IntersectKeySets;
@@ -99,10 +100,15 @@ class CassandraSpanStore implements SpanStore { // not final for testing
    * select statements for the expression, possibly follow-up calls for pagination (when over 5K
    * rows match). Once IDs are parsed, there's one call for each 5K rows of span data. This means
    * "http.path=/foo and error" is minimally 3 network calls, the first two in parallel.
+   *
+   * <p>A page token is resumed from by ending the timestamp range of index queries at its
+   * millisecond, and dropping traces at or before it, which breaks ties on trace ID. Indexes order
+   * trace IDs by the timestamps of their rows, which are usually those of the spans that match.
    */
   @Override
   public Call<List<List<Span>>> getTraces(QueryRequest request) {
     if (!searchEnabled) return Call.emptyList();
+    if (request.pageToken() != null) return PageToken.resume(this, request);
 
     return strictTraceId ? doGetTraces(request) :
       doGetTraces(request).map(new FilterTraces(request));
@@ -22,6 +22,9 @@ import zipkin.collector.CollectorSampler;
 import zipkin.storage.Callback;
 import zipkin2.Span;
 import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.internal.ReusableSpanDecoder;
 import zipkin2.storage.StorageComponent;
 
 import static zipkin.internal.Util.checkNotNull;
@@ -45,10 +48,31 @@ public final class V2Collector extends Collector<BytesDecoder<Span>, Span> {
 
   @Override protected List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
     List<Span> out = new ArrayList<>();
-    if (!decoder.decodeList(serialized, out)) return Collections.emptyList();
+    if (!reusableDecoder(decoder).decodeList(serialized, out)) return Collections.emptyList();
     return out;
   }
 
+  /** Decoding is on the transport thread, so we can reuse builders via thread locals */
+  static BytesDecoder<Span> reusableDecoder(BytesDecoder<Span> decoder) {
+    if (decoder == SpanBytesDecoder.JSON_V2) return JSON_DECODER.get();
+    if (decoder == SpanBytesDecoder.PROTO3) return PROTO3_DECODER.get();
+    return decoder;
+  }
+
+  static final ThreadLocal<ReusableSpanDecoder> JSON_DECODER =
+    new ThreadLocal<ReusableSpanDecoder>() {
+      @Override protected ReusableSpanDecoder initialValue() {
+        return ReusableSpanDecoder.create(Encoding.JSON);
+      }
+    };
+
+  static final ThreadLocal<ReusableSpanDecoder> PROTO3_DECODER =
+    new ThreadLocal<ReusableSpanDecoder>() {
+      @Override protected ReusableSpanDecoder initialValue() {
+        return ReusableSpanDecoder.create(Encoding.PROTO3);
+      }
+    };
+
   @Override protected boolean isSampled(Span span) {
     return sampler.isSampled(Util.lowerHexToUnsignedLong(span.traceId()), span.debug());
   }
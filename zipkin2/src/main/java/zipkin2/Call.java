@@ -253,6 +253,10 @@ public abstract class Call<V> implements Cloneable {
       });
     }
 
+    @Override protected void doCancel() {
+      delegate.cancel();
+    }
+
     @Override public String toString() {
       return "Mapping{call=" + delegate + ", mapper=" + mapper + "}";
     }
@@ -280,7 +284,9 @@ public abstract class Call<V> implements Cloneable {
       delegate.enqueue(new Callback<V>() {
         @Override public void onSuccess(V value) {
           try {
-            (mapped = flatMapper.map(value)).enqueue(callback);
+            Call<R> next = mapped = flatMapper.map(value);
+            if (isCanceled()) next.cancel(); // canceled before the next call existed
+            next.enqueue(callback);
           } catch (Throwable t) {
             callback.onError(t);
           }
@@ -118,6 +118,17 @@ public final class Endpoint implements Serializable { // for Spark and Flink job
       port = source.port;
     }
 
+    /** Resets all fields, allowing this builder to be reused when decoding many endpoints. */
+    public Builder clear() {
+      serviceName = null;
+      ipv4 = null;
+      ipv6 = null;
+      ipv4Bytes = null;
+      ipv6Bytes = null;
+      port = 0;
+      return this;
+    }
+
     /** @see Endpoint#serviceName */
     public Builder serviceName(@Nullable String serviceName) {
       this.serviceName = serviceName == null || serviceName.isEmpty()
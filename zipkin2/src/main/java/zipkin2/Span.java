@@ -448,6 +448,16 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       return this;
     }
 
+    /**
+     * Clears all annotations, for example to re-add them with adjusted timestamps.
+     *
+     * @see Span#annotations
+     */
+    public Builder clearAnnotations() {
+      if (annotations != null) annotations.clear();
+      return this;
+    }
+
     /** @see Span#tags */
     public Builder putTag(String key, String value) {
       if (tags == null) tags = new TreeMap<>();
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.Span.Kind;
+
+import static java.lang.String.format;
+import static java.util.logging.Level.FINE;
+
+/**
+ * Adjusts spans whose children happen before their parents, based on the timestamps of client and
+ * server spans that share an ID. This is the same approach as {@code
+ * zipkin.internal.CorrectForClockSkew}, except it works on the v2 model.
+ *
+ * <p>Spans are visited breadth-first using {@link IndexedTree}, so this runs in linear time and
+ * doesn't recurse on deep traces. Run {@link Trace#merge(List)} first, as duplicate spans are
+ * considered a data error.
+ */
+public final class CorrectForClockSkew {
+  static final Logger LOG = Logger.getLogger(CorrectForClockSkew.class.getName());
+
+  static final class ClockSkew {
+    final Endpoint endpoint;
+    final long skew;
+
+    ClockSkew(Endpoint endpoint, long skew) {
+      this.endpoint = endpoint;
+      this.skew = skew;
+    }
+  }
+
+  /**
+   * Returns the spans in breadth-first order, with timestamps adjusted, or the input when the
+   * trace has no root or has data errors.
+   */
+  public static List<Span> apply(List<Span> spans) {
+    return apply(LOG, spans);
+  }
+
+  static List<Span> apply(Logger logger, List<Span> spans) {
+    int length = spans.size();
+    if (length <= 1) return spans;
+
+    String traceId = spans.get(0).traceId();
+    String rootSpanId = null;
+    IndexedTree.Builder<SpanPair> treeBuilder =
+      new IndexedTree.Builder<>(logger, MERGE_SHARED).traceId(traceId);
+
+    boolean dataError = false;
+    for (int i = 0; i < length; i++) {
+      Span next = spans.get(i);
+      if (next.parentId() == null) {
+        if (rootSpanId != null && !rootSpanId.equals(next.id())) {
+          if (logger.isLoggable(FINE)) {
+            logger.fine(format("skipping redundant root span: traceId=%s, rootSpanId=%s, spanId=%s",
+              traceId, rootSpanId, next.id()));
+          }
+          dataError = true;
+          break;
+        }
+        rootSpanId = next.id();
+      }
+      if (!treeBuilder.addNode(next.parentId(), next.id(), new SpanPair(next))) {
+        dataError = true;
+        break;
+      }
+    }
+
+    if (rootSpanId == null) {
+      if (logger.isLoggable(FINE)) {
+        logger.fine("skipping clock skew adjustment due to missing root span: traceId=" + traceId);
+      }
+      return spans;
+    } else if (dataError) {
+      if (logger.isLoggable(FINE)) {
+        logger.fine("skipping clock skew adjustment due to data errors: traceId=" + traceId);
+      }
+      return spans;
+    }
+
+    IndexedTree<SpanPair> tree = treeBuilder.build();
+    int size = tree.size(), spanCount = 0;
+    for (int i = 0; i < size; i++) {
+      SpanPair pair = tree.value(i);
+      if (pair.conflict) {
+        if (logger.isLoggable(FINE)) {
+          logger.fine(format("skipping clock skew adjustment due to duplicate span: traceId=%s, "
+            + "spanId=%s", traceId, pair.span.id()));
+        }
+        return spans;
+      }
+      spanCount += pair.shared != null ? 2 : 1;
+    }
+    if (spanCount != length) { // we'd lose spans, for example in a cycle
+      if (logger.isLoggable(FINE)) {
+        logger.fine("skipping clock skew adjustment due to data errors: traceId=" + traceId);
+      }
+      return spans;
+    }
+
+    // Parents are visited before children, so propagate skew through an array instead of recursing
+    ClockSkew[] skewForChildren = new ClockSkew[size];
+    List<Span> result = new ArrayList<>(length);
+    for (int i = 0; i < size; i++) {
+      SpanPair pair = tree.value(i);
+      ClockSkew skew = adjust(pair, i == 0 ? null : skewForChildren[tree.parent(i)]);
+      skewForChildren[i] = skew;
+      result.add(pair.span);
+      if (pair.shared != null) result.add(pair.shared);
+    }
+    return result;
+  }
+
+  /** Adjusts the node, returning the skew to propagate to its children, if any. */
+  @Nullable static ClockSkew adjust(SpanPair pair, @Nullable ClockSkew skewFromParent) {
+    // adjust skew for the endpoint brought over from the parent span
+    if (skewFromParent != null) pair.adjustTimestamps(skewFromParent);
+
+    // Is there any skew in the current span?
+    ClockSkew skew = getClockSkew(pair);
+    if (skew != null) {
+      // the current span's skew may be a different endpoint than skewFromParent, adjust again.
+      pair.adjustTimestamps(skew);
+      return skew;
+    } else if (skewFromParent != null && isLocalSpan(pair)) {
+      // Propagate skewFromParent to local spans
+      return skewFromParent;
+    }
+    return null;
+  }
+
+  static boolean isLocalSpan(SpanPair pair) {
+    return pair.shared == null && pair.span.kind() == null && pair.span.remoteEndpoint() == null;
+  }
+
+  /** Use the client span and its shared server span to determine if there's clock skew. */
+  @Nullable static ClockSkew getClockSkew(SpanPair pair) {
+    Span client = pair.span, server = pair.shared;
+    if (server == null || client.kind() != Kind.CLIENT || server.kind() != Kind.SERVER) {
+      return null;
+    }
+
+    long clientSend = client.timestampAsLong(), serverRecv = server.timestampAsLong();
+    if (clientSend == 0L || serverRecv == 0L) return null;
+    long clientDuration = client.durationAsLong(), serverDuration = server.durationAsLong();
+    boolean oneWay = clientDuration == 0L || serverDuration == 0L;
+
+    Endpoint serverEndpoint = server.localEndpoint(), clientEndpoint = client.localEndpoint();
+    if (serverEndpoint == null || clientEndpoint == null) return null;
+
+    // There's no skew if the RPC is going to itself
+    if (ipsMatch(serverEndpoint, clientEndpoint)) return null;
+
+    long latency;
+    if (oneWay) {
+      latency = serverRecv - clientSend;
+      // the only way there is skew is when the client appears to be after the server
+      if (latency > 0) return null;
+      // We can't currently do better than push the client and server apart by minimum duration (1)
+      return new ClockSkew(serverEndpoint, latency - 1);
+    } else {
+      // We assume latency is half the difference between the client and server duration.
+      // This breaks if client duration is smaller than server (due to async return for example).
+      if (clientDuration < serverDuration) return null;
+
+      latency = (clientDuration - serverDuration) / 2;
+      // We can't see skew when send happens before receive
+      if (latency < 0) return null;
+
+      long skew = serverRecv - latency - clientSend;
+      if (skew != 0L) return new ClockSkew(serverEndpoint, skew);
+    }
+    return null;
+  }
+
+  static boolean ipsMatch(Endpoint skew, Endpoint that) {
+    if (skew.ipv6() != null && that.ipv6() != null) {
+      if (skew.ipv6().equals(that.ipv6())) return true;
+    }
+    if (skew.ipv4() != null && that.ipv4() != null) {
+      if (skew.ipv4().equals(that.ipv4())) return true;
+    }
+    return false;
+  }
+
+  /** If the span's local endpoint has skew associated, adjust accordingly. */
+  static Span adjustTimestamps(Span span, ClockSkew skew) {
+    Endpoint localEndpoint = span.localEndpoint();
+    if (localEndpoint == null || !ipsMatch(skew.endpoint, localEndpoint)) return span;
+
+    List<Annotation> annotations = span.annotations();
+    long timestamp = span.timestampAsLong();
+    if (timestamp == 0L && annotations.isEmpty()) return span; // nothing to adjust
+
+    Span.Builder result = span.toBuilder();
+    if (timestamp != 0L) result.timestamp(timestamp - skew.skew);
+    if (!annotations.isEmpty()) {
+      result.clearAnnotations();
+      for (int i = 0, length = annotations.size(); i < length; i++) {
+        Annotation a = annotations.get(i);
+        result.addAnnotation(a.timestamp() - skew.skew, a.value());
+      }
+    }
+    return result.build();
+  }
+
+  /** The value of a tree node: a span, and when its ID is shared, the server side. */
+  static final class SpanPair {
+    Span span;
+    @Nullable Span shared;
+    boolean conflict; // more than one span on either side
+
+    SpanPair(Span span) {
+      this.span = span;
+    }
+
+    void adjustTimestamps(ClockSkew skew) {
+      span = CorrectForClockSkew.adjustTimestamps(span, skew);
+      if (shared != null) shared = CorrectForClockSkew.adjustTimestamps(shared, skew);
+    }
+  }
+
+  static final Node.MergeFunction<SpanPair> MERGE_SHARED = new Node.MergeFunction<SpanPair>() {
+    @Override public SpanPair merge(@Nullable SpanPair existing, @Nullable SpanPair update) {
+      if (existing == null) return update;
+      if (update == null) return existing;
+      Span next = update.span;
+      if (Boolean.TRUE.equals(next.shared()) && existing.shared == null) {
+        existing.shared = next;
+      } else if (Boolean.TRUE.equals(existing.span.shared()) && existing.shared == null) {
+        existing.shared = existing.span; // the server side was reported first
+        existing.span = next;
+      } else {
+        existing.conflict = true;
+      }
+      return existing;
+    }
+
+    @Override public String toString() {
+      return "MergeShared";
+    }
+  };
+
+  CorrectForClockSkew() {
+  }
+}
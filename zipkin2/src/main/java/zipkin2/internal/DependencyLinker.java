@@ -36,8 +36,8 @@ import static java.util.logging.Level.FINE;
  */
 public final class DependencyLinker {
   private final Logger logger;
-  private final Map<Pair, Long> callCounts = new LinkedHashMap<>();
-  private final Map<Pair, Long> errorCounts = new LinkedHashMap<>();
+  private final Map<Pair, Counts> linkCounts = new LinkedHashMap<>();
+  private final IndexedTree.Builder<Span> treeBuilder;
 
   public DependencyLinker() {
     this(Logger.getLogger(DependencyLinker.class.getName()));
@@ -45,6 +45,7 @@ public final class DependencyLinker {
 
   DependencyLinker(Logger logger) {
     this.logger = logger;
+    this.treeBuilder = new IndexedTree.Builder<>(logger, MERGE_RPC);
   }
 
   static final Node.MergeFunction<Span> MERGE_RPC = new MergeRpc();
@@ -85,23 +86,23 @@ public final class DependencyLinker {
     if (logger.isLoggable(FINE)) logger.fine("linking trace " + first.traceId());
 
     // Build a tree based on spanId and parentId values
-    Node.TreeBuilder<Span> builder = new Node.TreeBuilder<>(logger, MERGE_RPC, first.traceId());
+    IndexedTree.Builder<Span> builder = treeBuilder.clear().traceId(first.traceId());
     builder.addNode(first.parentId(), first.id(), first);
     while (spans.hasNext()) {
       Span next = spans.next();
       builder.addNode(next.parentId(), next.id(), next);
     }
 
-    Node<Span> tree = builder.build();
+    IndexedTree<Span> tree = builder.build();
+    builder.clear(); // don't retain spans between traces
 
     if (logger.isLoggable(FINE)) logger.fine("traversing trace tree, breadth-first");
-    for (Iterator<Node<Span>> i = tree.traverse(); i.hasNext(); ) {
-      Node<Span> current = i.next();
-      if (current.isSyntheticRootForPartialTree()) {
+    for (int current = 0, size = tree.size(); current < size; current++) {
+      if (current == 0 && tree.isSyntheticRootForPartialTree()) {
         logger.fine("skipping synthetic node for broken span tree");
         continue;
       }
-      Span currentSpan = current.value();
+      Span currentSpan = tree.value(current);
       if (currentSpan == null) {
         logger.fine("skipping null span in " + first.traceId());
         continue;
@@ -111,7 +112,7 @@ public final class DependencyLinker {
       }
 
       Kind kind = currentSpan.kind();
-      if (Kind.CLIENT.equals(kind) && !current.children().isEmpty()) {
+      if (Kind.CLIENT.equals(kind) && tree.childCount(current) > 0) {
         logger.fine("deferring link to rpc child span");
         continue;
       }
@@ -135,7 +136,7 @@ public final class DependencyLinker {
         case CONSUMER:
           child = serviceName;
           parent = remoteServiceName;
-          if (current == tree) { // we are the root-most span.
+          if (current == 0) { // we are the root-most span.
             if (parent == null) {
               logger.fine("root's peer is unknown; skipping");
               continue;
@@ -166,7 +167,7 @@ public final class DependencyLinker {
         logger.fine("cannot determine parent, looking for first server ancestor");
       }
 
-      Span rpcAncestor = findRpcAncestor(current);
+      Span rpcAncestor = findRpcAncestor(tree, current);
       String rpcAncestorName;
       if (rpcAncestor != null && (rpcAncestorName = rpcAncestor.localServiceName()) != null) {
         // Some users accidentally put the remote service name on client annotations.
@@ -197,17 +198,15 @@ public final class DependencyLinker {
     return this;
   }
 
-  Span findRpcAncestor(Node<Span> current) {
-    Node<Span> ancestor = current.parent();
-    while (ancestor != null) {
+  Span findRpcAncestor(IndexedTree<Span> tree, int current) {
+    int ancestor = tree.parent(current);
+    while (ancestor != -1) {
+      Span maybeRemote = tree.value(ancestor);
       if (logger.isLoggable(FINE)) {
-        logger.fine("processing ancestor " + ancestor.value());
+        logger.fine("processing ancestor " + maybeRemote);
       }
-      if (!ancestor.isSyntheticRootForPartialTree()) {
-        Span maybeRemote = ancestor.value();
-        if (maybeRemote.kind() != null) return maybeRemote;
-      }
-      ancestor = ancestor.parent();
+      if (maybeRemote != null && maybeRemote.kind() != null) return maybeRemote;
+      ancestor = tree.parent(ancestor);
     }
     return null;
   }
@@ -216,57 +215,64 @@ public final class DependencyLinker {
     if (logger.isLoggable(FINE)) {
       logger.fine("incrementing " + (isError ? "error " : "") + "link " + parent + " -> " + child);
     }
-    Pair key = new Pair(parent, child);
-    if (callCounts.containsKey(key)) {
-      callCounts.put(key, callCounts.get(key) + 1);
-    } else {
-      callCounts.put(key, 1L);
-    }
-    if (!isError) return;
-    if (errorCounts.containsKey(key)) {
-      errorCounts.put(key, errorCounts.get(key) + 1);
-    } else {
-      errorCounts.put(key, 1L);
+    increment(linkCounts, new Pair(parent, child), 1L, isError ? 1L : 0L);
+  }
+
+  /**
+   * Adds the links counted by another linker to this one. This allows traces to be linked in
+   * parallel, for example by {@link ParallelDependencyLinker}, and combined afterwards.
+   */
+  public DependencyLinker merge(DependencyLinker other) {
+    if (other == this) throw new IllegalArgumentException("cannot merge a linker into itself");
+    for (Map.Entry<Pair, Counts> entry : other.linkCounts.entrySet()) {
+      Counts counts = entry.getValue();
+      increment(linkCounts, entry.getKey(), counts.callCount, counts.errorCount);
     }
+    return this;
   }
 
   public List<DependencyLink> link() {
-    return link(callCounts, errorCounts);
+    return link(linkCounts);
   }
 
   /** links are merged by mapping to parent/child and summing corresponding links */
   public static List<DependencyLink> merge(Iterable<DependencyLink> in) {
-    Map<Pair, Long> callCounts = new LinkedHashMap<>();
-    Map<Pair, Long> errorCounts = new LinkedHashMap<>();
-
+    Map<Pair, Counts> linkCounts = new LinkedHashMap<>();
     for (DependencyLink link : in) {
       Pair parentChild = new Pair(link.parent(), link.child());
-      long callCount = callCounts.containsKey(parentChild) ? callCounts.get(parentChild) : 0L;
-      callCount += link.callCount();
-      callCounts.put(parentChild, callCount);
-      long errorCount = errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L;
-      errorCount += link.errorCount();
-      errorCounts.put(parentChild, errorCount);
+      increment(linkCounts, parentChild, link.callCount(), link.errorCount());
     }
+    return link(linkCounts);
+  }
 
-    return link(callCounts, errorCounts);
+  static void increment(Map<Pair, Counts> linkCounts, Pair parentChild, long callCount,
+    long errorCount) {
+    Counts counts = linkCounts.get(parentChild);
+    if (counts == null) linkCounts.put(parentChild, counts = new Counts());
+    counts.callCount += callCount;
+    counts.errorCount += errorCount;
   }
 
-  static List<DependencyLink> link(Map<Pair, Long> callCounts,
-    Map<Pair, Long> errorCounts) {
-    List<DependencyLink> result = new ArrayList<>(callCounts.size());
-    for (Map.Entry<Pair, Long> entry : callCounts.entrySet()) {
+  static List<DependencyLink> link(Map<Pair, Counts> linkCounts) {
+    List<DependencyLink> result = new ArrayList<>(linkCounts.size());
+    for (Map.Entry<Pair, Counts> entry : linkCounts.entrySet()) {
       Pair parentChild = entry.getKey();
+      Counts counts = entry.getValue();
       result.add(DependencyLink.newBuilder()
         .parent(parentChild.left)
         .child(parentChild.right)
-        .callCount(entry.getValue())
-        .errorCount(errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L)
+        .callCount(counts.callCount)
+        .errorCount(counts.errorCount)
         .build());
     }
     return result;
   }
 
+  /** Primitive counters, which avoid boxing and a second lookup when incrementing */
+  static final class Counts {
+    long callCount, errorCount;
+  }
+
   static final class Pair {
     final String left, right;
 
@@ -0,0 +1,348 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.util.logging.Level.FINE;
+
+/**
+ * Like {@link Node}, except nodes are addressed by index instead of being objects. This is designed
+ * for large traces: span IDs are longs in an open-addressed table, and the only allocations are a
+ * handful of arrays sized to the trace.
+ *
+ * <p>Nodes are numbered in breadth-first order, with the root at index zero. Iterating from zero
+ * until {@link #size()} is a breadth-first traversal, and the children of a node are contiguous
+ * indexes starting at {@link #firstChild(int)}.
+ *
+ * @param <V> the node's value. Ex a full span or a tuple like {@code (serviceName, isLocal)}
+ */
+public final class IndexedTree<V> {
+  final Object[] values;
+  final int[] parents, firstChildren, childCounts;
+  final int size;
+  final boolean syntheticRoot;
+
+  IndexedTree(Object[] values, int[] parents, int[] firstChildren, int[] childCounts, int size,
+    boolean syntheticRoot) {
+    this.values = values;
+    this.parents = parents;
+    this.firstChildren = firstChildren;
+    this.childCounts = childCounts;
+    this.size = size;
+    this.syntheticRoot = syntheticRoot;
+  }
+
+  /** Count of nodes in the tree, including any {@link #isSyntheticRootForPartialTree() root}. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the value at the node index, or null if a synthetic root. */
+  @Nullable public V value(int node) {
+    return (V) values[checkIndex(node)];
+  }
+
+  /** Replaces the value at the node index, such as when correcting clock skew. */
+  public void value(int node, V newValue) {
+    if (newValue == null) throw new NullPointerException("newValue == null");
+    values[checkIndex(node)] = newValue;
+  }
+
+  /** Returns the parent's index, or -1 if the root. */
+  public int parent(int node) {
+    return parents[checkIndex(node)];
+  }
+
+  /** Returns the index of the first child. Only valid when {@link #childCount(int)} is positive. */
+  public int firstChild(int node) {
+    return firstChildren[checkIndex(node)];
+  }
+
+  public int childCount(int node) {
+    return childCounts[checkIndex(node)];
+  }
+
+  /**
+   * Returns true when there was no root span, so the node at index zero has no value and exists to
+   * hold the headless spans.
+   */
+  public boolean isSyntheticRootForPartialTree() {
+    return syntheticRoot;
+  }
+
+  int checkIndex(int node) {
+    if (node < 0 || node >= size) throw new IndexOutOfBoundsException("node " + node);
+    return node;
+  }
+
+  /**
+   * Builds a tree from (parent id, id) pairs. Like {@link Node.TreeBuilder}, values that share an
+   * ID are merged, spans missing a parent are attributed to the first root, and a synthetic root is
+   * added when there is none. Each node's parent is the first non-zero parent ID reported for it.
+   *
+   * <p>A builder can be reused for another trace after {@link #clear()}, retaining its arrays.
+   *
+   * @param <V> same type as {@link IndexedTree#value(int)}
+   */
+  public static final class Builder<V> {
+    static final int EMPTY = -1;
+
+    final Logger logger;
+    final Node.MergeFunction<V> mergeFunction;
+
+    // Entries in insertion order, before they are grouped by span ID
+    long[] entryIds = new long[16], entryParentIds = new long[16];
+    Object[] entryValues = new Object[16];
+    int entryCount;
+    @Nullable String traceId;
+
+    public Builder(Logger logger) {
+      this(logger, Node.FIRST_NOT_NULL);
+    }
+
+    Builder(Logger logger, Node.MergeFunction<V> mergeFunction) {
+      if (logger == null) throw new NullPointerException("logger == null");
+      if (mergeFunction == null) throw new NullPointerException("mergeFunction == null");
+      this.logger = logger;
+      this.mergeFunction = mergeFunction;
+    }
+
+    /** Optional trace ID, only used in log messages. */
+    public Builder<V> traceId(@Nullable String traceId) {
+      this.traceId = traceId;
+      return this;
+    }
+
+    /**
+     * Returns false after logging to FINE if the value couldn't be added.
+     *
+     * @param parentId the parent span ID or zero if absent. Zero is an invalid span ID.
+     */
+    public boolean addNode(long parentId, long id, V value) {
+      if (value == null) throw new NullPointerException("value == null");
+      if (parentId == id) {
+        if (logger.isLoggable(FINE)) {
+          logger.fine(format("skipping circular dependency: traceId=%s, spanId=%016x", traceId, id));
+        }
+        return false;
+      }
+      if (entryCount == entryIds.length) {
+        int newLength = entryCount * 2;
+        entryIds = Arrays.copyOf(entryIds, newLength);
+        entryParentIds = Arrays.copyOf(entryParentIds, newLength);
+        entryValues = Arrays.copyOf(entryValues, newLength);
+      }
+      entryIds[entryCount] = id;
+      entryParentIds[entryCount] = parentId;
+      entryValues[entryCount] = value;
+      entryCount++;
+      return true;
+    }
+
+    /** Like {@link #addNode(long, long, Object)}, except parses lower-hex span IDs. */
+    public boolean addNode(@Nullable String parentId, String id, V value) {
+      if (id == null) throw new NullPointerException("id == null");
+      return addNode(parentId != null ? lowerHexToUnsignedLong(parentId) : 0L,
+        lowerHexToUnsignedLong(id), value);
+    }
+
+    /** Drops any added nodes so that this builder can be used for another trace. */
+    public Builder<V> clear() {
+      Arrays.fill(entryValues, 0, entryCount, null);
+      entryCount = 0;
+      traceId = null;
+      return this;
+    }
+
+    /** Builds a tree from calls to {@link #addNode}, or returns an empty tree. */
+    public IndexedTree<V> build() {
+      int count = entryCount;
+      if (count == 0) {
+        return new IndexedTree<>(new Object[0], new int[0], new int[0], new int[0], 0, false);
+      }
+
+      // Group entries by span ID with an open-addressed table, linear probing.
+      int mask = tableSize(count) - 1;
+      long[] keys = new long[mask + 1];
+      int[] slots = new int[mask + 1]; // index into the arrays below
+      Arrays.fill(slots, EMPTY);
+
+      // Per unique span ID, in order of first appearance. One extra slot for a synthetic root.
+      long[] parentIds = new long[count + 1];
+      Object[] values = new Object[count + 1];
+      int nodeCount = 0;
+      for (int i = 0; i < count; i++) {
+        long id = entryIds[i], parentId = entryParentIds[i];
+        int pos = find(keys, slots, mask, id);
+        int node = slots[pos];
+        if (node == EMPTY) {
+          node = nodeCount++;
+          keys[pos] = id;
+          slots[pos] = node;
+          parentIds[node] = parentId;
+          values[node] = entryValues[i];
+        } else {
+          if (parentIds[node] == 0L) parentIds[node] = parentId;
+          values[node] = mergeFunction.merge((V) values[node], (V) entryValues[i]);
+        }
+      }
+
+      // Resolve parent links. The first span without a parent is the root.
+      int root = EMPTY;
+      int[] parents = new int[count + 1];
+      for (int node = 0; node < nodeCount; node++) {
+        long parentId = parentIds[node];
+        if (parentId == 0L) {
+          if (root == EMPTY) {
+            root = node;
+            parents[node] = EMPTY;
+            continue;
+          }
+          if (logger.isLoggable(FINE)) {
+            logger.fine(format(
+              "attributing span missing parent to root: traceId=%s, rootSpanId=%016x, spanId=%016x",
+              traceId, idOf(root, keys, slots), idOf(node, keys, slots)));
+          }
+          parents[node] = root;
+          continue;
+        }
+        int parent = slots[find(keys, slots, mask, parentId)];
+        parents[node] = parent; // EMPTY when headless, resolved below
+      }
+
+      boolean syntheticRoot = false;
+      if (root == EMPTY) {
+        if (logger.isLoggable(FINE)) {
+          logger.fine("substituting dummy node for missing root span: traceId=" + traceId);
+        }
+        syntheticRoot = true;
+        root = nodeCount++;
+        parents[root] = EMPTY;
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        if (node != root && parents[node] == EMPTY) parents[node] = root; // headless
+      }
+
+      // Lay out children contiguously, in order of first appearance (compressed sparse rows).
+      int[] childOffsets = new int[nodeCount + 1];
+      for (int node = 0; node < nodeCount; node++) {
+        if (node != root) childOffsets[parents[node] + 1]++;
+      }
+      for (int node = 0; node < nodeCount; node++) childOffsets[node + 1] += childOffsets[node];
+      int[] children = new int[nodeCount];
+      int[] fill = Arrays.copyOf(childOffsets, nodeCount);
+      for (int node = 0; node < nodeCount; node++) {
+        if (node != root) children[fill[parents[node]]++] = node;
+      }
+
+      // Renumber breadth-first. The output array doubles as the queue.
+      int[] order = new int[nodeCount];
+      int[] newIndex = fill; // reuse, as fill is no longer needed
+      order[0] = root;
+      int head = 0, tail = 1;
+      while (head < tail) {
+        int node = order[head];
+        newIndex[node] = head++;
+        for (int c = childOffsets[node], end = childOffsets[node + 1]; c < end; c++) {
+          order[tail++] = children[c];
+        }
+      }
+      if (tail < nodeCount && logger.isLoggable(FINE)) {
+        logger.fine(format("skipping %s spans in a cycle: traceId=%s", nodeCount - tail, traceId));
+      }
+
+      int size = tail;
+      Object[] bfsValues = new Object[size];
+      int[] bfsParents = new int[size], firstChildren = new int[size], childCounts = new int[size];
+      int nextChild = 1;
+      for (int i = 0; i < size; i++) {
+        int node = order[i];
+        bfsValues[i] = syntheticRoot && node == root ? null : values[node];
+        bfsParents[i] = node == root ? EMPTY : newIndex[parents[node]];
+        firstChildren[i] = nextChild;
+        childCounts[i] = childOffsets[node + 1] - childOffsets[node];
+        nextChild += childCounts[i];
+      }
+      return new IndexedTree<>(bfsValues, bfsParents, firstChildren, childCounts, size,
+        syntheticRoot);
+    }
+
+    /** Returns the table position holding the ID, or the empty position where it belongs. */
+    static int find(long[] keys, int[] slots, int mask, long id) {
+      int pos = mix(id) & mask;
+      while (slots[pos] != EMPTY && keys[pos] != id) pos = (pos + 1) & mask;
+      return pos;
+    }
+
+    /** Scans the table for the span ID of a node. Only used when logging. */
+    static long idOf(int node, long[] keys, int[] slots) {
+      for (int pos = 0; pos < slots.length; pos++) {
+        if (slots[pos] == node) return keys[pos];
+      }
+      throw new AssertionError("node " + node + " not in table");
+    }
+
+    /** Spreads the bits of span IDs, which are random, but can be sequential in tests. */
+    static int mix(long id) {
+      long h = id * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+
+    /** Power of two at least twice the entry count, to keep probe sequences short. */
+    static int tableSize(int count) {
+      if (count >= 1 << 29) return 1 << 30;
+      int result = Integer.highestOneBit(count) << 1;
+      return result < count * 2 ? result << 1 : result;
+    }
+  }
+
+  /** Digit values indexed by character, or -1. A table avoids mispredicting random hex digits. */
+  static final byte[] HEX_DIGITS = new byte['f' + 1];
+
+  static {
+    Arrays.fill(HEX_DIGITS, (byte) -1);
+    for (char c = '0'; c <= '9'; c++) HEX_DIGITS[c] = (byte) (c - '0');
+    for (char c = 'a'; c <= 'f'; c++) HEX_DIGITS[c] = (byte) (c - 'a' + 10);
+  }
+
+  static long lowerHexToUnsignedLong(String lowerHex) {
+    int length = lowerHex.length();
+    if (length < 1 || length > 32) throw isntLowerHexLong(lowerHex);
+    long result = 0;
+    for (int i = length > 16 ? length - 16 : 0; i < length; i++) { // trim off any high bits
+      char c = lowerHex.charAt(i);
+      int digit;
+      if (c > 'f' || (digit = HEX_DIGITS[c]) < 0) throw isntLowerHexLong(lowerHex);
+      result = (result << 4) | digit;
+    }
+    return result;
+  }
+
+  static NumberFormatException isntLowerHexLong(String lowerHex) {
+    return new NumberFormatException(
+      lowerHex + " should be a 1 to 32 character lower-hex string with no prefix");
+  }
+
+  @Override public String toString() {
+    StringBuilder result = new StringBuilder("IndexedTree{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) result.append(", ");
+      result.append(i).append("(parent=").append(parents[i]).append(")=").append(values[i]);
+    }
+    return result.append("}").toString();
+  }
+}
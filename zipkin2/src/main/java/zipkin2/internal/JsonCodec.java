@@ -13,9 +13,7 @@
  */
 package zipkin2.internal;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -45,8 +43,7 @@ public final class JsonCodec {
     final com.google.gson.stream.JsonReader delegate;
 
     JsonReader(byte[] bytes) {
-      delegate = new com.google.gson.stream.JsonReader(
-        new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8));
+      delegate = new com.google.gson.stream.JsonReader(new Utf8Reader(bytes));
     }
 
     public void beginArray() throws IOException {
@@ -194,6 +191,16 @@ public final class JsonCodec {
     return b.toByteArray();
   }
 
+  /**
+   * Like {@link #write(Buffer.Writer, Object)}, except into an existing array, which must have room
+   * for {@link Buffer.Writer#sizeInBytes(Object)} bytes. Returns the count of bytes written.
+   */
+  public static <T> int write(Buffer.Writer<T> writer, T value, byte[] out, int pos) {
+    Buffer b = new Buffer(out, pos);
+    writer.write(value, b);
+    return b.pos - pos;
+  }
+
   public static <T> byte[] writeList(Buffer.Writer<T> writer, List<T> value) {
     if (value.isEmpty()) return new byte[] {'[', ']'};
     Buffer result = new Buffer(sizeInBytes(writer, value));
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import zipkin2.Annotation;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+
+/**
+ * Position in trace search results, so that a search can continue where a page of results ended.
+ * The token encodes the position of the last trace in a page as lower-hex.
+ *
+ * <p>A trace is positioned at the earliest millisecond of its spans that match the request, then
+ * by trace ID. Results are newest first, and ascending by trace ID within the same millisecond.
+ * This is the order Elasticsearch aggregates trace IDs in. A trace positioned after a token has a
+ * matching span at or before the token's millisecond, while traces in earlier pages don't, except
+ * ones in that same millisecond. So, storage continues a search by ending its time window at the
+ * token, and reads about as much as it did for the first page.
+ */
+public final class PageToken implements Comparable<PageToken> {
+  /** Storage is read at most this many times for a page, see {@link #resume} */
+  static final int MAX_ROUNDS = 3;
+
+  /**
+   * Returns the token to continue after this page of results, or null when the page isn't full,
+   * as that implies there are no more.
+   */
+  @Nullable public static String next(QueryRequest request, List<List<Span>> page) {
+    if (page.size() < request.limit()) return null;
+    PageToken last = null;
+    for (int i = 0, length = page.size(); i < length; i++) {
+      PageToken next = of(request, page.get(i));
+      if (next != null && (last == null || next.compareTo(last) < 0)) last = next;
+    }
+    return last != null ? last.toString() : null;
+  }
+
+  /**
+   * Returns up to {@link QueryRequest#limit()} traces positioned after the request's page token,
+   * for storage that orders traces the same way tokens do.
+   *
+   * <p>This searches storage with the time window ending at the token's millisecond, asking for one
+   * more trace than the limit, as the trace at the token is returned again. So are other traces
+   * from earlier pages in that millisecond. Only when these leave the page short is storage read
+   * again, asking for as many more traces as were dropped. This stops after {@value #MAX_ROUNDS}
+   * reads, and never asks for more than four times as many traces as the first read.
+   */
+  public static Call<List<List<Span>>> resume(SpanStore spanStore, QueryRequest request) {
+    if (request.pageToken() == null) throw new IllegalArgumentException("pageToken == null");
+    return new Resume(spanStore, request);
+  }
+
+  /** @throws IllegalArgumentException if the token wasn't made by this type */
+  public static PageToken parse(String token) {
+    int length = token.length();
+    if (length != 32 && length != 48) {
+      throw new IllegalArgumentException("Invalid page token: " + token);
+    }
+    try {
+      return new PageToken(IndexedTree.lowerHexToUnsignedLong(token.substring(0, 16)),
+        Span.normalizeTraceId(token.substring(16)));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid page token: " + token);
+    }
+  }
+
+  /**
+   * Returns the position of the trace in results of the request, or null if it is empty.
+   *
+   * <p>Only spans in the request's time window that match all of its criteria by themselves are
+   * considered, as Elasticsearch filters spans this way before aggregating. When none do, such as
+   * when criteria match different spans of the trace, the earliest span in the window is used.
+   */
+  @Nullable public static PageToken of(QueryRequest request, List<Span> trace) {
+    if (trace.isEmpty()) return null;
+    long beginTs = request.endTs() - request.lookback();
+    long matching = Long.MAX_VALUE, inWindow = Long.MAX_VALUE, earliest = Long.MAX_VALUE;
+    String traceId = null;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      // When not strict, a trace can mix 64 and 128-bit IDs. Choose the same one regardless of order
+      if (traceId == null || compareTraceIds(span.traceId(), traceId) > 0) {
+        traceId = span.traceId();
+      }
+      if (span.timestampAsLong() == 0L) continue;
+      long millis = span.timestampAsLong() / 1000L;
+      if (millis < earliest) earliest = millis;
+      if (millis < beginTs || millis > request.endTs()) continue;
+      if (millis < inWindow) inWindow = millis;
+      if (millis < matching && matches(request, span)) matching = millis;
+    }
+    long timestamp = matching != Long.MAX_VALUE ? matching
+      : inWindow != Long.MAX_VALUE ? inWindow
+      : earliest != Long.MAX_VALUE ? earliest : 0L;
+    return new PageToken(timestamp, traceId);
+  }
+
+  /** Returns true if the span matches the criteria of the request, ignoring its time window. */
+  static boolean matches(QueryRequest request, Span span) {
+    if (request.serviceName() != null && !request.serviceName().equals(span.localServiceName())) {
+      return false;
+    }
+    if (request.spanName() != null && !request.spanName().equals(span.name())) return false;
+    if (request.minDuration() != null) {
+      long duration = span.durationAsLong();
+      if (duration < request.minDuration()) return false;
+      if (request.maxDuration() != null && duration > request.maxDuration()) return false;
+    }
+    for (Map.Entry<String, String> kv : request.annotationQuery().entrySet()) {
+      String value = span.tags().get(kv.getKey());
+      if (value != null && (kv.getValue().isEmpty() || kv.getValue().equals(value))) continue;
+      if (kv.getValue().isEmpty() && hasAnnotation(span, kv.getKey())) continue;
+      return false;
+    }
+    return true;
+  }
+
+  static boolean hasAnnotation(Span span, String value) {
+    List<Annotation> annotations = span.annotations();
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      if (annotations.get(i).value().equals(value)) return true;
+    }
+    return false;
+  }
+
+  final long timestamp; // epoch milliseconds
+  final String traceId;
+
+  PageToken(long timestamp, String traceId) {
+    this.timestamp = timestamp;
+    this.traceId = traceId;
+  }
+
+  /** Epoch milliseconds of the earliest matching span, so storage can end its time window here */
+  public long timestamp() {
+    return timestamp;
+  }
+
+  /** Sorts ascending, so a position after another in results compares lower. */
+  @Override public int compareTo(PageToken that) {
+    if (timestamp != that.timestamp) return timestamp < that.timestamp ? -1 : 1;
+    return compareTraceIds(that.traceId, traceId); // higher trace IDs are later
+  }
+
+  /** Compares normalized trace IDs as 128-bit numbers */
+  static int compareTraceIds(String left, String right) {
+    if (left.length() == right.length()) return left.compareTo(right);
+    String shorter = left.length() < right.length() ? left : right;
+    String longer = shorter == left ? right : left;
+    for (int i = 0; i < 16; i++) { // any non-zero high bit means the longer ID is larger
+      if (longer.charAt(i) != '0') return shorter == left ? -1 : 1;
+    }
+    int result = shorter.compareTo(longer.substring(16));
+    return shorter == left ? result : -result;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof PageToken)) return false;
+    PageToken that = (PageToken) o;
+    return timestamp == that.timestamp && traceId.equals(that.traceId);
+  }
+
+  @Override public int hashCode() {
+    int h = 1;
+    h *= 1000003;
+    h ^= (int) ((timestamp >>> 32) ^ timestamp);
+    h *= 1000003;
+    h ^= traceId.hashCode();
+    return h;
+  }
+
+  /** Returns the encoded token */
+  @Override public String toString() {
+    String hex = Long.toHexString(timestamp);
+    StringBuilder result = new StringBuilder(16 + traceId.length());
+    for (int i = hex.length(); i < 16; i++) result.append('0');
+    return result.append(hex).append(traceId).toString();
+  }
+
+  static final class Resume extends Call.Base<List<List<Span>>> {
+    final SpanStore spanStore;
+    final QueryRequest request;
+    volatile Call<List<List<Span>>> current;
+
+    Resume(SpanStore spanStore, QueryRequest request) {
+      this.spanStore = spanStore;
+      this.request = request;
+    }
+
+    @Override protected List<List<Span>> doExecute() throws IOException {
+      Page page = new Page(request);
+      while (true) {
+        Call<List<List<Span>>> call = spanStore.getTraces(page.nextRequest());
+        current = call;
+        if (isCanceled()) throw new IOException("Canceled");
+        if (page.add(call.execute())) return page.result();
+      }
+    }
+
+    @Override protected void doEnqueue(Callback<List<List<Span>>> callback) {
+      enqueue(new Page(request), callback);
+    }
+
+    void enqueue(final Page page, final Callback<List<List<Span>>> callback) {
+      Call<List<List<Span>>> call = spanStore.getTraces(page.nextRequest());
+      current = call;
+      if (isCanceled()) {
+        callback.onError(new IOException("Canceled"));
+        return;
+      }
+      call.enqueue(new Callback<List<List<Span>>>() {
+        @Override public void onSuccess(List<List<Span>> value) {
+          if (page.add(value)) {
+            callback.onSuccess(page.result());
+          } else {
+            enqueue(page, callback);
+          }
+        }
+
+        @Override public void onError(Throwable t) {
+          callback.onError(t);
+        }
+      });
+    }
+
+    @Override protected void doCancel() {
+      Call<List<List<Span>>> call = current;
+      if (call != null) call.cancel();
+    }
+
+    @Override public Resume clone() {
+      return new Resume(spanStore, request);
+    }
+
+    @Override public String toString() {
+      return "Resume{" + request + "}";
+    }
+  }
+
+  /** State of reading one page after a token */
+  static final class Page {
+    final QueryRequest request, storageRequest;
+    final PageToken position;
+    final long beginTs;
+    final int maxFetchLimit;
+    final TreeMap<PageToken, List<Span>> traces =
+      new TreeMap<>(Collections.<PageToken>reverseOrder());
+    int fetchLimit, rounds;
+
+    Page(QueryRequest request) {
+      this.request = request;
+      this.position = parse(request.pageToken());
+      this.beginTs = request.endTs() - request.lookback();
+      long endTs = Math.max(1L, Math.min(request.endTs(), position.timestamp));
+      this.storageRequest = request.toBuilder()
+        .endTs(endTs)
+        .lookback(Math.max(1L, endTs - beginTs))
+        .pageToken(null)
+        .build();
+      this.fetchLimit = (int) Math.min(Integer.MAX_VALUE, request.limit() + 1L);
+      this.maxFetchLimit = (int) Math.min(Integer.MAX_VALUE, fetchLimit * 4L);
+    }
+
+    QueryRequest nextRequest() {
+      rounds++;
+      return storageRequest.toBuilder().limit(fetchLimit).build();
+    }
+
+    /** Returns true when the page is complete */
+    boolean add(List<List<Span>> result) {
+      int dropped = 0;
+      for (int i = 0, length = result.size(); i < length; i++) {
+        List<Span> trace = result.get(i);
+        PageToken next = of(request, trace);
+        if (next == null || next.compareTo(position) >= 0 || next.timestamp < beginTs) {
+          dropped++;
+        } else {
+          traces.put(next, trace);
+        }
+      }
+
+      // storage has no more traces, or the ones after the token fill the page
+      if (result.size() < fetchLimit || traces.size() >= request.limit()) return true;
+      if (rounds == MAX_ROUNDS || fetchLimit == maxFetchLimit) return true;
+      // ask for as many more as were dropped, as storage returns them first again
+      fetchLimit = (int) Math.min(maxFetchLimit, (long) fetchLimit + dropped);
+      return false;
+    }
+
+    List<List<Span>> result() {
+      List<List<Span>> result = new ArrayList<>(Math.min(traces.size(), request.limit()));
+      for (List<Span> trace : traces.values()) {
+        if (result.size() == request.limit()) break;
+        result.add(trace);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+/**
+ * Links traces on an executor, such as a {@code ForkJoinPool}, by splitting them into batches that
+ * are each linked by their own {@link DependencyLinker}. Partial results are combined with {@link
+ * DependencyLinker#merge(DependencyLinker)} in submission order, so the output is stable.
+ *
+ * <p>Traces are read on the calling thread, as sources like database cursors are not thread-safe.
+ * Each trace is buffered before it is handed off, and at most {@code parallelism} batches are in
+ * flight at a time, which bounds memory regardless of how many traces are linked.
+ */
+public final class ParallelDependencyLinker {
+  /** Number of traces linked per task, amortizing the cost of handing off work. */
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  public static ParallelDependencyLinker create(Executor executor, int parallelism) {
+    return new ParallelDependencyLinker(executor, parallelism, DEFAULT_BATCH_SIZE);
+  }
+
+  final Executor executor;
+  final int parallelism, batchSize;
+
+  ParallelDependencyLinker(Executor executor, int parallelism, int batchSize) {
+    if (executor == null) throw new NullPointerException("executor == null");
+    if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+    if (batchSize < 1) throw new IllegalArgumentException("batchSize < 1");
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Consumes the traces, linking them in parallel.
+   *
+   * @param traces iterators where each element contains spans with the same trace id
+   */
+  public List<DependencyLink> link(Iterator<? extends Iterator<Span>> traces) {
+    DependencyLinker result = new DependencyLinker();
+    ArrayDeque<FutureTask<DependencyLinker>> inFlight = new ArrayDeque<>(parallelism);
+    try {
+      while (traces.hasNext()) {
+        List<List<Span>> batch = new ArrayList<>(Math.min(batchSize, 16));
+        while (batch.size() < batchSize && traces.hasNext()) {
+          batch.add(toList(traces.next()));
+        }
+        if (inFlight.isEmpty() && !traces.hasNext()) { // avoid a hand-off for small inputs
+          return result.merge(new LinkBatch(batch).call()).link();
+        }
+        if (inFlight.size() == parallelism) result.merge(await(inFlight.poll()));
+        FutureTask<DependencyLinker> task = new FutureTask<>(new LinkBatch(batch));
+        inFlight.add(task);
+        executor.execute(task);
+      }
+      while (!inFlight.isEmpty()) result.merge(await(inFlight.poll()));
+      return result.link();
+    } finally {
+      for (FutureTask<DependencyLinker> task : inFlight) task.cancel(true);
+    }
+  }
+
+  static List<Span> toList(Iterator<Span> trace) {
+    List<Span> result = new ArrayList<>();
+    while (trace.hasNext()) result.add(trace.next());
+    return result;
+  }
+
+  static DependencyLinker await(FutureTask<DependencyLinker> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted linking traces", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  static final class LinkBatch implements Callable<DependencyLinker> {
+    final List<List<Span>> traces;
+
+    LinkBatch(List<List<Span>> traces) {
+      this.traces = traces;
+    }
+
+    @Override public DependencyLinker call() {
+      DependencyLinker linker = new DependencyLinker();
+      for (int i = 0, length = traces.size(); i < length; i++) {
+        linker.putTrace(traces.get(i).iterator());
+      }
+      return linker;
+    }
+  }
+
+  @Override public String toString() {
+    return "ParallelDependencyLinker{parallelism=" + parallelism + ", batchSize=" + batchSize + "}";
+  }
+}
@@ -185,9 +185,20 @@ final class Proto3Fields {
       throw new AssertionError("not lowerHex " + c); // bug
     }
 
+    /** Like {@link #readLengthPrefixAndValue(Buffer)}, except reuses the last matching value */
+    final String readLengthPrefixAndValue(Buffer b, Proto3ZipkinFields.LastValue<String> last) {
+      int length = readLengthPrefix(b);
+      if (length == 0) return null;
+      String result = last.get(b, length);
+      if (result != null) return result;
+      int startPos = b.pos;
+      return last.set(b, startPos, length, readValue(b, length));
+    }
+
     @Override String readValue(Buffer buffer, int length) {
       length *= 2;
-      char[] result = new char[length];
+      // new String(char[]) copies, so use a scratch buffer instead of allocating twice
+      char[] result = length <= 32 ? HEX_BUFFER.get() : new char[length];
 
       for (int i = 0; i < length; i += 2) {
         byte b = buffer.readByte();
@@ -195,8 +206,14 @@ final class Proto3Fields {
         result[i + 1] = HEX_DIGITS[b & 0xf];
       }
 
-      return new String(result);
+      return new String(result, 0, length);
     }
+
+    static final ThreadLocal<char[]> HEX_BUFFER = new ThreadLocal<char[]>() {
+      @Override protected char[] initialValue() {
+        return new char[32]; // maximum length of a hex trace ID
+      }
+    };
   }
 
   static class Utf8Field extends LengthDelimitedField<String> {
@@ -76,10 +76,28 @@ final class Proto3ZipkinFields {
     }
 
     @Override Endpoint readValue(Buffer buffer, int length) {
+      return readValue(buffer, length, Endpoint.newBuilder());
+    }
+
+    /**
+     * Like {@link #readLengthPrefixAndValue(Buffer)}, except returns the last endpoint when its
+     * encoded form is unchanged. Otherwise, this reads with a cleared builder.
+     */
+    @Nullable Endpoint readLengthPrefixAndValue(Buffer b, ReadScratch scratch,
+      LastValue<Endpoint> last) {
+      int length = readLengthPrefix(b);
+      if (length == 0) return null;
+      Endpoint result = last.get(b, length);
+      if (result != null) return result;
+      int startPos = b.pos;
+      result = readValue(b, length, scratch.endpointBuilder.clear());
+      return last.set(b, startPos, length, result);
+    }
+
+    Endpoint readValue(Buffer buffer, int length, Endpoint.Builder builder) {
       int endPos = buffer.pos + length;
 
       // now, we are in the endpoint fields
-      Endpoint.Builder builder = Endpoint.newBuilder();
       while (buffer.pos < endPos) {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
@@ -241,6 +259,8 @@ final class Proto3ZipkinFields {
     static final TagField TAG = new TagField(TAG_KEY);
     static final BooleanField DEBUG = new BooleanField(DEBUG_KEY);
     static final BooleanField SHARED = new BooleanField(SHARED_KEY);
+    /** Cached as {@link Span.Kind#values()} clones its array on each call */
+    static final Span.Kind[] KINDS = Span.Kind.values();
 
     SpanField() {
       super((1 << 3) | WIRETYPE_LENGTH_DELIMITED);
@@ -314,16 +334,33 @@ final class Proto3ZipkinFields {
       return readLengthPrefixAndValue(buffer);
     }
 
+    /**
+     * Like {@link #read(Buffer)}, except reuses scratch state retained by a single thread. Besides
+     * builders, this reuses the trace ID and endpoints when they are the same as the last span's.
+     */
+    @Nullable Span read(Buffer buffer, ReadScratch scratch) {
+      buffer.readVarint32(); // toss the key
+      int length = readLengthPrefix(buffer);
+      if (length == 0) return null;
+      return readValue(buffer, length, scratch);
+    }
+
     @Override Span readValue(Buffer buffer, int length) {
+      return readValue(buffer, length, null);
+    }
+
+    Span readValue(Buffer buffer, int length, @Nullable ReadScratch scratch) {
       int endPos = buffer.pos + length;
+      Span.Builder builder = scratch != null ? scratch.builder.clear() : Span.newBuilder();
 
       // now, we are in the span fields
-      Span.Builder builder = Span.newBuilder();
       while (buffer.pos < endPos) {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
           case TRACE_ID_KEY:
-            builder.traceId(TRACE_ID.readLengthPrefixAndValue(buffer));
+            builder.traceId(scratch != null
+              ? TRACE_ID.readLengthPrefixAndValue(buffer, scratch.lastTraceId)
+              : TRACE_ID.readLengthPrefixAndValue(buffer));
             break;
           case PARENT_ID_KEY:
             builder.parentId(PARENT_ID.readLengthPrefixAndValue(buffer));
@@ -334,8 +371,8 @@ final class Proto3ZipkinFields {
           case KIND_KEY:
             int kind = buffer.readVarint32();
             if (kind == 0) break;
-            if (kind > Span.Kind.values().length) break;
-            builder.kind(Span.Kind.values()[kind - 1]);
+            if (kind > KINDS.length) break;
+            builder.kind(KINDS[kind - 1]);
             break;
           case NAME_KEY:
             builder.name(NAME.readLengthPrefixAndValue(buffer));
@@ -347,10 +384,14 @@ final class Proto3ZipkinFields {
             builder.duration(buffer.readVarint64());
             break;
           case LOCAL_ENDPOINT_KEY:
-            builder.localEndpoint(LOCAL_ENDPOINT.readLengthPrefixAndValue(buffer));
+            builder.localEndpoint(scratch != null
+              ? LOCAL_ENDPOINT.readLengthPrefixAndValue(buffer, scratch, scratch.lastLocalEndpoint)
+              : LOCAL_ENDPOINT.readLengthPrefixAndValue(buffer));
             break;
           case REMOTE_ENDPOINT_KEY:
-            builder.remoteEndpoint(REMOTE_ENDPOINT.readLengthPrefixAndValue(buffer));
+            builder.remoteEndpoint(scratch != null
+              ? REMOTE_ENDPOINT.readLengthPrefixAndValue(buffer, scratch, scratch.lastRemoteEndpoint)
+              : REMOTE_ENDPOINT.readLengthPrefixAndValue(buffer));
             break;
           case ANNOTATION_KEY:
             ANNOTATION.readLengthPrefixAndValue(buffer, builder);
@@ -372,6 +413,42 @@ final class Proto3ZipkinFields {
     }
   }
 
+  /** State retained by a single thread between reads, so that only spans are allocated. */
+  static final class ReadScratch {
+    final Span.Builder builder = Span.newBuilder();
+    final Endpoint.Builder endpointBuilder = Endpoint.newBuilder();
+    // Spans in the same message are often in the same trace and reported by the same service.
+    final LastValue<String> lastTraceId = new LastValue<>();
+    final LastValue<Endpoint> lastLocalEndpoint = new LastValue<>();
+    final LastValue<Endpoint> lastRemoteEndpoint = new LastValue<>();
+  }
+
+  /** Remembers the last value read, so that it can be reused when its encoded form repeats. */
+  static final class LastValue<T> {
+    byte[] encoded = new byte[0];
+    int encodedLength;
+    T value;
+
+    /** Returns the last value, skipping its bytes, if they match what's next in the buffer. */
+    @Nullable T get(Buffer b, int length) {
+      if (value == null || length != encodedLength) return null;
+      byte[] bytes = b.toByteArray();
+      for (int i = 0, pos = b.pos; i < length; i++, pos++) {
+        if (encoded[i] != bytes[pos]) return null;
+      }
+      b.pos += length;
+      return value;
+    }
+
+    /** Remembers the value read from the bytes at the given position. */
+    T set(Buffer b, int startPos, int length, T value) {
+      if (encoded.length < length) encoded = new byte[length];
+      System.arraycopy(b.toByteArray(), startPos, encoded, 0, length);
+      encodedLength = length;
+      return this.value = value;
+    }
+  }
+
   static void logAndSkip(Buffer buffer, int nextKey) {
     int nextWireType = wireType(nextKey, buffer.pos);
     if (LOG.isLoggable(FINE)) {
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import zipkin2.Span;
+import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.Encoding;
+import zipkin2.internal.Proto3ZipkinFields.ReadScratch;
+
+import static zipkin2.internal.Proto3Codec.exceptionReading;
+import static zipkin2.internal.Proto3ZipkinFields.SPAN;
+
+/**
+ * Like {@link zipkin2.codec.SpanBytesDecoder}, except scratch builders are retained between calls.
+ * This makes the ingest path allocation-light, as mostly the resulting spans are allocated. When
+ * decoding proto3, trace IDs and endpoints that repeat across spans are also shared.
+ *
+ * <p>This type is not thread-safe. Use one instance per thread, for example per transport worker.
+ */
+public final class ReusableSpanDecoder implements BytesDecoder<Span> {
+  public static ReusableSpanDecoder create(Encoding encoding) {
+    if (encoding == null) throw new NullPointerException("encoding == null");
+    return new ReusableSpanDecoder(encoding);
+  }
+
+  final Encoding encoding;
+  final V2SpanReader jsonReader = new V2SpanReader();
+  final ReadScratch scratch = new ReadScratch();
+
+  ReusableSpanDecoder(Encoding encoding) {
+    this.encoding = encoding;
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  @Override public boolean decode(byte[] span, Collection<Span> out) {
+    if (encoding == Encoding.JSON) return JsonCodec.read(jsonReader, span, out);
+    if (span.length == 0) return false;
+    try {
+      Span result = SPAN.read(new Buffer(span, 0), scratch);
+      if (result == null) return false;
+      out.add(result);
+      return true;
+    } catch (Exception e) {
+      throw exceptionReading("Span", e);
+    }
+  }
+
+  @Override @Nullable public Span decodeOne(byte[] span) {
+    if (encoding == Encoding.JSON) return JsonCodec.readOne(jsonReader, span);
+    return SPAN.read(new Buffer(span, 0), scratch);
+  }
+
+  @Override public boolean decodeList(byte[] spans, Collection<Span> out) {
+    if (encoding == Encoding.JSON) return JsonCodec.readList(jsonReader, spans, out);
+    int length = spans.length;
+    if (length == 0) return false;
+    Buffer buffer = new Buffer(spans, 0);
+    try {
+      while (buffer.pos < length) {
+        Span span = SPAN.read(buffer, scratch);
+        if (span == null) return false;
+        out.add(span);
+      }
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
+  @Override public List<Span> decodeList(byte[] spans) {
+    List<Span> out = new ArrayList<>();
+    if (!decodeList(spans, out)) return Collections.emptyList();
+    return out;
+  }
+
+  @Override public String toString() {
+    return "ReusableSpanDecoder(" + encoding + ")";
+  }
+}
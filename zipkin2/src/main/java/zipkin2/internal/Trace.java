@@ -0,0 +1,101 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/** Operations on a list of spans that share a trace ID. */
+public final class Trace {
+
+  /**
+   * Merges spans reported separately for the same operation, for example when a span is flushed
+   * before it finishes, or when a late annotation arrives. Spans merge when they have the same ID,
+   * the same {@link Span#shared() shared} flag and compatible local endpoints. This means the client
+   * and server sides of an RPC that share a span ID stay separate.
+   *
+   * <p>This runs in linear time. The result is in order of first appearance.
+   */
+  public static List<Span> merge(List<Span> spans) {
+    int length = spans.size();
+    if (length <= 1) return spans;
+
+    List<Span> result = new ArrayList<>(length);
+    // Index of the first result with a span ID, then a chain of results with the same ID
+    Map<String, Integer> firstWithId = new HashMap<>(length * 4 / 3 + 1);
+    int[] nextWithSameId = new int[length];
+    Arrays.fill(nextWithSameId, -1);
+    boolean merged = false;
+    for (int i = 0; i < length; i++) {
+      Span next = spans.get(i);
+      Integer first = firstWithId.get(next.id());
+      if (first == null) {
+        firstWithId.put(next.id(), result.size());
+        result.add(next);
+        continue;
+      }
+      int j = first, last = j;
+      for (; j != -1; last = j, j = nextWithSameId[j]) {
+        Span existing = result.get(j);
+        if (!mergeable(existing, next)) continue;
+        result.set(j, merge(existing, next));
+        merged = true;
+        break;
+      }
+      if (j == -1) { // no match, so chain a new result to the others with the same ID
+        nextWithSameId[last] = result.size();
+        result.add(next);
+      }
+    }
+    return merged ? result : spans;
+  }
+
+  static boolean mergeable(Span left, Span right) {
+    if (Boolean.TRUE.equals(left.shared()) != Boolean.TRUE.equals(right.shared())) return false;
+    Endpoint leftLocal = left.localEndpoint(), rightLocal = right.localEndpoint();
+    return leftLocal == null || rightLocal == null || leftLocal.equals(rightLocal);
+  }
+
+  /** Values from the left win, except the longer trace ID and the union of annotations and tags. */
+  static Span merge(Span left, Span right) {
+    Span.Builder result = left.toBuilder();
+    if (right.traceId().length() > left.traceId().length()) result.traceId(right.traceId());
+    if (left.parentId() == null) result.parentId(right.parentId());
+    if (left.kind() == null) result.kind(right.kind());
+    if (left.name() == null || left.name().isEmpty()) result.name(right.name());
+    if (left.timestampAsLong() == 0L) result.timestamp(right.timestampAsLong());
+    if (left.durationAsLong() == 0L) result.duration(right.durationAsLong());
+    if (left.localEndpoint() == null) result.localEndpoint(right.localEndpoint());
+    if (left.remoteEndpoint() == null) result.remoteEndpoint(right.remoteEndpoint());
+    List<Annotation> leftAnnotations = left.annotations();
+    for (int i = 0, length = right.annotations().size(); i < length; i++) {
+      Annotation a = right.annotations().get(i);
+      if (!leftAnnotations.contains(a)) result.addAnnotation(a.timestamp(), a.value());
+    }
+    for (Map.Entry<String, String> tag : right.tags().entrySet()) {
+      if (!left.tags().containsKey(tag.getKey())) result.putTag(tag.getKey(), tag.getValue());
+    }
+    if (Boolean.TRUE.equals(right.debug())) result.debug(true);
+    return result.build();
+  }
+
+  Trace() {
+  }
+}
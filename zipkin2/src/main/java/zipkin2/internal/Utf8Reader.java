@@ -0,0 +1,114 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.io.Reader;
+
+/**
+ * Decodes UTF-8 directly from a byte array into the caller's buffer.
+ *
+ * <p>This replaces {@code new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8)}, which
+ * allocates an 8KiB byte buffer and a charset decoder per message. Well-formed input decodes the
+ * same as the JRE. Each malformed sequence is replaced with a single U+FFFD, whereas the JRE may
+ * replace some, such as overlong encodings, with one U+FFFD per byte.
+ */
+final class Utf8Reader extends Reader {
+  static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+  final byte[] bytes;
+  int pos;
+  char pendingLowSurrogate; // zero when there's no pending surrogate
+
+  Utf8Reader(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  @Override public int read(char[] cbuf, int off, int len) {
+    if (len == 0) return 0;
+    int limit = bytes.length;
+    if (pos == limit && pendingLowSurrogate == 0) return -1;
+
+    int i = off, end = off + len;
+    if (pendingLowSurrogate != 0) {
+      cbuf[i++] = pendingLowSurrogate;
+      pendingLowSurrogate = 0;
+    }
+
+    while (i < end && pos < limit) {
+      int b0 = bytes[pos];
+      if (b0 >= 0) { // ASCII fast path
+        cbuf[i++] = (char) b0;
+        pos++;
+        continue;
+      }
+
+      int codePoint, length;
+      if ((b0 & 0xe0) == 0xc0) {
+        codePoint = b0 & 0x1f;
+        length = 2;
+      } else if ((b0 & 0xf0) == 0xe0) {
+        codePoint = b0 & 0x0f;
+        length = 3;
+      } else if ((b0 & 0xf8) == 0xf0) {
+        codePoint = b0 & 0x07;
+        length = 4;
+      } else {
+        cbuf[i++] = REPLACEMENT_CHARACTER;
+        pos++;
+        continue;
+      }
+
+      int read = 1;
+      for (; read < length && pos + read < limit; read++) {
+        int b = bytes[pos + read];
+        if ((b & 0xc0) != 0x80) break;
+        codePoint = (codePoint << 6) | (b & 0x3f);
+      }
+      if (read < length || isOverlongOrInvalid(codePoint, length)) {
+        cbuf[i++] = REPLACEMENT_CHARACTER;
+        pos += read;
+        continue;
+      }
+      pos += length;
+
+      if (codePoint < 0x10000) {
+        cbuf[i++] = (char) codePoint;
+      } else {
+        // Character.highSurrogate and lowSurrogate are Java 7+
+        cbuf[i++] = (char) ((codePoint >>> 10) + (Character.MIN_HIGH_SURROGATE - (0x10000 >>> 10)));
+        char low = (char) ((codePoint & 0x3ff) + Character.MIN_LOW_SURROGATE);
+        if (i < end) {
+          cbuf[i++] = low;
+        } else {
+          pendingLowSurrogate = low;
+        }
+      }
+    }
+    return i - off;
+  }
+
+  static boolean isOverlongOrInvalid(int codePoint, int length) {
+    switch (length) {
+      case 2:
+        return codePoint < 0x80;
+      case 3:
+        return codePoint < 0x800 || (codePoint >= 0xd800 && codePoint <= 0xdfff);
+      default:
+        return codePoint < 0x10000 || codePoint > 0x10ffff;
+    }
+  }
+
+  @Override public void close() {
+  }
+}
@@ -19,8 +19,13 @@ import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
 
+/**
+ * Reads a span from json, reusing its builders between calls. An instance is not thread-safe, but
+ * can be reused by a single thread to decode many spans.
+ */
 public final class V2SpanReader implements JsonReaderAdapter<Span> {
   Span.Builder builder;
+  Endpoint.Builder endpointBuilder;
 
   @Override public Span fromJson(JsonReader reader) throws IOException {
     if (builder == null) {
@@ -54,26 +59,28 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
       } else if (nextName.equals("duration")) {
         builder.duration(reader.nextLong());
       } else if (nextName.equals("localEndpoint")) {
-        builder.localEndpoint(ENDPOINT_READER.fromJson(reader));
+        builder.localEndpoint(readEndpoint(reader));
       } else if (nextName.equals("remoteEndpoint")) {
-        builder.remoteEndpoint(ENDPOINT_READER.fromJson(reader));
+        builder.remoteEndpoint(readEndpoint(reader));
       } else if (nextName.equals("annotations")) {
         reader.beginArray();
         while (reader.hasNext()) {
           reader.beginObject();
-          Long timestamp = null;
+          long timestamp = 0L; // avoid boxing as a null check
+          boolean hasTimestamp = false;
           String value = null;
           while (reader.hasNext()) {
             nextName = reader.nextName();
             if (nextName.equals("timestamp")) {
               timestamp = reader.nextLong();
+              hasTimestamp = true;
             } else if (nextName.equals("value")) {
               value = reader.nextString();
             } else {
               reader.skipValue();
             }
           }
-          if (timestamp == null || value == null) {
+          if (!hasTimestamp || value == null) {
             throw new IllegalArgumentException("Incomplete annotation at " + reader.getPath());
           }
           reader.endObject();
@@ -106,36 +113,34 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
     return "Span";
   }
 
-  static final JsonReaderAdapter<Endpoint> ENDPOINT_READER = new JsonReaderAdapter<Endpoint>() {
-    @Override public Endpoint fromJson(JsonReader reader) throws IOException {
-      Endpoint.Builder result = Endpoint.newBuilder();
-      reader.beginObject();
-      boolean readField = false;
-      while (reader.hasNext()) {
-        String nextName = reader.nextName();
-        if (reader.peekNull()) {
-          reader.skipValue();
-          continue;
-        }
-        if (nextName.equals("serviceName")) {
-          result.serviceName(reader.nextString());
-          readField = true;
-        } else if (nextName.equals("ipv4") || nextName.equals("ipv6")) {
-          result.parseIp(reader.nextString());
-          readField = true;
-        } else if (nextName.equals("port")) {
-          result.port(reader.nextInt());
-          readField = true;
-        } else {
-          reader.skipValue();
-        }
-      }
-      reader.endObject();
-      return readField ? result.build() : null;
+  @Nullable Endpoint readEndpoint(JsonReader reader) throws IOException {
+    if (endpointBuilder == null) {
+      endpointBuilder = Endpoint.newBuilder();
+    } else {
+      endpointBuilder.clear();
     }
-
-    @Override public String toString() {
-      return "Endpoint";
+    reader.beginObject();
+    boolean readField = false;
+    while (reader.hasNext()) {
+      String nextName = reader.nextName();
+      if (reader.peekNull()) {
+        reader.skipValue();
+        continue;
+      }
+      if (nextName.equals("serviceName")) {
+        endpointBuilder.serviceName(reader.nextString());
+        readField = true;
+      } else if (nextName.equals("ipv4") || nextName.equals("ipv6")) {
+        endpointBuilder.parseIp(reader.nextString());
+        readField = true;
+      } else if (nextName.equals("port")) {
+        endpointBuilder.port(reader.nextInt());
+        readField = true;
+      } else {
+        reader.skipValue();
+      }
     }
-  };
+    reader.endObject();
+    return readField ? endpointBuilder.build() : null;
+  }
 }
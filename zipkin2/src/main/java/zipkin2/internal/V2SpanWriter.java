@@ -13,8 +13,10 @@
  */
 package zipkin2.internal;
 
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import zipkin2.Annotation;
 import zipkin2.Endpoint;
 import zipkin2.Span;
@@ -25,6 +27,62 @@ import static zipkin2.internal.JsonEscaper.jsonEscapedSizeInBytes;
 
 //@Immutable
 public final class V2SpanWriter implements Buffer.Writer<Span> {
+  /** Span fields that can be left out, named as in json. IDs are always written. */
+  public enum Field {
+    NAME("name"),
+    KIND("kind"),
+    TIMESTAMP("timestamp"),
+    DURATION("duration"),
+    LOCAL_ENDPOINT("localEndpoint"),
+    REMOTE_ENDPOINT("remoteEndpoint"),
+    ANNOTATIONS("annotations"),
+    TAGS("tags"),
+    DEBUG("debug"),
+    SHARED("shared");
+
+    final String jsonName;
+
+    Field(String jsonName) {
+      this.jsonName = jsonName;
+    }
+
+    public String jsonName() {
+      return jsonName;
+    }
+
+    /** Returns null if there's no field with this json name, or it is an ID. */
+    @Nullable public static Field fromJsonName(String jsonName) {
+      for (Field field : values()) {
+        if (field.jsonName.equals(jsonName)) return field;
+      }
+      return null;
+    }
+  }
+
+  final boolean name, kind, timestamp, duration, localEndpoint, remoteEndpoint, annotations,
+    tags, debug, shared;
+
+  public V2SpanWriter() {
+    this(EnumSet.allOf(Field.class));
+  }
+
+  /**
+   * Writes only the given fields, besides trace, parent and span IDs. For example, writing only
+   * the timestamp and duration skips tags and annotations, which are often the bulk of a span.
+   */
+  public V2SpanWriter(Set<Field> fields) {
+    name = fields.contains(Field.NAME);
+    kind = fields.contains(Field.KIND);
+    timestamp = fields.contains(Field.TIMESTAMP);
+    duration = fields.contains(Field.DURATION);
+    localEndpoint = fields.contains(Field.LOCAL_ENDPOINT);
+    remoteEndpoint = fields.contains(Field.REMOTE_ENDPOINT);
+    annotations = fields.contains(Field.ANNOTATIONS);
+    tags = fields.contains(Field.TAGS);
+    debug = fields.contains(Field.DEBUG);
+    shared = fields.contains(Field.SHARED);
+  }
+
   @Override public int sizeInBytes(Span value) {
     int sizeInBytes = 13; // {"traceId":""
     sizeInBytes += value.traceId().length();
@@ -32,31 +90,31 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
       sizeInBytes += 30; // ,"parentId":"0123456789abcdef"
     }
     sizeInBytes += 24; // ,"id":"0123456789abcdef"
-    if (value.kind() != null) {
+    if (kind && value.kind() != null) {
       sizeInBytes += 10; // ,"kind":""
       sizeInBytes += value.kind().name().length();
     }
-    if (value.name() != null) {
+    if (name && value.name() != null) {
       sizeInBytes += 10; // ,"name":""
       sizeInBytes += jsonEscapedSizeInBytes(value.name());
     }
-    if (value.timestampAsLong() != 0L) {
+    if (timestamp && value.timestampAsLong() != 0L) {
       sizeInBytes += 13; // ,"timestamp":
       sizeInBytes += asciiSizeInBytes(value.timestampAsLong());
     }
-    if (value.durationAsLong() != 0L) {
+    if (duration && value.durationAsLong() != 0L) {
       sizeInBytes += 12; // ,"duration":
       sizeInBytes += asciiSizeInBytes(value.durationAsLong());
     }
-    if (value.localEndpoint() != null) {
+    if (localEndpoint && value.localEndpoint() != null) {
       sizeInBytes += 17; // ,"localEndpoint":
       sizeInBytes += endpointSizeInBytes(value.localEndpoint());
     }
-    if (value.remoteEndpoint() != null) {
+    if (remoteEndpoint && value.remoteEndpoint() != null) {
       sizeInBytes += 18; // ,"remoteEndpoint":
       sizeInBytes += endpointSizeInBytes(value.remoteEndpoint());
     }
-    if (!value.annotations().isEmpty()) {
+    if (annotations && !value.annotations().isEmpty()) {
       sizeInBytes += 17; // ,"annotations":[]
       int length = value.annotations().size();
       if (length > 1) sizeInBytes += length - 1; // comma to join elements
@@ -64,7 +122,7 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
         sizeInBytes += annotationSizeInBytes(value.annotations().get(i), null);
       }
     }
-    if (!value.tags().isEmpty()) {
+    if (tags && !value.tags().isEmpty()) {
       sizeInBytes += 10; // ,"tags":{}
       int tagCount = value.tags().size();
       if (tagCount > 1) sizeInBytes += tagCount - 1; // comma to join elements
@@ -74,10 +132,10 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
         sizeInBytes += jsonEscapedSizeInBytes(entry.getValue());
       }
     }
-    if (Boolean.TRUE.equals(value.debug())) {
+    if (debug && Boolean.TRUE.equals(value.debug())) {
       sizeInBytes += 13; // ,"debug":true
     }
-    if (Boolean.TRUE.equals(value.shared())) {
+    if (shared && Boolean.TRUE.equals(value.shared())) {
       sizeInBytes += 14; // ,"shared":true
     }
     return ++sizeInBytes; // }
@@ -89,27 +147,27 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
       b.writeAscii(",\"parentId\":\"").writeAscii(value.parentId()).writeByte('"');
     }
     b.writeAscii(",\"id\":\"").writeAscii(value.id()).writeByte('"');
-    if (value.kind() != null) {
+    if (kind && value.kind() != null) {
       b.writeAscii(",\"kind\":\"").writeAscii(value.kind().toString()).writeByte('"');
     }
-    if (value.name() != null) {
+    if (name && value.name() != null) {
       b.writeAscii(",\"name\":\"").writeUtf8(jsonEscape(value.name())).writeByte('"');
     }
-    if (value.timestampAsLong() != 0L) {
+    if (timestamp && value.timestampAsLong() != 0L) {
       b.writeAscii(",\"timestamp\":").writeAscii(value.timestampAsLong());
     }
-    if (value.durationAsLong() != 0L) {
+    if (duration && value.durationAsLong() != 0L) {
       b.writeAscii(",\"duration\":").writeAscii(value.durationAsLong());
     }
-    if (value.localEndpoint() != null) {
+    if (localEndpoint && value.localEndpoint() != null) {
       b.writeAscii(",\"localEndpoint\":");
       writeEndpoint(value.localEndpoint(), b);
     }
-    if (value.remoteEndpoint() != null) {
+    if (remoteEndpoint && value.remoteEndpoint() != null) {
       b.writeAscii(",\"remoteEndpoint\":");
       writeEndpoint(value.remoteEndpoint(), b);
     }
-    if (!value.annotations().isEmpty()) {
+    if (annotations && !value.annotations().isEmpty()) {
       b.writeAscii(",\"annotations\":");
       b.writeByte('[');
       for (int i = 0, length = value.annotations().size(); i < length; ) {
@@ -118,7 +176,7 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
       }
       b.writeByte(']');
     }
-    if (!value.tags().isEmpty()) {
+    if (tags && !value.tags().isEmpty()) {
       b.writeAscii(",\"tags\":{");
       Iterator<Map.Entry<String, String>> i = value.tags().entrySet().iterator();
       while (i.hasNext()) {
@@ -129,10 +187,10 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
       }
       b.writeByte('}');
     }
-    if (Boolean.TRUE.equals(value.debug())) {
+    if (debug && Boolean.TRUE.equals(value.debug())) {
       b.writeAscii(",\"debug\":true");
     }
-    if (Boolean.TRUE.equals(value.shared())) {
+    if (shared && Boolean.TRUE.equals(value.shared())) {
       b.writeAscii(",\"shared\":true");
     }
     b.writeByte('}');
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import java.util.Set;
+import zipkin2.Call;
+import zipkin2.Span;
+
+/**
+ * Implemented by span stores that can read less data when they know roughly when a trace
+ * happened, for example storage partitioned by day. Callers that know a trace's timestamp, such as
+ * a UI link from search results, check for this type and fall back to {@link #getTrace(String)}.
+ */
+public interface HintedSpanStore extends SpanStore {
+
+  /**
+   * Like {@link #getTrace(String)}, except the search begins near the given timestamp. This is only
+   * a hint: implementations must still return the trace when the hint is wrong, though they may be
+   * slower to do so.
+   *
+   * @param traceId the {@link Span#traceId() trace ID}
+   * @param timestampMillis epoch milliseconds of any span in the trace
+   */
+  Call<List<Span>> getTrace(String traceId, long timestampMillis);
+
+  /**
+   * Like {@link #getTrace(String, long)}, except the caller only reads the given span fields, named
+   * as in json, such as "timestamp". Implementations may read less by leaving out other fields,
+   * except trace, parent and span IDs, which are always returned. This is also only a hint: spans
+   * may include fields not asked for.
+   *
+   * @param traceId the {@link Span#traceId() trace ID}
+   * @param timestampMillis epoch milliseconds of any span in the trace, or zero if unknown
+   * @param fields span fields to return besides IDs, such as "timestamp" and "duration"
+   */
+  Call<List<Span>> getTrace(String traceId, long timestampMillis, Set<String> fields);
+}
@@ -31,6 +31,8 @@ import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.PageToken;
 
 /**
  * Test storage component that keeps all spans in memory, accepting them on the calling thread.
@@ -204,27 +206,46 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return getTraces(request, strictTraceId);
   }
 
+  /**
+   * Returns traces in {@link PageToken} position order, after the page token if there is one.
+   * Traces are visited newest span first. Once there are enough, this stops at a trace whose
+   * newest span is before the last position, as no trace is positioned after its newest span.
+   */
   synchronized Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
-    Set<String> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
+    Map<String, Long> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
     if (traceIdsInTimerange.isEmpty()) return Call.emptyList();
 
-    List<List<Span>> result = new ArrayList<>();
-    for (Iterator<String> lowTraceId = traceIdsInTimerange.iterator();
-      lowTraceId.hasNext() && result.size() < request.limit(); ) {
-      List<Span> next = spansByTraceId(lowTraceId.next());
+    PageToken after = request.pageToken() != null ? PageToken.parse(request.pageToken()) : null;
+    TreeMap<PageToken, List<Span>> result = new TreeMap<>(Collections.<PageToken>reverseOrder());
+    for (Map.Entry<String, Long> lowTraceId : traceIdsInTimerange.entrySet()) {
+      if (result.size() == request.limit()
+        && lowTraceId.getValue() / 1000L < result.lastKey().timestamp()) {
+        break;
+      }
+      List<Span> next = spansByTraceId(lowTraceId.getKey());
       if (!request.test(next)) continue;
       if (!strictTraceId) {
-        result.add(next);
+        addAfter(request, after, next, result);
         continue;
       }
 
       // re-run the query as now spans are strictly grouped
       for (List<Span> strictTrace : strictByTraceId(next)) {
-        if (request.test(strictTrace)) result.add(strictTrace);
+        if (request.test(strictTrace)) addAfter(request, after, strictTrace, result);
       }
     }
 
-    return Call.create(result);
+    List<List<Span>> traces = new ArrayList<>(result.values());
+    return Call.create(traces);
+  }
+
+  /** Adds the trace unless it is at or before the page token, keeping only the newest traces */
+  static void addAfter(QueryRequest request, @Nullable PageToken after, List<Span> trace,
+    TreeMap<PageToken, List<Span>> result) {
+    PageToken position = PageToken.of(request, trace);
+    if (after != null && position.compareTo(after) >= 0) return;
+    result.put(position, trace);
+    if (result.size() > request.limit()) result.pollLastEntry();
   }
 
   static Collection<List<Span>> strictByTraceId(List<Span> next) {
@@ -253,8 +274,9 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return result;
   }
 
-  Set<String> traceIdsDescendingByTimestamp(QueryRequest request) {
-    if (!searchEnabled) return Collections.emptySet();
+  /** Returns trace IDs with spans in the window, mapped to their newest span's timestamp. */
+  Map<String, Long> traceIdsDescendingByTimestamp(QueryRequest request) {
+    if (!searchEnabled) return Collections.emptyMap();
 
     Collection<TraceIdTimestamp> traceIdTimestamps = request.serviceName() != null
       ? traceIdTimestampsByServiceName(request.serviceName())
@@ -263,11 +285,12 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     long endTs = request.endTs() * 1000;
     long startTs = endTs - request.lookback() * 1000;
 
-    if (traceIdTimestamps == null || traceIdTimestamps.isEmpty()) return Collections.emptySet();
-    Set<String> result = new LinkedHashSet<>();
+    if (traceIdTimestamps == null || traceIdTimestamps.isEmpty()) return Collections.emptyMap();
+    Map<String, Long> result = new LinkedHashMap<>();
     for (TraceIdTimestamp traceIdTimestamp : traceIdTimestamps) {
-      if (traceIdTimestamp.timestamp >= startTs || traceIdTimestamp.timestamp <= endTs) {
-        result.add(traceIdTimestamp.lowTraceId);
+      if (traceIdTimestamp.timestamp >= startTs && traceIdTimestamp.timestamp <= endTs
+        && !result.containsKey(traceIdTimestamp.lowTraceId)) {
+        result.put(traceIdTimestamp.lowTraceId, traceIdTimestamp.timestamp);
       }
     }
     return result;
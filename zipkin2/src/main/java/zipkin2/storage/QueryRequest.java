@@ -24,6 +24,7 @@ import java.util.Set;
 import zipkin2.Annotation;
 import zipkin2.Span;
 import zipkin2.internal.Nullable;
+import zipkin2.internal.PageToken;
 
 /**
  * Invoking this request retrieves traces matching the below filters.
@@ -98,6 +99,14 @@ public final class QueryRequest {
     return limit;
   }
 
+  /**
+   * When present, only return traces after the last trace of a previous page of results. This is
+   * an opaque value, formerly returned with that page.
+   */
+  @Nullable public String pageToken() {
+    return pageToken;
+  }
+
   /**
    * Corresponds to query parameter "annotationQuery". Ex. "http.method=GET and error"
    *
@@ -131,6 +140,7 @@ public final class QueryRequest {
     Long minDuration, maxDuration;
     long endTs, lookback;
     int limit;
+    String pageToken;
 
     Builder(QueryRequest source) {
       serviceName = source.serviceName;
@@ -141,6 +151,7 @@ public final class QueryRequest {
       endTs = source.endTs;
       lookback = source.lookback;
       limit = source.limit;
+      pageToken = source.pageToken;
     }
 
     /** @see QueryRequest#serviceName() */
@@ -216,6 +227,12 @@ public final class QueryRequest {
       return this;
     }
 
+    /** @see QueryRequest#pageToken() */
+    public Builder pageToken(@Nullable String pageToken) {
+      this.pageToken = pageToken;
+      return this;
+    }
+
     public final QueryRequest build() {
       // coerce service and span names to lowercase
       if (serviceName != null) serviceName = serviceName.toLowerCase(Locale.ROOT);
@@ -237,6 +254,8 @@ public final class QueryRequest {
       } else if (maxDuration != null) {
         throw new IllegalArgumentException("maxDuration is only valid with minDuration");
       }
+      if ("".equals(pageToken)) pageToken = null;
+      if (pageToken != null) PageToken.parse(pageToken); // fail early on invalid input
 
       return new QueryRequest(
         serviceName,
@@ -246,7 +265,8 @@ public final class QueryRequest {
         maxDuration,
         endTs,
         lookback,
-        limit
+        limit,
+        pageToken
       );
     }
 
@@ -326,6 +346,7 @@ public final class QueryRequest {
   final Long minDuration, maxDuration;
   final long endTs, lookback;
   final int limit;
+  final String pageToken;
 
   QueryRequest(
     @Nullable String serviceName,
@@ -335,7 +356,8 @@ public final class QueryRequest {
     @Nullable Long maxDuration,
     long endTs,
     long lookback,
-    int limit) {
+    int limit,
+    @Nullable String pageToken) {
     this.serviceName = serviceName;
     this.spanName = spanName;
     this.annotationQuery = annotationQuery;
@@ -344,6 +366,45 @@ public final class QueryRequest {
     this.endTs = endTs;
     this.lookback = lookback;
     this.limit = limit;
+    this.pageToken = pageToken;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof QueryRequest)) return false;
+    QueryRequest that = (QueryRequest) o;
+    return ((serviceName == null) ? (that.serviceName == null) : serviceName.equals(that.serviceName))
+      && ((spanName == null) ? (that.spanName == null) : spanName.equals(that.spanName))
+      && annotationQuery.equals(that.annotationQuery)
+      && ((minDuration == null) ? (that.minDuration == null) : minDuration.equals(that.minDuration))
+      && ((maxDuration == null) ? (that.maxDuration == null) : maxDuration.equals(that.maxDuration))
+      && endTs == that.endTs
+      && lookback == that.lookback
+      && limit == that.limit
+      && ((pageToken == null) ? (that.pageToken == null) : pageToken.equals(that.pageToken));
+  }
+
+  @Override public int hashCode() {
+    int h = 1;
+    h *= 1000003;
+    h ^= (serviceName == null) ? 0 : serviceName.hashCode();
+    h *= 1000003;
+    h ^= (spanName == null) ? 0 : spanName.hashCode();
+    h *= 1000003;
+    h ^= annotationQuery.hashCode();
+    h *= 1000003;
+    h ^= (minDuration == null) ? 0 : minDuration.hashCode();
+    h *= 1000003;
+    h ^= (maxDuration == null) ? 0 : maxDuration.hashCode();
+    h *= 1000003;
+    h ^= (int) ((endTs >>> 32) ^ endTs);
+    h *= 1000003;
+    h ^= (int) ((lookback >>> 32) ^ lookback);
+    h *= 1000003;
+    h ^= limit;
+    h *= 1000003;
+    h ^= (pageToken == null) ? 0 : pageToken.hashCode();
+    return h;
   }
 
   @Override
@@ -356,7 +417,8 @@ public final class QueryRequest {
       + "maxDuration=" + maxDuration + ", "
       + "endTs=" + endTs + ", "
       + "lookback=" + lookback + ", "
-      + "limit=" + limit
+      + "limit=" + limit + ", "
+      + "pageToken=" + pageToken
       + "}";
   }
 }
@@ -187,6 +187,16 @@ public class CallTest {
     verify(callback).onError(error);
   }
 
+  @Test public void map_cancelPropagates() throws Exception {
+    Call<String> fooCall = Call.create("foo");
+    Call<String> fooBarCall = fooCall.map(foo -> "bar");
+
+    fooBarCall.cancel();
+
+    assertThat(fooBarCall.isCanceled()).isTrue();
+    assertThat(fooCall.isCanceled()).isTrue();
+  }
+
   @Test public void flatMap_execute() throws Exception {
     Call<String> fooCall = Call.create("foo");
     Call<String> barCall = Call.create("bar");
@@ -247,6 +257,32 @@ public class CallTest {
     assertThat(barCall.isCanceled()).isTrue();
   }
 
+  @Test public void flatMap_cancelBeforeFlatMapPropagates() throws Exception {
+    Call<String> barCall = Call.create("bar");
+    List<Callback<String>> fooCallbacks = new ArrayList<>();
+    Call<String> fooCall = new Call.Base<String>() {
+      @Override protected String doExecute() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override protected void doEnqueue(Callback<String> callback) {
+        fooCallbacks.add(callback);
+      }
+
+      @Override public Call<String> clone() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    Call<String> fooBarCall = fooCall.flatMap(foo -> barCall);
+
+    fooBarCall.enqueue(callback);
+    fooBarCall.cancel();
+    fooCallbacks.get(0).onSuccess("foo"); // completed despite cancel
+
+    assertThat(barCall.isCanceled()).isTrue();
+    verify(callback).onError(isA(IOException.class));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void onErrorReturn_execute_onError() throws Exception {
     IllegalArgumentException exception = new IllegalArgumentException();
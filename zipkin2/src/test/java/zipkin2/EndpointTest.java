@@ -45,6 +45,13 @@ public class EndpointTest {
       .isEqualTo(65535);
   }
 
+  @Test public void clear() {
+    Endpoint.Builder builder = TestObjects.BACKEND.toBuilder();
+
+    assertThat(builder.clear().build())
+      .isEqualTo(Endpoint.newBuilder().build());
+  }
+
   @Test public void ip_addr_ipv4() throws Exception {
     Endpoint.Builder newBuilder = Endpoint.newBuilder();
     assertThat(newBuilder.parseIp(Inet4Address.getByName("43.0.192.2"))).isTrue();
@@ -52,6 +52,18 @@ public class SpanTest {
     );
   }
 
+  @Test public void clearAnnotations() {
+    Span span = base.toBuilder()
+      .addAnnotation(1L, "foo")
+      .clearAnnotations()
+      .addAnnotation(2L, "bar")
+      .build();
+
+    assertThat(span.annotations()).containsExactly(
+      Annotation.create(2L, "bar")
+    );
+  }
+
   @Test public void putTagOverwritesValue() {
     Span span = base.toBuilder()
       .putTag("foo", "bar")
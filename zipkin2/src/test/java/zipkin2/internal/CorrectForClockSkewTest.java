@@ -0,0 +1,221 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.Span.Kind;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.internal.CorrectForClockSkew.getClockSkew;
+import static zipkin2.internal.CorrectForClockSkew.ipsMatch;
+
+public class CorrectForClockSkewTest {
+  List<String> messages = new ArrayList<>();
+
+  Logger logger = new Logger("", null) {
+    {
+      setLevel(Level.ALL);
+    }
+
+    @Override public void log(Level level, String msg) {
+      assertThat(level).isEqualTo(Level.FINE);
+      messages.add(msg);
+    }
+  };
+
+  static final Endpoint DB = Endpoint.newBuilder().serviceName("db").ip("10.0.0.3").build();
+  static final long NOW = System.currentTimeMillis() * 1000L;
+
+  Span root = Span.newBuilder().traceId("1").id("1").name("get").kind(Kind.SERVER)
+    .localEndpoint(FRONTEND).timestamp(NOW).duration(350L).build();
+
+  @Test public void ipsMatch_falseWhenNoIp() {
+    Endpoint noIp = Endpoint.newBuilder().serviceName("foo").build();
+    assertThat(ipsMatch(noIp, FRONTEND)).isFalse();
+    assertThat(ipsMatch(FRONTEND, noIp)).isFalse();
+  }
+
+  @Test public void ipsMatch_whenIpsMatch() {
+    assertThat(ipsMatch(FRONTEND, FRONTEND.toBuilder().serviceName("other").build())).isTrue();
+    assertThat(ipsMatch(FRONTEND, BACKEND)).isFalse();
+  }
+
+  /**
+   * Instrumentation bugs might result in spans that look like clock skew is at play. When skew
+   * appears on the same host, we assume it is an instrumentation bug.
+   */
+  @Test public void getClockSkew_mustBeOnDifferentHosts() {
+    CorrectForClockSkew.SpanPair pair = pair(FRONTEND, FRONTEND, 20L, 20L, 10L, 10L);
+
+    assertThat(getClockSkew(pair)).isNull();
+  }
+
+  /**
+   * Skew is relative to the server receive and centered by the difference between the server
+   * duration and the client duration.
+   */
+  @Test public void getClockSkew_includesSplitTheLatency() {
+    CorrectForClockSkew.SpanPair pair = pair(FRONTEND, BACKEND, 20L, 20L, 10L, 10L);
+
+    assertThat(getClockSkew(pair).endpoint).isEqualTo(BACKEND);
+    assertThat(getClockSkew(pair).skew).isEqualTo(-15);
+  }
+
+  /** We can't currently correct async spans, where the server lets go early. */
+  @Test public void getClockSkew_onlyWhenClientDurationIsLongerThanServer() {
+    CorrectForClockSkew.SpanPair pair = pair(FRONTEND, BACKEND, 20L, 5L, 10L, 10L);
+
+    assertThat(getClockSkew(pair)).isNull();
+  }
+
+  @Test public void getClockSkew_requiresSharedServerSpan() {
+    CorrectForClockSkew.SpanPair pair = pair(FRONTEND, BACKEND, 20L, 20L, 10L, 10L);
+    pair.shared = null;
+
+    assertThat(getClockSkew(pair)).isNull();
+  }
+
+  @Test public void getClockSkew_oneWay_server1usAfterClient() {
+    Span client = Span.newBuilder().traceId("1").parentId("1").id("2").kind(Kind.CLIENT)
+      .localEndpoint(FRONTEND).timestamp(20L).build();
+    Span server = Span.newBuilder().traceId("1").parentId("1").id("2").kind(Kind.SERVER)
+      .shared(true).localEndpoint(BACKEND).timestamp(10L).build();
+
+    List<Span> adjusted =
+      CorrectForClockSkew.apply(asList(root.toBuilder().timestamp(1L).build(), client, server));
+
+    // verify the server timestamp is after, not the same as the client
+    assertThat(adjusted.get(2).timestampAsLong()).isEqualTo(21L);
+  }
+
+  @Test public void correctsSkewOnSharedServerAndChildren() {
+    long skew = -50000L;
+    CorrectForClockSkew.SpanPair rpc = rpc(root, FRONTEND, BACKEND, NOW + 50, 250L, skew, 10L);
+    Span db = Span.newBuilder().traceId("1").parentId("2").id("3").kind(Kind.CLIENT)
+      .localEndpoint(BACKEND).remoteEndpoint(DB).timestamp(NOW + 70 + skew).duration(40L)
+      .addAnnotation(NOW + 80 + skew, "wire.send")
+      .build();
+
+    List<Span> adjusted = CorrectForClockSkew.apply(asList(rpc.shared, db, root, rpc.span));
+
+    assertThat(adjusted).extracting(Span::id, Span::shared)
+      .containsExactly(
+        tuple(root.id(), null), tuple("0000000000000002", null),
+        tuple("0000000000000002", true), tuple("0000000000000003", null));
+    assertThat(adjusted.get(0)).isEqualTo(root);
+    assertThat(adjusted.get(1)).isEqualTo(rpc.span); // client is on the root's host
+    assertThat(adjusted.get(2).timestampAsLong()).isEqualTo(NOW + 50 + 10);
+    assertThat(adjusted.get(3).timestampAsLong()).isEqualTo(NOW + 70);
+    assertThat(adjusted.get(3).annotations().get(0).timestamp()).isEqualTo(NOW + 80);
+  }
+
+  @Test public void clockSkewIsPropagatedToLocalSpans() {
+    long skew = -50000L;
+    CorrectForClockSkew.SpanPair rpc = rpc(root, FRONTEND, BACKEND, NOW + 10, 1000L, skew, 10L);
+    Span local = Span.newBuilder().traceId("1").parentId("2").id("3").name("local")
+      .localEndpoint(BACKEND).timestamp(rpc.shared.timestampAsLong() + 5).duration(200L).build();
+    Span local2 = local.toBuilder().parentId("3").id("4").timestamp(local.timestampAsLong() + 10)
+      .build();
+    Span local3 = Span.newBuilder().traceId("1").parentId("4").id("5").name("nothing").build();
+
+    List<Span> adjusted =
+      CorrectForClockSkew.apply(asList(rpc.span, root, local, rpc.shared, local2, local3));
+
+    assertThat(adjusted.get(3).timestampAsLong()).isEqualTo(local.timestampAsLong() - skew);
+    assertThat(adjusted.get(4).timestampAsLong()).isEqualTo(local2.timestampAsLong() - skew);
+    assertThat(adjusted.get(5)).isEqualTo(local3); // no change
+  }
+
+  @Test public void skipsOnMissingRoot() {
+    CorrectForClockSkew.SpanPair rpc = rpc(root, FRONTEND, BACKEND, NOW + 10, 1000L, -500L, 10L);
+    List<Span> spans = asList(root.toBuilder().parentId("ffff").build(), rpc.span, rpc.shared);
+
+    assertThat(CorrectForClockSkew.apply(logger, spans))
+      .isSameAs(spans);
+    assertThat(messages).containsExactly(
+      "skipping clock skew adjustment due to missing root span: traceId=0000000000000001"
+    );
+  }
+
+  @Test public void skipsOnDuplicateRoot() {
+    CorrectForClockSkew.SpanPair rpc = rpc(root, FRONTEND, BACKEND, NOW + 10, 1000L, -500L, 10L);
+    List<Span> spans = asList(root, root.toBuilder().id("ffff").build(), rpc.span, rpc.shared);
+
+    assertThat(CorrectForClockSkew.apply(logger, spans))
+      .isSameAs(spans);
+    assertThat(messages).containsExactly(
+      "skipping redundant root span: traceId=0000000000000001, rootSpanId=0000000000000001, spanId=000000000000ffff",
+      "skipping clock skew adjustment due to data errors: traceId=0000000000000001"
+    );
+  }
+
+  @Test public void skipsOnCycle() {
+    CorrectForClockSkew.SpanPair rpc = rpc(root, FRONTEND, BACKEND, NOW + 10, 1000L, -500L, 10L);
+    List<Span> spans = asList(root, rpc.span.toBuilder().parentId(rpc.span.id()).build());
+
+    assertThat(CorrectForClockSkew.apply(logger, spans))
+      .isSameAs(spans);
+    assertThat(messages).containsExactly(
+      "skipping circular dependency: traceId=0000000000000001, spanId=0000000000000002",
+      "skipping clock skew adjustment due to data errors: traceId=0000000000000001"
+    );
+  }
+
+  @Test public void skipsOnUnmergedSpans() {
+    List<Span> spans = asList(root, root.toBuilder().name("other").build());
+
+    assertThat(CorrectForClockSkew.apply(logger, spans))
+      .isSameAs(spans);
+    assertThat(messages).containsExactly(
+      "skipping clock skew adjustment due to duplicate span: traceId=0000000000000001, spanId=0000000000000001"
+    );
+  }
+
+  static CorrectForClockSkew.SpanPair pair(Endpoint from, Endpoint to, long clientSend,
+    long clientDuration, long serverRecv, long serverDuration) {
+    CorrectForClockSkew.SpanPair result = new CorrectForClockSkew.SpanPair(
+      Span.newBuilder().traceId("1").parentId("1").id("2").kind(Kind.CLIENT).localEndpoint(from)
+        .timestamp(clientSend).duration(clientDuration).build());
+    result.shared = Span.newBuilder().traceId("1").parentId("1").id("2").kind(Kind.SERVER)
+      .shared(true).localEndpoint(to).timestamp(serverRecv).duration(serverDuration).build();
+    return result;
+  }
+
+  /** Creates a client span and a shared server span, child of the parent. */
+  static CorrectForClockSkew.SpanPair rpc(Span parent, Endpoint from, Endpoint to, long begin,
+    long duration, long skew, long latency) {
+    Span client = Span.newBuilder().traceId(parent.traceId()).parentId(parent.id()).id("2")
+      .kind(Kind.CLIENT).localEndpoint(from).remoteEndpoint(to)
+      .timestamp(begin).duration(duration).build();
+    Span server = Span.newBuilder().traceId(parent.traceId()).parentId(parent.id()).id("2")
+      .kind(Kind.SERVER).shared(true).localEndpoint(to).remoteEndpoint(from)
+      .timestamp(begin + skew + latency).duration(duration - 2 * latency).build();
+    CorrectForClockSkew.SpanPair result = new CorrectForClockSkew.SpanPair(client);
+    result.shared = server;
+    return result;
+  }
+
+  static org.assertj.core.groups.Tuple tuple(Object... values) {
+    return org.assertj.core.groups.Tuple.tuple(values);
+  }
+}
@@ -603,6 +603,33 @@ public class DependencyLinkerTest {
     );
   }
 
+  @Test
+  public void mergeLinker() {
+    DependencyLinker left = new DependencyLinker().putTrace(TRACE.iterator());
+    DependencyLinker right = new DependencyLinker().putTrace(TRACE.iterator())
+      .putTrace(asList(span2("b", null, "a", Kind.CLIENT, "web", "cache", false)).iterator());
+
+    assertThat(left.merge(right).link()).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(2L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(2L).errorCount(2L).build(),
+      DependencyLink.newBuilder().parent("web").child("cache").callCount(1L).build()
+    );
+  }
+
+  @Test
+  public void mergeLinker_empty() {
+    DependencyLinker linker = new DependencyLinker().putTrace(TRACE.iterator());
+
+    assertThat(linker.merge(new DependencyLinker()).link())
+      .isEqualTo(new DependencyLinker().putTrace(TRACE.iterator()).link());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mergeLinker_self() {
+    DependencyLinker linker = new DependencyLinker();
+    linker.merge(linker);
+  }
+
   static Span span2(String traceId, @Nullable String parentId, String id, @Nullable Kind kind,
     @Nullable String local, @Nullable String remote, boolean isError) {
     Span.Builder result = Span.newBuilder().traceId(traceId).parentId(parentId).id(id).kind(kind);
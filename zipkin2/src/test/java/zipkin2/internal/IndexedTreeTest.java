@@ -0,0 +1,267 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.Test;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexedTreeTest {
+  List<String> messages = new ArrayList<>();
+
+  Logger logger = new Logger("", null) {
+    {
+      setLevel(Level.ALL);
+    }
+
+    @Override public void log(Level level, String msg) {
+      assertThat(level).isEqualTo(Level.FINE);
+      messages.add(msg);
+    }
+  };
+
+  IndexedTree.Builder<Character> builder = new IndexedTree.Builder<>(logger);
+
+  @Test public void build_empty() {
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(tree.size()).isZero();
+    assertThat(tree.isSyntheticRootForPartialTree()).isFalse();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void addNode_nullValueNotAllowed() {
+    builder.addNode(0L, 1L, null);
+  }
+
+  /**
+   * <p>The following tree should be numbered in alphabetical order, regardless of insertion order
+   * <pre>{@code
+   *
+   *          a
+   *        / | \
+   *       b  c  d
+   *      /|\     \
+   *     e f g     h
+   * }</pre>
+   */
+  @Test public void numbersBreadthFirst() {
+    builder.addNode(7L, 8L, 'h');
+    builder.addNode(2L, 5L, 'e');
+    builder.addNode(1L, 3L, 'c');
+    builder.addNode(0L, 1L, 'a');
+    builder.addNode(2L, 6L, 'f');
+    builder.addNode(1L, 4L, 'd');
+    builder.addNode(2L, 7L, 'g');
+    builder.addNode(1L, 2L, 'b');
+
+    IndexedTree<Character> tree = builder.build();
+
+    // children are in insertion order, so sort the input to get alphabetical output
+    assertThat(values(tree)).containsExactlyInAnyOrder('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h');
+    assertThat(tree.value(0)).isEqualTo('a');
+    assertThat(tree.parent(0)).isEqualTo(-1);
+    assertThat(children(tree, 0)).containsExactly('c', 'd', 'b');
+    int b = indexOf(tree, 'b');
+    assertThat(children(tree, b)).containsExactly('e', 'f', 'g');
+    assertThat(children(tree, indexOf(tree, 'g'))).containsExactly('h');
+    assertThat(tree.childCount(indexOf(tree, 'h'))).isZero();
+    assertThat(tree.value(tree.parent(indexOf(tree, 'h')))).isEqualTo('g');
+    assertThat(messages).isEmpty();
+  }
+
+  @Test public void parentIndexPrecedesChild() {
+    builder.addNode(2L, 3L, 'c');
+    builder.addNode(1L, 2L, 'b');
+    builder.addNode(0L, 1L, 'a');
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(values(tree)).containsExactly('a', 'b', 'c');
+    for (int i = 1; i < tree.size(); i++) {
+      assertThat(tree.parent(i)).isLessThan(i);
+    }
+  }
+
+  /**
+   * Makes sure that the trace tree is constructed based on parent-child, not by parameter order.
+   */
+  @Test public void constructsTraceTree() {
+    List<Span> trace = asList(
+      DependencyLinkerTest.span2("a", null, "a", Span.Kind.CLIENT, "client", null, false),
+      DependencyLinkerTest.span2("a", "a", "b", Span.Kind.SERVER, "server", null, false),
+      DependencyLinkerTest.span2("a", "b", "c", Span.Kind.CLIENT, "server", null, false)
+    );
+    List<Span> copy = new ArrayList<>(trace);
+    Collections.shuffle(copy);
+
+    IndexedTree.Builder<Span> treeBuilder = new IndexedTree.Builder<>(logger);
+    for (Span span : copy) {
+      treeBuilder.addNode(span.parentId(), span.id(), span);
+    }
+    IndexedTree<Span> tree = treeBuilder.build();
+
+    assertThat(tree.size()).isEqualTo(3);
+    assertThat(tree.value(0)).isEqualTo(trace.get(0));
+    assertThat(tree.value(1)).isEqualTo(trace.get(1));
+    assertThat(tree.value(2)).isEqualTo(trace.get(2));
+  }
+
+  @Test public void mergesSharedIds() {
+    IndexedTree.Builder<Span> treeBuilder =
+      new IndexedTree.Builder<>(logger, DependencyLinker.MERGE_RPC);
+    Span client = DependencyLinkerTest.span2("a", "a", "b", Span.Kind.CLIENT, "web", "app", false);
+    Span server = DependencyLinkerTest.span2("a", "a", "b", Span.Kind.SERVER, "app", "web", false);
+    Span root = DependencyLinkerTest.span2("a", null, "a", Span.Kind.SERVER, "web", null, false);
+    treeBuilder.addNode(client.parentId(), client.id(), client);
+    treeBuilder.addNode(root.parentId(), root.id(), root);
+    treeBuilder.addNode(server.parentId(), server.id(), server);
+
+    IndexedTree<Span> tree = treeBuilder.build();
+
+    assertThat(tree.size()).isEqualTo(2);
+    assertThat(tree.value(0)).isEqualTo(root);
+    assertThat(tree.value(1).kind()).isEqualTo(Span.Kind.SERVER);
+  }
+
+  @Test public void constructTree_noChildLeftBehind() {
+    builder.traceId("000000000000000a");
+    builder.addNode(0L, 0xbL, 'b');
+    builder.addNode(0xbL, 0xcL, 'c');
+    builder.addNode(0xbL, 0xdL, 'd');
+    builder.addNode(0L, 0xeL, 'e');
+    builder.addNode(0L, 0xfL, 'f');
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(tree.size()).isEqualTo(5);
+    assertThat(children(tree, 0)).containsExactly('c', 'd', 'e', 'f');
+    assertThat(messages).containsExactly(
+      "attributing span missing parent to root: traceId=000000000000000a, rootSpanId=000000000000000b, spanId=000000000000000e",
+      "attributing span missing parent to root: traceId=000000000000000a, rootSpanId=000000000000000b, spanId=000000000000000f"
+    );
+  }
+
+  @Test public void constructTree_headless() {
+    builder.traceId("000000000000000a");
+    builder.addNode(0xaL, 0xbL, 'b');
+    builder.addNode(0xaL, 0xcL, 'c');
+    builder.addNode(0xaL, 0xdL, 'd');
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(tree.isSyntheticRootForPartialTree()).isTrue();
+    assertThat(tree.value(0)).isNull();
+    assertThat(children(tree, 0)).containsExactly('b', 'c', 'd');
+    assertThat(messages).containsExactly(
+      "substituting dummy node for missing root span: traceId=000000000000000a"
+    );
+  }
+
+  @Test public void addNode_skipsOnCycle() {
+    builder.traceId("000000000000000a");
+    builder.addNode(0L, 0xaL, 'a');
+    assertThat(builder.addNode(0xbL, 0xbL, 'b')).isFalse();
+
+    assertThat(builder.build().size()).isEqualTo(1);
+    assertThat(messages).containsExactly(
+      "skipping circular dependency: traceId=000000000000000a, spanId=000000000000000b"
+    );
+  }
+
+  @Test public void build_dropsDetachedCycle() {
+    builder.traceId("000000000000000a");
+    builder.addNode(0L, 1L, 'a');
+    builder.addNode(3L, 2L, 'b');
+    builder.addNode(2L, 3L, 'c');
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(values(tree)).containsExactly('a');
+    assertThat(messages).containsExactly("skipping 2 spans in a cycle: traceId=000000000000000a");
+  }
+
+  @Test public void clear_allowsReuse() {
+    builder.addNode(0L, 1L, 'a');
+    builder.addNode(1L, 2L, 'b');
+    builder.build();
+
+    builder.clear().addNode(0L, 3L, 'c');
+
+    assertThat(values(builder.build())).containsExactly('c');
+  }
+
+  @Test public void growsPastInitialCapacity() {
+    builder.addNode(0L, 1L, 'a');
+    for (long id = 2; id <= 10_000; id++) {
+      builder.addNode(id / 2, id, 'b');
+    }
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(tree.size()).isEqualTo(10_000);
+    for (int i = 1; i < tree.size(); i++) {
+      assertThat(tree.parent(i)).isLessThan(i);
+    }
+  }
+
+  @Test public void addNode_parsesLowerHex() {
+    builder.addNode(null, "463ac35c9f6413ad", 'a');
+    builder.addNode("463ac35c9f6413ad", "72485a3953bb6124", 'b');
+
+    IndexedTree<Character> tree = builder.build();
+
+    assertThat(values(tree)).containsExactly('a', 'b');
+    assertThat(tree.parent(1)).isZero();
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void addNode_invalidHex() {
+    builder.addNode(null, "463AC35C9F6413AD", 'a');
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void value_outOfBounds() {
+    builder.addNode(0L, 1L, 'a');
+    builder.build().value(1);
+  }
+
+  static <V> List<V> values(IndexedTree<V> tree) {
+    List<V> result = new ArrayList<>();
+    for (int i = 0; i < tree.size(); i++) result.add(tree.value(i));
+    return result;
+  }
+
+  static <V> List<V> children(IndexedTree<V> tree, int node) {
+    List<V> result = new ArrayList<>();
+    for (int i = tree.firstChild(node), end = i + tree.childCount(node); i < end; i++) {
+      result.add(tree.value(i));
+    }
+    return result;
+  }
+
+  static <V> int indexOf(IndexedTree<V> tree, V value) {
+    for (int i = 0; i < tree.size(); i++) {
+      if (value.equals(tree.value(i))) return i;
+    }
+    return -1;
+  }
+}
@@ -17,6 +17,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
 import static zipkin2.TestObjects.UTF_8;
 
 public class JsonCodecTest {
@@ -69,4 +72,17 @@ public class JsonCodecTest {
 
     new Foo().toString();
   }
+
+  @Test public void write_intoArray() {
+    V2SpanWriter writer = new V2SpanWriter();
+    byte[] out = new byte[writer.sizeInBytes(CLIENT_SPAN) + 2];
+    out[0] = '[';
+
+    int length = JsonCodec.write(writer, CLIENT_SPAN, out, 1);
+    out[length + 1] = ']';
+
+    assertThat(length).isEqualTo(out.length - 2);
+    assertThat(new String(out, UTF_8))
+      .isEqualTo(new String(JsonCodec.writeList(writer, asList(CLIENT_SPAN)), UTF_8));
+  }
 }
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import zipkin2.Endpoint;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanStore;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.TODAY;
+
+public class PageTokenTest {
+  Span root = Span.newBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").id("a").name("get")
+    .timestamp(TODAY * 1000L + 500L).duration(10L).build();
+  Span child = root.toBuilder().parentId("a").id("b").timestamp(TODAY * 1000L - 2000L).build();
+  QueryRequest request =
+    QueryRequest.newBuilder().endTs(TODAY + 1000L).lookback(60000L).limit(1).build();
+
+  @Test public void roundTrip() {
+    PageToken token = PageToken.of(request, asList(root));
+
+    assertThat(PageToken.parse(token.toString())).isEqualTo(token);
+  }
+
+  @Test public void of_earliestMatchingMillisecond() {
+    assertThat(PageToken.of(request, asList(root, child)).timestamp).isEqualTo(TODAY - 2L);
+  }
+
+  @Test public void of_onlyMatchingSpans() {
+    Endpoint backend = Endpoint.newBuilder().serviceName("backend").build();
+    Span server = root.toBuilder().localEndpoint(backend).build();
+    QueryRequest request = this.request.toBuilder().serviceName("backend").build();
+
+    assertThat(PageToken.of(request, asList(server, child)).timestamp).isEqualTo(TODAY);
+  }
+
+  @Test public void of_onlySpansInWindow() {
+    Span early = child.toBuilder().id("c").timestamp((request.endTs() - 60_001L) * 1000L).build();
+
+    assertThat(PageToken.of(request, asList(root, early)).timestamp).isEqualTo(TODAY);
+  }
+
+  /** For example, when the service name is on one span and the span name on another */
+  @Test public void of_earliestInWindowWhenNoSpanMatches() {
+    QueryRequest request = this.request.toBuilder().spanName("post").build();
+
+    assertThat(PageToken.of(request, asList(root, child)).timestamp).isEqualTo(TODAY - 2L);
+  }
+
+  @Test public void of_sameTraceIdRegardlessOfOrder() {
+    Span lower64 = child.toBuilder().traceId(root.traceId().substring(16)).build();
+
+    assertThat(PageToken.of(request, asList(lower64, root)))
+      .isEqualTo(PageToken.of(request, asList(root, lower64)));
+  }
+
+  /** Elasticsearch orders buckets with the same value by ascending key */
+  @Test public void compareTo_higherTraceIdIsLaterInSameMillisecond() {
+    PageToken a = new PageToken(TODAY, "000000000000000a");
+    PageToken b = new PageToken(TODAY, "000000000000000b");
+
+    assertThat(b).isLessThan(a);
+    assertThat(new PageToken(TODAY - 1L, "000000000000000a")).isLessThan(b);
+  }
+
+  @Test public void parse_invalid() {
+    assertThatThrownBy(() -> PageToken.parse("cafe"))
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> PageToken.parse("zzzzzzzzzzzzzzzz463ac35c9f6413ad"))
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> QueryRequest.newBuilder().endTs(1L).lookback(1L).limit(1)
+      .pageToken("cafe").build())
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void next_nullWhenPageNotFull() {
+    assertThat(PageToken.next(request.toBuilder().limit(2).build(), asList(asList(root))))
+      .isNull();
+  }
+
+  @Test public void next_lastTraceInPage() {
+    Span later = root.toBuilder().traceId("b").timestamp(root.timestampAsLong() + 1000L).build();
+    QueryRequest request = this.request.toBuilder().limit(2).build();
+
+    assertThat(PageToken.next(request, asList(asList(root), asList(later))))
+      .isEqualTo(PageToken.of(request, asList(root)).toString());
+  }
+
+  @Test public void resume_endsWindowAtToken() throws IOException {
+    List<List<Span>> traces = traces(4, 1000L);
+    EarliestSpanFirst store = new EarliestSpanFirst(traces);
+    QueryRequest request = this.request.toBuilder().limit(2).build();
+
+    List<List<Span>> page = store.getTraces(request).execute();
+    assertThat(page).containsExactlyElementsOf(traces.subList(0, 2));
+
+    QueryRequest next = request.toBuilder().pageToken(PageToken.next(request, page)).build();
+    assertThat(PageToken.resume(store, next).execute())
+      .containsExactlyElementsOf(traces.subList(2, 4));
+
+    // one read, which ends at the millisecond of the last trace in the first page
+    assertThat(store.requests).hasSize(2);
+    QueryRequest resumed = store.requests.get(1);
+    assertThat(resumed.endTs()).isEqualTo(TODAY - 2000L);
+    assertThat(resumed.endTs() - resumed.lookback())
+      .isEqualTo(request.endTs() - request.lookback());
+    assertThat(resumed.limit()).isEqualTo(3);
+    assertThat(resumed.pageToken()).isNull();
+  }
+
+  /** Traces from earlier pages in the token's millisecond are read again, and dropped */
+  @Test public void resume_samePosition() throws IOException {
+    List<List<Span>> traces = traces(4, 0L);
+    EarliestSpanFirst store = new EarliestSpanFirst(traces);
+
+    List<List<Span>> seen = new ArrayList<>();
+    QueryRequest request = this.request;
+    for (int page = 0; page < traces.size(); page++) {
+      List<List<Span>> next = request.pageToken() != null
+        ? PageToken.resume(store, request).execute()
+        : store.getTraces(request).execute();
+      assertThat(next).hasSize(1);
+      seen.addAll(next);
+      request = request.toBuilder().pageToken(PageToken.next(request, next)).build();
+    }
+
+    assertThat(seen).containsExactlyElementsOf(traces);
+    assertThat(PageToken.resume(store, request).execute()).isEmpty();
+  }
+
+  @Test public void resume_asksForAsManyMoreAsDropped() throws IOException {
+    List<List<Span>> traces = traces(4, 0L);
+    EarliestSpanFirst store = new EarliestSpanFirst(traces);
+    QueryRequest request = this.request.toBuilder().limit(2)
+      .pageToken(PageToken.of(this.request, traces.get(1)).toString()).build();
+
+    assertThat(PageToken.resume(store, request).execute())
+      .containsExactlyElementsOf(traces.subList(2, 4));
+    assertThat(store.requests).extracting(QueryRequest::limit).containsExactly(3, 5);
+  }
+
+  @Test public void resume_boundedRounds() throws IOException {
+    List<List<Span>> traces = traces(10, 0L);
+    EarliestSpanFirst store = new EarliestSpanFirst(traces);
+    QueryRequest request = this.request.toBuilder()
+      .pageToken(PageToken.of(this.request, traces.get(8)).toString()).build();
+
+    // nine traces in the token's millisecond were already read
+    assertThat(PageToken.resume(store, request).execute()).isEmpty();
+    assertThat(store.requests).extracting(QueryRequest::limit).containsExactly(2, 4, 8);
+  }
+
+  /** Returns single-span traces with ascending IDs, the given milliseconds apart */
+  List<List<Span>> traces(int count, long gap) {
+    List<List<Span>> result = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      result.add(asList(root.toBuilder().traceId(Integer.toHexString(i))
+        .timestamp((TODAY - i * gap) * 1000L).build()));
+    }
+    return result;
+  }
+
+  /** Returns traces in position order, like Elasticsearch, and records requests */
+  static final class EarliestSpanFirst implements SpanStore {
+    final List<List<Span>> traces;
+    final List<QueryRequest> requests = new ArrayList<>();
+
+    EarliestSpanFirst(List<List<Span>> traces) {
+      this.traces = traces;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      assertThat(request.pageToken()).isNull();
+      requests.add(request);
+      long begin = (request.endTs() - request.lookback()) * 1000L, end = request.endTs() * 1000L;
+      return Call.create(traces.stream()
+        .filter(t -> t.stream().anyMatch(s -> s.timestampAsLong() >= begin
+          && s.timestampAsLong() < end + 1000L))
+        .sorted(Comparator.comparing((List<Span> t) -> PageToken.of(request, t)).reversed())
+        .limit(request.limit())
+        .collect(Collectors.toList()));
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.Span.Kind;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.internal.DependencyLinkerTest.TRACE;
+import static zipkin2.internal.DependencyLinkerTest.span2;
+
+public class ParallelDependencyLinkerTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  ExecutorService executor = Executors.newFixedThreadPool(3);
+
+  @After public void close() {
+    executor.shutdownNow();
+  }
+
+  @Test public void empty() {
+    assertThat(ParallelDependencyLinker.create(executor, 2).link(traces()))
+      .isEmpty();
+  }
+
+  @Test public void sameResultAsSerial() {
+    List<List<Span>> traces = new ArrayList<>();
+    DependencyLinker serial = new DependencyLinker();
+    for (int i = 1; i <= 100; i++) {
+      List<Span> trace = i % 3 == 0 ? TRACE : asList(
+        span2(Integer.toHexString(i), null, "a", Kind.CLIENT, "web", "svc" + (i % 7), i % 2 == 0)
+      );
+      traces.add(trace);
+      serial.putTrace(trace.iterator());
+    }
+
+    // a small batch size forces many partial results to be merged
+    ParallelDependencyLinker linker = new ParallelDependencyLinker(executor, 2, 3);
+    assertThat(linker.link(traces(traces)))
+      .containsExactlyElementsOf(serial.link());
+  }
+
+  @Test public void singleBatch_linksOnCallingThread() {
+    ParallelDependencyLinker linker = ParallelDependencyLinker.create(command -> {
+      throw new AssertionError("shouldn't use the executor for a single batch");
+    }, 2);
+
+    assertThat(linker.link(traces(TRACE, TRACE))).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(2L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(2L).errorCount(2L).build()
+    );
+  }
+
+  @Test public void propagatesExceptions() {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("bug");
+
+    Iterator<Span> broken = new Iterator<Span>() {
+      @Override public boolean hasNext() {
+        return true;
+      }
+
+      @Override public Span next() {
+        throw new IllegalStateException("bug");
+      }
+    };
+
+    new ParallelDependencyLinker(executor, 2, 1)
+      .link(asList(TRACE.iterator(), broken).iterator());
+  }
+
+  @SafeVarargs static Iterator<Iterator<Span>> traces(List<Span>... traces) {
+    return traces(asList(traces));
+  }
+
+  static Iterator<Iterator<Span>> traces(List<List<Span>> traces) {
+    List<Iterator<Span>> result = new ArrayList<>();
+    for (List<Span> trace : traces) result.add(trace.iterator());
+    return result.iterator();
+  }
+
+  static Iterator<Iterator<Span>> traces() {
+    return Collections.<Iterator<Span>>emptyList().iterator();
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.FRONTEND;
+
+public class ReusableSpanDecoderTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  /** A span with less data than the last, to ensure scratch state doesn't leak */
+  Span nextSpan = Span.newBuilder()
+    .traceId(CLIENT_SPAN.traceId())
+    .parentId(CLIENT_SPAN.id())
+    .id("a")
+    .kind(Span.Kind.SERVER)
+    .localEndpoint(BACKEND)
+    .build();
+
+  List<Span> spans = Arrays.asList(CLIENT_SPAN, nextSpan, CLIENT_SPAN);
+
+  @Test public void reusesStateBetweenCalls_JSON() {
+    reusesStateBetweenCalls(Encoding.JSON, SpanBytesEncoder.JSON_V2);
+  }
+
+  @Test public void reusesStateBetweenCalls_PROTO3() {
+    reusesStateBetweenCalls(Encoding.PROTO3, SpanBytesEncoder.PROTO3);
+  }
+
+  void reusesStateBetweenCalls(Encoding encoding, SpanBytesEncoder encoder) {
+    ReusableSpanDecoder decoder = ReusableSpanDecoder.create(encoding);
+
+    assertThat(decoder.decodeOne(encoder.encode(CLIENT_SPAN)))
+      .isEqualTo(CLIENT_SPAN);
+    assertThat(decoder.decodeOne(encoder.encode(nextSpan)))
+      .isEqualTo(nextSpan);
+    assertThat(decoder.decodeList(encoder.encodeList(spans)))
+      .containsExactlyElementsOf(spans);
+  }
+
+  @Test public void endpointsAreNotShared_PROTO3() {
+    ReusableSpanDecoder decoder = ReusableSpanDecoder.create(Encoding.PROTO3);
+
+    Span span = decoder.decodeOne(SpanBytesEncoder.PROTO3.encode(CLIENT_SPAN));
+    decoder.decodeOne(SpanBytesEncoder.PROTO3.encode(nextSpan));
+
+    assertThat(span.localEndpoint()).isEqualTo(FRONTEND);
+    assertThat(span.remoteEndpoint()).isEqualTo(BACKEND);
+  }
+
+  @Test public void decodeList_empty() {
+    assertThat(ReusableSpanDecoder.create(Encoding.PROTO3).decodeList(new byte[0]))
+      .isEmpty();
+  }
+
+  @Test public void decodeList_truncated_PROTO3() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Truncated: length 101 > bytes remaining 3 reading List<Span> from proto3");
+
+    ReusableSpanDecoder.create(Encoding.PROTO3).decodeList(new byte[] {'h', 'e', 'l', 'l', 'o'});
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.FRONTEND;
+
+public class TraceTest {
+  Span client = Span.newBuilder().traceId("a").parentId("a").id("b").name("get")
+    .kind(Span.Kind.CLIENT).localEndpoint(FRONTEND).timestamp(1L).duration(10L).build();
+  Span server = Span.newBuilder().traceId("a").parentId("a").id("b").name("get")
+    .kind(Span.Kind.SERVER).shared(true).localEndpoint(BACKEND).timestamp(2L).duration(8L).build();
+
+  @Test public void merge_noDuplicatesReturnsInput() {
+    List<Span> trace = asList(client, server);
+
+    assertThat(Trace.merge(trace)).isSameAs(trace);
+  }
+
+  @Test public void merge_lateData() {
+    Span started = client.toBuilder().duration(null).build();
+    Span finished = Span.newBuilder().traceId(client.traceId()).id(client.id())
+      .localEndpoint(FRONTEND).duration(10L).addAnnotation(5L, "retry").putTag("error", "")
+      .build();
+
+    assertThat(Trace.merge(asList(started, server, finished))).containsExactly(
+      client.toBuilder().addAnnotation(5L, "retry").putTag("error", "").build(),
+      server
+    );
+  }
+
+  @Test public void merge_leftWins() {
+    Span renamed = client.toBuilder().name("post").timestamp(3L).putTag("http.path", "/b").build();
+
+    assertThat(Trace.merge(asList(client.toBuilder().putTag("http.path", "/a").build(), renamed)))
+      .containsExactly(client.toBuilder().putTag("http.path", "/a").build());
+  }
+
+  @Test public void merge_dedupesAnnotations() {
+    Span withAnnotation = client.toBuilder().addAnnotation(5L, "retry").build();
+
+    assertThat(Trace.merge(asList(withAnnotation, withAnnotation))).containsExactly(withAnnotation);
+  }
+
+  @Test public void merge_prefersLongerTraceId() {
+    Span longTraceId = client.toBuilder().traceId("1000000000000000a").build();
+
+    assertThat(Trace.merge(asList(client, longTraceId)).get(0).traceId())
+      .isEqualTo(longTraceId.traceId());
+  }
+
+  @Test public void merge_differentLocalEndpointsStaySeparate() {
+    Span otherHost = client.toBuilder().localEndpoint(BACKEND).build();
+    List<Span> trace = asList(client, otherHost, client);
+
+    assertThat(Trace.merge(trace)).containsExactly(client, otherHost);
+  }
+
+  @Test public void merge_missingLocalEndpointMerges() {
+    Span noEndpoint = server.toBuilder().localEndpoint(null).putTag("foo", "bar").build();
+
+    assertThat(Trace.merge(asList(server, noEndpoint)))
+      .containsExactly(server.toBuilder().putTag("foo", "bar").build());
+  }
+
+  @Test public void merge_inOrderOfFirstAppearance() {
+    Span root = client.toBuilder().parentId(null).id("a").kind(Span.Kind.SERVER).build();
+
+    assertThat(Trace.merge(asList(server, root, client, server, root)))
+      .containsExactly(server, root, client);
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.UTF_8;
+
+public class Utf8ReaderTest {
+  @Test public void ascii() throws IOException {
+    assertDecodesLikeJre("{\"traceId\":\"7180c278b62e8f6a\"}".getBytes(UTF_8));
+  }
+
+  @Test public void multiByte() throws IOException {
+    assertDecodesLikeJre("Héllo, 世界".getBytes(UTF_8));
+  }
+
+  @Test public void surrogatePairs() throws IOException {
+    assertDecodesLikeJre("💩😀".getBytes(UTF_8));
+  }
+
+  @Test public void surrogatePair_splitAcrossReads() throws IOException {
+    Utf8Reader reader = new Utf8Reader("a💩".getBytes(UTF_8));
+
+    char[] buf = new char[2];
+    assertThat(reader.read(buf, 0, 2)).isEqualTo(2);
+    assertThat(buf).containsExactly('a', '\uD83D');
+    assertThat(reader.read(buf, 0, 2)).isEqualTo(1);
+    assertThat(buf[0]).isEqualTo('\uDCA9');
+    assertThat(reader.read(buf, 0, 2)).isEqualTo(-1);
+  }
+
+  @Test public void malformed_replacementCharacter() throws IOException {
+    assertThat(readAll(new Utf8Reader(new byte[] {'a', (byte) 0xff, 'b'})))
+      .isEqualTo("a�b");
+  }
+
+  @Test public void truncated_replacementCharacter() throws IOException {
+    assertThat(readAll(new Utf8Reader(new byte[] {'a', (byte) 0xe4, (byte) 0xb8})))
+      .isEqualTo("a�");
+  }
+
+  /** The JRE replaces each byte of an overlong encoding, but one replacement is enough. */
+  @Test public void overlong_replacementCharacter() throws IOException {
+    assertThat(readAll(new Utf8Reader(new byte[] {(byte) 0xc0, (byte) 0xaf})))
+      .isEqualTo("�");
+  }
+
+  static void assertDecodesLikeJre(byte[] bytes) throws IOException {
+    assertThat(readAll(new Utf8Reader(bytes)))
+      .isEqualTo(readAll(new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8)));
+  }
+
+  static String readAll(Reader reader) throws IOException {
+    StringBuilder result = new StringBuilder();
+    char[] buf = new char[3]; // small to exercise partial reads
+    int read;
+    while ((read = reader.read(buf, 0, buf.length)) != -1) result.append(buf, 0, read);
+    return result.toString();
+  }
+}
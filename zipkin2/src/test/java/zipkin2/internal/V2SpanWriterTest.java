@@ -15,15 +15,23 @@ package zipkin2.internal;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.EnumSet;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.CLIENT_SPAN;
 import static zipkin2.TestObjects.TODAY;
+import static zipkin2.internal.V2SpanWriter.Field.DURATION;
+import static zipkin2.internal.V2SpanWriter.Field.KIND;
+import static zipkin2.internal.V2SpanWriter.Field.LOCAL_ENDPOINT;
+import static zipkin2.internal.V2SpanWriter.Field.SHARED;
+import static zipkin2.internal.V2SpanWriter.Field.TIMESTAMP;
 
 public class V2SpanWriterTest {
   V2SpanWriter writer = new V2SpanWriter();
@@ -81,4 +89,60 @@ public class V2SpanWriterTest {
     assertThat(new String(buf.toByteArray(), "UTF-8"))
       .contains("\"tags\":{\"clnt/finagle.version\":\"6.45.0\",\"http.path\":\"/api\"}");
   }
+
+  @Test public void fields_fromJsonName() {
+    for (V2SpanWriter.Field field : V2SpanWriter.Field.values()) {
+      assertThat(V2SpanWriter.Field.fromJsonName(field.jsonName()))
+        .isSameAs(field);
+    }
+    assertThat(V2SpanWriter.Field.fromJsonName("id")).isNull();
+    assertThat(V2SpanWriter.Field.fromJsonName("binaryAnnotations")).isNull();
+  }
+
+  @Test public void fields_keepsIds() {
+    Span written = write(new V2SpanWriter(EnumSet.noneOf(V2SpanWriter.Field.class)), CLIENT_SPAN);
+
+    assertThat(written).isEqualTo(Span.newBuilder()
+      .traceId(CLIENT_SPAN.traceId())
+      .parentId(CLIENT_SPAN.parentId())
+      .id(CLIENT_SPAN.id()).build());
+  }
+
+  @Test public void fields_skipsUnrequested() {
+    Span written = write(new V2SpanWriter(EnumSet.of(TIMESTAMP, DURATION, KIND, LOCAL_ENDPOINT)),
+      CLIENT_SPAN);
+
+    assertThat(written).isEqualTo(Span.newBuilder()
+      .traceId(CLIENT_SPAN.traceId())
+      .parentId(CLIENT_SPAN.parentId())
+      .id(CLIENT_SPAN.id())
+      .kind(CLIENT_SPAN.kind())
+      .localEndpoint(CLIENT_SPAN.localEndpoint())
+      .timestamp(CLIENT_SPAN.timestampAsLong())
+      .duration(CLIENT_SPAN.durationAsLong()).build());
+  }
+
+  @Test public void fields_allWriteLikeEncoder() {
+    Span span = CLIENT_SPAN.toBuilder().debug(true).shared(true).build();
+
+    assertThat(JsonCodec.write(writer, span))
+      .isEqualTo(SpanBytesEncoder.JSON_V2.encode(span));
+    assertThat(JsonCodec.write(new V2SpanWriter(EnumSet.complementOf(EnumSet.of(SHARED))), span))
+      .isEqualTo(SpanBytesEncoder.JSON_V2.encode(span.toBuilder().shared(null).build()));
+  }
+
+  /** Each field written is sized, so that the buffer is exactly filled */
+  @Test public void fields_sizeInBytes() {
+    Span span = CLIENT_SPAN.toBuilder().debug(true).shared(true).build();
+    for (V2SpanWriter.Field field : V2SpanWriter.Field.values()) {
+      V2SpanWriter writer = new V2SpanWriter(EnumSet.of(field));
+      assertThat(writer.sizeInBytes(span))
+        .as(field.jsonName())
+        .isEqualTo(JsonCodec.write(writer, span).length);
+    }
+  }
+
+  static Span write(V2SpanWriter writer, Span span) {
+    return SpanBytesDecoder.JSON_V2.decodeOne(JsonCodec.write(writer, span));
+  }
 }
@@ -14,6 +14,7 @@
 package zipkin2.storage;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -23,6 +24,7 @@ import org.junit.Before;
 import org.junit.Test;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.internal.PageToken;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -88,6 +90,58 @@ public abstract class ITSpanStore {
       .containsExactly(earlyTraces);
   }
 
+  @Test public void getTraces_pageToken() throws Exception {
+    Span[] spans = IntStream.rangeClosed(1, 10).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY - i) * 1000).duration(1L)
+      .localEndpoint(CLIENT_SPAN.localEndpoint()).build()).toArray(Span[]::new);
+    accept(spans);
+
+    List<List<Span>> seen = new ArrayList<>();
+    QueryRequest request = requestBuilder().limit(4).build();
+    for (int page = 0; page < 3; page++) {
+      List<List<Span>> traces = store().getTraces(request).execute();
+      seen.addAll(traces);
+      String pageToken = PageToken.next(request, traces);
+      if (page < 2) {
+        assertThat(traces).hasSize(4);
+        assertThat(pageToken).isNotNull();
+        request = request.toBuilder().pageToken(pageToken).build();
+      } else {
+        assertThat(traces).hasSize(2);
+        assertThat(pageToken).isNull();
+      }
+    }
+
+    assertThat(seen).containsExactlyInAnyOrder(
+      Stream.of(spans).map(Collections::singletonList).toArray(List[]::new));
+  }
+
+  /**
+   * Traces already returned are found again when they share the millisecond the next page starts
+   * at. This makes sure they don't crowd out the traces that follow.
+   */
+  @Test public void getTraces_pageToken_samePosition() throws Exception {
+    Span[] spans = IntStream.rangeClosed(1, 5).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp(TODAY * 1000 - i).duration(1L) // all in the same millisecond
+      .localEndpoint(CLIENT_SPAN.localEndpoint()).build()).toArray(Span[]::new);
+    accept(spans);
+
+    List<List<Span>> seen = new ArrayList<>();
+    QueryRequest request = requestBuilder().limit(1).build();
+    for (int page = 0; page < spans.length; page++) {
+      List<List<Span>> traces = store().getTraces(request).execute();
+      assertThat(traces).hasSize(1);
+      seen.addAll(traces);
+      request = request.toBuilder().pageToken(PageToken.next(request, traces)).build();
+    }
+
+    assertThat(store().getTraces(request).execute()).isEmpty();
+    assertThat(seen).containsExactly(
+      Stream.of(spans).map(Collections::singletonList).toArray(List[]::new));
+  }
+
   @Test public void getTraces_localServiceName() throws Exception {
     accept(CLIENT_SPAN);
 
@@ -295,4 +295,14 @@ public class QueryRequestTest {
     assertThat(query.test(asList(fooAndBazAndQux)))
       .isFalse();
   }
+
+  @Test public void equalsAndHashCode() {
+    QueryRequest query = queryBuilder.parseAnnotationQuery("foo and bar=baz").build();
+    QueryRequest same = queryBuilder.parseAnnotationQuery("bar=baz and foo").build();
+
+    assertThat(query)
+      .isEqualTo(same)
+      .hasSameHashCodeAs(same)
+      .isNotEqualTo(query.toBuilder().endTs(query.endTs() + 1).build());
+  }
 }